@@ -0,0 +1,60 @@
+package project2_2.benchmark;
+
+import org.openjdk.jmh.annotations.*;
+import project2_2.AlertEngine;
+import project2_2.RealtimeStatistics;
+import project2_2.StationWeatherData;
+
+import java.io.File;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks of {@link AlertEngine#evaluate(StationWeatherData)}, which is called for every measurement. The target
+ * is less than a microsecond per measurement, with a handful of station and region rules.
+ *
+ * The alert thread is never started, so alerts which fire are only counted (and dropped once the queue is full).
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class AlertEngineBenchmark {
+    private static final int MEASUREMENTS = 16384; // A power of two
+
+    @Param({"1", "8"})
+    public int rules;
+
+    private AlertEngine engine;
+    private StationWeatherData[] measurements;
+    private int index = 0;
+
+    @Setup
+    public void setup() {
+        Properties properties = new Properties();
+        for(int i = 0; i < rules; i++) {
+            if(i % 2 == 0) {
+                properties.setProperty("cold_wind_" + i + ".when", "temperature < " + (-10 + i) + " and wind_speed > 50");
+                properties.setProperty("cold_wind_" + i + ".for_s", "60");
+            }else{
+                properties.setProperty("thunder_" + i + ".when", "has_thundered or (has_hailed and not has_rained)");
+                properties.setProperty("thunder_" + i + ".min_stations", "4");
+            }
+        }
+
+        engine = new AlertEngine(new File("unused"), new File("unused"), new RealtimeStatistics());
+        engine.load(properties);
+
+        List<StationWeatherData> generated = Payloads.measurements(MEASUREMENTS, 8000, 1000, 1);
+        measurements = generated.toArray(new StationWeatherData[0]);
+    }
+
+    @Benchmark
+    public void evaluate() {
+        index = (index + 1) & (MEASUREMENTS - 1);
+        engine.evaluate(measurements[index]);
+    }
+}
@@ -0,0 +1,31 @@
+package project2_2.benchmark;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.Arrays;
+
+/**
+ * Runs the benchmarks with the GC profiler, so the allocation rate (gc.alloc.rate.norm, in bytes per operation) is
+ * reported next to the time per operation. All normal JMH options can be given, for example a regular expression to
+ * only run some of the benchmarks: java -jar target/benchmarks.jar OnDataReceive
+ */
+public class BenchmarkRunner {
+    public static void main(String[] args) throws Exception {
+        if(Arrays.asList(args).contains("-h") || Arrays.asList(args).contains("-l")) {
+            // Help and listing the benchmarks are handled by JMH itself
+            org.openjdk.jmh.Main.main(args);
+            return;
+        }
+
+        Options options = new OptionsBuilder()
+                .parent(new CommandLineOptions(args))
+                .addProfiler(GCProfiler.class)
+                .build();
+
+        new Runner(options).run();
+    }
+}
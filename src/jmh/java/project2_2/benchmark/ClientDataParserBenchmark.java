@@ -0,0 +1,46 @@
+package project2_2.benchmark;
+
+import org.openjdk.jmh.annotations.*;
+import project2_2.*;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmark of parsing the XML of a measurement, including handing it to the {@link DataInsertionQueue}. Compare with
+ * {@link StationWeatherDataBenchmark#insertData()} and {@link OnDataReceiveBenchmark} to see where the time goes.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ClientDataParserBenchmark {
+    private static final int MEASUREMENTS = 1024; // A power of two
+
+    private byte[][] documents;
+    private ClientDataParser parser;
+    private int index = 0;
+
+    @Setup
+    public void setup() {
+        List<StationWeatherData> generated = Payloads.measurements(MEASUREMENTS, 100, 1000, 42);
+
+        documents = new byte[MEASUREMENTS][];
+        for(int i = 0; i < MEASUREMENTS; i++) {
+            documents[i] = Payloads.xml(generated.get(i));
+        }
+
+        ConnectionPool connectionPool = new ConnectionPool("jdbc:mysql://localhost/unused", 1, 0, 0, 1, 0);
+        RealtimeStatistics statistics = new RealtimeStatistics();
+        parser = new ClientDataParser(new DataInsertionQueue(Payloads.properties(), statistics, connectionPool), statistics);
+    }
+
+    @Benchmark
+    public void feed() {
+        index = (index + 1) & (MEASUREMENTS - 1);
+        byte[] document = documents[index];
+        parser.feed(document, 0, document.length);
+    }
+}
@@ -0,0 +1,82 @@
+package project2_2.benchmark;
+
+import org.openjdk.jmh.annotations.*;
+import project2_2.InsertWriter;
+import project2_2.StationWeatherData;
+
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks of building the INSERT queries, for both insert modes. The JDBC connection and statements do nothing, so
+ * only our side (building the query, and setting the 18 values of every row) is measured. The statements are dynamic
+ * proxies, which add a fixed cost to every value that's set, so compare the results with each other rather than with
+ * a real driver.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class InsertWriterBenchmark {
+    @Param({InsertWriter.MODE_MULTIROW, InsertWriter.MODE_BATCH})
+    public String mode;
+
+    @Param({"50"})
+    public int rows;
+
+    private List<StationWeatherData> chunk;
+    private InsertWriter writer;
+
+    @Setup
+    public void setup() {
+        // Only complete data points are inserted
+        chunk = new ArrayList<>();
+        for(StationWeatherData data : Payloads.measurements(rows * 10, rows * 10, 1000, 42)) {
+            if(data.isComplete() && chunk.size() < rows) {
+                chunk.add(data);
+            }
+        }
+
+        writer = new InsertWriter(noOpConnection(), mode);
+    }
+
+    /**
+     * Writes a chunk, with a cached statement.
+     */
+    @Benchmark
+    public void write() throws SQLException {
+        writer.write(chunk);
+    }
+
+    /**
+     * Builds the query of a multi-row statement, which happens once per chunk size.
+     */
+    @Benchmark
+    public String buildMultiRowQuery() {
+        return InsertWriter.buildMultiRowQuery(rows);
+    }
+
+    private static Connection noOpConnection() {
+        PreparedStatement statement = (PreparedStatement) Proxy.newProxyInstance(InsertWriterBenchmark.class.getClassLoader(),
+                new Class<?>[]{PreparedStatement.class}, (proxy, method, args) -> defaultValue(method.getReturnType()));
+
+        return (Connection) Proxy.newProxyInstance(InsertWriterBenchmark.class.getClassLoader(),
+                new Class<?>[]{Connection.class}, (proxy, method, args) ->
+                        method.getName().equals("prepareStatement") ? statement : defaultValue(method.getReturnType()));
+    }
+
+    private static Object defaultValue(Class<?> type) {
+        if(type == int.class) return 0;
+        if(type == long.class) return 0L;
+        if(type == boolean.class) return false;
+        if(type == int[].class) return new int[0];
+        return null;
+    }
+}
@@ -0,0 +1,75 @@
+package project2_2.benchmark;
+
+import org.openjdk.jmh.annotations.*;
+import project2_2.*;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Benchmarks of {@link DataInsertionQueue#onDataReceive(StationWeatherData)}, which every client thread calls for
+ * every measurement. The queue is never started, so only merging the data into the station store is measured.
+ *
+ * The contended benchmarks run on 8 threads. With disjointStations, every thread sends data of its own stations (like
+ * one connection per station); without it, all threads send data of the same stations, which is the worst case for
+ * the locks of the store.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class OnDataReceiveBenchmark {
+    private static final int MEASUREMENTS_PER_THREAD = 16384; // A power of two
+
+    @State(Scope.Benchmark)
+    public static class Queue {
+        @Param({"100", "8000"})
+        public int stations;
+
+        @Param({"true", "false"})
+        public boolean disjointStations;
+
+        DataInsertionQueue queue;
+        final AtomicInteger threads = new AtomicInteger();
+
+        @Setup
+        public void setup() {
+            ConnectionPool connectionPool = new ConnectionPool("jdbc:mysql://localhost/unused", 1, 0, 0, 1, 0);
+            queue = new DataInsertionQueue(Payloads.properties(), new RealtimeStatistics(), connectionPool);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Measurements {
+        StationWeatherData[] measurements;
+        int index = 0;
+
+        @Setup
+        public void setup(Queue queue) {
+            int thread = queue.threads.getAndIncrement();
+            int firstStationId = queue.disjointStations ? 1000 + thread * queue.stations : 1000;
+
+            List<StationWeatherData> generated = Payloads.measurements(MEASUREMENTS_PER_THREAD, queue.stations, firstStationId, thread);
+            measurements = generated.toArray(new StationWeatherData[0]);
+        }
+
+        StationWeatherData next() {
+            index = (index + 1) & (MEASUREMENTS_PER_THREAD - 1);
+            return measurements[index];
+        }
+    }
+
+    @Benchmark
+    @Threads(1)
+    public void singleThread(Queue queue, Measurements measurements) {
+        queue.queue.onDataReceive(measurements.next());
+    }
+
+    @Benchmark
+    @Threads(8)
+    public void contended(Queue queue, Measurements measurements) {
+        queue.queue.onDataReceive(measurements.next());
+    }
+}
@@ -0,0 +1,88 @@
+package project2_2.benchmark;
+
+import project2_2.MeasurementGenerator;
+import project2_2.StationWeatherData;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * Realistic payloads for the benchmarks, made with the {@link MeasurementGenerator}. All payloads are made up front,
+ * so generating them is never part of a measurement.
+ */
+final class Payloads {
+    // 2021-01-20 12:00:00 UTC
+    static final long START_TIME = 1611144000L;
+
+    // The part of the fields that's missing from a measurement, like the stations send
+    static final double MISSING_FIELD_RATIO = 0.02;
+
+    private Payloads() {
+    }
+
+    /**
+     * @param count The amount of measurements
+     * @param stations The amount of different stations
+     * @param firstStationId The ID of the first station
+     * @param seed The seed of the random generator
+     * @return Measurements, one per station in turn, one second apart
+     */
+    static List<StationWeatherData> measurements(int count, int stations, int firstStationId, long seed) {
+        MeasurementGenerator generator = new MeasurementGenerator(seed, MISSING_FIELD_RATIO);
+
+        List<StationWeatherData> measurements = new ArrayList<>(count);
+        for(int i = 0; i < count; i++) {
+            measurements.add(generator.next(firstStationId + i % stations, START_TIME + i / stations));
+        }
+        return measurements;
+    }
+
+    /**
+     * @param data A measurement
+     * @return The measurement as an XML document, like the stations send it
+     */
+    static byte[] xml(StationWeatherData data) {
+        StringBuilder xml = new StringBuilder(512);
+        MeasurementGenerator.appendDocumentStart(xml);
+        MeasurementGenerator.appendXml(data, xml);
+        MeasurementGenerator.appendDocumentEnd(xml);
+        return xml.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @param data A measurement
+     * @return The key and value pairs of the measurement, as they're given to StationWeatherData#insertData
+     */
+    static String[] keyValues(StationWeatherData data) {
+        String xml = new String(xml(data), StandardCharsets.UTF_8);
+
+        List<String> keyValues = new ArrayList<>();
+        for(String line : xml.split("\n")) {
+            line = line.trim();
+            int keyEnd = line.indexOf('>');
+            int valueEnd = line.lastIndexOf("</");
+            if(!line.startsWith("<") || keyEnd == -1 || valueEnd <= keyEnd + 1) {
+                // Not a field, or an empty one
+                continue;
+            }
+
+            keyValues.add(line.substring(1, keyEnd));
+            keyValues.add(line.substring(keyEnd + 1, valueEnd));
+        }
+        return keyValues.toArray(new String[0]);
+    }
+
+    /**
+     * @return The configuration of a DataInsertionQueue, which is never started
+     */
+    static Properties properties() {
+        Properties properties = new Properties();
+        properties.setProperty("station_update_interval_ms", "10000");
+        properties.setProperty("bulk_update_interval_ms", "100");
+        properties.setProperty("inserts_per_query", "50");
+        properties.setProperty("insert_query_threads", "5");
+        return properties;
+    }
+}
@@ -0,0 +1,83 @@
+package project2_2.benchmark;
+
+import org.openjdk.jmh.annotations.*;
+import project2_2.StationWeatherData;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks of the methods of {@link StationWeatherData} which are called for every received measurement.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class StationWeatherDataBenchmark {
+    private static final int MEASUREMENTS = 1024; // A power of two
+
+    private StationWeatherData[] measurements;
+    private String[][] keyValues;
+    private StationWeatherData latest;
+    private int index = 0;
+
+    @Setup
+    public void setup() {
+        List<StationWeatherData> generated = Payloads.measurements(MEASUREMENTS, 1, 1000, 42);
+
+        measurements = generated.toArray(new StationWeatherData[0]);
+        keyValues = new String[MEASUREMENTS][];
+        for(int i = 0; i < MEASUREMENTS; i++) {
+            keyValues[i] = Payloads.keyValues(measurements[i]);
+        }
+
+        latest = new StationWeatherData();
+        latest.updateAllFrom(measurements[0]);
+    }
+
+    private int next() {
+        index = (index + 1) & (MEASUREMENTS - 1);
+        return index;
+    }
+
+    /**
+     * Parses all fields of a measurement, like the String based parser does.
+     */
+    @Benchmark
+    public StationWeatherData insertData() {
+        String[] pairs = keyValues[next()];
+
+        StationWeatherData data = new StationWeatherData();
+        for(int i = 0; i < pairs.length; i += 2) {
+            data.insertData(pairs[i], pairs[i + 1]);
+        }
+        return data;
+    }
+
+    /**
+     * Merges a (partial) measurement into the latest data of a station.
+     */
+    @Benchmark
+    public StationWeatherData updateAllFrom() {
+        latest.updateAllFrom(measurements[next()]);
+        return latest;
+    }
+
+    /**
+     * The Calendar based unix time, which is used for every inserted row.
+     */
+    @Benchmark
+    public int calculateUnixTime() {
+        return measurements[next()].calculateUnixTime();
+    }
+
+    /**
+     * The allocation free unix time, for comparison.
+     */
+    @Benchmark
+    public long calculateEpochSeconds() {
+        return measurements[next()].calculateEpochSeconds();
+    }
+}
@@ -0,0 +1,246 @@
+package project2_2;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A condition of an alert rule, compiled from an expression like "temperature &lt; -10 and wind_speed &gt; 50".
+ *
+ * Expressions use the column names of the data table:
+ * - comparisons of a number field with a number: temperature, dew_point, station_air_pressure, sea_air_pressure,
+ *   visibility, wind_speed, precipitation, snow_height, overcast and wind_direction, with &lt;, &lt;=, &gt;, &gt;=, ==
+ *   and !=
+ * - the flags on their own: has_frozen, has_rained, has_snowed, has_hailed, has_thundered, has_whirlwinded
+ * - combined with and, or, not and parentheses (and binds stronger than or)
+ *
+ * A measurement may miss fields, so a condition has three outcomes: {@link #TRUE}, {@link #FALSE} and
+ * {@link #UNKNOWN} (a field it needs is missing). and, or and not follow the usual three-valued logic, so
+ * "temperature &lt; -10 and wind_speed &gt; 50" is FALSE when the temperature is 5, even if the wind speed is missing.
+ *
+ * The expression is parsed once, into a tree of small lambdas which read the fields directly.
+ */
+@FunctionalInterface
+public interface AlertCondition {
+    int FALSE = 0;
+    int TRUE = 1;
+    int UNKNOWN = 2;
+
+    /**
+     * @param data A measurement
+     * @return {@link #TRUE}, {@link #FALSE} or {@link #UNKNOWN}
+     */
+    int test(StationWeatherData data);
+
+    /**
+     * Compiles an expression.
+     *
+     * @param expression The expression
+     * @param fields The names of the fields used by the expression are added to this set
+     * @return The condition
+     * @throws IllegalArgumentException If the expression is invalid
+     */
+    static AlertCondition compile(String expression, Set<String> fields) {
+        return new Compiler(expression, fields).compile();
+    }
+
+    /**
+     * A recursive descent parser, which makes the lambdas while parsing.
+     */
+    class Compiler {
+        private static final Pattern TOKEN = Pattern.compile("\\s*([A-Za-z_]+|[-+]?[0-9]*\\.?[0-9]+|<=|>=|==|!=|<|>|\\(|\\))");
+
+        private final String expression;
+        private final Set<String> fields;
+        private final List<String> tokens = new ArrayList<>();
+        private int position = 0;
+
+        private Compiler(String expression, Set<String> fields) {
+            this.expression = expression;
+            this.fields = fields;
+
+            Matcher matcher = TOKEN.matcher(expression);
+            int end = 0;
+            while(matcher.lookingAt()) {
+                tokens.add(matcher.group(1));
+                end = matcher.end();
+                matcher.region(end, expression.length());
+            }
+            if(!expression.substring(end).trim().isEmpty()) {
+                throw new IllegalArgumentException("Invalid expression " + expression + ", can't read " + expression.substring(end).trim());
+            }
+        }
+
+        private AlertCondition compile() {
+            AlertCondition condition = or();
+            if(position < tokens.size()) {
+                throw error("Unexpected " + tokens.get(position));
+            }
+            return condition;
+        }
+
+        private AlertCondition or() {
+            AlertCondition condition = and();
+            while(accept("or")) {
+                AlertCondition a = condition;
+                AlertCondition b = and();
+                condition = data -> {
+                    int x = a.test(data);
+                    if(x == TRUE) {
+                        return TRUE;
+                    }
+                    int y = b.test(data);
+                    return y == TRUE ? TRUE : (x == UNKNOWN || y == UNKNOWN ? UNKNOWN : FALSE);
+                };
+            }
+            return condition;
+        }
+
+        private AlertCondition and() {
+            AlertCondition condition = unary();
+            while(accept("and")) {
+                AlertCondition a = condition;
+                AlertCondition b = unary();
+                condition = data -> {
+                    int x = a.test(data);
+                    if(x == FALSE) {
+                        return FALSE;
+                    }
+                    int y = b.test(data);
+                    return y == FALSE ? FALSE : (x == UNKNOWN || y == UNKNOWN ? UNKNOWN : TRUE);
+                };
+            }
+            return condition;
+        }
+
+        private AlertCondition unary() {
+            if(accept("not")) {
+                AlertCondition a = unary();
+                return data -> {
+                    int x = a.test(data);
+                    return x == UNKNOWN ? UNKNOWN : TRUE - x;
+                };
+            }
+
+            if(accept("(")) {
+                AlertCondition condition = or();
+                if(!accept(")")) {
+                    throw error("Missing )");
+                }
+                return condition;
+            }
+
+            String field = next();
+            Function<StationWeatherData, Boolean> flag = flag(field);
+            if(flag != null) {
+                fields.add(field);
+                return data -> {
+                    Boolean value = flag.apply(data);
+                    return value == null ? UNKNOWN : (value ? TRUE : FALSE);
+                };
+            }
+
+            Function<StationWeatherData, Number> number = number(field);
+            if(number == null) {
+                throw error("Unknown field " + field);
+            }
+            fields.add(field);
+
+            String operator = next();
+            String operand = next();
+            float threshold;
+            try{
+                threshold = Float.parseFloat(operand);
+            }catch(NumberFormatException e) {
+                throw error("Expected a number after " + field + " " + operator + ", not " + operand);
+            }
+
+            FloatTest test;
+            switch(operator) {
+                case "<": test = v -> v < threshold; break;
+                case "<=": test = v -> v <= threshold; break;
+                case ">": test = v -> v > threshold; break;
+                case ">=": test = v -> v >= threshold; break;
+                case "==": test = v -> v == threshold; break;
+                case "!=": test = v -> v != threshold; break;
+                default: throw error("Unknown operator " + operator);
+            }
+            return data -> compare(number.apply(data), test);
+        }
+
+        private static int compare(Number value, FloatTest test) {
+            return value == null ? UNKNOWN : (test.test(value.floatValue()) ? TRUE : FALSE);
+        }
+
+        private static Function<StationWeatherData, Number> number(String field) {
+            switch(field) {
+                case "temperature": return data -> data.temperature;
+                case "dew_point": return data -> data.dewPoint;
+                case "station_air_pressure": return data -> data.stationAirPressure;
+                case "sea_air_pressure": return data -> data.seaAirPressure;
+                case "visibility": return data -> data.visibility;
+                case "wind_speed": return data -> data.windSpeed;
+                case "precipitation": return data -> data.precipitation;
+                case "snow_height": return data -> data.snowHeight;
+                case "overcast": return data -> data.overcast;
+                case "wind_direction": return data -> data.windDirection;
+                default: return null;
+            }
+        }
+
+        private static Function<StationWeatherData, Boolean> flag(String field) {
+            switch(field) {
+                case "has_frozen": return data -> data.hasFrozen;
+                case "has_rained": return data -> data.hasRained;
+                case "has_snowed": return data -> data.hasSnowed;
+                case "has_hailed": return data -> data.hasHailed;
+                case "has_thundered": return data -> data.hasThundered;
+                case "has_whirlwinded": return data -> data.hasWhirlwinded;
+                default: return null;
+            }
+        }
+
+        private boolean accept(String token) {
+            if(position < tokens.size() && tokens.get(position).equals(token)) {
+                position++;
+                return true;
+            }
+            return false;
+        }
+
+        private String next() {
+            if(position >= tokens.size()) {
+                throw error("Unexpected end");
+            }
+            return tokens.get(position++);
+        }
+
+        private IllegalArgumentException error(String message) {
+            return new IllegalArgumentException(message + " in expression " + expression);
+        }
+
+        @FunctionalInterface
+        private interface FloatTest {
+            boolean test(float value);
+        }
+    }
+
+    /**
+     * Gets the value of a field by its name, for the alert messages.
+     *
+     * @param data A measurement
+     * @param field The name of a field which can be used in an expression
+     * @return The value, or null if it is missing
+     */
+    static Object valueOf(StationWeatherData data, String field) {
+        Function<StationWeatherData, Boolean> flag = Compiler.flag(field);
+        if(flag != null) {
+            return flag.apply(data);
+        }
+        Function<StationWeatherData, Number> number = Compiler.number(field);
+        return number != null ? number.apply(data) : null;
+    }
+}
@@ -0,0 +1,280 @@
+package project2_2;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Evaluates alert rules on every received measurement, and writes the alerts to a log file (and the console).
+ *
+ * The rules are read from a properties file, where every rule has a name and a couple of properties:
+ * - name.when: the condition, see {@link AlertCondition} (required)
+ * - name.for_s: how long the condition must hold for a station before the rule fires (default 0)
+ * - name.cooldown_s: the minimum time between two alerts of a station (or region), in seconds (default 600)
+ * - name.min_stations: if set, the rule fires for a region instead of a single station, when at least this amount
+ *   of stations in the region met the condition within the window
+ * - name.region_size: the stations are grouped in regions of this many station IDs (default 1000)
+ * - name.window_s: the window of a region rule, in seconds (default 600)
+ *
+ * A station rule fires once when its condition has held for for_s seconds, and only fires again after the condition
+ * has been false (and the cooldown has passed). Measurements which miss a field the condition needs don't change
+ * anything.
+ *
+ * Alerts are handed to a thread of their own, so writing them never slows down the ingest path. If that thread can't
+ * keep up, alerts are dropped (and counted).
+ */
+public class AlertEngine {
+    private static final int ALERT_QUEUE_SIZE = 1024;
+
+    private static final Set<String> RULE_PROPERTIES = Set.of("when", "for_s", "cooldown_s", "min_stations", "region_size", "window_s");
+
+    private final File rulesFile;
+    private final File logFile;
+    private final RealtimeStatistics statistics;
+
+    private volatile Rule[] rules = new Rule[0];
+
+    // The alerts which haven't been written yet
+    private final ArrayBlockingQueue<String> alerts = new ArrayBlockingQueue<>(ALERT_QUEUE_SIZE);
+
+    /**
+     * Constructor of {@link AlertEngine}
+     *
+     * @param rulesFile The file to read the rules from
+     * @param logFile The file to append the alerts to
+     * @param statistics The global {@link RealtimeStatistics} object
+     */
+    public AlertEngine(File rulesFile, File logFile, RealtimeStatistics statistics) {
+        this.rulesFile = rulesFile;
+        this.logFile = logFile;
+        this.statistics = statistics;
+    }
+
+    /**
+     * Reads the rules, and starts the thread which writes the alerts.
+     *
+     * @throws IOException If the rules file could not be read
+     * @throws IllegalArgumentException If one of the rules is invalid
+     */
+    public void startThread() throws IOException {
+        Properties properties = new Properties();
+        try(InputStream in = new FileInputStream(rulesFile)) {
+            properties.load(in);
+        }
+        load(properties);
+
+        System.out.println("Evaluating " + rules.length + " alert rules, writing the alerts to " + logFile + ".");
+        new Thread(this::alertThread).start();
+    }
+
+    /**
+     * Compiles the rules, and replaces the current rules with them.
+     *
+     * @param properties The rule properties
+     * @throws IllegalArgumentException If one of the rules is invalid
+     */
+    public void load(Properties properties) {
+        // Group the properties by the name of the rule, sorted so the rules are evaluated in a fixed order
+        Map<String, Properties> byRule = new TreeMap<>();
+        for(String key : properties.stringPropertyNames()) {
+            int dot = key.lastIndexOf('.');
+            if(dot == -1 || !RULE_PROPERTIES.contains(key.substring(dot + 1))) {
+                throw new IllegalArgumentException("Invalid alert rule property " + key + ", use name." + String.join(", name.", RULE_PROPERTIES));
+            }
+            byRule.computeIfAbsent(key.substring(0, dot), name -> new Properties())
+                    .setProperty(key.substring(dot + 1), properties.getProperty(key).trim());
+        }
+
+        List<Rule> compiled = new ArrayList<>();
+        for(Map.Entry<String, Properties> entry : byRule.entrySet()) {
+            compiled.add(new Rule(entry.getKey(), entry.getValue()));
+        }
+        rules = compiled.toArray(new Rule[0]);
+    }
+
+    /**
+     * Evaluates all rules on a measurement. May be called from any thread.
+     *
+     * @param data The measurement, which may miss fields
+     */
+    public void evaluate(StationWeatherData data) {
+        Rule[] rules = this.rules;
+        if(rules.length == 0) {
+            return;
+        }
+
+        long now = System.currentTimeMillis();
+        for(Rule rule : rules) {
+            int result = rule.condition.test(data);
+            if(result == AlertCondition.UNKNOWN) {
+                continue;
+            }
+
+            if(rule.minStations > 0) {
+                if(result == AlertCondition.TRUE) {
+                    rule.regionMatched(data.stationId, now);
+                }
+            }else{
+                rule.stationResult(data, result == AlertCondition.TRUE, now);
+            }
+        }
+    }
+
+    private void fire(String alert) {
+        statistics.addAlerts(1);
+        if(!alerts.offer(alert)) {
+            statistics.addDroppedAlerts(1);
+        }
+    }
+
+    private void alertThread() {
+        List<String> batch = new ArrayList<>();
+        while(true) {
+            try{
+                batch.add(alerts.take());
+                alerts.drainTo(batch);
+
+                try(BufferedWriter out = new BufferedWriter(new FileWriter(logFile, true))) {
+                    for(String alert : batch) {
+                        System.out.println("ALERT " + alert);
+                        out.write(alert);
+                        out.newLine();
+                    }
+                }
+            }catch(IOException e) {
+                System.out.println("Could not write " + batch.size() + " alerts to " + logFile + ": " + e.toString());
+            }catch(InterruptedException e) {
+                e.printStackTrace();
+            }
+
+            batch.clear();
+        }
+    }
+
+    /**
+     * A compiled rule, with the state of the stations or regions it is evaluated for.
+     */
+    private class Rule {
+        private final String name;
+        private final AlertCondition condition;
+        private final String[] fields;
+        private final long forMs;
+        private final long cooldownMs;
+        private final int minStations;
+        private final int regionSize;
+        private final long windowMs;
+
+        private final Map<Integer, StationState> stations = new ConcurrentHashMap<>();
+        private final Map<Integer, RegionState> regions = new ConcurrentHashMap<>();
+
+        private Rule(String name, Properties properties) {
+            this.name = name;
+
+            String when = properties.getProperty("when");
+            if(when == null) {
+                throw new IllegalArgumentException("The alert rule " + name + " has no condition, add " + name + ".when");
+            }
+            Set<String> usedFields = new LinkedHashSet<>();
+            condition = AlertCondition.compile(when, usedFields);
+            fields = usedFields.toArray(new String[0]);
+
+            forMs = Long.parseLong(properties.getProperty("for_s", "0")) * 1000;
+            cooldownMs = Long.parseLong(properties.getProperty("cooldown_s", "600")) * 1000;
+            minStations = Integer.parseInt(properties.getProperty("min_stations", "0"));
+            regionSize = Integer.parseInt(properties.getProperty("region_size", "1000"));
+            windowMs = Long.parseLong(properties.getProperty("window_s", "600")) * 1000;
+            if(regionSize <= 0) {
+                throw new IllegalArgumentException("The region_size of alert rule " + name + " must be positive");
+            }
+        }
+
+        private void stationResult(StationWeatherData data, boolean matches, long now) {
+            StationState state = matches ? stations.computeIfAbsent(data.stationId, id -> new StationState()) : stations.get(data.stationId);
+            if(state == null) {
+                return;
+            }
+
+            boolean fire;
+            synchronized(state) {
+                if(!matches) {
+                    state.matchingSince = -1;
+                    state.fired = false;
+                    return;
+                }
+
+                if(state.matchingSince == -1) {
+                    state.matchingSince = now;
+                }
+
+                fire = !state.fired && now - state.matchingSince >= forMs && now - state.firedAt >= cooldownMs;
+                if(fire) {
+                    state.fired = true;
+                    state.firedAt = now;
+                }
+            }
+
+            if(fire) {
+                StringBuilder alert = new StringBuilder(128);
+                alert.append(Instant.ofEpochMilli(now)).append(' ').append(name).append(" station=").append(data.stationId);
+                for(String field : fields) {
+                    alert.append(' ').append(field).append('=').append(AlertCondition.valueOf(data, field));
+                }
+                fire(alert.toString());
+            }
+        }
+
+        private void regionMatched(int stationId, long now) {
+            int region = Math.floorDiv(stationId, regionSize);
+            RegionState state = regions.computeIfAbsent(region, id -> new RegionState());
+
+            String alert = null;
+            synchronized(state) {
+                state.matchedAt.put(stationId, now);
+
+                // Forget the stations which matched before the window
+                Iterator<Long> it = state.matchedAt.values().iterator();
+                while(it.hasNext()) {
+                    if(now - it.next() > windowMs) {
+                        it.remove();
+                    }
+                }
+
+                if(state.matchedAt.size() >= minStations && now - state.firedAt >= cooldownMs) {
+                    state.firedAt = now;
+                    alert = Instant.ofEpochMilli(now) + " " + name + " region=" + region + " (stations " + (long) region * regionSize +
+                            "-" + ((long) region * regionSize + regionSize - 1) + ") stations=" + state.matchedAt.size() + " " + state.matchedAt.keySet();
+                }
+            }
+
+            if(alert != null) {
+                fire(alert);
+            }
+        }
+    }
+
+    private static class StationState {
+        private long matchingSince = -1; // The time since when the condition holds, -1 if it doesn't
+        private boolean fired = false; // Whether the rule fired since the condition holds
+        private long firedAt = Long.MIN_VALUE / 2;
+    }
+
+    private static class RegionState {
+        private final Map<Integer, Long> matchedAt = new HashMap<>(); // The last time every station met the condition
+        private long firedAt = Long.MIN_VALUE / 2;
+    }
+}
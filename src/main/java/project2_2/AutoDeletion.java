@@ -1,56 +1,276 @@
 package project2_2;
 
 import java.sql.Connection;
-import java.sql.DriverManager;
 import java.sql.PreparedStatement;
+import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Properties;
 
+/**
+ * Deletes data points which are older than auto_deletion_max_age_seconds.
+ *
+ * There are two modes:
+ * - batched: deletes the old rows in batches of auto_deletion_batch_size rows, with a pause in between. This never
+ *   locks a huge range of rows at once, so the insert query threads can keep going.
+ * - partitioned: the `data` table is partitioned by day on the `date` column, and whole partitions are dropped once
+ *   all of their rows are too old. Partitions for the coming days are created ahead of time. The table has to be
+ *   partitioned like this already, for example:
+ *
+ *   ALTER TABLE data PARTITION BY RANGE (date) (PARTITION pmax VALUES LESS THAN MAXVALUE);
+ *
+ *   The oldest partition has no lower bound, so rows older than the cutoff which ended up in a partition that isn't
+ *   expired yet (like all old rows in the first run, which are still in pmax) are deleted in batches as well. Because
+ *   of partition pruning, those batches only touch the oldest partition. If the table isn't partitioned, the batched
+ *   mode is used instead.
+ */
 public class AutoDeletion {
-    private static final long QUERY_INTERVAL_MS = 1000 * 60 * 30; // Every 30 minutes
-    private static final String DELETE_QUERY = "DELETE FROM `data` WHERE date < UNIX_TIMESTAMP() - ?";
+    private static final String DELETE_BATCH_QUERY = "DELETE FROM `data` WHERE date < ? LIMIT ?";
+    private static final String PARTITIONS_QUERY = "SELECT PARTITION_NAME, PARTITION_DESCRIPTION FROM information_schema.PARTITIONS " +
+            "WHERE TABLE_SCHEMA = DATABASE() AND TABLE_NAME = 'data' AND PARTITION_NAME IS NOT NULL ORDER BY PARTITION_ORDINAL_POSITION";
+
+    private static final String MAX_PARTITION = "pmax";
+    private static final DateTimeFormatter PARTITION_NAME_FORMAT = DateTimeFormatter.ofPattern("'p'yyyyMMdd");
 
     private final Properties properties;
     private final RealtimeStatistics statistics;
+    private final ConnectionPool connectionPool;
 
-    public AutoDeletion(Properties properties, RealtimeStatistics statistics) {
+    public AutoDeletion(Properties properties, RealtimeStatistics statistics, ConnectionPool connectionPool) {
         this.properties = properties;
         this.statistics = statistics;
+        this.connectionPool = connectionPool;
     }
 
     public void startThread() {
-        System.out.println("Deleting all data points when they are older than " + properties.getProperty("auto_deletion_max_age_seconds") + " seconds.");
+        System.out.println("Deleting all data points when they are older than " + properties.getProperty("auto_deletion_max_age_seconds") + " seconds" +
+                " (mode: " + properties.getProperty("auto_deletion_mode", "batched") + ").");
 
         new Thread(this::autoDeletionThread).start();
     }
 
     private void autoDeletionThread() {
         while(true) {
-            executeDeletionQuery();
+            long intervalMs = Long.parseLong(properties.getProperty("auto_deletion_interval_ms", "1800000"));
+
+            try{
+                runDeletion();
+            }catch(InterruptedException e) {
+                e.printStackTrace();
+            }catch(Exception e) {
+                // Try again in the next run, instead of never deleting anything anymore
+                System.out.println("Could not delete the old data points: " + e.toString());
+                e.printStackTrace();
+            }
 
             try{
-                Thread.sleep(QUERY_INTERVAL_MS);
+                Thread.sleep(intervalMs);
             }catch(InterruptedException ignored) {}
         }
     }
 
-    private void executeDeletionQuery() {
+    private void runDeletion() throws InterruptedException {
         int maxAgeSeconds = Integer.parseInt(properties.getProperty("auto_deletion_max_age_seconds"));
+        long cutoff = System.currentTimeMillis() / 1000 - maxAgeSeconds;
 
+        statistics.startDeletion();
         try{
-            Connection con = DriverManager.getConnection(properties.getProperty("db_url"));
+            if(properties.getProperty("auto_deletion_mode", "batched").equals("partitioned")) {
+                try{
+                    Long lastUpperBound = dropExpiredPartitions(cutoff);
+                    if(lastUpperBound != null) {
+                        // The oldest partition has no lower bound, so it can hold rows which are older than the
+                        // cutoff (before the first run, pmax holds all old rows). Those are deleted in batches, before
+                        // pmax is split, so splitting it only has to copy the rows we keep.
+                        deleteInBatches(cutoff);
+                        createDayPartitions(lastUpperBound);
+                        return;
+                    }
+                }catch(SQLException e) {
+                    e.printStackTrace();
+                    return;
+                }
+            }
 
-            PreparedStatement stmt = con.prepareStatement(DELETE_QUERY);
-            stmt.setInt(1, maxAgeSeconds);
+            deleteInBatches(cutoff);
+        }finally{
+            statistics.endDeletion();
+        }
+    }
 
-            int rowsUpdated = stmt.executeUpdate();
-            System.out.println("Deleted " + rowsUpdated + " old data points.");
+    /**
+     * Deletes all rows older than the cutoff, in batches.
+     *
+     * @param cutoff The unix time before which all rows should be deleted
+     * @throws InterruptedException If the thread was interrupted
+     */
+    private void deleteInBatches(long cutoff) throws InterruptedException {
+        int batchSize = Integer.parseInt(properties.getProperty("auto_deletion_batch_size", "10000"));
+        long pauseMs = Long.parseLong(properties.getProperty("auto_deletion_batch_pause_ms", "200"));
 
-            con.close();
+        long totalRows = 0;
+        int rowsDeleted;
+        do{
+            // Borrow a connection per batch, so we don't hold on to it while pausing
+            ConnectionPool.PooledConnection con = connectionPool.borrow();
+            boolean broken = true;
+            try(PreparedStatement stmt = con.getConnection().prepareStatement(DELETE_BATCH_QUERY)) {
+                stmt.setLong(1, cutoff);
+                stmt.setInt(2, batchSize);
 
+                rowsDeleted = stmt.executeUpdate();
+                broken = false;
+            }catch(SQLException e) {
+                e.printStackTrace();
+                return;
+            }finally{
+                giveBack(con, broken);
+            }
+
+            // Update statistics!
             statistics.addSQLQuery();
-        }catch(SQLException e) {
-            e.printStackTrace();
+            statistics.addDeletedRows(rowsDeleted);
+            totalRows += rowsDeleted;
+
+            if(rowsDeleted >= batchSize) {
+                Thread.sleep(pauseMs);
+            }
+        }while(rowsDeleted >= batchSize);
+
+        System.out.println("Deleted " + totalRows + " old data points.");
+    }
+
+    /**
+     * Drops all partitions of which all rows are older than the cutoff.
+     *
+     * @param cutoff The unix time before which all rows should be deleted
+     * @return The upper bound (exclusive) of the last day partition, -1 if there are none yet, or null if the table
+     *         isn't partitioned (then nothing has been done)
+     * @throws SQLException If the partitions could not be read or dropped
+     * @throws InterruptedException If the thread was interrupted while waiting for a connection
+     */
+    private Long dropExpiredPartitions(long cutoff) throws SQLException, InterruptedException {
+        ConnectionPool.PooledConnection con = connectionPool.borrow();
+        boolean broken = true;
+        try{
+            Connection c = con.getConnection();
+
+            // Find the existing partitions, and the upper bound (exclusive) of the last day partition
+            List<String> expired = new ArrayList<>();
+            boolean hasMaxPartition = false;
+            long lastUpperBound = -1;
+            int partitions = 0;
+
+            try(Statement stmt = c.createStatement(); ResultSet rs = stmt.executeQuery(PARTITIONS_QUERY)) {
+                while(rs.next()) {
+                    partitions++;
+
+                    String name = rs.getString(1);
+                    String description = rs.getString(2);
+                    if(name.equals(MAX_PARTITION) || description.equals("MAXVALUE")) {
+                        hasMaxPartition = true;
+                        continue;
+                    }
+
+                    long upperBound;
+                    try{
+                        upperBound = Long.parseLong(description);
+                    }catch(NumberFormatException e) {
+                        // Not one of our day partitions
+                        System.out.println("Skipped partition " + name + ", its bound " + description + " is not a unix time.");
+                        continue;
+                    }
+                    lastUpperBound = Math.max(lastUpperBound, upperBound);
+                    if(upperBound <= cutoff) {
+                        expired.add(name);
+                    }
+                }
+            }
+            statistics.addSQLQuery();
+
+            if(partitions == 0 || !hasMaxPartition) {
+                System.out.println("The data table is not partitioned by day (with a " + MAX_PARTITION + " partition), deleting in batches instead.");
+                broken = false;
+                return null;
+            }
+
+            // Drop the expired partitions, this is O(1) per partition
+            if(!expired.isEmpty()) {
+                executeDDL(c, "ALTER TABLE `data` DROP PARTITION " + String.join(",", expired));
+                statistics.addDroppedPartitions(expired.size());
+                System.out.println("Dropped " + expired.size() + " expired partitions: " + String.join(", ", expired));
+            }
+
+            broken = false;
+            return lastUpperBound;
+        }finally{
+            giveBack(con, broken);
         }
     }
+
+    /**
+     * Splits the pmax partition, so there's a partition for every day until auto_deletion_partition_days_ahead days
+     * from now.
+     *
+     * @param lastUpperBound The upper bound (exclusive) of the last day partition, or -1 if there are none yet
+     * @throws SQLException If a partition could not be made
+     * @throws InterruptedException If the thread was interrupted while waiting for a connection
+     */
+    private void createDayPartitions(long lastUpperBound) throws SQLException, InterruptedException {
+        int daysAhead = Integer.parseInt(properties.getProperty("auto_deletion_partition_days_ahead", "3"));
+
+        ConnectionPool.PooledConnection con = connectionPool.borrow();
+        boolean broken = true;
+        try{
+            Connection c = con.getConnection();
+
+            // The first day partition also gets the rows of before today, which are all newer than the cutoff
+            LocalDate today = LocalDate.now(ZoneOffset.UTC);
+            LocalDate day = lastUpperBound == -1 ? today : LocalDate.ofEpochDay(lastUpperBound / 86400);
+            int created = 0;
+            while(!day.isAfter(today.plusDays(daysAhead))) {
+                long upperBound = day.plusDays(1).atStartOfDay(ZoneOffset.UTC).toEpochSecond();
+                executeDDL(c, "ALTER TABLE `data` REORGANIZE PARTITION " + MAX_PARTITION + " INTO (" +
+                        "PARTITION " + day.format(PARTITION_NAME_FORMAT) + " VALUES LESS THAN (" + upperBound + ")," +
+                        "PARTITION " + MAX_PARTITION + " VALUES LESS THAN MAXVALUE)");
+
+                created++;
+                day = day.plusDays(1);
+            }
+            if(created > 0) {
+                System.out.println("Created " + created + " new day partitions.");
+            }
+
+            broken = false;
+        }finally{
+            giveBack(con, broken);
+        }
+    }
+
+    /**
+     * Gives a borrowed connection back to the pool, also when the deletion failed.
+     *
+     * @param con The connection
+     * @param broken Whether the connection may be in a bad state, it's closed then
+     */
+    private void giveBack(ConnectionPool.PooledConnection con, boolean broken) {
+        if(broken) {
+            connectionPool.invalidate(con);
+        }else{
+            connectionPool.release(con);
+        }
+    }
+
+    private void executeDDL(Connection c, String query) throws SQLException {
+        try(Statement stmt = c.createStatement()) {
+            stmt.executeUpdate(query);
+        }
+
+        statistics.addSQLQuery();
+    }
 }
@@ -0,0 +1,93 @@
+package project2_2;
+
+import java.nio.ByteBuffer;
+import java.util.function.Consumer;
+
+/**
+ * Parses the compact binary protocol, which a client can use instead of XML.
+ *
+ * A binary client starts the connection with the {@link #HANDSHAKE} byte and the {@link #VERSION} byte (see
+ * {@link ProtocolNegotiator}). After that, it sends measurements back to back, each in the fixed layout of the
+ * {@link StationWeatherDataCodec} ({@value StationWeatherDataCodec#ENCODED_SIZE} bytes). Fields which are missing
+ * according to the presence bitmap are filled in with the previous data of the station, just like missing XML fields.
+ *
+ * Measurements are decoded straight from the received bytes. Only a measurement which is split over two reads is
+ * copied, into a small buffer of its own.
+ */
+public class BinaryMeasurementDecoder implements ClientStreamParser {
+    // The first byte a binary client sends. It can never be the first byte of an XML document.
+    public static final byte HANDSHAKE = (byte) 0xB1;
+    public static final byte VERSION = 1;
+
+    private final Consumer<StationWeatherData> receiver;
+    private final RealtimeStatistics statistics;
+
+    // A measurement of which only a part has been received
+    private final ByteBuffer partial = ByteBuffer.allocate(StationWeatherDataCodec.ENCODED_SIZE);
+
+    /**
+     * Constructor of {@link BinaryMeasurementDecoder}
+     *
+     * @param dataInsertionQueue The global {@link DataInsertionQueue} object
+     * @param statistics The global {@link RealtimeStatistics} object
+     */
+    public BinaryMeasurementDecoder(DataInsertionQueue dataInsertionQueue, RealtimeStatistics statistics) {
+        this(dataInsertionQueue::onDataReceive, statistics);
+    }
+
+    /**
+     * Constructor of {@link BinaryMeasurementDecoder}
+     *
+     * @param receiver Gets the complete measurements, instead of the {@link DataInsertionQueue}
+     * @param statistics The global {@link RealtimeStatistics} object
+     */
+    public BinaryMeasurementDecoder(Consumer<StationWeatherData> receiver, RealtimeStatistics statistics) {
+        this.receiver = receiver;
+        this.statistics = statistics;
+    }
+
+    @Override
+    public void feed(byte[] buf, int off, int len) {
+        ByteBuffer in = ByteBuffer.wrap(buf, off, len);
+
+        // Complete the measurement which was split over the previous read
+        if(partial.position() > 0) {
+            int take = Math.min(partial.remaining(), in.remaining());
+            partial.put(buf, in.position(), take);
+            in.position(in.position() + take);
+
+            if(partial.hasRemaining()) {
+                return;
+            }
+
+            partial.flip();
+            decode(partial);
+            partial.clear();
+        }
+
+        while(in.remaining() >= StationWeatherDataCodec.ENCODED_SIZE) {
+            decode(in);
+        }
+
+        partial.put(buf, in.position(), in.remaining());
+    }
+
+    @Override
+    public void finish() {
+        if(partial.position() > 0) {
+            System.out.println("A binary client disconnected in the middle of a measurement, dropped " + partial.position() + " bytes.");
+            partial.clear();
+        }
+    }
+
+    private void decode(ByteBuffer in) {
+        long start = System.nanoTime();
+        StationWeatherData data = StationWeatherDataCodec.decode(in);
+        statistics.recordParseTime(System.nanoTime() - start);
+
+        receiver.accept(data);
+
+        // Update statistics!
+        statistics.addDataReceived();
+    }
+}
@@ -0,0 +1,137 @@
+package project2_2;
+
+/**
+ * Decides whether a reading of a station should be inserted, by comparing it with the last reading of that station
+ * which was inserted. A reading is only inserted when at least one of its fields has changed by more than the
+ * dead-band of that field, when one of its flags has changed, or when the last inserted reading is older than the
+ * heartbeat interval. The time of a reading doesn't count as a change.
+ *
+ * The readings are compared with the last inserted reading (and not with the previous reading), so a value which slowly
+ * drifts is still inserted once it has drifted further than its dead-band.
+ *
+ * Dead-bands are configured as a list of field:value pairs, where the fields are the column names of the data table,
+ * for example "temperature:0.1,wind_speed:0.5,wind_direction:10". Fields which aren't in the list have a dead-band of
+ * 0, so every change of them counts.
+ *
+ * A reading is remembered as inserted as soon as it is handed to the insert query threads. If they drop it, the
+ * {@link DataInsertionQueue} makes the detector forget the station with {@link #remove(int)}, so its next reading
+ * is inserted.
+ *
+ * This class is not thread-safe, it is only used by the queueData thread.
+ */
+public class ChangeDetector {
+    private final float[] deadBands = new float[StationStateStore.FLOAT_FIELDS];
+    private final int windDirectionDeadBand;
+    private final long heartbeatMs;
+
+    // The last inserted reading of every station
+    private final StationStateStore lastInserted = new StationStateStore(1024);
+
+    /**
+     * Constructor of {@link ChangeDetector}
+     *
+     * @param deadBands The dead-bands, as a list of field:value pairs
+     * @param heartbeatMs The maximum time between two inserted readings of a station, in milliseconds
+     */
+    public ChangeDetector(String deadBands, long heartbeatMs) {
+        this.heartbeatMs = heartbeatMs;
+
+        int windDirection = 0;
+        for(String entry : deadBands.split(",")) {
+            entry = entry.trim();
+            if(entry.isEmpty()) {
+                continue;
+            }
+
+            int colon = entry.indexOf(':');
+            if(colon == -1) {
+                throw new IllegalArgumentException("Invalid dead-band " + entry + ", dead-bands are given as field:value");
+            }
+
+            String field = entry.substring(0, colon).trim();
+            String value = entry.substring(colon + 1).trim();
+            if(field.equals("wind_direction")) {
+                windDirection = Integer.parseInt(value);
+                continue;
+            }
+
+            int index = floatFieldIndex(field);
+            if(index == -1) {
+                throw new IllegalArgumentException("Unknown dead-band field " + field);
+            }
+            this.deadBands[index] = Float.parseFloat(value);
+        }
+
+        windDirectionDeadBand = windDirection;
+    }
+
+    /**
+     * Checks whether a reading has changed enough to be inserted. If it has, it is remembered as the last inserted
+     * reading of its station.
+     *
+     * @param data A complete reading
+     * @param now The current time, in milliseconds
+     * @return Whether the reading should be inserted
+     */
+    public boolean shouldInsert(StationWeatherData data, long now) {
+        int slot = lastInserted.slotOf(data.stationId);
+        if(slot != -1 && now - lastInserted.getLastReceived(slot) < heartbeatMs && !hasChanged(slot, data)) {
+            return false;
+        }
+
+        lastInserted.merge(data);
+        return true;
+    }
+
+    /**
+     * Forgets the last inserted reading of a station, for example because the station has gone silent.
+     *
+     * @param stationId The station ID
+     */
+    public void remove(int stationId) {
+        lastInserted.removeIfIdle(stationId, Long.MAX_VALUE);
+    }
+
+    private boolean hasChanged(int slot, StationWeatherData data) {
+        if(exceeds(slot, StationStateStore.TEMPERATURE, data.temperature) ||
+                exceeds(slot, StationStateStore.DEW_POINT, data.dewPoint) ||
+                exceeds(slot, StationStateStore.STATION_AIR_PRESSURE, data.stationAirPressure) ||
+                exceeds(slot, StationStateStore.SEA_AIR_PRESSURE, data.seaAirPressure) ||
+                exceeds(slot, StationStateStore.VISIBILITY, data.visibility) ||
+                exceeds(slot, StationStateStore.WIND_SPEED, data.windSpeed) ||
+                exceeds(slot, StationStateStore.PRECIPITATION, data.precipitation) ||
+                exceeds(slot, StationStateStore.SNOW_HEIGHT, data.snowHeight) ||
+                exceeds(slot, StationStateStore.OVERCAST, data.overcast)) {
+            return true;
+        }
+
+        // The wind direction wraps around at 360 degrees
+        int directionChange = Math.abs(data.windDirection - lastInserted.getWindDirection(slot)) % 360;
+        if(Math.min(directionChange, 360 - directionChange) > windDirectionDeadBand) {
+            return true;
+        }
+
+        int flags = 0;
+        if(data.hasFrozen) flags |= 1 << StationStateStore.HAS_FROZEN;
+        if(data.hasRained) flags |= 1 << StationStateStore.HAS_RAINED;
+        if(data.hasSnowed) flags |= 1 << StationStateStore.HAS_SNOWED;
+        if(data.hasHailed) flags |= 1 << StationStateStore.HAS_HAILED;
+        if(data.hasThundered) flags |= 1 << StationStateStore.HAS_THUNDERED;
+        if(data.hasWhirlwinded) flags |= 1 << StationStateStore.HAS_WHIRLWINDED;
+        return flags != lastInserted.getFlags(slot);
+    }
+
+    private boolean exceeds(int slot, int field, float value) {
+        // Written like this so a NaN always counts as a change
+        return !(Math.abs(value - lastInserted.getFloat(slot, field)) <= deadBands[field]);
+    }
+
+    private static int floatFieldIndex(String name) {
+        for(int i = 0; i < StationStateStore.FLOAT_FIELD_NAMES.length; i++) {
+            if(StationStateStore.FLOAT_FIELD_NAMES[i].equals(name)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,355 @@
+package project2_2;
+
+import java.nio.charset.StandardCharsets;
+import java.util.function.Consumer;
+
+/**
+ * Parses the incoming XML data of a single client, and hands the complete measurements to the {@link DataInsertionQueue}
+ * (or to the receiver it was given).
+ * The data can be fed in pieces of any size, so this can be used by both blocking and non-blocking client handlers.
+ *
+ * The parser works directly on the received bytes: tags are recognized by comparing bytes, and numbers, dates, times
+ * and the FRSHTT flags are parsed in place. No Strings are made, except for values that aren't in the simple format
+ * the stations send. Those are handed to {@link StationWeatherData#insertData(String, String)}, so the results are
+ * always identical to parsing every line as a String.
+ */
+public class ClientDataParser implements ClientStreamParser {
+    // The tags we recognize
+    private static final byte[] MEASUREMENT_START = bytes("<MEASUREMENT>");
+    private static final byte[] MEASUREMENT_END = bytes("</MEASUREMENT>");
+
+    private static final byte[] TAG_STN = bytes("STN");
+    private static final byte[] TAG_DATE = bytes("DATE");
+    private static final byte[] TAG_TIME = bytes("TIME");
+    private static final byte[] TAG_TEMP = bytes("TEMP");
+    private static final byte[] TAG_DEWP = bytes("DEWP");
+    private static final byte[] TAG_STP = bytes("STP");
+    private static final byte[] TAG_SLP = bytes("SLP");
+    private static final byte[] TAG_VISIB = bytes("VISIB");
+    private static final byte[] TAG_WDSP = bytes("WDSP");
+    private static final byte[] TAG_PRCP = bytes("PRCP");
+    private static final byte[] TAG_SNDP = bytes("SNDP");
+    private static final byte[] TAG_CLDC = bytes("CLDC");
+    private static final byte[] TAG_WNDDIR = bytes("WNDDIR");
+    private static final byte[] TAG_FRSHTT = bytes("FRSHTT");
+
+    // Returned by the number parsing methods when a value isn't in the simple format
+    private static final long NOT_SIMPLE = Long.MIN_VALUE;
+
+    // Powers of ten, used to parse floats
+    private static final double[] POWERS_OF_TEN = {1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8};
+
+    private final Consumer<StationWeatherData> receiver;
+    private final RealtimeStatistics statistics;
+
+    // The bytes of the line we're currently reading
+    private byte[] lineBuffer = new byte[128];
+    private int lineLength = 0;
+    private boolean lastWasCarriageReturn = false;
+
+    // We will keep track of the incoming xml data in this object
+    private StationWeatherData currentMeasurement = new StationWeatherData();
+    private boolean inMeasurement = false;
+    private long measurementStartNanos = -1; // -1 if the current measurement isn't timed
+
+    /**
+     * Constructor of {@link ClientDataParser}
+     *
+     * @param dataInsertionQueue The global {@link DataInsertionQueue} object
+     * @param statistics The global {@link RealtimeStatistics} object
+     */
+    public ClientDataParser(DataInsertionQueue dataInsertionQueue, RealtimeStatistics statistics) {
+        this(dataInsertionQueue::onDataReceive, statistics);
+    }
+
+    /**
+     * Constructor of {@link ClientDataParser}
+     *
+     * @param receiver Gets the complete measurements, instead of the {@link DataInsertionQueue}
+     * @param statistics The global {@link RealtimeStatistics} object
+     */
+    public ClientDataParser(Consumer<StationWeatherData> receiver, RealtimeStatistics statistics) {
+        this.receiver = receiver;
+        this.statistics = statistics;
+    }
+
+    @Override
+    public void feed(byte[] buf, int off, int len) {
+        // A measurement which started in an earlier read would include the time spent waiting for the client
+        if(inMeasurement) {
+            measurementStartNanos = -1;
+        }
+
+        for(int i = off; i < off + len; i++) {
+            byte b = buf[i];
+
+            // Lines end with \n, \r or \r\n (just like BufferedReader.readLine())
+            if(b == '\n') {
+                if(!lastWasCarriageReturn) {
+                    endLine();
+                }
+                lastWasCarriageReturn = false;
+            }else if(b == '\r') {
+                endLine();
+                lastWasCarriageReturn = true;
+            }else{
+                if(lineLength == lineBuffer.length) {
+                    byte[] newBuffer = new byte[lineBuffer.length * 2];
+                    System.arraycopy(lineBuffer, 0, newBuffer, 0, lineLength);
+                    lineBuffer = newBuffer;
+                }
+
+                lineBuffer[lineLength++] = b;
+                lastWasCarriageReturn = false;
+            }
+        }
+    }
+
+    /**
+     * Should be called when the client disconnected, so the last line (if it wasn't terminated) is parsed as well.
+     */
+    @Override
+    public void finish() {
+        if(lineLength > 0) {
+            endLine();
+        }
+    }
+
+    private void endLine() {
+        // Trim the line, just like String.trim() does
+        int start = 0;
+        int end = lineLength;
+        while(start < end && (lineBuffer[start] & 0xFF) <= ' ') {
+            start++;
+        }
+        while(end > start && (lineBuffer[end - 1] & 0xFF) <= ' ') {
+            end--;
+        }
+
+        try{
+            parseLine(start, end);
+        }catch(Exception e) {
+            System.out.println("Could not parse a data line: " + e.toString());
+            System.out.println("Line: " + string(start, end));
+        }
+
+        lineLength = 0;
+    }
+
+    /**
+     * Parses a single (trimmed) line of XML data, which is stored in the line buffer.
+     *
+     * @param start The start of the line in the line buffer
+     * @param end The end of the line in the line buffer (exclusive)
+     */
+    private void parseLine(int start, int end) {
+        if(equals(start, end, MEASUREMENT_START)) {
+            // The beginning of  a new measurement!
+            inMeasurement = true;
+            measurementStartNanos = System.nanoTime();
+        }else if(equals(start, end, MEASUREMENT_END)) {
+            // The end of a measurement!
+            inMeasurement = false;
+            if(measurementStartNanos != -1) {
+                statistics.recordParseTime(System.nanoTime() - measurementStartNanos);
+            }
+
+            receiver.accept(currentMeasurement);
+
+            currentMeasurement = new StationWeatherData();
+
+            // Update statistics!
+            statistics.addDataReceived();
+        }else if(inMeasurement) {
+            // <KEY>value</KEY>
+            int keyEnd = indexOf(start, end, (byte) '>');
+            if(keyEnd < start + 1) {
+                throw new StringIndexOutOfBoundsException("No key found");
+            }
+
+            int keyLength = keyEnd - start - 1;
+            int valueStart = start + keyLength + 2;
+            int valueEnd = end - keyLength - 3;
+            if(valueEnd < valueStart) {
+                throw new StringIndexOutOfBoundsException("No value found");
+            }
+
+            if(valueEnd > valueStart && !insertData(start + 1, keyEnd, valueStart, valueEnd)) {
+                // This value isn't in the simple format, let the String based parser handle it
+                currentMeasurement.insertData(string(start + 1, keyEnd), string(valueStart, valueEnd));
+            }
+        }
+    }
+
+    /**
+     * The byte based version of {@link StationWeatherData#insertData(String, String)}.
+     *
+     * @return Whether the value could be parsed. If this returns false, nothing has been changed.
+     */
+    private boolean insertData(int keyStart, int keyEnd, int valueStart, int valueEnd) {
+        StationWeatherData data = currentMeasurement;
+
+        if(equals(keyStart, keyEnd, TAG_STN)) {
+            long value = parseInt(valueStart, valueEnd);
+            if(value == NOT_SIMPLE) return false;
+            data.stationId = (int) value;
+        }else if(equals(keyStart, keyEnd, TAG_DATE)) {
+            // yyyy-mm-dd
+            if(valueEnd - valueStart < 10) return false;
+            long year = parseInt(valueStart, valueStart + 4);
+            long month = parseInt(valueStart + 5, valueStart + 7);
+            long day = parseInt(valueStart + 8, valueStart + 10);
+            if(year == NOT_SIMPLE || month == NOT_SIMPLE || day == NOT_SIMPLE) return false;
+            data.date_year = (int) year;
+            data.date_month = (int) month;
+            data.date_day = (int) day;
+        }else if(equals(keyStart, keyEnd, TAG_TIME)) {
+            // hh:mm:ss
+            if(valueEnd - valueStart < 8) return false;
+            long hour = parseInt(valueStart, valueStart + 2);
+            long minute = parseInt(valueStart + 3, valueStart + 5);
+            long second = parseInt(valueStart + 6, valueStart + 8);
+            if(hour == NOT_SIMPLE || minute == NOT_SIMPLE || second == NOT_SIMPLE) return false;
+            data.time_hour = (int) hour;
+            data.time_minute = (int) minute;
+            data.time_second = (int) second;
+        }else if(equals(keyStart, keyEnd, TAG_WNDDIR)) {
+            long value = parseInt(valueStart, valueEnd);
+            if(value == NOT_SIMPLE) return false;
+            data.windDirection = (int) value;
+        }else if(equals(keyStart, keyEnd, TAG_FRSHTT)) {
+            if(valueEnd - valueStart < 6) return false;
+            data.hasFrozen = lineBuffer[valueStart] != '0';
+            data.hasRained = lineBuffer[valueStart + 1] != '0';
+            data.hasSnowed = lineBuffer[valueStart + 2] != '0';
+            data.hasHailed = lineBuffer[valueStart + 3] != '0';
+            data.hasThundered = lineBuffer[valueStart + 4] != '0';
+            data.hasWhirlwinded = lineBuffer[valueStart + 5] != '0';
+        }else{
+            // All other fields are floats
+            double value = parseFloat(valueStart, valueEnd);
+            if(Double.isNaN(value)) return false;
+            float f = (float) value;
+
+            if(equals(keyStart, keyEnd, TAG_TEMP)) data.temperature = f;
+            else if(equals(keyStart, keyEnd, TAG_DEWP)) data.dewPoint = f;
+            else if(equals(keyStart, keyEnd, TAG_STP)) data.stationAirPressure = f;
+            else if(equals(keyStart, keyEnd, TAG_SLP)) data.seaAirPressure = f;
+            else if(equals(keyStart, keyEnd, TAG_VISIB)) data.visibility = f;
+            else if(equals(keyStart, keyEnd, TAG_WDSP)) data.windSpeed = f;
+            else if(equals(keyStart, keyEnd, TAG_PRCP)) data.precipitation = f;
+            else if(equals(keyStart, keyEnd, TAG_SNDP)) data.snowHeight = f;
+            else if(equals(keyStart, keyEnd, TAG_CLDC)) data.overcast = f;
+        }
+
+        return true;
+    }
+
+    /**
+     * Parses an integer in the format [+-]digits, with at most 9 digits.
+     *
+     * @return The integer, or {@link #NOT_SIMPLE} if the value isn't in that format
+     */
+    private long parseInt(int start, int end) {
+        boolean negative = false;
+        if(start < end && (lineBuffer[start] == '-' || lineBuffer[start] == '+')) {
+            negative = lineBuffer[start] == '-';
+            start++;
+        }
+
+        if(start == end || end - start > 9) {
+            return NOT_SIMPLE;
+        }
+
+        long value = 0;
+        for(int i = start; i < end; i++) {
+            int digit = lineBuffer[i] - '0';
+            if(digit < 0 || digit > 9) {
+                return NOT_SIMPLE;
+            }
+            value = value * 10 + digit;
+        }
+
+        return negative ? -value : value;
+    }
+
+    /**
+     * Parses a float in the format [+-]digits[.digits], with at most 15 digits of which at most 8 are decimals.
+     * Within these bounds, dividing the digits by a power of ten (as a double) and rounding the result to a float
+     * gives exactly the same result as {@link Float#parseFloat(String)}.
+     *
+     * @return The value, or NaN if the value isn't in that format
+     */
+    private double parseFloat(int start, int end) {
+        boolean negative = false;
+        if(start < end && (lineBuffer[start] == '-' || lineBuffer[start] == '+')) {
+            negative = lineBuffer[start] == '-';
+            start++;
+        }
+
+        long mantissa = 0;
+        int digits = 0;
+        int decimals = 0;
+        boolean seenDot = false;
+        for(int i = start; i < end; i++) {
+            byte b = lineBuffer[i];
+            if(b == '.' && !seenDot) {
+                seenDot = true;
+                continue;
+            }
+
+            int digit = b - '0';
+            if(digit < 0 || digit > 9) {
+                return Double.NaN;
+            }
+
+            mantissa = mantissa * 10 + digit;
+            digits++;
+            if(seenDot) {
+                decimals++;
+            }
+        }
+
+        if(digits == 0 || digits > 15 || decimals >= POWERS_OF_TEN.length) {
+            return Double.NaN;
+        }
+
+        double value = mantissa / POWERS_OF_TEN[decimals];
+        return negative ? -value : value;
+    }
+
+    /**
+     * @return Whether the bytes in the line buffer from start to end are equal to the expected bytes
+     */
+    private boolean equals(int start, int end, byte[] expected) {
+        if(end - start != expected.length) {
+            return false;
+        }
+
+        for(int i = 0; i < expected.length; i++) {
+            if(lineBuffer[start + i] != expected[i]) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    private int indexOf(int start, int end, byte b) {
+        for(int i = start; i < end; i++) {
+            if(lineBuffer[i] == b) {
+                return i;
+            }
+        }
+
+        return -1;
+    }
+
+    private String string(int start, int end) {
+        return new String(lineBuffer, start, end - start, StandardCharsets.UTF_8);
+    }
+
+    private static byte[] bytes(String s) {
+        return s.getBytes(StandardCharsets.US_ASCII);
+    }
+}
@@ -0,0 +1,28 @@
+package project2_2;
+
+/**
+ * Parses the data a single client sends. The data can be fed in pieces of any size, so parsers can be used by both
+ * blocking and non-blocking client handlers.
+ */
+public interface ClientStreamParser {
+    /**
+     * Feeds some raw data received from the client to the parser.
+     *
+     * @param buf The buffer containing the data
+     * @param off The offset of the data in the buffer
+     * @param len The amount of bytes to read from the buffer
+     */
+    void feed(byte[] buf, int off, int len);
+
+    /**
+     * Should be called when the client disconnected.
+     */
+    void finish();
+
+    /**
+     * Should be called once the connection is closed, also when it was closed because of an error.
+     * Releases the resources of the parser.
+     */
+    default void close() {
+    }
+}
@@ -0,0 +1,567 @@
+package project2_2;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+/**
+ * Writes chunks of data to append-only column files, one file per (UTC) day of the data points, named
+ * data-YYYY-MM-DD.col. This takes a fraction of the disk space and write I/O of the rows in the database.
+ *
+ * A file starts with the magic bytes "WCOL" and a version byte, followed by blocks. Every written chunk becomes one
+ * block: [int payload length][int row count][int CRC32 of the payload][payload]. The payload holds the columns one
+ * after another, and every column starts from 0 again in every block:
+ * - station ID: zigzag varint of the difference with the previous station ID
+ * - time (unix seconds): zigzag varint of the difference with the previous difference (delta-of-delta)
+ * - temperature, dew point, station air pressure, sea air pressure, visibility, wind speed, precipitation,
+ *   snow height and overcast: the bits of the float XOR the bits of the previous value. A XOR of 0 is written as
+ *   a 0 byte, otherwise as a control byte (significant bytes << 2 | trailing zero bytes) followed by the
+ *   significant bytes.
+ * - wind direction: zigzag varint of the difference with the previous wind direction
+ * - flags: one byte per row, frozen, rained, snowed, hailed, thundered, whirlwinded (bit 0 to 5)
+ *
+ * A block which was only partly written (because the server stopped) is ignored when reading, just like a block
+ * with the wrong CRC. If a write fails, the file is truncated back to the end of the previous block, and when a file
+ * is opened again, a torn last block is cut off, so the blocks written after it can be read. Bigger chunks
+ * (inserts_per_query) compress better, because there is more to compare with.
+ */
+public class ColumnarFileSink implements StorageSink {
+    private static final String FILE_PREFIX = "data-";
+    private static final String FILE_SUFFIX = ".col";
+    private static final byte[] MAGIC = {'W', 'C', 'O', 'L'};
+    private static final byte VERSION = 1;
+    private static final int BLOCK_HEADER_SIZE = 12;
+
+    // The worst case size of an encoded row: 2 ints and a long as varints, 9 floats and the flags
+    private static final int MAX_ROW_SIZE = 5 + 10 + 5 + 9 * 5 + 1;
+
+    // At most this many files are open, the files which weren't written to the longest are closed (they are opened
+    // again if late data comes in)
+    private static final int MAX_OPEN_FILES = 3;
+
+    private final File directory;
+
+    // The open files, by day since 1970-01-01, least recently used first
+    private final Map<Long, DayFile> files = new LinkedHashMap<>(16, 0.75f, true);
+
+    // Every insert query thread encodes its blocks in its own buffer
+    private final ThreadLocal<ByteBuffer> encodeBuffers = ThreadLocal.withInitial(() -> ByteBuffer.allocate(64 * 1024));
+
+    /**
+     * Constructor of {@link ColumnarFileSink}
+     *
+     * @param directory The directory to store the column files in
+     */
+    public ColumnarFileSink(File directory) {
+        this.directory = directory;
+    }
+
+    @Override
+    public void open() throws IOException {
+        if(!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Could not create column file directory " + directory);
+        }
+    }
+
+    @Override
+    public boolean write(List<StationWeatherData> chunk) {
+        // Data points without a valid date and time don't belong to any day, and can't be encoded
+        for(StationWeatherData data : chunk) {
+            if(data.calculateEpochSeconds() < 0) {
+                chunk = withValidTime(chunk);
+                if(chunk.isEmpty()) {
+                    return true;
+                }
+                break;
+            }
+        }
+
+        // A chunk almost always falls in a single day, but it can be split at midnight
+        long firstDay = Math.floorDiv(chunk.get(0).calculateEpochSeconds(), 86400);
+        boolean singleDay = true;
+        for(StationWeatherData data : chunk) {
+            if(Math.floorDiv(data.calculateEpochSeconds(), 86400) != firstDay) {
+                singleDay = false;
+                break;
+            }
+        }
+
+        try{
+            if(singleDay) {
+                writeBlock(firstDay, chunk);
+            }else{
+                Map<Long, List<StationWeatherData>> days = new TreeMap<>();
+                for(StationWeatherData data : chunk) {
+                    days.computeIfAbsent(Math.floorDiv(data.calculateEpochSeconds(), 86400), day -> new ArrayList<>()).add(data);
+                }
+                for(Map.Entry<Long, List<StationWeatherData>> entry : days.entrySet()) {
+                    writeBlock(entry.getKey(), entry.getValue());
+                }
+            }
+
+            return true;
+        }catch(IOException e) {
+            System.out.println("Could not write " + chunk.size() + " data points to the column files: " + e.toString());
+            return false;
+        }
+    }
+
+    private static List<StationWeatherData> withValidTime(List<StationWeatherData> chunk) {
+        List<StationWeatherData> valid = new ArrayList<>(chunk.size());
+        for(StationWeatherData data : chunk) {
+            if(data.calculateEpochSeconds() >= 0) {
+                valid.add(data);
+            }
+        }
+
+        System.out.println("Skipped " + (chunk.size() - valid.size()) + " data points without a valid date and time, they can't be written to the column files.");
+        return valid;
+    }
+
+    private void writeBlock(long day, List<StationWeatherData> rows) throws IOException {
+        ByteBuffer buf = encodeBuffers.get();
+        int required = BLOCK_HEADER_SIZE + rows.size() * MAX_ROW_SIZE;
+        if(buf.capacity() < required) {
+            buf = ByteBuffer.allocate(required * 2);
+            encodeBuffers.set(buf);
+        }
+
+        buf.clear();
+        buf.position(BLOCK_HEADER_SIZE);
+        encodeColumns(rows, buf);
+
+        int payloadLength = buf.position() - BLOCK_HEADER_SIZE;
+        CRC32 crc = new CRC32();
+        crc.update(buf.array(), BLOCK_HEADER_SIZE, payloadLength);
+        buf.putInt(0, payloadLength);
+        buf.putInt(4, rows.size());
+        buf.putInt(8, (int) crc.getValue());
+        buf.flip();
+
+        while(true) {
+            DayFile file = dayFile(day);
+            synchronized(file) {
+                // If the file was closed while we were waiting, it's opened again
+                if(file.channel.isOpen()) {
+                    long blockStart = file.channel.size();
+                    try{
+                        while(buf.hasRemaining()) {
+                            file.channel.write(buf);
+                        }
+                    }catch(IOException e) {
+                        // Don't leave a torn block in front of the next blocks
+                        try{
+                            file.channel.truncate(blockStart);
+                        }catch(IOException truncateFailed) {
+                            // It's cut off when the file is opened again
+                            closeQuietly(file.channel);
+                        }
+                        throw e;
+                    }
+                    return;
+                }
+            }
+        }
+    }
+
+    private void encodeColumns(List<StationWeatherData> rows, ByteBuffer buf) {
+        int previousId = 0;
+        for(StationWeatherData data : rows) {
+            putVarint(buf, zigzag(data.stationId - previousId));
+            previousId = data.stationId;
+        }
+
+        long previousTime = 0, previousDelta = 0;
+        for(StationWeatherData data : rows) {
+            long time = data.calculateEpochSeconds();
+            long delta = time - previousTime;
+            putVarint(buf, zigzag(delta - previousDelta));
+            previousTime = time;
+            previousDelta = delta;
+        }
+
+        for(int field = 0; field < 9; field++) {
+            int previousBits = 0;
+            for(StationWeatherData data : rows) {
+                int bits = Float.floatToRawIntBits(floatField(data, field));
+                putXor(buf, bits ^ previousBits);
+                previousBits = bits;
+            }
+        }
+
+        int previousDirection = 0;
+        for(StationWeatherData data : rows) {
+            putVarint(buf, zigzag(data.windDirection - previousDirection));
+            previousDirection = data.windDirection;
+        }
+
+        for(StationWeatherData data : rows) {
+            int flags = 0;
+            if(data.hasFrozen) flags |= 1;
+            if(data.hasRained) flags |= 1 << 1;
+            if(data.hasSnowed) flags |= 1 << 2;
+            if(data.hasHailed) flags |= 1 << 3;
+            if(data.hasThundered) flags |= 1 << 4;
+            if(data.hasWhirlwinded) flags |= 1 << 5;
+            buf.put((byte) flags);
+        }
+    }
+
+    /**
+     * @return The open file of a day, which is made if it doesn't exist yet
+     */
+    private synchronized DayFile dayFile(long day) throws IOException {
+        // If a failed write could not be truncated, the file was closed, and it is opened (and repaired) again
+        DayFile file = files.get(day);
+        if(file != null && file.channel.isOpen()) {
+            return file;
+        }
+
+        File path = new File(directory, FILE_PREFIX + LocalDate.ofEpochDay(day) + FILE_SUFFIX);
+        if(path.length() > 0) {
+            truncateTornBlock(path);
+        }
+        FileChannel channel = FileChannel.open(path.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        if(channel.size() == 0) {
+            ByteBuffer header = ByteBuffer.allocate(MAGIC.length + 1);
+            header.put(MAGIC).put(VERSION).flip();
+            while(header.hasRemaining()) {
+                channel.write(header);
+            }
+        }
+
+        file = new DayFile(channel);
+        files.put(day, file);
+
+        // Close the days which weren't written to the longest. The new file is the most recently used one, so it
+        // stays open (otherwise writeBlock() would open it again and again).
+        Iterator<DayFile> it = files.values().iterator();
+        while(files.size() > MAX_OPEN_FILES) {
+            DayFile leastRecent = it.next();
+            if(leastRecent == file) {
+                break;
+            }
+            it.remove();
+            synchronized(leastRecent) {
+                closeQuietly(leastRecent.channel);
+            }
+        }
+
+        return file;
+    }
+
+    /**
+     * Cuts off the last block of a column file if it was only partly written, or if its CRC is wrong (the blocks
+     * before it were written completely, they're only checked by their lengths). A header which was only partly
+     * written is removed as well, it's written again.
+     *
+     * @param path The column file
+     * @throws IOException If the file could not be read or truncated, or isn't a column file
+     */
+    private static void truncateTornBlock(File path) throws IOException {
+        try(FileChannel channel = FileChannel.open(path.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            long size = channel.size();
+            ByteBuffer header = ByteBuffer.allocate(BLOCK_HEADER_SIZE);
+            if(size < MAGIC.length + 1) {
+                System.out.println("Removed the partly written header of " + path);
+                channel.truncate(0);
+                return;
+            }
+            readFully(channel, header.limit(MAGIC.length + 1), 0);
+            if(!Arrays.equals(Arrays.copyOf(header.array(), MAGIC.length), MAGIC) || header.get(MAGIC.length) != VERSION) {
+                throw new IOException(path + " is not a column file (or has an unknown version)");
+            }
+
+            // Walk the block headers, to find the start of the last block
+            long position = MAGIC.length + 1, lastBlock = -1;
+            int payloadLength = 0, expectedCrc = 0;
+            while(position + BLOCK_HEADER_SIZE <= size) {
+                readFully(channel, header.clear(), position);
+                int length = header.getInt(0);
+                if(length < 0 || header.getInt(4) < 0 || length > size - position - BLOCK_HEADER_SIZE) {
+                    break;
+                }
+
+                lastBlock = position;
+                payloadLength = length;
+                expectedCrc = header.getInt(8);
+                position += BLOCK_HEADER_SIZE + length;
+            }
+
+            if(lastBlock != -1) {
+                ByteBuffer payload = ByteBuffer.allocate(payloadLength);
+                readFully(channel, payload, lastBlock + BLOCK_HEADER_SIZE);
+                CRC32 crc = new CRC32();
+                crc.update(payload.array(), 0, payloadLength);
+                if((int) crc.getValue() != expectedCrc) {
+                    position = lastBlock;
+                }
+            }
+
+            if(position < size) {
+                System.out.println("Cut off a torn block of " + (size - position) + " bytes at the end of " + path);
+                channel.truncate(position);
+            }
+        }
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buf, long position) throws IOException {
+        while(buf.hasRemaining()) {
+            int read = channel.read(buf, position);
+            if(read < 0) {
+                throw new EOFException();
+            }
+            position += read;
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        for(DayFile file : files.values()) {
+            synchronized(file) {
+                closeQuietly(file.channel);
+            }
+        }
+        files.clear();
+    }
+
+    @Override
+    public String describe() {
+        return "column files in " + directory;
+    }
+
+    /**
+     * Reads all data points of a column file, in the order they were written.
+     * Blocks which are incomplete or damaged are skipped.
+     *
+     * @param file The column file
+     * @param consumer Receives every data point
+     * @throws IOException If the file could not be read, or isn't a column file
+     */
+    public static void read(File file, Consumer<StationWeatherData> consumer) throws IOException {
+        try(DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 64 * 1024))) {
+            byte[] magic = new byte[MAGIC.length];
+            in.readFully(magic);
+            if(!Arrays.equals(magic, MAGIC) || in.readByte() != VERSION) {
+                throw new IOException(file + " is not a column file (or has an unknown version)");
+            }
+
+            byte[] payload = new byte[0];
+            long remaining = file.length() - MAGIC.length - 1;
+            while(true) {
+                int payloadLength, rows, expectedCrc;
+                try{
+                    payloadLength = in.readInt();
+                    rows = in.readInt();
+                    expectedCrc = in.readInt();
+                    remaining -= BLOCK_HEADER_SIZE;
+                    if(payloadLength < 0 || rows < 0 || payloadLength > remaining) {
+                        // A block which was only partly written, or a damaged length
+                        return;
+                    }
+                    remaining -= payloadLength;
+
+                    if(payload.length < payloadLength) {
+                        payload = new byte[payloadLength];
+                    }
+                    in.readFully(payload, 0, payloadLength);
+                }catch(EOFException e) {
+                    // The end of the file, or a block which was only partly written
+                    return;
+                }
+
+                CRC32 crc = new CRC32();
+                crc.update(payload, 0, payloadLength);
+                if((int) crc.getValue() != expectedCrc) {
+                    System.out.println("Skipped a damaged block of " + rows + " data points in " + file);
+                    continue;
+                }
+
+                decodeColumns(ByteBuffer.wrap(payload, 0, payloadLength), rows, consumer);
+            }
+        }
+    }
+
+    private static void decodeColumns(ByteBuffer buf, int rows, Consumer<StationWeatherData> consumer) {
+        StationWeatherData[] block = new StationWeatherData[rows];
+
+        int previousId = 0;
+        for(int i = 0; i < rows; i++) {
+            block[i] = new StationWeatherData();
+            block[i].isNew = false;
+            block[i].stationId = previousId += (int) unzigzag(getVarint(buf));
+        }
+
+        long previousTime = 0, previousDelta = 0;
+        for(int i = 0; i < rows; i++) {
+            previousDelta += unzigzag(getVarint(buf));
+            previousTime += previousDelta;
+
+            LocalDateTime time = LocalDateTime.ofEpochSecond(previousTime, 0, ZoneOffset.UTC);
+            StationWeatherData data = block[i];
+            data.date_year = time.getYear();
+            data.date_month = time.getMonthValue();
+            data.date_day = time.getDayOfMonth();
+            data.time_hour = time.getHour();
+            data.time_minute = time.getMinute();
+            data.time_second = time.getSecond();
+        }
+
+        for(int field = 0; field < 9; field++) {
+            int previousBits = 0;
+            for(int i = 0; i < rows; i++) {
+                previousBits ^= getXor(buf);
+                setFloatField(block[i], field, Float.intBitsToFloat(previousBits));
+            }
+        }
+
+        int previousDirection = 0;
+        for(int i = 0; i < rows; i++) {
+            block[i].windDirection = previousDirection += (int) unzigzag(getVarint(buf));
+        }
+
+        for(int i = 0; i < rows; i++) {
+            int flags = buf.get();
+            StationWeatherData data = block[i];
+            data.hasFrozen = (flags & 1) != 0;
+            data.hasRained = (flags & 1 << 1) != 0;
+            data.hasSnowed = (flags & 1 << 2) != 0;
+            data.hasHailed = (flags & 1 << 3) != 0;
+            data.hasThundered = (flags & 1 << 4) != 0;
+            data.hasWhirlwinded = (flags & 1 << 5) != 0;
+            consumer.accept(data);
+        }
+    }
+
+    /**
+     * Prints the data points of column files as CSV, in the column order of the `data` table.
+     *
+     * Run it with: java -cp project-2.2-1.0-SNAPSHOT-jar-with-dependencies.jar project2_2.ColumnarFileSink FILE...
+     */
+    public static void main(String[] args) throws IOException {
+        PrintStream out = new PrintStream(new BufferedOutputStream(System.out, 64 * 1024), false);
+        for(String arg : args) {
+            read(new File(arg), data -> out.println(data.stationId + "," + data.calculateEpochSeconds() + "," +
+                    data.temperature + "," + data.dewPoint + "," + data.stationAirPressure + "," + data.seaAirPressure + "," +
+                    data.visibility + "," + data.windSpeed + "," + data.precipitation + "," + data.snowHeight + "," +
+                    data.overcast + "," + data.windDirection + "," + (data.hasFrozen ? 1 : 0) + "," + (data.hasRained ? 1 : 0) + "," +
+                    (data.hasSnowed ? 1 : 0) + "," + (data.hasHailed ? 1 : 0) + "," + (data.hasThundered ? 1 : 0) + "," +
+                    (data.hasWhirlwinded ? 1 : 0)));
+        }
+        out.flush();
+    }
+
+    private static float floatField(StationWeatherData data, int field) {
+        switch(field) {
+            case 0: return data.temperature;
+            case 1: return data.dewPoint;
+            case 2: return data.stationAirPressure;
+            case 3: return data.seaAirPressure;
+            case 4: return data.visibility;
+            case 5: return data.windSpeed;
+            case 6: return data.precipitation;
+            case 7: return data.snowHeight;
+            default: return data.overcast;
+        }
+    }
+
+    private static void setFloatField(StationWeatherData data, int field, float value) {
+        switch(field) {
+            case 0: data.temperature = value; break;
+            case 1: data.dewPoint = value; break;
+            case 2: data.stationAirPressure = value; break;
+            case 3: data.seaAirPressure = value; break;
+            case 4: data.visibility = value; break;
+            case 5: data.windSpeed = value; break;
+            case 6: data.precipitation = value; break;
+            case 7: data.snowHeight = value; break;
+            default: data.overcast = value; break;
+        }
+    }
+
+    static void putXor(ByteBuffer buf, int xor) {
+        if(xor == 0) {
+            buf.put((byte) 0);
+            return;
+        }
+
+        int trailing = Integer.numberOfTrailingZeros(xor) / 8;
+        int significant = 4 - Integer.numberOfLeadingZeros(xor) / 8 - trailing;
+        buf.put((byte) (significant << 2 | trailing));
+
+        int value = xor >>> (trailing * 8);
+        for(int i = significant - 1; i >= 0; i--) {
+            buf.put((byte) (value >>> (i * 8)));
+        }
+    }
+
+    static int getXor(ByteBuffer buf) {
+        int control = buf.get();
+        if(control == 0) {
+            return 0;
+        }
+
+        int significant = control >>> 2;
+        int trailing = control & 3;
+        int value = 0;
+        for(int i = 0; i < significant; i++) {
+            value = value << 8 | (buf.get() & 0xFF);
+        }
+        return value << (trailing * 8);
+    }
+
+    static long zigzag(long value) {
+        return value << 1 ^ value >> 63;
+    }
+
+    static long unzigzag(long value) {
+        return value >>> 1 ^ -(value & 1);
+    }
+
+    static void putVarint(ByteBuffer buf, long value) {
+        while((value & ~0x7FL) != 0) {
+            buf.put((byte) (value & 0x7F | 0x80));
+            value >>>= 7;
+        }
+        buf.put((byte) value);
+    }
+
+    static long getVarint(ByteBuffer buf) {
+        long value = 0;
+        int shift = 0;
+        byte b;
+        do{
+            b = buf.get();
+            value |= (long) (b & 0x7F) << shift;
+            shift += 7;
+        }while(b < 0);
+        return value;
+    }
+
+    private static void closeQuietly(FileChannel channel) {
+        try{
+            channel.close();
+        }catch(IOException ignored) {}
+    }
+
+    private static class DayFile {
+        private final FileChannel channel;
+
+        private DayFile(FileChannel channel) {
+            this.channel = channel;
+        }
+    }
+}
@@ -0,0 +1,180 @@
+package project2_2;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.*;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+
+/**
+ * Watches the properties file, and applies the changes of the tuning properties while the server is running.
+ *
+ * Only the properties in {@link #LIVE_PROPERTIES} are applied. The pipeline properties are handed to
+ * {@link DataInsertionQueue#reconfigure(Properties)}, and the auto deletion properties are read from the global
+ * {@link Properties} object on every run anyway. Changes of other properties are reported, but need a restart.
+ * The applied values are shown in the statistics.
+ */
+public class ConfigWatcher {
+    public static final String[] LIVE_PROPERTIES = {
+            "insert_query_threads", "inserts_per_query", "bulk_update_interval_ms", "station_update_interval_ms", "db_pool_size",
+            "auto_deletion_max_age_seconds", "auto_deletion_interval_ms", "auto_deletion_batch_size", "auto_deletion_batch_pause_ms"
+    };
+
+    // Editors often write a file in multiple steps, so wait a bit before reading it
+    private static final long SETTLE_MS = 200;
+
+    private final File file;
+    private final Properties properties;
+    private final RealtimeStatistics statistics;
+    private final DataInsertionQueue dataInsertionQueue;
+
+    // The changes which need a restart and have been reported already, as name=value
+    private final Set<String> reportedRestartChanges = new HashSet<>();
+
+    /**
+     * Constructor of {@link ConfigWatcher}
+     *
+     * @param file The properties file
+     * @param properties The global {@link Properties} object, which was loaded from the file
+     * @param statistics The global {@link RealtimeStatistics} object
+     * @param dataInsertionQueue The global {@link DataInsertionQueue} object
+     */
+    public ConfigWatcher(File file, Properties properties, RealtimeStatistics statistics, DataInsertionQueue dataInsertionQueue) {
+        this.file = file.getAbsoluteFile();
+        this.properties = properties;
+        this.statistics = statistics;
+        this.dataInsertionQueue = dataInsertionQueue;
+
+        reportApplied();
+    }
+
+    /**
+     * Starts the thread which watches the file.
+     *
+     * @throws IOException If the directory of the file could not be watched
+     */
+    public void startThread() throws IOException {
+        WatchService watchService = FileSystems.getDefault().newWatchService();
+        file.getParentFile().toPath().register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+
+        System.out.println("Watching " + file.getName() + " for changes of the tuning properties.");
+        new Thread(() -> watchThread(watchService)).start();
+    }
+
+    private void watchThread(WatchService watchService) {
+        while(true) {
+            try{
+                WatchKey key = watchService.take();
+
+                boolean changed = false;
+                for(WatchEvent<?> event : key.pollEvents()) {
+                    if(event.context() instanceof Path && ((Path) event.context()).getFileName().toString().equals(file.getName())) {
+                        changed = true;
+                    }
+                }
+                key.reset();
+
+                if(changed) {
+                    Thread.sleep(SETTLE_MS);
+
+                    // Ignore the events of the rest of the write
+                    WatchKey more;
+                    while((more = watchService.poll()) != null) {
+                        more.pollEvents();
+                        more.reset();
+                    }
+
+                    reload();
+                }
+            }catch(InterruptedException e) {
+                e.printStackTrace();
+            }catch(Exception e) {
+                // Don't stop watching because of a bad file
+                System.out.println("Could not apply the changes of " + file.getName() + ": " + e.toString());
+            }
+        }
+    }
+
+    /**
+     * Reads the file, and applies the changed tuning properties.
+     *
+     * @throws IOException If the file could not be read
+     */
+    private void reload() throws IOException {
+        Properties loaded = new Properties();
+        try(InputStream in = new FileInputStream(file)) {
+            loaded.load(in);
+        }
+        if(loaded.isEmpty()) {
+            // Probably read while it was being written, we'll get another event
+            return;
+        }
+
+        Properties updated = new Properties();
+        updated.putAll(properties);
+        List<String> changes = new ArrayList<>();
+
+        for(String name : loaded.stringPropertyNames()) {
+            String value = loaded.getProperty(name).trim();
+            String current = properties.getProperty(name);
+            if(current != null && value.equals(current.trim())) {
+                continue;
+            }
+
+            if(!isLive(name)) {
+                if(reportedRestartChanges.add(name + "=" + value)) {
+                    System.out.println("The property " + name + " changed, this will be applied after a restart.");
+                }
+                continue;
+            }
+
+            long number = Long.parseLong(value);
+            if(number <= 0) {
+                throw new IllegalArgumentException(name + " must be positive");
+            }
+
+            updated.setProperty(name, value);
+            changes.add(name + "=" + value);
+        }
+
+        if(changes.isEmpty()) {
+            return;
+        }
+
+        // Throws if the combination of values is invalid, before anything has been changed
+        dataInsertionQueue.reconfigure(updated);
+
+        for(String name : LIVE_PROPERTIES) {
+            String value = updated.getProperty(name);
+            if(value != null) {
+                properties.setProperty(name, value);
+            }
+        }
+
+        System.out.println("Applied " + String.join(", ", changes) + ".");
+        reportApplied();
+    }
+
+    private void reportApplied() {
+        for(String name : LIVE_PROPERTIES) {
+            String value = properties.getProperty(name);
+            if(value != null) {
+                statistics.setAppliedConfig(name, Long.parseLong(value.trim()));
+            }
+        }
+    }
+
+    private static boolean isLive(String name) {
+        for(String live : LIVE_PROPERTIES) {
+            if(live.equals(name)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
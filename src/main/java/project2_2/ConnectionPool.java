@@ -0,0 +1,327 @@
+package project2_2;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.concurrent.BlockingDeque;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A small database connection pool, which is shared by everything that talks to the database.
+ *
+ * - Connections are only made when they're needed, so starting the server doesn't open all connections at once.
+ * - Connections which have been idle for a while are validated before they're handed out.
+ * - Connections are closed once they reach their maximum lifetime.
+ * - When connecting fails, every thread backs off (with an increasing delay) before trying again.
+ */
+public class ConnectionPool {
+    private static final long MIN_BACKOFF_MS = 100;
+
+    // Config
+    private final String url;
+    private volatile int maxSize;
+    private final long maxLifetimeMs;
+    private final long validationIdleMs;
+    private final int validationTimeoutSeconds;
+    private final long maxBackoffMs;
+
+    // Idle connections, the most recently used one is at the front
+    private final BlockingDeque<PooledConnection> idleConnections = new LinkedBlockingDeque<>();
+
+    // One permit per connection that may be in use
+    private final ResizableSemaphore permits;
+
+    // Back-off state, shared by all threads
+    private final Lock backoffLock = new ReentrantLock();
+    private long backoffUntil = 0;
+    private long currentBackoffMs = 0;
+
+    // Metrics
+    private final AtomicLong connectionsCreated = new AtomicLong(0);
+    private final AtomicLong connectionsClosed = new AtomicLong(0);
+    private final AtomicLong connectFailures = new AtomicLong(0);
+    private final AtomicLong validationFailures = new AtomicLong(0);
+    private final AtomicLong borrows = new AtomicLong(0);
+
+    /**
+     * Constructor of {@link ConnectionPool}
+     *
+     * @param url The database connection URL
+     * @param maxSize The maximum amount of connections
+     * @param maxLifetimeMs The maximum lifetime of a connection
+     * @param validationIdleMs Connections which have been idle for longer than this are validated before use
+     * @param validationTimeoutSeconds The timeout of the validation
+     * @param maxBackoffMs The maximum time to wait between connection attempts
+     */
+    public ConnectionPool(String url, int maxSize, long maxLifetimeMs, long validationIdleMs, int validationTimeoutSeconds, long maxBackoffMs) {
+        this.url = url;
+        this.maxSize = maxSize;
+        this.maxLifetimeMs = maxLifetimeMs;
+        this.validationIdleMs = validationIdleMs;
+        this.validationTimeoutSeconds = validationTimeoutSeconds;
+        this.maxBackoffMs = maxBackoffMs;
+
+        permits = new ResizableSemaphore(maxSize);
+    }
+
+    /**
+     * Changes the maximum amount of connections. When the pool shrinks, borrowed connections are given back as usual,
+     * but threads have to wait until fewer connections than the new maximum are in use.
+     *
+     * @param newMaxSize The new maximum amount of connections
+     */
+    public synchronized void resize(int newMaxSize) {
+        if(newMaxSize <= 0) {
+            throw new IllegalArgumentException("The maximum amount of connections must be positive");
+        }
+
+        int difference = newMaxSize - maxSize;
+        maxSize = newMaxSize;
+        if(difference > 0) {
+            permits.release(difference);
+        }else if(difference < 0) {
+            permits.reducePermits(-difference);
+        }
+
+        // Close the idle connections which can't all be used anymore
+        PooledConnection connection;
+        while(idleConnections.size() > newMaxSize && (connection = idleConnections.pollLast()) != null) {
+            closeQuietly(connection);
+        }
+    }
+
+    /**
+     * Borrows a connection from the pool. If there's no connection available, this waits until there is one.
+     * The connection must be given back using {@link #release(PooledConnection)} or {@link #invalidate(PooledConnection)}.
+     *
+     * @return A (valid) connection
+     * @throws InterruptedException If the thread was interrupted while waiting
+     */
+    public PooledConnection borrow() throws InterruptedException {
+        permits.acquire();
+
+        try{
+            // Try to re-use an idle connection
+            PooledConnection connection;
+            while((connection = idleConnections.pollFirst()) != null) {
+                if(isUsable(connection)) {
+                    borrows.incrementAndGet();
+                    return connection;
+                }
+
+                closeQuietly(connection);
+            }
+
+            // No usable idle connection, make a new one
+            connection = connect();
+            borrows.incrementAndGet();
+            return connection;
+        }catch(InterruptedException | RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    /**
+     * Gives a connection back to the pool, after which it can be used by other threads.
+     *
+     * @param connection The connection
+     */
+    public void release(PooledConnection connection) {
+        if(System.currentTimeMillis() - connection.createdAt >= maxLifetimeMs || idleConnections.size() >= maxSize) {
+            closeQuietly(connection);
+        }else{
+            connection.lastUsed = System.currentTimeMillis();
+            idleConnections.offerFirst(connection);
+        }
+
+        permits.release();
+    }
+
+    /**
+     * Gives a broken connection back to the pool. The connection will be closed.
+     *
+     * @param connection The connection
+     */
+    public void invalidate(PooledConnection connection) {
+        closeQuietly(connection);
+        permits.release();
+    }
+
+    /**
+     * @return The maximum amount of connections
+     */
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * @return The amount of connections that are currently borrowed
+     */
+    public int getActiveConnections() {
+        // After shrinking, there are fewer than zero available permits until enough connections are given back
+        return maxSize - permits.availablePermits();
+    }
+
+    /**
+     * @return The amount of idle connections
+     */
+    public int getIdleConnections() {
+        return idleConnections.size();
+    }
+
+    public long getConnectionsCreated() {
+        return connectionsCreated.get();
+    }
+
+    public long getConnectionsClosed() {
+        return connectionsClosed.get();
+    }
+
+    public long getConnectFailures() {
+        return connectFailures.get();
+    }
+
+    public long getValidationFailures() {
+        return validationFailures.get();
+    }
+
+    public long getBorrows() {
+        return borrows.get();
+    }
+
+    /**
+     * Checks whether an idle connection can be used.
+     *
+     * @param connection The connection
+     * @return Whether it is still within its lifetime and valid
+     */
+    private boolean isUsable(PooledConnection connection) {
+        long now = System.currentTimeMillis();
+        if(now - connection.createdAt >= maxLifetimeMs) {
+            return false;
+        }
+
+        if(now - connection.lastUsed < validationIdleMs) {
+            return true;
+        }
+
+        try{
+            if(connection.connection.isValid(validationTimeoutSeconds)) {
+                return true;
+            }
+        }catch(SQLException ignored) {}
+
+        validationFailures.incrementAndGet();
+        return false;
+    }
+
+    /**
+     * Makes a new connection. When that fails, this will back off and try again until it works.
+     *
+     * @return The new connection
+     * @throws InterruptedException If the thread was interrupted while backing off
+     */
+    private PooledConnection connect() throws InterruptedException {
+        while(true) {
+            // Wait for the back-off of a previous failure to pass
+            long waitMs;
+            backoffLock.lock();
+            try{
+                waitMs = backoffUntil - System.currentTimeMillis();
+            }finally{
+                backoffLock.unlock();
+            }
+            if(waitMs > 0) {
+                Thread.sleep(waitMs);
+                continue;
+            }
+
+            try{
+                Connection connection = DriverManager.getConnection(url);
+                connectionsCreated.incrementAndGet();
+
+                backoffLock.lock();
+                try{
+                    currentBackoffMs = 0;
+                }finally{
+                    backoffLock.unlock();
+                }
+
+                return new PooledConnection(connection);
+            }catch(SQLException e) {
+                connectFailures.incrementAndGet();
+
+                long backoffMs;
+                backoffLock.lock();
+                try{
+                    currentBackoffMs = currentBackoffMs == 0 ? MIN_BACKOFF_MS : Math.min(maxBackoffMs, currentBackoffMs * 2);
+                    backoffUntil = System.currentTimeMillis() + currentBackoffMs;
+                    backoffMs = currentBackoffMs;
+                }finally{
+                    backoffLock.unlock();
+                }
+
+                System.out.println("Could not connect to the database, trying again in " + backoffMs + "ms: " + e.toString());
+            }
+        }
+    }
+
+    private void closeQuietly(PooledConnection connection) {
+        try{
+            connection.connection.close();
+        }catch(SQLException ignored) {}
+
+        connectionsClosed.incrementAndGet();
+    }
+
+    /**
+     * A connection which belongs to a {@link ConnectionPool}.
+     */
+    public static class PooledConnection {
+        private final Connection connection;
+        private final long createdAt;
+        private long lastUsed;
+
+        // Something the user of the connection wants to keep with it, like cached statements
+        private Object attachment;
+
+        private PooledConnection(Connection connection) {
+            this.connection = connection;
+            this.createdAt = System.currentTimeMillis();
+            this.lastUsed = createdAt;
+        }
+
+        public Connection getConnection() {
+            return connection;
+        }
+
+        public Object getAttachment() {
+            return attachment;
+        }
+
+        public void setAttachment(Object attachment) {
+            this.attachment = attachment;
+        }
+    }
+
+    /**
+     * A {@link Semaphore} of which the amount of permits can be lowered, also while they're in use.
+     */
+    private static class ResizableSemaphore extends Semaphore {
+        private static final long serialVersionUID = 1L;
+
+        private ResizableSemaphore(int permits) {
+            super(permits, true);
+        }
+
+        @Override
+        protected void reducePermits(int reduction) {
+            super.reducePermits(reduction);
+        }
+    }
+}
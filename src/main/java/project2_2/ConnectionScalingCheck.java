@@ -0,0 +1,303 @@
+package project2_2;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * Checks how the client handling modes scale with the amount of connections: for every mode, a server is started (with
+ * the {@link StandInDriver}, so no database is needed), thousands of stations connect with a connection each using the
+ * {@link LoadGenerator}, and the platform threads and the measurements received per second are read from the metrics
+ * of the server.
+ *
+ * Run it with: java -cp project-2.2-1.0-SNAPSHOT-jar-with-dependencies.jar project2_2.ConnectionScalingCheck [key=value ...]
+ *
+ * Options (defaults in brackets):
+ * - modes [blocking,virtual,nio]: the client handling modes to check
+ * - connections [2000]: the amount of connections (every connection is one station)
+ * - rate [1]: the amount of measurements per station per second
+ * - connect_timeout_s [120]: how long connecting all stations may take
+ * - warmup_s [3]: how long to wait after all stations are connected before measuring
+ * - measure_s [10]: how long to measure
+ * - port [7789], http_port [7790]: the ports of the started servers
+ *
+ * Every mode must keep all connections open and receive at least 95% of the measurements which are sent. The nio mode
+ * (and the virtual mode, if virtual threads are supported) must do so with less than one platform thread per 10
+ * connections. The blocking mode needs a platform thread per connection, which is shown but not checked.
+ *
+ * The project is compiled for Java 17, which has no virtual threads: there {@link VirtualThreads} falls back to
+ * platform threads, and the virtual mode behaves (and scales) exactly like the blocking mode. Run the check on Java 21
+ * or newer to see the difference.
+ *
+ * The results are shown as a table, and the exit code is 1 if a check failed.
+ */
+public class ConnectionScalingCheck {
+    private static final double MIN_RECEIVED_RATIO = 0.95;
+    private static final int MAX_CONNECTIONS_PER_THREAD = 10;
+    private static final long SERVER_START_TIMEOUT_MS = 30000;
+
+    private final String[] modes;
+    private final int connections;
+    private final double rate;
+    private final int connectTimeoutS;
+    private final int warmupS;
+    private final int measureS;
+    private final int port;
+    private final int httpPort;
+
+    public ConnectionScalingCheck(Map<String, String> options) {
+        modes = options.getOrDefault("modes", "blocking,virtual,nio").split(",");
+        connections = Integer.parseInt(options.getOrDefault("connections", "2000"));
+        rate = Double.parseDouble(options.getOrDefault("rate", "1"));
+        connectTimeoutS = Integer.parseInt(options.getOrDefault("connect_timeout_s", "120"));
+        warmupS = Integer.parseInt(options.getOrDefault("warmup_s", "3"));
+        measureS = Math.max(1, Integer.parseInt(options.getOrDefault("measure_s", "10")));
+        port = Integer.parseInt(options.getOrDefault("port", "7789"));
+        httpPort = Integer.parseInt(options.getOrDefault("http_port", "7790"));
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new HashMap<>();
+        for(String arg : args) {
+            int eq = arg.indexOf('=');
+            if(eq == -1) {
+                System.out.println("Invalid option " + arg + ", options are given as key=value");
+                System.exit(-1);
+            }
+            options.put(arg.substring(0, eq), arg.substring(eq + 1));
+        }
+
+        System.exit(new ConnectionScalingCheck(options).run() ? 0 : 1);
+    }
+
+    /**
+     * Checks all modes, one after another.
+     *
+     * @return Whether all checks passed
+     * @throws IOException If a server could not be started
+     * @throws InterruptedException If the thread was interrupted
+     */
+    public boolean run() throws IOException, InterruptedException {
+        System.out.printf("Checking %d connections at %.2f measurements per second each, on Java %s (virtual threads %s).%n",
+                connections, rate, System.getProperty("java.version"), VirtualThreads.isSupported() ? "supported" : "not supported");
+
+        List<String> results = new ArrayList<>();
+        boolean passed = true;
+        for(String mode : modes) {
+            Result result = check(mode);
+
+            List<String> failures = new ArrayList<>();
+            if(result.clients < connections) {
+                failures.add("only " + result.clients + " connections were open");
+            }
+            if(result.receivedPerSecond < connections * rate * MIN_RECEIVED_RATIO) {
+                failures.add(String.format("received %.0f measurements per second, expected %.0f", result.receivedPerSecond, connections * rate));
+            }
+            boolean threadPerConnection = mode.equals("blocking") || (mode.equals("virtual") && !VirtualThreads.isSupported());
+            if(!threadPerConnection && result.threads - result.idleThreads > connections / MAX_CONNECTIONS_PER_THREAD) {
+                failures.add((result.threads - result.idleThreads) + " platform threads were started for the connections");
+            }
+
+            passed &= failures.isEmpty();
+            results.add(String.format("%-9s %8d %8d %8d %12.0f  %s", mode, result.clients, result.idleThreads, result.threads,
+                    result.receivedPerSecond, failures.isEmpty() ? "OK" : "FAILED: " + String.join(", ", failures)));
+        }
+
+        System.out.println();
+        System.out.printf("%-9s %8s %8s %8s %12s  %s%n", "mode", "clients", "threads", "threads", "received_ps", "result");
+        System.out.printf("%-9s %8s %8s %8s %12s%n", "", "", "(idle)", "(loaded)", "");
+        for(String result : results) {
+            System.out.println(result);
+        }
+        if(!VirtualThreads.isSupported() && Arrays.asList(modes).contains("virtual")) {
+            System.out.println("The virtual mode used platform threads, virtual threads need Java 21 or newer.");
+        }
+
+        return passed;
+    }
+
+    /**
+     * Starts a server in the mode, sends data over all connections and reads the metrics of the server.
+     */
+    private Result check(String mode) throws IOException, InterruptedException {
+        File directory = Files.createTempDirectory("connection-scaling-" + mode).toFile();
+        System.out.println();
+        System.out.println("Checking client_handling_mode=" + mode + ", the server log is in " + directory + ".");
+
+        writeProperties(new File(directory, Main.PROPERTIES_FILE.getName()), mode);
+
+        // The server runs in its own JVM, so its threads are counted separately
+        Process server = new ProcessBuilder(new File(System.getProperty("java.home"), "bin/java").getPath(),
+                "-cp", absoluteClassPath(), Main.class.getName())
+                .directory(directory)
+                .redirectErrorStream(true)
+                .redirectOutput(new File(directory, "server.log"))
+                .start();
+
+        Result result = new Result();
+        try{
+            Map<String, Double> metrics = waitForServer(server);
+            result.idleThreads = metrics.getOrDefault("weather_jvm_threads", 0.0).intValue();
+
+            Map<String, String> options = new HashMap<>();
+            options.put("port", String.valueOf(port));
+            options.put("stations", String.valueOf(connections));
+            options.put("stations_per_connection", "1");
+            options.put("rate", String.valueOf(rate));
+            options.put("metrics_url", metricsUrl());
+            LoadGenerator generator = new LoadGenerator(options);
+
+            Thread load = new Thread(() -> {
+                try{
+                    generator.run();
+                }catch(InterruptedException e) {
+                    e.printStackTrace();
+                }
+            });
+            load.start();
+
+            // Wait until every station has (tried to) connect, and the data is flowing
+            long connectDeadline = System.currentTimeMillis() + connectTimeoutS * 1000L;
+            while(generator.getOpenConnections() + generator.getFailedConnections() < connections
+                    && System.currentTimeMillis() < connectDeadline) {
+                Thread.sleep(100);
+            }
+            Thread.sleep(warmupS * 1000L);
+
+            Map<String, Double> first = readMetrics();
+            long firstAt = System.currentTimeMillis();
+            Thread.sleep(measureS * 1000L);
+            Map<String, Double> last = readMetrics();
+            long lastAt = System.currentTimeMillis();
+
+            if(first != null && last != null) {
+                result.clients = last.getOrDefault("weather_clients", 0.0).intValue();
+                result.threads = (int) Math.max(first.getOrDefault("weather_jvm_threads", 0.0), last.getOrDefault("weather_jvm_threads", 0.0));
+                result.receivedPerSecond = (last.getOrDefault("weather_measurements_received_total", 0.0)
+                        - first.getOrDefault("weather_measurements_received_total", 0.0)) / ((lastAt - firstAt) / 1000.0);
+            }
+
+            generator.stop();
+            load.join();
+        }finally{
+            server.destroy();
+            server.waitFor();
+        }
+
+        return result;
+    }
+
+    /**
+     * Writes the default server properties, changed to use the {@link StandInDriver} and the mode.
+     */
+    private void writeProperties(File file, String mode) throws IOException {
+        Properties properties = new Properties();
+        try(InputStream in = Main.class.getClassLoader().getResourceAsStream(file.getName())) {
+            if(in != null) {
+                properties.load(in);
+            }
+        }
+
+        properties.setProperty("db_url", StandInDriver.URL_PREFIX + "?latency_ms=1");
+        properties.setProperty("db_driver_class", StandInDriver.class.getName());
+        properties.setProperty("server_port", String.valueOf(port));
+        properties.setProperty("http_enabled", "true");
+        properties.setProperty("http_port", String.valueOf(httpPort));
+        properties.setProperty("stats_console_enabled", "false");
+        properties.setProperty("config_watch_enabled", "false");
+        properties.setProperty("client_handling_mode", mode);
+
+        try(OutputStream out = new FileOutputStream(file)) {
+            properties.store(out, "Written by ConnectionScalingCheck");
+        }
+    }
+
+    /**
+     * @return The class path of this JVM with absolute paths, since the server runs in another directory
+     */
+    private static String absoluteClassPath() {
+        List<String> entries = new ArrayList<>();
+        for(String entry : System.getProperty("java.class.path").split(File.pathSeparator)) {
+            entries.add(new File(entry).getAbsolutePath());
+        }
+        return String.join(File.pathSeparator, entries);
+    }
+
+    /**
+     * Waits until the metrics of the server can be read.
+     *
+     * @return The first metrics
+     */
+    private Map<String, Double> waitForServer(Process server) throws IOException, InterruptedException {
+        long deadline = System.currentTimeMillis() + SERVER_START_TIMEOUT_MS;
+        while(System.currentTimeMillis() < deadline) {
+            if(!server.isAlive()) {
+                throw new IOException("The server stopped with exit code " + server.exitValue() + ", see its server.log");
+            }
+
+            Map<String, Double> metrics = readMetrics();
+            if(metrics != null) {
+                return metrics;
+            }
+            Thread.sleep(200);
+        }
+
+        throw new IOException("The server did not start within " + SERVER_START_TIMEOUT_MS + "ms");
+    }
+
+    private String metricsUrl() {
+        return "http://127.0.0.1:" + httpPort + "/metrics";
+    }
+
+    /**
+     * Reads the metrics of the server, in the Prometheus text format. Histogram buckets and labeled metrics are skipped.
+     *
+     * @return The metrics by name, or null if they could not be read
+     */
+    private Map<String, Double> readMetrics() {
+        try{
+            HttpURLConnection con = (HttpURLConnection) new URL(metricsUrl()).openConnection();
+            con.setConnectTimeout(1000);
+            con.setReadTimeout(2000);
+
+            Map<String, Double> metrics = new HashMap<>();
+            try(BufferedReader reader = new BufferedReader(new InputStreamReader(con.getInputStream(), StandardCharsets.UTF_8))) {
+                String line;
+                while((line = reader.readLine()) != null) {
+                    int space = line.indexOf(' ');
+                    if(line.startsWith("#") || line.contains("{") || space == -1) {
+                        continue;
+                    }
+                    metrics.put(line.substring(0, space), Double.parseDouble(line.substring(space + 1)));
+                }
+            }
+            return metrics;
+        }catch(IOException | NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * The measurements of a single mode.
+     */
+    private static class Result {
+        private int clients;
+        private int idleThreads; // Before the clients connected
+        private int threads; // While the clients were sending data
+        private double receivedPerSecond;
+    }
+}
@@ -1,120 +1,421 @@
 package project2_2;
 
-import java.sql.Connection;
-import java.sql.DriverManager;
-import java.sql.PreparedStatement;
-import java.sql.SQLException;
+import java.io.File;
+import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.SynchronousQueue;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.TimeUnit;
 
 /**
  * A class to help with load-balancing the INSERT queries to the database.
  */
 public class DataInsertionQueue {
-    // Config
-    private final int updateDivision;
-    private final int updateIntervalMs;
-    private final int insertsPerQuery;
-    private final int insertQueryThreads;
+    private static final int INSERT_RETRIES = 10; // The amount of times a chunk is retried before it's dropped
+    private static final long INSERT_POLL_MS = 1000; // How often an idle insert query thread checks whether it should stop
+
+    // Config. The volatile values can be changed while running, see reconfigure(Properties)
+    private volatile int updateDivision;
+    private volatile int updateIntervalMs;
+    private volatile int insertsPerQuery;
+    private volatile int insertQueryThreads;
+    private final boolean insertQueryVirtualThreads;
+    private final long stationEvictionMs;
 
     // Global objects
     private final Properties properties;
     private final RealtimeStatistics statistics;
 
-    private final List<List<Integer>> stationIDBatches = new ArrayList<>(); // <Index, List<StationID>> where index is between 0 and updateDivision
+    // Where the insert query threads write the data to
+    private final StorageSink sink;
+
+    // The connections to the database, shared with the sink, the rollups and the auto deletion
+    private final ConnectionPool connectionPool;
 
-    // Helper fields for stationIDBatches
-    private final Set<Integer> seenStationIDs = new HashSet<>();
-    private final AtomicInteger nextStationIDBatch = new AtomicInteger(0);
+    // Decides which stations are sent in which of the updateDivision slices
+    private final SliceScheduler scheduler;
 
     /**
-     * This map holds the most up-to-date data of the weather stations.
-     * When data gets pushed to the server, it will be removed from this map.
+     * This store holds the most up-to-date data of the weather stations.
+     * When data gets pushed to the server, it will be marked as not new in this store.
+     * Every station is guarded by the lock of its stripe, so there is no global lock.
      */
-    private final Map<Integer, StationWeatherData> latestData = new HashMap<>();
+    private final StripedStationStore latestData;
+
+    // Set when the slices should be rebuilt by the queueData thread, after the update interval or division changed
+    private volatile boolean resizeSlices = false;
+
+    // The running insert query threads, guarded by its own lock
+    private final List<InsertWorker> insertWorkers = new ArrayList<>();
+
+    // Set by shutdown(long), the queueData thread then sends all new data and counts down queueDataStopped
+    private volatile boolean stopping = false;
+    private final CountDownLatch queueDataStopped = new CountDownLatch(1);
 
     /**
      * The synchronous queue for data which should be sent to the database.
      */
-    private final SynchronousQueue<List<StationWeatherData>> insertQueue = new SynchronousQueue<>();
+    private final SynchronousQueue<InsertChunk> insertQueue = new SynchronousQueue<>();
+
+    /**
+     * The (optional) durable spool for data which should be sent to the database.
+     * If this is used, the insertQueue is not.
+     */
+    private final InsertSpool spool;
+
+    /**
+     * The (optional) change detection, which drops readings that haven't changed enough since the last inserted
+     * reading of their station.
+     */
+    private final ChangeDetector changeDetector;
+
+    /**
+     * The stations of which a chunk was dropped by an insert query thread. The change detection forgets them (on the
+     * queueData thread), otherwise their next readings would be compared with a reading which was never inserted.
+     */
+    private final Queue<Integer> droppedStations = new ConcurrentLinkedQueue<>();
+
+    /**
+     * The (optional) minute and hour aggregates of all readings.
+     */
+    private final RollupAggregator rollup;
+
+    /**
+     * The (optional) recent history of every station, which can be queried over HTTP.
+     */
+    private final StationHistory history;
+
+    /**
+     * The (optional) alert rules, which are evaluated on every reading.
+     */
+    private final AlertEngine alerts;
+
+    /**
+     * The (optional) live updates of the stations, which can be subscribed to over HTTP.
+     */
+    private final StationFanout fanout;
+
+    /**
+     * The (optional) snapshot of the station data and the slices, which is loaded when the server starts.
+     */
+    private final StationSnapshot snapshot;
+    private final long snapshotIntervalMs;
 
     /**
      * Constructor of {@link DataInsertionQueue}
      *
      * @param properties The global {@link Properties} object
      * @param statistics The global {@link RealtimeStatistics} object
+     * @param connectionPool The global {@link ConnectionPool} object
      */
-    public DataInsertionQueue(Properties properties, RealtimeStatistics statistics) {
+    public DataInsertionQueue(Properties properties, RealtimeStatistics statistics, ConnectionPool connectionPool) {
         this.properties = properties;
         this.statistics = statistics;
+        this.connectionPool = connectionPool;
 
         updateIntervalMs = Integer.parseInt(properties.getProperty("station_update_interval_ms"));
         updateDivision = updateIntervalMs / Integer.parseInt(properties.getProperty("bulk_update_interval_ms"));
         insertsPerQuery = Integer.parseInt(properties.getProperty("inserts_per_query"));
         insertQueryThreads = Integer.parseInt(properties.getProperty("insert_query_threads"));
+        insertQueryVirtualThreads = Boolean.parseBoolean(properties.getProperty("insert_query_virtual_threads", "false"));
+
+        String storageSink = properties.getProperty("storage_sink", "mysql");
+        switch(storageSink) {
+            case "mysql":
+                sink = new MySqlStorageSink(connectionPool, statistics, properties.getProperty("insert_mode", InsertWriter.MODE_MULTIROW));
+                break;
+            case "columnar":
+                sink = new ColumnarFileSink(new File(properties.getProperty("columnar_directory", "columnar")));
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown storage_sink " + storageSink);
+        }
+
+        latestData = new StripedStationStore(Integer.parseInt(properties.getProperty("station_store_stripes", "64")));
+        statistics.setStationStore(latestData);
+
+        stationEvictionMs = Long.parseLong(properties.getProperty("station_eviction_ms", "300000"));
+        scheduler = new SliceScheduler(updateDivision, updateIntervalMs / updateDivision,
+                Double.parseDouble(properties.getProperty("slice_rebalance_tolerance", "0.2")), insertQueryThreads);
+
+        if(Boolean.parseBoolean(properties.getProperty("spool_enabled", "false"))) {
+            spool = new InsertSpool(new File(properties.getProperty("spool_directory", "spool")),
+                    Integer.parseInt(properties.getProperty("spool_segment_size_mb", "16")) * 1024 * 1024,
+                    Integer.parseInt(properties.getProperty("spool_max_segments", "64")),
+                    Long.parseLong(properties.getProperty("spool_force_interval_ms", "1000")));
+        }else{
+            spool = null;
+        }
+
+        if(Boolean.parseBoolean(properties.getProperty("delta_suppression_enabled", "false"))) {
+            changeDetector = new ChangeDetector(properties.getProperty("delta_dead_bands", ""),
+                    Long.parseLong(properties.getProperty("delta_heartbeat_ms", "600000")));
+        }else{
+            changeDetector = null;
+        }
+
+        if(Boolean.parseBoolean(properties.getProperty("rollup_enabled", "false"))) {
+            rollup = new RollupAggregator(statistics, connectionPool,
+                    Long.parseLong(properties.getProperty("rollup_flush_interval_ms", "10000")),
+                    Long.parseLong(properties.getProperty("rollup_grace_seconds", "120")));
+        }else{
+            rollup = null;
+        }
 
-        for(int i = 0; i < updateDivision; i++) {
-            stationIDBatches.add(new ArrayList<>());
+        if(Boolean.parseBoolean(properties.getProperty("history_enabled", "false"))) {
+            history = new StationHistory(Integer.parseInt(properties.getProperty("history_hours", "3")),
+                    Integer.parseInt(properties.getProperty("history_sample_interval_s", "60")));
+        }else{
+            history = null;
         }
+
+        if(Boolean.parseBoolean(properties.getProperty("alerts_enabled", "false"))) {
+            alerts = new AlertEngine(new File(properties.getProperty("alert_rules_file", "alert-rules.properties")),
+                    new File(properties.getProperty("alert_log_file", "alerts.log")), statistics);
+        }else{
+            alerts = null;
+        }
+
+        if(Boolean.parseBoolean(properties.getProperty("fanout_enabled", "false"))) {
+            fanout = new StationFanout(Integer.parseInt(properties.getProperty("fanout_max_subscribers", "100")), statistics);
+        }else{
+            fanout = null;
+        }
+
+        if(Boolean.parseBoolean(properties.getProperty("snapshot_enabled", "false"))) {
+            snapshot = new StationSnapshot(new File(properties.getProperty("snapshot_file", "station-state.snapshot")));
+        }else{
+            snapshot = null;
+        }
+        snapshotIntervalMs = Long.parseLong(properties.getProperty("snapshot_interval_ms", "10000"));
     }
 
     /**
      * Starts all required threads.
+     *
+     * @throws IOException If the storage sink, the spool or the snapshot could not be opened
      */
-    public void startThreads() {
+    public void startThreads() throws IOException {
+        if(snapshot != null) {
+            long loadStart = System.nanoTime();
+            int loaded = snapshot.load(latestData, scheduler);
+            if(loaded >= 0) {
+                System.out.println("Loaded " + loaded + " stations from the snapshot in " + (System.nanoTime() - loadStart) / 1000000 + "ms.");
+            }
+        }
+
+        System.out.println("Writing the data to " + sink.describe() + ".");
+        sink.open();
+
+        if(spool != null) {
+            System.out.println("Using the insert spool in " + properties.getProperty("spool_directory", "spool") + ".");
+            spool.open();
+        }
+
+        if(changeDetector != null) {
+            System.out.println("Only inserting readings which have changed, with dead-bands " + properties.getProperty("delta_dead_bands", "") + ".");
+        }
+
+        if(rollup != null) {
+            System.out.println("Aggregating all readings per minute and per hour.");
+            rollup.startThread();
+        }
+
+        if(history != null) {
+            System.out.println("Keeping " + history.getCapacity() + " history samples per station.");
+        }
+
+        if(alerts != null) {
+            Main.saveDefaultFile(new File(properties.getProperty("alert_rules_file", "alert-rules.properties")));
+            alerts.startThread();
+        }
+
         // Starts the queueData thread.
         new Thread(this::queueDataThread).start();
 
         // Starts multiple processInsertQueue threads.
-        System.out.println("Starting " + insertQueryThreads + " insert query threads.");
-        for(int i = 0; i < insertQueryThreads; i++) {
-            new Thread(this::processInsertQueueThread).start();
+        System.out.println("Starting " + insertQueryThreads + (insertQueryVirtualThreads ? " virtual" : "") + " insert query threads.");
+        resizeInsertWorkers(insertQueryThreads);
+    }
+
+    /**
+     * Applies new values of the pipeline tuning properties, without dropping any station data:
+     * - insert_query_threads: insert query threads are started, or stopped once they've finished their current chunk
+     * - inserts_per_query: used for the chunks of the next slice
+     * - station_update_interval_ms and bulk_update_interval_ms: the stations are spread over the new slices before the
+     *   next slice is sent
+     * - db_pool_size: the connection pool is resized. When the data is written to the database, it must have at least
+     *   a connection for every insert query thread, otherwise the extra threads would only wait for a connection.
+     *
+     * @param properties The properties containing the new values
+     * @throws IllegalArgumentException If one of the values is invalid, in which case nothing is changed
+     */
+    public void reconfigure(Properties properties) {
+        int newUpdateIntervalMs = Integer.parseInt(properties.getProperty("station_update_interval_ms"));
+        int newBulkUpdateIntervalMs = Integer.parseInt(properties.getProperty("bulk_update_interval_ms"));
+        int newInsertsPerQuery = Integer.parseInt(properties.getProperty("inserts_per_query"));
+        int newInsertQueryThreads = Integer.parseInt(properties.getProperty("insert_query_threads"));
+        int newPoolSize = Integer.parseInt(properties.getProperty("db_pool_size", String.valueOf(newInsertQueryThreads + 1)));
+        if(newBulkUpdateIntervalMs <= 0 || newUpdateIntervalMs < newBulkUpdateIntervalMs || newInsertsPerQuery <= 0 || newInsertQueryThreads <= 0 || newPoolSize <= 0) {
+            throw new IllegalArgumentException("station_update_interval_ms must be at least bulk_update_interval_ms, and all values must be positive");
+        }
+        if(sink instanceof MySqlStorageSink && newInsertQueryThreads > newPoolSize) {
+            throw new IllegalArgumentException("insert_query_threads=" + newInsertQueryThreads + " needs at least as many database connections, " +
+                    "set db_pool_size to at least " + (newInsertQueryThreads + 1) + " (the rollups and the auto deletion use the pool too)");
+        }
+
+        if(newPoolSize != connectionPool.getMaxSize()) {
+            connectionPool.resize(newPoolSize);
+        }
+
+        insertsPerQuery = newInsertsPerQuery;
+
+        int newUpdateDivision = newUpdateIntervalMs / newBulkUpdateIntervalMs;
+        if(newUpdateIntervalMs != updateIntervalMs || newUpdateDivision != updateDivision) {
+            updateIntervalMs = newUpdateIntervalMs;
+            updateDivision = newUpdateDivision;
+            resizeSlices = true;
+        }
+
+        if(newInsertQueryThreads != insertQueryThreads) {
+            insertQueryThreads = newInsertQueryThreads;
+            scheduler.setInsertThreads(newInsertQueryThreads);
+            resizeInsertWorkers(newInsertQueryThreads);
         }
     }
 
+    /**
+     * Starts or stops insert query threads, until the given amount is running.
+     */
+    private void resizeInsertWorkers(int count) {
+        synchronized(insertWorkers) {
+            while(insertWorkers.size() > count) {
+                insertWorkers.remove(insertWorkers.size() - 1).stopped = true;
+            }
+
+            while(insertWorkers.size() < count) {
+                InsertWorker worker = new InsertWorker();
+                insertWorkers.add(worker);
+
+                if(insertQueryVirtualThreads) {
+                    worker.thread = VirtualThreads.start(() -> processInsertQueueThread(worker));
+                }else{
+                    worker.thread = new Thread(() -> processInsertQueueThread(worker));
+                    worker.thread.start();
+                }
+            }
+        }
+    }
+
+    /**
+     * Stops sending data to the storage sink, without losing the data which was received already:
+     * - the queueData thread sends the new data of all slices right away, and writes a final snapshot
+     * - the rollup windows which are still open are closed and written
+     * - the insert query threads finish the data which was queued, and are stopped
+     * - the spool is closed (the chunks which weren't inserted are replayed after a restart)
+     * - the storage sink is closed
+     * The ingest pipeline (if any) should be drained before this is called. Data which is received after this is called
+     * may not be sent anymore.
+     *
+     * @param timeoutMs The maximum time to wait for each of the steps, in milliseconds
+     * @throws InterruptedException If the thread was interrupted while waiting
+     */
+    public void shutdown(long timeoutMs) throws InterruptedException {
+        stopping = true;
+        if(!queueDataStopped.await(timeoutMs, TimeUnit.MILLISECONDS)) {
+            System.out.println("The queueData thread didn't finish within " + timeoutMs + "ms, some data may not have been sent.");
+        }
+
+        if(rollup != null) {
+            rollup.flushAll();
+        }
+
+        List<InsertWorker> workers;
+        synchronized(insertWorkers) {
+            workers = new ArrayList<>(insertWorkers);
+            resizeInsertWorkers(0);
+        }
+
+        long deadline = System.currentTimeMillis() + timeoutMs;
+        for(InsertWorker worker : workers) {
+            long remainingMs = deadline - System.currentTimeMillis();
+            if(remainingMs > 0) {
+                worker.thread.join(remainingMs);
+            }
+        }
+
+        if(spool != null) {
+            spool.close();
+        }
+
+        sink.close();
+    }
+
     /**
      * Should be called when a client received new data.
      *
      * @param data A datapoint which the client received.
      */
     public void onDataReceive(StationWeatherData data) {
-        // Check if we've seen this station ID before
-        boolean newlyAdded;
-        synchronized(seenStationIDs) {
-            newlyAdded = seenStationIDs.add(data.stationId);
+        // Every reading counts for the aggregates, not just the ones we insert
+        if(rollup != null) {
+            rollup.add(data);
+        }
+        if(history != null) {
+            history.add(data);
+        }
+        if(alerts != null) {
+            alerts.evaluate(data);
         }
 
-        // If we haven't seen this station ID before, add it to the batch list
+        // Add the data point. Missing values are filled in with the previous data of this station.
+        boolean newlyAdded = latestData.merge(data);
+
+        // If we haven't seen this station ID before (or it was evicted), add it to one of the slices
         if(newlyAdded) {
-            synchronized(nextStationIDBatch) {
-                synchronized(stationIDBatches) {
-                    stationIDBatches.get(nextStationIDBatch.get())
-                            .add(data.stationId);
-                }
+            scheduler.addStation(data.stationId);
+        }
 
-                int newValue = nextStationIDBatch.incrementAndGet();
-                if(newValue >= updateDivision) {
-                    nextStationIDBatch.set(0);
-                }
+        // Push the (merged) data to the subscribers of this station, if there are any
+        if(fanout != null && fanout.hasSubscribers(data.stationId)) {
+            StationWeatherData latest = latestData.copyOf(data.stationId);
+            if(latest != null) {
+                fanout.publish(latest);
             }
         }
+    }
 
-        // Add each data point
-        StationWeatherData memData;
-        synchronized(latestData) {
-            memData = latestData.get(data.stationId);
-        }
+    /**
+     * @param stationId The station ID
+     * @return A copy of the latest (merged) data of the station, or null if we have no data of the station
+     */
+    public StationWeatherData copyOfLatestData(int stationId) {
+        return latestData.copyOf(stationId);
+    }
 
-        if(memData == null) {
-            synchronized(latestData) {
-                latestData.put(data.stationId, data);
-            }
-        }else{
-            // Update the missing data with data from the previous data
-            memData.updateAllFrom(data);
-            memData.isNew = true;
-        }
+    /**
+     * Stations in the same stripe share a lock when their data is merged, see {@link #onDataReceive(StationWeatherData)}.
+     *
+     * @param stationId The station ID
+     * @return The index of the stripe of the station
+     */
+    public int stripeOf(int stationId) {
+        return latestData.stripeOf(stationId);
+    }
+
+    /**
+     * @return The live updates of the stations, or null if they can't be subscribed to
+     */
+    public StationFanout getStationFanout() {
+        return fanout;
+    }
+
+    /**
+     * @return The recent history of every station, or null if it isn't kept
+     */
+    public StationHistory getStationHistory() {
+        return history;
     }
 
     /**
@@ -128,59 +429,109 @@ public class DataInsertionQueue {
      * Every 10(interval) / 100(division) = 0.1 seconds the thread will push 1 / 100(division) = 1% of
      * the station's (evenly distributed) data to the synchronous queue insertQueue.
      * Once 10 seconds has elapsed, the thread will have pushed 1% * 100(division) = 100% of the data to the database server.
+     *
+     * The {@link SliceScheduler} keeps the slices balanced, and stretches the time of a slice when the database can't keep up.
+     * Stations which haven't sent data for station_eviction_ms are removed (with their history). If delta suppression
+     * is enabled, readings which haven't changed enough (see {@link ChangeDetector}) are skipped.
+     *
+     * If snapshots are enabled, a snapshot is written every snapshot_interval_ms. Once the server is stopping, the
+     * remaining slices are sent without sleeping, a final snapshot is written, and the thread stops.
      */
     private void queueDataThread() {
         try{
-            // Keep track of which stage we're at.
-            // This timer will loop from 0 to division-1, back to 0 (etc. etc.)
-            int updateTimer = 0;
-
             List<List<StationWeatherData>> dataToSendChunks = new ArrayList<>();
+            long nextSnapshotAt = System.currentTimeMillis() + snapshotIntervalMs;
+            int drainSlices = -1; // The amount of slices which still have to be sent before stopping, -1 if not stopping
 
             while(true) {
                 long start = System.currentTimeMillis();
+                int insertsPerQuery = this.insertsPerQuery;
 
-                // Update the timer
-                updateTimer++;
-                if(updateTimer >= updateDivision) {
-                    updateTimer = 0;
+                if(stopping && drainSlices == -1) {
+                    drainSlices = scheduler.getSlicesCount();
+                }
+
+                // Spread the stations over the new slices, if the interval or the division has changed
+                if(resizeSlices) {
+                    resizeSlices = false;
+                    scheduler.resize(updateDivision, updateIntervalMs / updateDivision);
+                    System.out.println("Divided the station update interval of " + updateIntervalMs + "ms in " + updateDivision + " slices.");
+                }
+
+                // Move on to the next slice
+                int slice = scheduler.nextSlice();
+
+                if(changeDetector != null) {
+                    Integer droppedStation;
+                    while((droppedStation = droppedStations.poll()) != null) {
+                        changeDetector.remove(droppedStation);
+                    }
+                }
+
+                if(snapshot != null && start >= nextSnapshotAt) {
+                    nextSnapshotAt = start + snapshotIntervalMs;
+                    writeSnapshot();
                 }
 
                 // Figure out which data needs to be sent!
                 dataToSendChunks.add(new ArrayList<>(insertsPerQuery));
                 int chunkIndex = 0;
-
-                synchronized(stationIDBatches) {
-                    for(Integer stationId : stationIDBatches.get(updateTimer)) { // stationIDBatches is indexed from 0 to the max value of updateTimer, and contains each station ID
-                        StationWeatherData data = latestData.get(stationId);
-                        if(data == null || !data.isNew) {
-                            continue;
+                int rows = 0;
+                int evicted = 0;
+                int suppressed = 0;
+                long evictBefore = start - stationEvictionMs;
+
+                Iterator<Integer> it = scheduler.stationsOf(slice).iterator();
+                while(it.hasNext()) {
+                    int stationId = it.next();
+
+                    // This marks the data as not new, so it won't be sent multiple times.
+                    // We get a copy of the data, but only if it was new and it is complete.
+                    StationWeatherData data = latestData.takeIfNew(stationId);
+                    if(data == null) {
+                        // Remove the station if it has gone silent
+                        if(latestData.removeIfIdle(stationId, evictBefore)) {
+                            it.remove();
+                            if(changeDetector != null) {
+                                changeDetector.remove(stationId);
+                            }
+                            if(history != null) {
+                                history.remove(stationId);
+                            }
+                            evicted++;
                         }
+                        continue;
+                    }
 
-                        // To prevent this data from being sent multiple times, set the isNew flag to false
-                        // Don't remove it! We use it in onDataReceive to fix broken values with previous data
-                        data.isNew = false;
+                    // Skip the data if it hasn't changed enough since the last time it was sent
+                    if(changeDetector != null && !changeDetector.shouldInsert(data, start)) {
+                        suppressed++;
+                        continue;
+                    }
 
-                        // Don't insert the datapoint if the data isn't complete
-                        if(!data.isComplete()) {
-                            continue;
-                        }
+                    // This data should be sent right now!
 
-                        // This data should be sent right now!
+                    List<StationWeatherData> currentChunk = dataToSendChunks.get(chunkIndex);
+                    if(currentChunk.size() >= insertsPerQuery) {
+                        chunkIndex++;
 
-                        List<StationWeatherData> currentChunk = dataToSendChunks.get(chunkIndex);
-                        if(currentChunk.size() >= insertsPerQuery) {
-                            chunkIndex++;
+                        currentChunk = new ArrayList<>(insertsPerQuery);
+                        dataToSendChunks.add(currentChunk);
+                    }
 
-                            currentChunk = new ArrayList<>(insertsPerQuery);
-                            dataToSendChunks.add(currentChunk);
-                        }
+                    currentChunk.add(data);
+                    rows++;
+                }
 
-                        currentChunk.add(data);
-                    }
+                scheduler.recordSliceLoad(slice, rows);
+                if(suppressed > 0) {
+                    statistics.addSuppressedReadings(suppressed);
+                }
+                if(evicted > 0) {
+                    System.out.println("Evicted " + evicted + " stations which haven't sent data for " + stationEvictionMs + "ms.");
                 }
 
-                // Insert all data that needs to be sent in the insertQueue synchronous queue.
+                // Insert all data that needs to be sent in the insertQueue synchronous queue (or the spool).
                 // When we do this, the multiple processInsertQueue threads will take care of
                 // pushing the data to the database.
                 for(List<StationWeatherData> chunk : dataToSendChunks) {
@@ -189,23 +540,38 @@ public class DataInsertionQueue {
                     }
 
                     try{
-                        insertQueue.put(chunk);
-                    }catch(InterruptedException e) {
+                        if(spool != null) {
+                            spool.append(chunk);
+                        }else{
+                            insertQueue.put(new InsertChunk(chunk));
+                        }
+                    }catch(InterruptedException | IOException e) {
                         e.printStackTrace();
                     }
                 }
 
+                // Sleep for the required time
+                long sleepMs = scheduler.sliceBudgetMs(rows == 0 ? 0 : chunkIndex + 1) - (System.currentTimeMillis() - start);
+
                 // Clean-up
                 dataToSendChunks.clear();
-
-                // Sleep for the required time
-                long sleepMs = updateIntervalMs / updateDivision - (System.currentTimeMillis() - start);
-                if(sleepMs > 0) {
+                if(drainSlices != -1) {
+                    // Don't sleep while stopping
+                    if(--drainSlices == 0) {
+                        break;
+                    }
+                }else if(sleepMs > 0) {
                     try{
                         Thread.sleep(sleepMs);
                     }catch(InterruptedException ignored) {}
                 }
             }
+
+            if(snapshot != null) {
+                writeSnapshot();
+            }
+            System.out.println("Sent the data of all stations, the queueData thread has stopped.");
+            queueDataStopped.countDown();
         }catch(Exception e) {
             e.printStackTrace();
 
@@ -218,84 +584,129 @@ public class DataInsertionQueue {
     }
 
     /**
-     * This thread will be executed multiple times, simultaneously.
-     *
-     * These threads are responsible for taking data off of the insertQueue synchronous queue, and actually inserting it to the database.
+     * Writes a snapshot of the station data and the slices. Only called from the queueData thread.
      */
-    private void processInsertQueueThread() {
+    private void writeSnapshot() {
         try{
-            // Set up a database connection that we can use in the thread.
-            Connection con = DriverManager.getConnection(properties.getProperty("db_url"));
+            long snapshotStart = System.nanoTime();
+            int written = snapshot.write(latestData, scheduler);
+            statistics.recordSnapshot(written, System.nanoTime() - snapshotStart);
+        }catch(IOException e) {
+            System.out.println("Could not write the snapshot: " + e.toString());
+        }
+    }
 
-            while(true) {
-                List<StationWeatherData> chunk;
-                try{
-                    // Take data off of the insertQueue queue.
-                    // This method is blocking, so we halt code execution until we actually receive some data.
-                    chunk = insertQueue.take();
-                }catch(InterruptedException e) {
-                    e.printStackTrace();
-                    continue;
-                }
+    /**
+     * This thread will be executed multiple times, simultaneously.
+     *
+     * These threads are responsible for taking data off of the insertQueue synchronous queue, and actually writing it to the {@link StorageSink}.
+     * A thread stops when its worker is stopped, after finishing the chunk it's working on.
+     *
+     * @param worker The worker this thread runs
+     */
+    private void processInsertQueueThread(InsertWorker worker) {
+        while(!worker.stopped) {
+            InsertChunk chunk;
+            try{
+                // Take data off of the insertQueue queue (or the spool).
+                // This method is blocking, so we halt code execution until we actually receive some data (or it's time
+                // to check whether this thread should stop).
+                chunk = spool != null ? spool.poll(INSERT_POLL_MS, TimeUnit.MILLISECONDS) : insertQueue.poll(INSERT_POLL_MS, TimeUnit.MILLISECONDS);
+            }catch(InterruptedException e) {
+                e.printStackTrace();
+                continue;
+            }
 
-                if(chunk.isEmpty()) {
-                    continue;
-                }
+            if(chunk == null) {
+                continue;
+            }
 
-                StringBuilder query = new StringBuilder(245 + 38 * chunk.size());
-                query.append("INSERT INTO data(station_id,date,temperature,dew_point,station_air_pressure,sea_air_pressure,visibility,wind_speed,precipitation,snow_height,overcast,wind_direction,has_frozen,has_rained,has_snowed,has_hailed,has_thundered,has_whirlwinded)VALUES");
+            if(chunk.rows.isEmpty()) {
+                continue;
+            }
 
-                for(int i = 0; i < chunk.size(); i++) {
-                    if(i != 0) {
-                        query.append(',');
-                    }
+            // Retried chunks would count their earlier attempts as waiting time
+            if(chunk.failedAttempts == 0) {
+                statistics.recordQueueWaitTime(chunk.queuedAt);
+            }
 
-                    query.append("(?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?)");
+            boolean inserted;
+            boolean failedWithError = false;
+            try{
+                long writeStart = System.nanoTime();
+                inserted = sink.write(chunk.rows);
+                if(inserted) {
+                    scheduler.recordInsertLatency(System.nanoTime() - writeStart);
+                    statistics.addInsertions(chunk.rows.size());
                 }
+            }catch(InterruptedException e) {
+                e.printStackTrace();
+                inserted = false;
+            }catch(RuntimeException e) {
+                // A bug in the driver or the sink shouldn't stop this thread, the chunk is handled like a failed write
+                System.out.println("Error while writing " + chunk.rows.size() + " data points: " + e.toString());
+                e.printStackTrace();
+                inserted = false;
+                failedWithError = true;
+            }
 
-                // Prepare the statement
-                PreparedStatement stmt = con.prepareStatement(query.toString());
-
-                // Set the values of the statement
-                for(int i = 0; i < chunk.size(); i++) {
-                    StationWeatherData data = chunk.get(i);
-
-                    int offset = i * 18;
-                    stmt.setInt    (offset + 1,  data.stationId);
-                    stmt.setInt    (offset + 2,  data.calculateUnixTime());
-                    stmt.setFloat  (offset + 3,  data.temperature);
-                    stmt.setFloat  (offset + 4,  data.dewPoint);
-                    stmt.setFloat  (offset + 5,  data.stationAirPressure);
-                    stmt.setFloat  (offset + 6,  data.seaAirPressure);
-                    stmt.setFloat  (offset + 7,  data.visibility);
-                    stmt.setFloat  (offset + 8,  data.windSpeed);
-                    stmt.setFloat  (offset + 9,  data.precipitation);
-                    stmt.setFloat  (offset + 10, data.snowHeight);
-                    stmt.setFloat  (offset + 11, data.overcast);
-                    stmt.setInt    (offset + 12, data.windDirection);
-                    stmt.setBoolean(offset + 13, data.hasFrozen);
-                    stmt.setBoolean(offset + 14, data.hasRained);
-                    stmt.setBoolean(offset + 15, data.hasSnowed);
-                    stmt.setBoolean(offset + 16, data.hasHailed);
-                    stmt.setBoolean(offset + 17, data.hasThundered);
-                    stmt.setBoolean(offset + 18, data.hasWhirlwinded);
+            if(spool != null) {
+                if(inserted) {
+                    spool.acknowledge(chunk);
+                }else if(++chunk.failedAttempts < INSERT_RETRIES) {
+                    spool.retry(chunk);
+                }else{
+                    System.out.println("Dropped " + chunk.rows.size() + " spooled data points after " + chunk.failedAttempts + " attempts.");
+                    spool.acknowledge(chunk);
+                    forgetInserted(chunk);
                 }
+            }else if(!inserted && !(failedWithError && requeue(chunk))) {
+                System.out.println("Dropped " + chunk.rows.size() + " data points.");
+                forgetInserted(chunk);
+            }
 
-                // EXECUTE!
-                stmt.executeUpdate();
+            if(inserted && chunk.receivedAt != 0) {
+                statistics.recordReceiveToInsertDelay(chunk.receivedAt);
+            }
+        }
+    }
 
-                // Update statistics!
-                statistics.addSQLQuery();
-                statistics.addInsertions(chunk.size());
+    /**
+     * Lets the change detection forget the readings of a dropped chunk, so the next readings of its stations are
+     * inserted even if they haven't changed.
+     */
+    private void forgetInserted(InsertChunk chunk) {
+        if(changeDetector != null) {
+            for(StationWeatherData data : chunk.rows) {
+                droppedStations.add(data.stationId);
             }
-        }catch(Exception e) {
-            e.printStackTrace();
+        }
+    }
 
-            // Start again after a timeout!
-            try{
-                Thread.sleep(5000);
-            }catch(InterruptedException ignored) {}
-            processInsertQueueThread();
+    /**
+     * Hands a chunk which could not be written because of an error to another insert query thread, if it hasn't
+     * failed too often yet.
+     *
+     * @return Whether the chunk was requeued
+     */
+    private boolean requeue(InsertChunk chunk) {
+        if(++chunk.failedAttempts >= INSERT_RETRIES) {
+            return false;
+        }
+
+        try{
+            return insertQueue.offer(chunk, INSERT_POLL_MS, TimeUnit.MILLISECONDS);
+        }catch(InterruptedException e) {
+            e.printStackTrace();
+            return false;
         }
     }
+
+    /**
+     * The state of a single insert query thread.
+     */
+    private static class InsertWorker {
+        private volatile boolean stopped = false;
+        private Thread thread;
+    }
 }
@@ -0,0 +1,136 @@
+package project2_2;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+
+/**
+ * A small HTTP server (using the HTTP server which comes with the JDK), which serves the local APIs of the server.
+ * Handlers are added with {@link #addHandler(String, HttpHandler)} before the server is started.
+ */
+public class EmbeddedHttpServer {
+    private final HttpServer server;
+    private final String bindAddress;
+    private final int port;
+
+    /**
+     * Constructor of {@link EmbeddedHttpServer}
+     *
+     * @param bindAddress The address to listen on, for example 127.0.0.1 for local clients only, or 0.0.0.0 for all
+     *                    interfaces
+     * @param port The port to listen on
+     * @param threads The amount of threads handling requests
+     * @throws IOException If the port could not be bound
+     */
+    public EmbeddedHttpServer(String bindAddress, int port, int threads) throws IOException {
+        this.bindAddress = bindAddress;
+        this.port = port;
+
+        server = HttpServer.create(new InetSocketAddress(bindAddress, port), 0);
+        server.setExecutor(Executors.newFixedThreadPool(threads));
+    }
+
+    /**
+     * Adds a handler for all requests of which the path starts with a prefix.
+     *
+     * @param pathPrefix The prefix, for example /history
+     * @param handler The handler
+     */
+    public void addHandler(String pathPrefix, HttpHandler handler) {
+        createContext(pathPrefix, handler, true);
+    }
+
+    /**
+     * Adds a handler which keeps streaming the response after it has returned (on a thread of its own), for all
+     * requests of which the path starts with a prefix. The handler has to close the exchange itself, unless it throws.
+     *
+     * @param pathPrefix The prefix, for example /subscribe
+     * @param handler The handler
+     */
+    public void addStreamingHandler(String pathPrefix, HttpHandler handler) {
+        createContext(pathPrefix, handler, false);
+    }
+
+    private void createContext(String pathPrefix, HttpHandler handler, boolean closeWhenHandled) {
+        server.createContext(pathPrefix, exchange -> {
+            boolean failed = true;
+            try{
+                handler.handle(exchange);
+                failed = false;
+            }catch(IllegalArgumentException e) {
+                // Bad parameters, tell the client what's wrong
+                sendResponse(exchange, 400, "text/plain", e.getMessage() + "\n");
+            }catch(Exception e) {
+                e.printStackTrace();
+                sendResponse(exchange, 500, "text/plain", e.toString() + "\n");
+            }finally{
+                if(closeWhenHandled || failed) {
+                    exchange.close();
+                }
+            }
+        });
+    }
+
+    /**
+     * Starts the server.
+     */
+    public void start() {
+        System.out.println("Starting HTTP server at " + bindAddress + ":" + port);
+        server.start();
+    }
+
+    /**
+     * Sends a complete response.
+     *
+     * @param exchange The exchange
+     * @param status The HTTP status code
+     * @param contentType The content type of the body
+     * @param body The body
+     * @throws IOException If the response could not be sent
+     */
+    public static void sendResponse(HttpExchange exchange, int status, String contentType, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+
+        exchange.getResponseHeaders().set("Content-Type", contentType + "; charset=utf-8");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try(OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    /**
+     * Parses the query parameters of a request. If a parameter is given multiple times, the last one wins.
+     *
+     * @param exchange The exchange
+     * @return The parameters
+     */
+    public static Map<String, String> queryParameters(HttpExchange exchange) {
+        Map<String, String> parameters = new HashMap<>();
+
+        String query = exchange.getRequestURI().getRawQuery();
+        if(query == null) {
+            return parameters;
+        }
+
+        for(String pair : query.split("&")) {
+            int eq = pair.indexOf('=');
+            if(eq == -1) {
+                parameters.put(URLDecoder.decode(pair, StandardCharsets.UTF_8), "");
+            }else{
+                parameters.put(URLDecoder.decode(pair.substring(0, eq), StandardCharsets.UTF_8),
+                        URLDecoder.decode(pair.substring(eq + 1), StandardCharsets.UTF_8));
+            }
+        }
+
+        return parameters;
+    }
+}
@@ -0,0 +1,120 @@
+package project2_2;
+
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A bounded ring buffer of raw measurement frames, which sits between the client handler threads and a parser worker
+ * of the {@link IngestPipeline}.
+ *
+ * All slots are allocated up front, and frames are copied in and out of them, so no memory is allocated per frame.
+ * Putting a frame blocks while the ring is full, so a parser which can't keep up slows down the reading of the
+ * clients (and TCP slows down the clients) instead of using more and more memory.
+ */
+public class FrameRing {
+    private final byte[][] slots;
+    private final int[] lengths;
+    private final byte[] protocols;
+
+    private int head = 0; // The next slot to take
+    private int count = 0;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final Condition notFull = lock.newCondition();
+
+    /**
+     * Constructor of {@link FrameRing}
+     *
+     * @param size The amount of slots
+     * @param frameCapacity The maximum size of a frame, in bytes
+     */
+    public FrameRing(int size, int frameCapacity) {
+        slots = new byte[size][frameCapacity];
+        lengths = new int[size];
+        protocols = new byte[size];
+    }
+
+    /**
+     * Copies a frame into the ring, waiting for a free slot if the ring is full. The frame consists of two parts, so
+     * a frame which was received in two reads doesn't have to be copied together first.
+     *
+     * @param protocol The protocol of the frame
+     * @param a The buffer of the first part
+     * @param aOff The offset of the first part
+     * @param aLen The length of the first part
+     * @param b The buffer of the second part
+     * @param bOff The offset of the second part
+     * @param bLen The length of the second part, the total length may be at most the frame capacity
+     * @throws InterruptedException If the thread was interrupted while waiting
+     */
+    public void put(byte protocol, byte[] a, int aOff, int aLen, byte[] b, int bOff, int bLen) throws InterruptedException {
+        lock.lock();
+        try{
+            while(count == slots.length) {
+                notFull.await();
+            }
+
+            int tail = (head + count) % slots.length;
+            System.arraycopy(a, aOff, slots[tail], 0, aLen);
+            System.arraycopy(b, bOff, slots[tail], aLen, bLen);
+            lengths[tail] = aLen + bLen;
+            protocols[tail] = protocol;
+
+            count++;
+            notEmpty.signal();
+        }finally{
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Copies the oldest frame out of the ring, waiting for one if the ring is empty.
+     *
+     * @param into The frame to copy it to, its buffer must be at least the frame capacity
+     * @throws InterruptedException If the thread was interrupted while waiting
+     */
+    public void take(Frame into) throws InterruptedException {
+        lock.lock();
+        try{
+            while(count == 0) {
+                notEmpty.await();
+            }
+
+            into.length = lengths[head];
+            into.protocol = protocols[head];
+            System.arraycopy(slots[head], 0, into.data, 0, into.length);
+
+            head = (head + 1) % slots.length;
+            count--;
+            notFull.signal();
+        }finally{
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return The amount of frames in the ring
+     */
+    public int size() {
+        lock.lock();
+        try{
+            return count;
+        }finally{
+            lock.unlock();
+        }
+    }
+
+    /**
+     * A frame which was taken from the ring.
+     */
+    public static class Frame {
+        public final byte[] data;
+        public int length;
+        public byte protocol;
+
+        public Frame(int frameCapacity) {
+            data = new byte[frameCapacity];
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package project2_2;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.Inflater;
+
+/**
+ * A pool of {@link Inflater}s, so compressed connections don't have to allocate the native state of an inflater every
+ * time they connect. Inflaters with and without the zlib wrapper are kept apart.
+ */
+public class InflaterPool {
+    private final int maxIdle;
+
+    private final Queue<Inflater> zlibInflaters = new ConcurrentLinkedQueue<>();
+    private final Queue<Inflater> rawInflaters = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger idle = new AtomicInteger();
+
+    /**
+     * Constructor of {@link InflaterPool}
+     *
+     * @param maxIdle The maximum amount of inflaters to keep when they're not used
+     */
+    public InflaterPool(int maxIdle) {
+        this.maxIdle = maxIdle;
+    }
+
+    /**
+     * Borrows an inflater from the pool, or makes a new one if there's none available.
+     *
+     * @param nowrap Whether the inflater should read raw deflate data (for gzip) instead of zlib data
+     * @return The inflater, which should be released when it's not used anymore
+     */
+    public Inflater borrow(boolean nowrap) {
+        Inflater inflater = (nowrap ? rawInflaters : zlibInflaters).poll();
+        if(inflater == null) {
+            return new Inflater(nowrap);
+        }
+
+        idle.decrementAndGet();
+        return inflater;
+    }
+
+    /**
+     * Gives an inflater back to the pool.
+     *
+     * @param inflater The inflater
+     * @param nowrap The value which was used to borrow the inflater
+     */
+    public void release(Inflater inflater, boolean nowrap) {
+        if(idle.incrementAndGet() > maxIdle) {
+            idle.decrementAndGet();
+            inflater.end();
+            return;
+        }
+
+        inflater.reset();
+        (nowrap ? rawInflaters : zlibInflaters).add(inflater);
+    }
+
+    /**
+     * @return The amount of inflaters in the pool
+     */
+    public int getIdle() {
+        return idle.get();
+    }
+}
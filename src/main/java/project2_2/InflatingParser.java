@@ -0,0 +1,233 @@
+package project2_2;
+
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Decompresses the data of a client which sends a gzip or zlib (deflate) compressed stream, and feeds the decompressed
+ * data to another parser. Gzip streams may consist of multiple members, as made by a gzip stream which is finished and
+ * started again. Anything after the end of a zlib stream is ignored.
+ *
+ * Clients should flush their compressor (for example with a sync flush) after every measurement or batch of
+ * measurements, otherwise the server only sees the data once the compressor's buffer is full.
+ */
+public class InflatingParser implements ClientStreamParser {
+    public static final int FORMAT_GZIP = 0;
+    public static final int FORMAT_ZLIB = 1;
+
+    private static final int MAX_GZIP_HEADER = 4096;
+
+    // The flags of a gzip header
+    private static final int FHCRC = 1 << 1;
+    private static final int FEXTRA = 1 << 2;
+    private static final int FNAME = 1 << 3;
+    private static final int FCOMMENT = 1 << 4;
+
+    // Returned by gzipHeaderLength()
+    private static final int INCOMPLETE = -1;
+    private static final int INVALID = -2;
+
+    private static final int STATE_GZIP_HEADER = 0;
+    private static final int STATE_INFLATE = 1;
+    private static final int STATE_GZIP_TRAILER = 2;
+    private static final int STATE_DONE = 3;
+
+    private final ClientStreamParser downstream;
+    private final InflaterPool inflaterPool;
+    private final RealtimeStatistics statistics;
+    private final boolean gzip;
+
+    private Inflater inflater;
+    private int state;
+
+    // The part of a gzip header which has been received so far
+    private final byte[] header;
+    private int headerLength = 0;
+    private int trailerRead = 0;
+
+    private final byte[] out = new byte[8192];
+
+    /**
+     * Constructor of {@link InflatingParser}
+     *
+     * @param format {@link #FORMAT_GZIP} or {@link #FORMAT_ZLIB}
+     * @param downstream The parser which gets the decompressed data
+     * @param inflaterPool The global {@link InflaterPool} object
+     * @param statistics The global {@link RealtimeStatistics} object
+     */
+    public InflatingParser(int format, ClientStreamParser downstream, InflaterPool inflaterPool, RealtimeStatistics statistics) {
+        this.downstream = downstream;
+        this.inflaterPool = inflaterPool;
+        this.statistics = statistics;
+
+        gzip = format == FORMAT_GZIP;
+        header = gzip ? new byte[MAX_GZIP_HEADER] : null;
+        state = gzip ? STATE_GZIP_HEADER : STATE_INFLATE;
+        inflater = inflaterPool.borrow(gzip);
+
+        statistics.addCompressedConnection();
+    }
+
+    /**
+     * Checks whether the first bytes of a stream look like a compressed stream.
+     *
+     * @param b The first byte of the stream
+     * @return {@link #FORMAT_GZIP}, {@link #FORMAT_ZLIB}, or -1 if the stream isn't compressed
+     */
+    public static int detectFormat(byte b) {
+        if(b == 0x1F) {
+            // The first byte of the gzip magic, 1F 8B
+            return FORMAT_GZIP;
+        }
+        if(b == 0x78) {
+            // A zlib header with the deflate method and the default 32K window
+            return FORMAT_ZLIB;
+        }
+        return -1;
+    }
+
+    @Override
+    public void feed(byte[] buf, int off, int len) {
+        int compressed = len;
+        long inflateNanos = 0;
+        long decompressed = 0;
+
+        try{
+            while(len > 0) {
+                switch(state) {
+                    case STATE_GZIP_HEADER: {
+                        int take = Math.min(len, header.length - headerLength);
+                        System.arraycopy(buf, off, header, headerLength, take);
+
+                        int length = gzipHeaderLength(header, headerLength + take);
+                        if(length == INVALID || (length == INCOMPLETE && headerLength + take == header.length)) {
+                            throw new DataFormatException("Invalid gzip header");
+                        }
+
+                        if(length == INCOMPLETE) {
+                            headerLength += take;
+                            off += take;
+                            len -= take;
+                        }else{
+                            // The header ends somewhere in the bytes we just took
+                            int used = length - headerLength;
+                            off += used;
+                            len -= used;
+                            headerLength = 0;
+                            state = STATE_INFLATE;
+                        }
+                        break;
+                    }
+                    case STATE_INFLATE: {
+                        inflater.setInput(buf, off, len);
+
+                        while(true) {
+                            long start = System.nanoTime();
+                            int n = inflater.inflate(out);
+                            inflateNanos += System.nanoTime() - start;
+
+                            if(n > 0) {
+                                decompressed += n;
+                                downstream.feed(out, 0, n);
+                            }else if(inflater.needsDictionary()) {
+                                throw new DataFormatException("Preset dictionaries are not supported");
+                            }else if(inflater.finished() || inflater.needsInput()) {
+                                break;
+                            }
+                        }
+
+                        if(inflater.finished()) {
+                            int remaining = inflater.getRemaining();
+                            off += len - remaining;
+                            len = remaining;
+
+                            inflater.reset();
+                            trailerRead = 0;
+                            state = gzip ? STATE_GZIP_TRAILER : STATE_DONE;
+                        }else{
+                            len = 0;
+                        }
+                        break;
+                    }
+                    case STATE_GZIP_TRAILER: {
+                        // The CRC and size of the member. The next member (if any) starts after it.
+                        int skip = Math.min(len, 8 - trailerRead);
+                        trailerRead += skip;
+                        off += skip;
+                        len -= skip;
+                        if(trailerRead == 8) {
+                            state = STATE_GZIP_HEADER;
+                        }
+                        break;
+                    }
+                    default:
+                        len = 0;
+                        break;
+                }
+            }
+        }catch(DataFormatException e) {
+            System.out.println("Could not decompress the data of a client, ignoring the rest of its data: " + e.toString());
+            state = STATE_DONE;
+        }
+
+        statistics.addInflated(compressed, decompressed, inflateNanos);
+    }
+
+    @Override
+    public void finish() {
+        downstream.finish();
+    }
+
+    @Override
+    public void close() {
+        downstream.close();
+
+        if(inflater != null) {
+            inflaterPool.release(inflater, gzip);
+            inflater = null;
+            statistics.removeCompressedConnection();
+        }
+    }
+
+    /**
+     * @param h The first bytes of a gzip member
+     * @param n The amount of bytes
+     * @return The length of the gzip header, {@link #INCOMPLETE} or {@link #INVALID}
+     */
+    private static int gzipHeaderLength(byte[] h, int n) {
+        if(n >= 1 && h[0] != 0x1F || n >= 2 && h[1] != (byte) 0x8B || n >= 3 && h[2] != 8) {
+            return INVALID;
+        }
+        if(n < 10) {
+            return INCOMPLETE;
+        }
+
+        int flags = h[3] & 0xFF;
+        int pos = 10;
+        if((flags & FEXTRA) != 0) {
+            if(n < pos + 2) {
+                return INCOMPLETE;
+            }
+            pos += 2 + ((h[pos] & 0xFF) | (h[pos + 1] & 0xFF) << 8);
+        }
+        if((flags & FNAME) != 0) {
+            pos = skipZeroTerminated(h, n, pos);
+        }
+        if((flags & FCOMMENT) != 0) {
+            pos = skipZeroTerminated(h, n, pos);
+        }
+        if((flags & FHCRC) != 0) {
+            pos += 2;
+        }
+
+        return pos <= n ? pos : INCOMPLETE;
+    }
+
+    private static int skipZeroTerminated(byte[] h, int n, int pos) {
+        while(pos < n && h[pos] != 0) {
+            pos++;
+        }
+        // Past the end of the data if the terminator hasn't been received yet
+        return pos < n ? pos + 1 : n + 1;
+    }
+}
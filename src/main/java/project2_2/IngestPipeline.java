@@ -0,0 +1,432 @@
+package project2_2;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Splits the handling of the client data into three stages, so a slow stage doesn't stall the reading of the clients,
+ * and parsing can use all cores:
+ * 1. The client handler threads only cut the received bytes into frames of complete measurements (see
+ *    {@link #newXmlFramer()} and {@link #newBinaryFramer()}), and copy them into a {@link FrameRing}.
+ * 2. Parser workers take the frames off their ring and parse them. Every connection uses a single ring, so the
+ *    measurements of a connection are parsed in the order they were sent.
+ * 3. Merge workers hand the measurements to the {@link DataInsertionQueue}. The measurements are partitioned by the
+ *    stripe of the station store (see {@link DataInsertionQueue#stripeOf(int)}), so every station is merged by a
+ *    single thread, and merge workers never wait for each other's stripe locks.
+ *
+ * All queues between the stages are bounded, so a stage which can't keep up slows down the stages before it.
+ */
+public class IngestPipeline {
+    public static final byte PROTOCOL_XML = 0;
+    public static final byte PROTOCOL_BINARY = 1;
+
+    private static final byte[] MEASUREMENT_END = "</MEASUREMENT>".getBytes(StandardCharsets.US_ASCII);
+    private static final long DRAIN_POLL_MS = 10;
+
+    private final DataInsertionQueue dataInsertionQueue;
+    private final RealtimeStatistics statistics;
+    private final int frameCapacity;
+
+    private final FrameRing[] rings;
+    private final List<ArrayBlockingQueue<StationWeatherData>> mergeQueues;
+
+    // The ring the next connection uses
+    private final AtomicInteger nextRing = new AtomicInteger(0);
+
+    // The throughput of the stages
+    private final LongAdder framesQueued = new LongAdder();
+    private final LongAdder framesParsed = new LongAdder();
+    private final LongAdder measurementsRouted = new LongAdder();
+    private final LongAdder measurementsMerged = new LongAdder();
+    private final LongAdder droppedFrames = new LongAdder();
+
+    /**
+     * Constructor of {@link IngestPipeline}
+     *
+     * @param dataInsertionQueue The global {@link DataInsertionQueue} object
+     * @param statistics The global {@link RealtimeStatistics} object
+     * @param parserThreads The amount of parser workers, every worker has its own ring
+     * @param ringSlots The amount of frames a ring can hold
+     * @param frameCapacity The maximum size of a frame, in bytes. Larger measurements are dropped.
+     * @param mergeThreads The amount of merge workers
+     * @param mergeQueueSize The amount of measurements the queue of a merge worker can hold
+     */
+    public IngestPipeline(DataInsertionQueue dataInsertionQueue, RealtimeStatistics statistics, int parserThreads, int ringSlots,
+                          int frameCapacity, int mergeThreads, int mergeQueueSize) {
+        this.dataInsertionQueue = dataInsertionQueue;
+        this.statistics = statistics;
+        this.frameCapacity = Math.max(frameCapacity, StationWeatherDataCodec.ENCODED_SIZE);
+
+        rings = new FrameRing[parserThreads];
+        for(int i = 0; i < parserThreads; i++) {
+            rings[i] = new FrameRing(ringSlots, this.frameCapacity);
+        }
+
+        mergeQueues = new ArrayList<>(mergeThreads);
+        for(int i = 0; i < mergeThreads; i++) {
+            mergeQueues.add(new ArrayBlockingQueue<>(mergeQueueSize));
+        }
+    }
+
+    /**
+     * Starts the parser and merge workers.
+     */
+    public void startThreads() {
+        System.out.println("Starting the ingest pipeline with " + rings.length + " parser threads and " + mergeQueues.size() + " merge threads.");
+
+        for(FrameRing ring : rings) {
+            new Thread(() -> parserThread(ring)).start();
+        }
+        for(ArrayBlockingQueue<StationWeatherData> queue : mergeQueues) {
+            new Thread(() -> mergeThread(queue)).start();
+        }
+    }
+
+    /**
+     * Waits until the frames which were queued before this call have been parsed, and their measurements have been
+     * merged. Used when the server stops, before the station data is sent for the last time. Clients may still send
+     * data while this waits, that data isn't waited for.
+     *
+     * @param timeoutMs The maximum time to wait, in milliseconds
+     * @return Whether everything was merged within the timeout
+     * @throws InterruptedException If the thread was interrupted while waiting
+     */
+    public boolean drain(long timeoutMs) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMs;
+
+        long queued = framesQueued.sum();
+        while(framesParsed.sum() < queued) {
+            if(!waitForDrain(deadline, timeoutMs)) {
+                return false;
+            }
+        }
+
+        long routed = measurementsRouted.sum();
+        while(measurementsMerged.sum() < routed) {
+            if(!waitForDrain(deadline, timeoutMs)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean waitForDrain(long deadline, long timeoutMs) throws InterruptedException {
+        if(System.currentTimeMillis() >= deadline) {
+            System.out.println("The ingest pipeline wasn't drained within " + timeoutMs + "ms, " + getRingDepth() + " frames and " +
+                    getMergeDepth() + " measurements were left.");
+            return false;
+        }
+
+        Thread.sleep(DRAIN_POLL_MS);
+        return true;
+    }
+
+    /**
+     * @return A parser for an XML client, which hands the frames to the parser workers
+     */
+    public ClientStreamParser newXmlFramer() {
+        return new XmlFramer(nextRing());
+    }
+
+    /**
+     * @return A parser for a binary client (after the handshake), which hands the frames to the parser workers
+     */
+    public ClientStreamParser newBinaryFramer() {
+        return new BinaryFramer(nextRing());
+    }
+
+    private FrameRing nextRing() {
+        return rings[(nextRing.getAndIncrement() & Integer.MAX_VALUE) % rings.length];
+    }
+
+    /**
+     * @return The amount of frames handed to the parser workers
+     */
+    public long getFramesQueued() {
+        return framesQueued.sum();
+    }
+
+    /**
+     * @return The amount of frames which were parsed
+     */
+    public long getFramesParsed() {
+        return framesParsed.sum();
+    }
+
+    /**
+     * @return The amount of measurements which were merged
+     */
+    public long getMeasurementsMerged() {
+        return measurementsMerged.sum();
+    }
+
+    /**
+     * @return The amount of frames which were dropped because they didn't fit in a slot
+     */
+    public long getDroppedFrames() {
+        return droppedFrames.sum();
+    }
+
+    /**
+     * @return The amount of frames waiting for a parser worker
+     */
+    public int getRingDepth() {
+        int depth = 0;
+        for(FrameRing ring : rings) {
+            depth += ring.size();
+        }
+        return depth;
+    }
+
+    /**
+     * @return The amount of measurements waiting for a merge worker
+     */
+    public int getMergeDepth() {
+        int depth = 0;
+        for(ArrayBlockingQueue<StationWeatherData> queue : mergeQueues) {
+            depth += queue.size();
+        }
+        return depth;
+    }
+
+    private void parserThread(FrameRing ring) {
+        ClientDataParser xmlParser = new ClientDataParser(this::route, statistics);
+        BinaryMeasurementDecoder binaryDecoder = new BinaryMeasurementDecoder(this::route, statistics);
+        FrameRing.Frame frame = new FrameRing.Frame(frameCapacity);
+
+        while(true) {
+            try{
+                ring.take(frame);
+            }catch(InterruptedException e) {
+                e.printStackTrace();
+                continue;
+            }
+
+            // A frame always ends with a complete measurement, so the parsers have no state left after it
+            try{
+                if(frame.protocol == PROTOCOL_XML) {
+                    xmlParser.feed(frame.data, 0, frame.length);
+                    xmlParser.finish();
+                }else{
+                    binaryDecoder.feed(frame.data, 0, frame.length);
+                }
+            }catch(RuntimeException e) {
+                // Skip the frame, and start over with parsers without any state of it
+                System.out.println("Could not parse a frame of " + frame.length + " bytes, dropped it: " + e.toString());
+                e.printStackTrace();
+                droppedFrames.increment();
+                xmlParser = new ClientDataParser(this::route, statistics);
+                binaryDecoder = new BinaryMeasurementDecoder(this::route, statistics);
+            }
+
+            framesParsed.increment();
+        }
+    }
+
+    /**
+     * Hands a parsed measurement to the merge worker of its station.
+     */
+    private void route(StationWeatherData data) {
+        ArrayBlockingQueue<StationWeatherData> queue = mergeQueues.get(dataInsertionQueue.stripeOf(data.stationId) % mergeQueues.size());
+        try{
+            queue.put(data);
+            measurementsRouted.increment();
+        }catch(InterruptedException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private void mergeThread(ArrayBlockingQueue<StationWeatherData> queue) {
+        while(true) {
+            StationWeatherData data;
+            try{
+                data = queue.take();
+            }catch(InterruptedException e) {
+                e.printStackTrace();
+                continue;
+            }
+
+            // If this thread stopped, its queue would fill up and block the parser workers and then the clients
+            try{
+                dataInsertionQueue.onDataReceive(data);
+            }catch(RuntimeException e) {
+                System.out.println("Could not merge the data of station " + data.stationId + ": " + e.toString());
+                e.printStackTrace();
+            }
+            measurementsMerged.increment();
+        }
+    }
+
+    private void queue(FrameRing ring, byte protocol, byte[] a, int aOff, int aLen, byte[] b, int bOff, int bLen) {
+        try{
+            ring.put(protocol, a, aOff, aLen, b, bOff, bLen);
+            framesQueued.increment();
+        }catch(InterruptedException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Cuts an XML stream into frames which end with a complete measurement. A frame holds as many complete
+     * measurements as fit in it. The bytes are only searched for the end tag, everything else is left to the
+     * {@link ClientDataParser} of the parser worker.
+     */
+    private class XmlFramer implements ClientStreamParser {
+        private final FrameRing ring;
+
+        // The start of a measurement which hasn't been received completely yet, grown up to the frame capacity
+        private byte[] pending = new byte[256];
+        private int pendingLength = 0;
+
+        private int matched = 0; // The amount of bytes of the end tag which have been matched
+        private boolean discarding = false; // Whether we're skipping a measurement which is too large
+
+        private XmlFramer(FrameRing ring) {
+            this.ring = ring;
+        }
+
+        @Override
+        public void feed(byte[] buf, int off, int len) {
+            int frameStart = off; // The start of the current frame, after the part in the pending buffer
+            int frameEnd = off; // The end of the last complete measurement in the current frame
+
+            for(int i = off; i < off + len; i++) {
+                byte b = buf[i];
+                if(b == MEASUREMENT_END[matched]) {
+                    matched++;
+                }else{
+                    matched = b == MEASUREMENT_END[0] ? 1 : 0;
+                }
+
+                if(matched < MEASUREMENT_END.length) {
+                    continue;
+                }
+
+                matched = 0;
+                int end = i + 1;
+
+                if(discarding) {
+                    discarding = false;
+                    frameStart = frameEnd = end;
+                    continue;
+                }
+
+                if(pendingLength + end - frameStart > frameCapacity) {
+                    // Send the measurements before this one, they fill the frame
+                    if(frameEnd > frameStart) {
+                        publish(buf, frameStart, frameEnd);
+                        frameStart = frameEnd;
+                    }
+
+                    if(pendingLength + end - frameStart > frameCapacity) {
+                        drop();
+                        frameStart = end;
+                    }
+                }
+                frameEnd = end;
+            }
+
+            if(frameEnd > frameStart) {
+                publish(buf, frameStart, frameEnd);
+                frameStart = frameEnd;
+            }
+
+            // Keep the start of the next measurement
+            int remaining = off + len - frameStart;
+            if(discarding) {
+                return;
+            }
+            if(pendingLength + remaining > frameCapacity) {
+                drop();
+                discarding = true;
+                return;
+            }
+            if(pendingLength + remaining > pending.length) {
+                byte[] newPending = new byte[Math.min(Math.max(pending.length * 2, pendingLength + remaining), frameCapacity)];
+                System.arraycopy(pending, 0, newPending, 0, pendingLength);
+                pending = newPending;
+            }
+            System.arraycopy(buf, frameStart, pending, pendingLength, remaining);
+            pendingLength += remaining;
+        }
+
+        @Override
+        public void finish() {
+            // A measurement which wasn't completed is dropped, just like the ClientDataParser would do
+            pendingLength = 0;
+        }
+
+        private void publish(byte[] buf, int start, int end) {
+            queue(ring, PROTOCOL_XML, pending, 0, pendingLength, buf, start, end - start);
+            pendingLength = 0;
+        }
+
+        private void drop() {
+            System.out.println("Dropped a measurement which is larger than the ingest frame size of " + frameCapacity + " bytes.");
+            droppedFrames.increment();
+            pendingLength = 0;
+        }
+    }
+
+    /**
+     * Cuts a binary stream (after the handshake) into frames of as many complete measurements as fit in a frame.
+     */
+    private class BinaryFramer implements ClientStreamParser {
+        private static final int SIZE = StationWeatherDataCodec.ENCODED_SIZE;
+
+        private final FrameRing ring;
+        private final int maxMeasurements = frameCapacity / SIZE;
+
+        // A measurement of which only a part has been received
+        private final byte[] pending = new byte[SIZE];
+        private int pendingLength = 0;
+
+        private BinaryFramer(FrameRing ring) {
+            this.ring = ring;
+        }
+
+        @Override
+        public void feed(byte[] buf, int off, int len) {
+            // Complete the measurement which was split over the previous read, and send it with the ones after it
+            if(pendingLength > 0) {
+                int take = Math.min(SIZE - pendingLength, len);
+                System.arraycopy(buf, off, pending, pendingLength, take);
+                pendingLength += take;
+                off += take;
+                len -= take;
+
+                if(pendingLength < SIZE) {
+                    return;
+                }
+
+                int whole = Math.min(len / SIZE, maxMeasurements - 1) * SIZE;
+                queue(ring, PROTOCOL_BINARY, pending, 0, SIZE, buf, off, whole);
+                pendingLength = 0;
+                off += whole;
+                len -= whole;
+            }
+
+            while(len >= SIZE) {
+                int whole = Math.min(len / SIZE, maxMeasurements) * SIZE;
+                queue(ring, PROTOCOL_BINARY, buf, off, whole, buf, off, 0);
+                off += whole;
+                len -= whole;
+            }
+
+            System.arraycopy(buf, off, pending, 0, len);
+            pendingLength = len;
+        }
+
+        @Override
+        public void finish() {
+            if(pendingLength > 0) {
+                System.out.println("A binary client disconnected in the middle of a measurement, dropped " + pendingLength + " bytes.");
+                pendingLength = 0;
+            }
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package project2_2;
+
+import java.util.List;
+
+/**
+ * A chunk of data points which should be inserted into the database by one of the insert query threads.
+ */
+public class InsertChunk {
+    public final List<StationWeatherData> rows;
+
+    // The time at which this chunk was queued, and the time at which its oldest data point was received (0 if
+    // unknown), in milliseconds
+    public final long queuedAt;
+    public final long receivedAt;
+
+    // The spool segment this chunk was read from, or null if the spool isn't used
+    final InsertSpool.Segment segment;
+
+    // The amount of times inserting this chunk has failed
+    int failedAttempts = 0;
+
+    /**
+     * Constructor of {@link InsertChunk}
+     *
+     * @param rows The data points
+     */
+    public InsertChunk(List<StationWeatherData> rows) {
+        this(rows, null, System.currentTimeMillis(), oldestReceivedAt(rows));
+    }
+
+    InsertChunk(List<StationWeatherData> rows, InsertSpool.Segment segment, long queuedAt, long receivedAt) {
+        this.rows = rows;
+        this.segment = segment;
+        this.queuedAt = queuedAt;
+        this.receivedAt = receivedAt;
+    }
+
+    /**
+     * @param rows Some data points
+     * @return The time at which the oldest data point was received, or 0 if none of the times are known
+     */
+    static long oldestReceivedAt(List<StationWeatherData> rows) {
+        long oldest = 0;
+        for(StationWeatherData data : rows) {
+            if(data.receivedAt != 0 && (oldest == 0 || data.receivedAt < oldest)) {
+                oldest = data.receivedAt;
+            }
+        }
+        return oldest;
+    }
+}
@@ -0,0 +1,434 @@
+package project2_2;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A durable, append-only spool which sits between the queueData thread and the insert query threads.
+ *
+ * Chunks are written to memory-mapped segment files, so appending a chunk is (almost) as fast as putting it in memory,
+ * and never has to wait for the database. The insert query threads take the chunks off the spool at whatever rate the
+ * database can handle, and acknowledge them once they're inserted. A segment file is deleted once all its chunks have
+ * been acknowledged.
+ *
+ * Segments that still exist when the server starts are replayed. Because a segment is only deleted once all of its
+ * chunks are acknowledged, chunks may be inserted twice after a crash. A crash of the server process loses nothing
+ * (the operating system still writes the mapped pages), but the segment which is written to is only forced to the
+ * disk every forceIntervalMs, so a crash of the machine loses the chunks which were appended since then. With a
+ * forceIntervalMs of 0, every append is forced before it returns, which is safe but much slower.
+ *
+ * The amount of segments is limited to maxSegments, so a database which is down for a long time doesn't fill up the
+ * disk. When the limit is reached, appending waits until the oldest segment has been inserted, which holds up the
+ * queueData thread (just like without the spool).
+ *
+ * Segment layout: a sequence of records, each being [int length][int row count][long queued at][long received at]
+ * [rows], where the rows are encoded with the {@link StationWeatherDataCodec} (see {@link InsertChunk} for the times). The length is written after the rest of the record, so a length of 0 marks
+ * the end of the written data. A length of -1 means the segment is sealed, and the rest of the file is unused.
+ */
+public class InsertSpool {
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String SEGMENT_SUFFIX = ".spool";
+    private static final int SEALED = -1;
+    private static final int RECORD_HEADER_SIZE = 24;
+
+    private final File directory;
+    private final int segmentSize;
+    private final int maxSegments;
+    private final long forceIntervalMs;
+
+    // All segments which haven't been deleted yet, oldest first
+    private final Deque<Segment> segments = new ArrayDeque<>();
+    private Segment writeSegment;
+    private Segment readSegment;
+
+    // Chunks which couldn't be inserted, and should be handed out again
+    private final Deque<InsertChunk> retryChunks = new ArrayDeque<>();
+
+    private long nextSegmentId = 0;
+    private volatile boolean closed = false;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final Condition notFull = lock.newCondition();
+
+    /**
+     * Constructor of {@link InsertSpool}
+     *
+     * @param directory The directory to store the segment files in
+     * @param segmentSize The size of a segment file, in bytes
+     * @param maxSegments The maximum amount of segment files, or 0 for no limit (at least 2 if there is a limit)
+     * @param forceIntervalMs The time between forcing the segment which is written to to the disk, or 0 to force
+     *                        every append
+     */
+    public InsertSpool(File directory, int segmentSize, int maxSegments, long forceIntervalMs) {
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.maxSegments = maxSegments > 0 ? Math.max(2, maxSegments) : 0;
+        this.forceIntervalMs = forceIntervalMs;
+    }
+
+    /**
+     * Opens the spool. Existing segments will be replayed, and a new segment is made to write to.
+     *
+     * @throws IOException If the segment files could not be opened
+     */
+    public void open() throws IOException {
+        if(!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Could not create spool directory " + directory);
+        }
+
+        // Open the existing segments, in the order they were made
+        File[] files = directory.listFiles((dir, name) -> name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX));
+        Arrays.sort(files);
+
+        int replayChunks = 0;
+        for(File file : files) {
+            long id = Long.parseLong(file.getName().substring(SEGMENT_PREFIX.length(), file.getName().length() - SEGMENT_SUFFIX.length()));
+            nextSegmentId = Math.max(nextSegmentId, id + 1);
+
+            Segment segment = new Segment(file, map(file, file.length()));
+            segment.scan();
+            segment.sealed = true;
+            segments.add(segment);
+
+            replayChunks += segment.written;
+        }
+
+        if(replayChunks > 0) {
+            System.out.println("Replaying " + replayChunks + " chunks from " + files.length + " spool segments.");
+        }
+
+        writeSegment = newSegment();
+        readSegment = segments.peekFirst();
+
+        if(forceIntervalMs > 0) {
+            new Thread(this::forceThread).start();
+        }
+    }
+
+    /**
+     * Appends a chunk to the spool. If the spool has the maximum amount of segments and a new one is needed, this
+     * waits until the oldest segment has been deleted.
+     *
+     * @param rows The data points of the chunk
+     * @throws IOException If a new segment file could not be made, or the spool was closed
+     * @throws InterruptedException If the thread was interrupted while waiting for room in the spool
+     */
+    public void append(List<StationWeatherData> rows) throws IOException, InterruptedException {
+        int recordSize = RECORD_HEADER_SIZE + rows.size() * StationWeatherDataCodec.ENCODED_SIZE;
+        if(recordSize + 4 > segmentSize) {
+            throw new IllegalArgumentException("A chunk of " + rows.size() + " rows does not fit in a spool segment");
+        }
+
+        lock.lock();
+        try{
+            if(closed) {
+                throw new IOException("The spool is closed");
+            }
+
+            if(writeSegment.writePosition + recordSize + 4 > segmentSize) {
+                // This segment is full, seal it and start a new one (if there may be one more)
+                if(maxSegments > 0 && segments.size() >= maxSegments) {
+                    System.out.println("The spool has " + segments.size() + " segments, waiting until the oldest one is inserted.");
+                    while(segments.size() >= maxSegments) {
+                        notFull.await();
+                        if(closed) {
+                            throw new IOException("The spool is closed");
+                        }
+                    }
+                }
+
+                writeSegment.seal();
+                writeSegment = newSegment();
+            }
+
+            writeSegment.write(rows);
+            if(forceIntervalMs <= 0) {
+                writeSegment.buffer.force();
+            }
+            notEmpty.signal();
+        }finally{
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Takes the next chunk off the spool. If there is none, this waits until there is one.
+     * When the chunk has been inserted, {@link #acknowledge(InsertChunk)} must be called.
+     *
+     * @return The chunk
+     * @throws InterruptedException If the thread was interrupted while waiting
+     */
+    public InsertChunk take() throws InterruptedException {
+        return poll(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Takes the next chunk off the spool, like {@link #take()}, but waits at most the given time.
+     *
+     * @param timeout The maximum time to wait
+     * @param unit The unit of the timeout
+     * @return The chunk, or null if there was none within the time
+     * @throws InterruptedException If the thread was interrupted while waiting
+     */
+    public InsertChunk poll(long timeout, TimeUnit unit) throws InterruptedException {
+        long nanos = unit.toNanos(timeout);
+
+        lock.lock();
+        try{
+            while(true) {
+                InsertChunk chunk = retryChunks.pollFirst();
+                if(chunk != null) {
+                    return chunk;
+                }
+
+                chunk = readSegment.read();
+                if(chunk != null) {
+                    return chunk;
+                }
+
+                if(readSegment.sealed && readSegment != writeSegment) {
+                    // We've read everything in this segment, continue with the next one
+                    Segment done = readSegment;
+                    readSegment = nextSegment(done);
+                    deleteIfDone(done);
+                    continue;
+                }
+
+                if(nanos <= 0) {
+                    return null;
+                }
+                nanos = notEmpty.awaitNanos(nanos);
+            }
+        }finally{
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Acknowledges that a chunk has been inserted, so it won't be replayed.
+     *
+     * @param chunk The chunk
+     */
+    public void acknowledge(InsertChunk chunk) {
+        lock.lock();
+        try{
+            chunk.segment.acknowledged++;
+            deleteIfDone(chunk.segment);
+        }finally{
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Hands a chunk which couldn't be inserted back to the spool, so it will be taken again.
+     *
+     * @param chunk The chunk
+     */
+    public void retry(InsertChunk chunk) {
+        lock.lock();
+        try{
+            retryChunks.addLast(chunk);
+            notEmpty.signal();
+        }finally{
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return The amount of chunks which are in the spool, but haven't been acknowledged yet
+     */
+    public int getPendingChunks() {
+        lock.lock();
+        try{
+            int pending = 0;
+            for(Segment segment : segments) {
+                pending += segment.written - segment.acknowledged;
+            }
+            return pending;
+        }finally{
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Closes the spool: makes sure everything which was appended is on the disk. The chunks which haven't been
+     * acknowledged are replayed when the spool is opened again. Nothing can be appended after this.
+     */
+    public void close() {
+        lock.lock();
+        try{
+            closed = true;
+            notFull.signalAll();
+            for(Segment segment : segments) {
+                if(!segment.sealed && segment.buffer != null) {
+                    segment.buffer.force();
+                }
+            }
+        }finally{
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Forces the segment which is written to to the disk every forceIntervalMs, until the spool is closed.
+     */
+    private void forceThread() {
+        while(!closed) {
+            try{
+                Thread.sleep(forceIntervalMs);
+            }catch(InterruptedException ignored) {}
+
+            // Force outside of the lock, so appending doesn't have to wait for the disk
+            MappedByteBuffer buffer;
+            lock.lock();
+            try{
+                buffer = writeSegment.buffer;
+            }finally{
+                lock.unlock();
+            }
+            buffer.force();
+        }
+    }
+
+    private Segment nextSegment(Segment segment) {
+        boolean found = false;
+        for(Segment s : segments) {
+            if(found) {
+                return s;
+            }
+            found = s == segment;
+        }
+
+        return writeSegment;
+    }
+
+    private void deleteIfDone(Segment segment) {
+        if(!segment.sealed || segment == readSegment || segment.acknowledged < segment.written) {
+            return;
+        }
+
+        segments.remove(segment);
+        notFull.signalAll();
+        segment.buffer = null;
+        if(!segment.file.delete()) {
+            System.out.println("Could not delete spool segment " + segment.file);
+        }
+    }
+
+    private Segment newSegment() throws IOException {
+        File file = new File(directory, String.format("%s%016d%s", SEGMENT_PREFIX, nextSegmentId++, SEGMENT_SUFFIX));
+        Segment segment = new Segment(file, map(file, segmentSize));
+        segments.add(segment);
+        return segment;
+    }
+
+    private static MappedByteBuffer map(File file, long size) throws IOException {
+        try(RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            if(raf.length() < size) {
+                raf.setLength(size);
+            }
+
+            return raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+        }
+    }
+
+    /**
+     * A single segment file of the spool.
+     */
+    static class Segment {
+        private final File file;
+        private MappedByteBuffer buffer;
+
+        private int writePosition = 0;
+        private int readPosition = 0;
+        private boolean sealed = false;
+
+        // The amount of chunks which have been written to and acknowledged from this segment
+        private int written = 0;
+        private int acknowledged = 0;
+
+        private Segment(File file, MappedByteBuffer buffer) {
+            this.file = file;
+            this.buffer = buffer;
+        }
+
+        /**
+         * Finds the end of the written data, for segments which already existed.
+         */
+        private void scan() {
+            while(writePosition + 4 <= buffer.capacity()) {
+                int length = buffer.getInt(writePosition);
+                if(length <= 0) {
+                    break;
+                }
+
+                writePosition += length;
+                written++;
+            }
+        }
+
+        private void write(List<StationWeatherData> rows) {
+            int start = writePosition;
+            int length = RECORD_HEADER_SIZE + rows.size() * StationWeatherDataCodec.ENCODED_SIZE;
+
+            buffer.position(start + 4);
+            buffer.putInt(rows.size());
+            buffer.putLong(System.currentTimeMillis());
+            buffer.putLong(InsertChunk.oldestReceivedAt(rows));
+            for(StationWeatherData data : rows) {
+                StationWeatherDataCodec.encode(data, buffer);
+            }
+
+            // Write the length last, this "commits" the record
+            buffer.putInt(start, length);
+
+            writePosition += length;
+            written++;
+        }
+
+        private InsertChunk read() {
+            if(readPosition + 4 > buffer.capacity()) {
+                return null;
+            }
+
+            int length = buffer.getInt(readPosition);
+            if(length <= 0) {
+                return null;
+            }
+
+            buffer.position(readPosition + 4);
+            int rowCount = buffer.getInt();
+            long queuedAt = buffer.getLong();
+            long receivedAt = buffer.getLong();
+            List<StationWeatherData> rows = new ArrayList<>(rowCount);
+            for(int i = 0; i < rowCount; i++) {
+                rows.add(StationWeatherDataCodec.decode(buffer));
+            }
+
+            readPosition += length;
+            return new InsertChunk(rows, this, queuedAt, receivedAt);
+        }
+
+        private void seal() {
+            if(writePosition + 4 <= buffer.capacity()) {
+                buffer.putInt(writePosition, SEALED);
+            }
+
+            // Make sure everything is on the disk before we continue with the next segment
+            buffer.force();
+            sealed = true;
+        }
+    }
+}
@@ -0,0 +1,175 @@
+package project2_2;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes chunks of data to the `data` table of the database, using a single connection.
+ *
+ * There are two modes:
+ * - multirow: one INSERT query with a row of placeholders per data point. One prepared statement is cached per chunk
+ *   size, so the query is only built and parsed once for each size.
+ * - batch: a single-row INSERT query, of which every data point is added to a JDBC batch. With the MySQL
+ *   rewriteBatchedStatements option, the driver rewrites the batch to a multi-row query by itself.
+ */
+public class InsertWriter {
+    public static final String MODE_MULTIROW = "multirow";
+    public static final String MODE_BATCH = "batch";
+
+    private static final String INSERT_QUERY = "INSERT INTO data(station_id,date,temperature,dew_point,station_air_pressure,sea_air_pressure,visibility,wind_speed,precipitation,snow_height,overcast,wind_direction,has_frozen,has_rained,has_snowed,has_hailed,has_thundered,has_whirlwinded)VALUES";
+    private static final String ROW_PLACEHOLDERS = "(?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?)";
+    private static final int COLUMNS = 18;
+
+    private final Connection con;
+    private final String mode;
+
+    // Cached statements
+    private final Map<Integer, PreparedStatement> multiRowStatements = new HashMap<>(); // <Chunk size, Statement>
+    private PreparedStatement batchStatement;
+
+    /**
+     * Constructor of {@link InsertWriter}
+     *
+     * @param con The database connection to use
+     * @param mode The insert mode, {@link #MODE_MULTIROW} or {@link #MODE_BATCH}
+     */
+    public InsertWriter(Connection con, String mode) {
+        if(!mode.equals(MODE_MULTIROW) && !mode.equals(MODE_BATCH)) {
+            throw new IllegalArgumentException("Unknown insert_mode " + mode);
+        }
+
+        this.con = con;
+        this.mode = mode;
+    }
+
+    /**
+     * Inserts a chunk of data into the database.
+     *
+     * @param chunk The data points to insert
+     * @throws SQLException If the data could not be inserted
+     */
+    public void write(List<StationWeatherData> chunk) throws SQLException {
+        if(chunk.isEmpty()) {
+            return;
+        }
+
+        if(mode.equals(MODE_BATCH)) {
+            writeBatch(chunk);
+        }else{
+            writeMultiRow(chunk);
+        }
+    }
+
+    private void writeMultiRow(List<StationWeatherData> chunk) throws SQLException {
+        PreparedStatement stmt = multiRowStatements.get(chunk.size());
+        if(stmt == null) {
+            stmt = con.prepareStatement(buildMultiRowQuery(chunk.size()));
+            multiRowStatements.put(chunk.size(), stmt);
+        }
+
+        // Set the values of the statement
+        for(int i = 0; i < chunk.size(); i++) {
+            setRow(stmt, i * COLUMNS, chunk.get(i));
+        }
+
+        // EXECUTE!
+        stmt.executeUpdate();
+    }
+
+    private void writeBatch(List<StationWeatherData> chunk) throws SQLException {
+        if(batchStatement == null) {
+            batchStatement = con.prepareStatement(INSERT_QUERY + ROW_PLACEHOLDERS);
+        }
+
+        for(StationWeatherData data : chunk) {
+            setRow(batchStatement, 0, data);
+            batchStatement.addBatch();
+        }
+
+        // EXECUTE!
+        batchStatement.executeBatch();
+    }
+
+    /**
+     * Closes all cached statements. The connection itself is not closed.
+     */
+    public void close() {
+        for(PreparedStatement stmt : multiRowStatements.values()) {
+            closeQuietly(stmt);
+        }
+        multiRowStatements.clear();
+
+        if(batchStatement != null) {
+            closeQuietly(batchStatement);
+            batchStatement = null;
+        }
+    }
+
+    /**
+     * Builds an INSERT query for multiple rows.
+     *
+     * @param rows The amount of rows
+     * @return The query
+     */
+    public static String buildMultiRowQuery(int rows) {
+        StringBuilder query = new StringBuilder(INSERT_QUERY.length() + (ROW_PLACEHOLDERS.length() + 1) * rows);
+        query.append(INSERT_QUERY);
+
+        for(int i = 0; i < rows; i++) {
+            if(i != 0) {
+                query.append(',');
+            }
+
+            query.append(ROW_PLACEHOLDERS);
+        }
+
+        return query.toString();
+    }
+
+    /**
+     * Adds the rewriteBatchedStatements option to a MySQL connection URL if the batch mode is used,
+     * because the batch mode is only efficient when the driver rewrites the batches.
+     *
+     * @param dbUrl The connection URL
+     * @param mode The insert mode
+     * @return The connection URL to use
+     */
+    public static String connectionUrl(String dbUrl, String mode) {
+        if(!mode.equals(MODE_BATCH) || dbUrl.contains("rewriteBatchedStatements")) {
+            return dbUrl;
+        }
+
+        return dbUrl + (dbUrl.contains("?") ? "&" : "?") + "rewriteBatchedStatements=true";
+    }
+
+    private static void setRow(PreparedStatement stmt, int offset, StationWeatherData data) throws SQLException {
+        stmt.setInt    (offset + 1,  data.stationId);
+        stmt.setInt    (offset + 2,  data.calculateUnixTime());
+        stmt.setFloat  (offset + 3,  data.temperature);
+        stmt.setFloat  (offset + 4,  data.dewPoint);
+        stmt.setFloat  (offset + 5,  data.stationAirPressure);
+        stmt.setFloat  (offset + 6,  data.seaAirPressure);
+        stmt.setFloat  (offset + 7,  data.visibility);
+        stmt.setFloat  (offset + 8,  data.windSpeed);
+        stmt.setFloat  (offset + 9,  data.precipitation);
+        stmt.setFloat  (offset + 10, data.snowHeight);
+        stmt.setFloat  (offset + 11, data.overcast);
+        stmt.setInt    (offset + 12, data.windDirection);
+        stmt.setBoolean(offset + 13, data.hasFrozen);
+        stmt.setBoolean(offset + 14, data.hasRained);
+        stmt.setBoolean(offset + 15, data.hasSnowed);
+        stmt.setBoolean(offset + 16, data.hasHailed);
+        stmt.setBoolean(offset + 17, data.hasThundered);
+        stmt.setBoolean(offset + 18, data.hasWhirlwinded);
+    }
+
+    private static void closeQuietly(PreparedStatement stmt) {
+        try{
+            stmt.close();
+        }catch(SQLException ignored) {}
+    }
+}
@@ -0,0 +1,105 @@
+package project2_2;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A histogram of durations, which can be updated from many threads at once without contention.
+ *
+ * The buckets are powers of two, from 1 microsecond up to about 67 seconds (and one bucket for everything longer).
+ * Every bucket is a {@link LongAdder}, so recording a duration is a few instructions and never blocks.
+ */
+public class LatencyHistogram {
+    private static final int BUCKETS = 27; // 1us * 2^0 to 1us * 2^26
+    private static final long FIRST_BUCKET_NANOS = 1000;
+
+    private final String name;
+    private final String help;
+
+    private final LongAdder[] buckets = new LongAdder[BUCKETS + 1]; // The last bucket is +Inf
+    private final LongAdder sumNanos = new LongAdder();
+
+    /**
+     * Constructor of {@link LatencyHistogram}
+     *
+     * @param name The name of the metric, without the unit (the unit is always seconds)
+     * @param help The description of the metric
+     */
+    public LatencyHistogram(String name, String help) {
+        this.name = name;
+        this.help = help;
+
+        for(int i = 0; i < buckets.length; i++) {
+            buckets[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * Records a duration.
+     *
+     * @param nanos The duration in nanoseconds
+     */
+    public void record(long nanos) {
+        if(nanos < 0) {
+            nanos = 0;
+        }
+
+        // The first bucket with an upper bound >= nanos
+        int bucket = nanos <= FIRST_BUCKET_NANOS ? 0 : 64 - Long.numberOfLeadingZeros((nanos - 1) / FIRST_BUCKET_NANOS);
+        buckets[Math.min(bucket, BUCKETS)].increment();
+        sumNanos.add(nanos);
+    }
+
+    /**
+     * Records the time which has passed since a moment.
+     *
+     * @param startNanos The moment, from {@link System#nanoTime()}
+     */
+    public void recordSince(long startNanos) {
+        record(System.nanoTime() - startNanos);
+    }
+
+    /**
+     * @return The amount of recorded durations
+     */
+    public long getCount() {
+        long count = 0;
+        for(LongAdder bucket : buckets) {
+            count += bucket.sum();
+        }
+        return count;
+    }
+
+    /**
+     * @return The sum of all recorded durations, in nanoseconds
+     */
+    public long getSumNanos() {
+        return sumNanos.sum();
+    }
+
+    /**
+     * Appends this histogram in the Prometheus text format.
+     *
+     * @param out The output
+     */
+    public void writePrometheus(StringBuilder out) {
+        String metric = name + "_seconds";
+        out.append("# HELP ").append(metric).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(metric).append(" histogram\n");
+
+        long cumulative = 0;
+        for(int i = 0; i < buckets.length; i++) {
+            cumulative += buckets[i].sum();
+
+            out.append(metric).append("_bucket{le=\"");
+            if(i == BUCKETS) {
+                out.append("+Inf");
+            }else{
+                out.append((FIRST_BUCKET_NANOS << i) / 1e9);
+            }
+            out.append("\"} ").append(cumulative).append('\n');
+        }
+
+        out.append(metric).append("_sum ").append(sumNanos.sum() / 1e9).append('\n');
+        out.append(metric).append("_count ").append(cumulative).append('\n');
+    }
+}
@@ -0,0 +1,418 @@
+package project2_2;
+
+import java.io.BufferedReader;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.Socket;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Simulates a lot of weather stations, to find out how much load the server can handle.
+ *
+ * Run it with: java -cp project-2.2-1.0-SNAPSHOT-jar-with-dependencies.jar project2_2.LoadGenerator [key=value ...]
+ *
+ * Options (defaults in brackets):
+ * - host [localhost], port [7789]: the server to connect to
+ * - stations [1000]: the amount of stations to simulate
+ * - stations_per_connection [1]: the amount of stations which share a connection, every connection sends one XML
+ *   document with a measurement of each of its stations per tick
+ * - rate [1]: the amount of measurements per station per second
+ * - missing_ratio [0.02]: the chance that a field is missing from a measurement
+ * - protocol [xml]: xml, or binary for the binary protocol (see {@link BinaryMeasurementDecoder})
+ * - compression [none]: none, gzip or zlib, to compress the stream of every connection (see {@link InflatingParser})
+ * - threads [4]: the amount of threads writing to the connections
+ * - first_station_id [100000]: the ID of the first simulated station
+ * - duration_s [0]: how long to run, 0 to run until stopped
+ * - metrics_url [http://host:7790/metrics]: the metrics of the server (see http_enabled, and http_bind_address if the server runs on another host), empty to not use them
+ *
+ * Every 5 seconds, the amount of measurements sent per second and how far the generator lags behind its schedule are
+ * shown. If the metrics of the server can be read, the measurements received and rows inserted per second, the average
+ * delay between receiving and inserting data, and the amount of measurements that were sent but not received yet are
+ * shown too. To test without a database, use the {@link StandInDriver}.
+ */
+public class LoadGenerator {
+    private static final long REPORT_INTERVAL_MS = 5000;
+    private static final int CONNECT_ATTEMPTS = 5;
+
+    private final String host;
+    private final int port;
+    private final int stations;
+    private final int stationsPerConnection;
+    private final double rate;
+    private final double missingRatio;
+    private final boolean binary;
+    private final String compression;
+    private final int threads;
+    private final int firstStationId;
+    private final long durationMs;
+    private final String metricsUrl;
+
+    // Statistics
+    private final LongAdder measurementsSent = new LongAdder();
+    private final LongAdder bytesSent = new LongAdder();
+    private final AtomicLong maxScheduleLagMs = new AtomicLong();
+    private final AtomicInteger openConnections = new AtomicInteger();
+    private final AtomicInteger failedConnections = new AtomicInteger();
+    private volatile boolean stopped = false;
+
+    public LoadGenerator(Map<String, String> options) {
+        host = options.getOrDefault("host", "localhost");
+        port = Integer.parseInt(options.getOrDefault("port", "7789"));
+        stations = Integer.parseInt(options.getOrDefault("stations", "1000"));
+        stationsPerConnection = Math.max(1, Integer.parseInt(options.getOrDefault("stations_per_connection", "1")));
+        rate = Double.parseDouble(options.getOrDefault("rate", "1"));
+        missingRatio = Double.parseDouble(options.getOrDefault("missing_ratio", "0.02"));
+        String protocol = options.getOrDefault("protocol", "xml");
+        if(!protocol.equals("xml") && !protocol.equals("binary")) {
+            throw new IllegalArgumentException("Unknown protocol " + protocol);
+        }
+        binary = protocol.equals("binary");
+        compression = options.getOrDefault("compression", "none");
+        if(!compression.equals("none") && !compression.equals("gzip") && !compression.equals("zlib")) {
+            throw new IllegalArgumentException("Unknown compression " + compression);
+        }
+        threads = Math.max(1, Integer.parseInt(options.getOrDefault("threads", "4")));
+        firstStationId = Integer.parseInt(options.getOrDefault("first_station_id", "100000"));
+        durationMs = Long.parseLong(options.getOrDefault("duration_s", "0")) * 1000;
+        metricsUrl = options.getOrDefault("metrics_url", "http://" + host + ":7790/metrics");
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new HashMap<>();
+        for(String arg : args) {
+            int eq = arg.indexOf('=');
+            if(eq == -1) {
+                System.out.println("Invalid option " + arg + ", options are given as key=value");
+                System.exit(-1);
+            }
+            options.put(arg.substring(0, eq), arg.substring(eq + 1));
+        }
+
+        new LoadGenerator(options).run();
+    }
+
+    /**
+     * Connects all stations, and sends data until the duration has passed (or {@link #stop()} is called). When this
+     * returns, all connections are closed.
+     *
+     * @throws InterruptedException If the thread was interrupted
+     */
+    public void run() throws InterruptedException {
+        int connections = (stations + stationsPerConnection - 1) / stationsPerConnection;
+        System.out.printf("Simulating %d stations over %d connections to %s:%d, %.2f measurements per station per second, %.0f%% missing fields, %s protocol, %s compression.%n",
+                stations, connections, host, port, rate, missingRatio * 100, binary ? "binary" : "xml", compression);
+
+        // Divide the connections over the threads
+        List<List<int[]>> threadConnections = new ArrayList<>();
+        for(int i = 0; i < threads; i++) {
+            threadConnections.add(new ArrayList<>());
+        }
+        for(int c = 0; c < connections; c++) {
+            int first = c * stationsPerConnection;
+            int count = Math.min(stationsPerConnection, stations - first);
+
+            int[] stationIds = new int[count];
+            for(int i = 0; i < count; i++) {
+                stationIds[i] = firstStationId + first + i;
+            }
+            threadConnections.get(c % threads).add(stationIds);
+        }
+
+        long start = System.currentTimeMillis();
+        List<Thread> workers = new ArrayList<>();
+        for(int i = 0; i < threads; i++) {
+            int threadIndex = i;
+            Thread worker = new Thread(() -> workerThread(threadIndex, threadConnections.get(threadIndex), start));
+            worker.setDaemon(true);
+            worker.start();
+            workers.add(worker);
+        }
+
+        reportThread(start);
+
+        stopped = true;
+        for(Thread worker : workers) {
+            worker.join();
+        }
+    }
+
+    /**
+     * Stops sending data, {@link #run()} returns within a report interval.
+     */
+    public void stop() {
+        stopped = true;
+    }
+
+    /**
+     * @return The amount of connections which are open
+     */
+    public int getOpenConnections() {
+        return openConnections.get();
+    }
+
+    /**
+     * @return The amount of connections which could not be made, or were lost
+     */
+    public int getFailedConnections() {
+        return failedConnections.get();
+    }
+
+    /**
+     * Connects and sends the data of a part of the connections.
+     */
+    private void workerThread(int threadIndex, List<int[]> connectionStations, long start) {
+        MeasurementGenerator generator = new MeasurementGenerator(threadIndex, missingRatio);
+
+        List<Socket> sockets = new ArrayList<>();
+        List<OutputStream> outputs = new ArrayList<>();
+        List<int[]> stationIds = new ArrayList<>();
+        for(int[] ids : connectionStations) {
+            if(stopped) {
+                break;
+            }
+
+            Socket socket = connect();
+            if(socket == null) {
+                failedConnections.incrementAndGet();
+                continue;
+            }
+
+            try{
+                socket.setTcpNoDelay(true);
+
+                // The compressed streams are flushed after every write, see InflatingParser
+                OutputStream out = new CountingOutputStream(socket.getOutputStream());
+                if(compression.equals("gzip")) {
+                    out = new GZIPOutputStream(out, 8192, true);
+                }else if(compression.equals("zlib")) {
+                    out = new DeflaterOutputStream(out, new Deflater(), 8192, true);
+                }
+
+                if(binary) {
+                    out.write(new byte[]{BinaryMeasurementDecoder.HANDSHAKE, BinaryMeasurementDecoder.VERSION});
+                }
+                outputs.add(out);
+                sockets.add(socket);
+                stationIds.add(ids);
+                openConnections.incrementAndGet();
+            }catch(IOException e) {
+                failedConnections.incrementAndGet();
+            }
+        }
+
+        // Spread the threads over a tick, so the server doesn't get all data at once
+        long tickMs = Math.max(1, (long) (1000 / rate));
+        long nextTick = System.currentTimeMillis() + tickMs * threadIndex / threads;
+
+        StringBuilder xml = new StringBuilder(1024);
+        byte[] buf = new byte[0];
+
+        while(!stopped && (durationMs == 0 || System.currentTimeMillis() - start < durationMs)) {
+            long sleepMs = nextTick - System.currentTimeMillis();
+            if(sleepMs > 0) {
+                try{
+                    Thread.sleep(sleepMs);
+                }catch(InterruptedException e) {
+                    return;
+                }
+            }else{
+                // We can't keep up with the schedule
+                long lag = -sleepMs;
+                maxScheduleLagMs.accumulateAndGet(lag, Math::max);
+            }
+
+            long now = System.currentTimeMillis() / 1000;
+            for(int c = 0; c < sockets.size(); c++) {
+                OutputStream out = outputs.get(c);
+                if(out == null) {
+                    continue;
+                }
+
+                int length;
+                if(binary) {
+                    int required = stationIds.get(c).length * StationWeatherDataCodec.ENCODED_SIZE;
+                    if(buf.length < required) {
+                        buf = new byte[required * 2];
+                    }
+
+                    ByteBuffer encoded = ByteBuffer.wrap(buf);
+                    for(int stationId : stationIds.get(c)) {
+                        StationWeatherDataCodec.encode(generator.next(stationId, now), encoded);
+                    }
+                    length = encoded.position();
+                }else{
+                    xml.setLength(0);
+                    MeasurementGenerator.appendDocumentStart(xml);
+                    for(int stationId : stationIds.get(c)) {
+                        MeasurementGenerator.appendXml(generator.next(stationId, now), xml);
+                    }
+                    MeasurementGenerator.appendDocumentEnd(xml);
+
+                    // Encode the XML (it's always ASCII) without making a String
+                    if(buf.length < xml.length()) {
+                        buf = new byte[xml.length() * 2];
+                    }
+                    for(int i = 0; i < xml.length(); i++) {
+                        buf[i] = (byte) xml.charAt(i);
+                    }
+                    length = xml.length();
+                }
+
+                try{
+                    out.write(buf, 0, length);
+                    out.flush();
+
+                    measurementsSent.add(stationIds.get(c).length);
+                }catch(IOException e) {
+                    System.out.println("Lost a connection: " + e.toString());
+                    outputs.set(c, null);
+                    openConnections.decrementAndGet();
+                    failedConnections.incrementAndGet();
+                }
+            }
+
+            nextTick += tickMs;
+        }
+
+        for(Socket socket : sockets) {
+            try{
+                socket.close();
+            }catch(IOException ignored) {}
+        }
+    }
+
+    /**
+     * Counts the bytes which are actually sent, so compressed streams are counted after compression.
+     */
+    private class CountingOutputStream extends FilterOutputStream {
+        private CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            bytesSent.increment();
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            bytesSent.add(len);
+        }
+    }
+
+    private Socket connect() {
+        for(int attempt = 1; attempt <= CONNECT_ATTEMPTS; attempt++) {
+            try{
+                return new Socket(host, port);
+            }catch(IOException e) {
+                if(attempt == CONNECT_ATTEMPTS) {
+                    System.out.println("Could not connect to " + host + ":" + port + ": " + e.toString());
+                }
+
+                try{
+                    Thread.sleep(100L * attempt);
+                }catch(InterruptedException ignored) {
+                    return null;
+                }
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Shows the statistics every REPORT_INTERVAL_MS, until the duration has passed.
+     */
+    private void reportThread(long start) throws InterruptedException {
+        long lastSent = 0, lastBytes = 0;
+        Map<String, Double> lastMetrics = null;
+        long lastReport = start;
+
+        while(!stopped && (durationMs == 0 || System.currentTimeMillis() - start < durationMs)) {
+            Thread.sleep(REPORT_INTERVAL_MS);
+
+            long now = System.currentTimeMillis();
+            double seconds = (now - lastReport) / 1000.0;
+            lastReport = now;
+
+            long sent = measurementsSent.sum();
+            long bytes = bytesSent.sum();
+            System.out.printf("connections=%d (failed=%d), sent_ps=%.0f, sent_kb_ps=%.0f, max_schedule_lag=%dms",
+                    openConnections.get(), failedConnections.get(), (sent - lastSent) / seconds, (bytes - lastBytes) / 1024.0 / seconds,
+                    maxScheduleLagMs.getAndSet(0));
+            lastSent = sent;
+            lastBytes = bytes;
+
+            Map<String, Double> metrics = readMetrics();
+            if(metrics != null && lastMetrics != null) {
+                double received = metrics.getOrDefault("weather_measurements_received_total", 0.0);
+                double delayCount = metrics.getOrDefault("weather_receive_to_insert_delay_seconds_count", 0.0)
+                        - lastMetrics.getOrDefault("weather_receive_to_insert_delay_seconds_count", 0.0);
+                double delaySum = metrics.getOrDefault("weather_receive_to_insert_delay_seconds_sum", 0.0)
+                        - lastMetrics.getOrDefault("weather_receive_to_insert_delay_seconds_sum", 0.0);
+
+                System.out.printf(", server_received_ps=%.0f, server_inserts_ps=%.0f, avg_receive_to_insert=%.0fms, not_received=%.0f",
+                        (received - lastMetrics.getOrDefault("weather_measurements_received_total", 0.0)) / seconds,
+                        (metrics.getOrDefault("weather_rows_inserted_total", 0.0) - lastMetrics.getOrDefault("weather_rows_inserted_total", 0.0)) / seconds,
+                        delayCount > 0 ? delaySum / delayCount * 1000 : 0, sent - received);
+            }
+            if(metrics != null) {
+                lastMetrics = metrics;
+            }
+
+            System.out.println();
+        }
+
+        System.out.println("Done, sent " + measurementsSent.sum() + " measurements.");
+    }
+
+    /**
+     * Reads the metrics of the server, in the Prometheus text format. Histogram buckets are skipped.
+     *
+     * @return The metrics by name, or null if they could not be read
+     */
+    private Map<String, Double> readMetrics() {
+        if(metricsUrl.isEmpty()) {
+            return null;
+        }
+
+        try{
+            HttpURLConnection con = (HttpURLConnection) new URL(metricsUrl).openConnection();
+            con.setConnectTimeout(1000);
+            con.setReadTimeout(1000);
+
+            Map<String, Double> metrics = new HashMap<>();
+            try(BufferedReader in = new BufferedReader(new InputStreamReader(con.getInputStream(), StandardCharsets.UTF_8))) {
+                String line;
+                while((line = in.readLine()) != null) {
+                    int space = line.lastIndexOf(' ');
+                    if(line.startsWith("#") || line.contains("{") || space == -1) {
+                        continue;
+                    }
+
+                    metrics.put(line.substring(0, space), Double.parseDouble(line.substring(space + 1)));
+                }
+            }
+            return metrics;
+        }catch(IOException | NumberFormatException e) {
+            return null;
+        }
+    }
+}
@@ -11,11 +11,11 @@ public class Main {
      * The properties file location. The name of this file will be used to look for the
      * default properties file in the resources of the program.
      */
-    private static final File PROPERTIES_FILE = new File("server.properties");
+    static final File PROPERTIES_FILE = new File("server.properties");
 
     public static void main(String[] args) throws Exception {
         // Make sure the properties file exists
-        saveDefaultProperties();
+        saveDefaultFile(PROPERTIES_FILE);
 
         // Load the properties
         Properties properties = new Properties();
@@ -32,18 +32,25 @@ public class Main {
     }
 
     /**
-     * Saves the default server properties file, if there is currently none present on the disk.
+     * Saves a default file (like the server properties file), if there is currently none present on the disk.
+     * The default file is the file with the same name in the resources of the program.
+     *
+     * @param file The file
      */
-    private static void saveDefaultProperties() {
-        if(PROPERTIES_FILE.exists()) {
+    static void saveDefaultFile(File file) {
+        if(file.exists()) {
             // The file already exists, do nothing!
             return;
         }
 
         try{
             // Set up input and output streams
-            InputStream in = Main.class.getClassLoader().getResourceAsStream(PROPERTIES_FILE.getName());
-            FileOutputStream out = new FileOutputStream(PROPERTIES_FILE);
+            InputStream in = Main.class.getClassLoader().getResourceAsStream(file.getName());
+            if(in == null) {
+                // There is no default file with this name, so whoever reads it will tell it's missing
+                return;
+            }
+            FileOutputStream out = new FileOutputStream(file);
 
             // Copy all the data from in to out (in is the default file, out is the file that we're creating)
             byte[] buf = new byte[512];
@@ -52,7 +59,7 @@ public class Main {
                 out.write(buf, 0, read);
             }
         }catch(IOException e) {
-            // Couldn't write the server properties file, so exit.
+            // Couldn't write the default file, so exit.
             e.printStackTrace();
             System.exit(-1);
         }
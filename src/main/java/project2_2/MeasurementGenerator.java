@@ -0,0 +1,203 @@
+package project2_2;
+
+import java.util.Random;
+
+/**
+ * Generates realistic, random measurements, in the same XML format the weather stations send.
+ *
+ * Every station gets its own climate (derived from its station ID), and the values of a station drift a little
+ * between measurements, like real weather. A configurable part of the fields is left empty, just like the stations do
+ * when a sensor fails, so the code which fills in missing values is exercised.
+ *
+ * This class is not thread-safe, every thread should use its own generator.
+ */
+public class MeasurementGenerator {
+    private final Random random;
+    private final double missingFieldRatio;
+
+    /**
+     * Constructor of {@link MeasurementGenerator}
+     *
+     * @param seed The seed of the random generator
+     * @param missingFieldRatio The chance (0 to 1) that a field is missing from a measurement
+     */
+    public MeasurementGenerator(long seed, double missingFieldRatio) {
+        this.random = new Random(seed);
+        this.missingFieldRatio = missingFieldRatio;
+    }
+
+    /**
+     * Generates a measurement.
+     *
+     * @param stationId The station ID
+     * @param epochSeconds The unix time of the measurement, in seconds
+     * @return The measurement, with some fields missing (the station ID, date and time are always present)
+     */
+    public StationWeatherData next(int stationId, long epochSeconds) {
+        StationWeatherData data = new StationWeatherData();
+        data.stationId = stationId;
+
+        long days = Math.floorDiv(epochSeconds, 86400);
+        int secondOfDay = Math.floorMod(epochSeconds, 86400);
+        setDate(data, days);
+        data.time_hour = secondOfDay / 3600;
+        data.time_minute = secondOfDay / 60 % 60;
+        data.time_second = secondOfDay % 60;
+
+        // The climate of a station only depends on its ID, the weather on the time of day and some noise
+        Random climate = new Random(stationId * 0x9E3779B97F4A7C15L);
+        double baseTemperature = climate.nextDouble() * 40 - 10;
+        double dewPointSpread = 2 + climate.nextDouble() * 8;
+        double altitudePressureDrop = climate.nextDouble() * 80;
+        double seaPressure = 1000 + climate.nextDouble() * 30;
+        double visibility = climate.nextDouble() * 60;
+        double windSpeed = climate.nextDouble() * 30;
+        double snowHeight = climate.nextDouble() * 20;
+        double overcast = climate.nextDouble() * 100;
+        double windDirection = climate.nextDouble() * 360;
+
+        double dayCycle = Math.sin((secondOfDay - 6 * 3600) * Math.PI / 43200);
+        double temperature = baseTemperature + dayCycle * 5 + random.nextGaussian() * 0.3;
+
+        if(present()) data.temperature = round(temperature, 1);
+        if(present()) data.dewPoint = round(temperature - dewPointSpread, 1);
+        if(present()) data.stationAirPressure = round(1013 - altitudePressureDrop + random.nextGaussian(), 1);
+        if(present()) data.seaAirPressure = round(seaPressure + random.nextGaussian(), 1);
+        if(present()) data.visibility = round(Math.max(0, visibility + random.nextGaussian() * 2), 1);
+        if(present()) data.windSpeed = round(Math.max(0, windSpeed + random.nextGaussian() * 3), 1);
+        if(present()) data.precipitation = round(Math.max(0, random.nextGaussian() * 0.5), 2);
+        if(present()) data.snowHeight = round(temperature < 0 ? snowHeight : 0, 1);
+        if(present()) data.overcast = round(Math.min(100, Math.max(0, overcast + random.nextGaussian() * 5)), 1);
+        if(present()) data.windDirection = Math.floorMod((int) (windDirection + random.nextGaussian() * 10), 360);
+
+        if(present()) {
+            boolean raining = random.nextDouble() < 0.2;
+            data.hasFrozen = temperature < 0;
+            data.hasRained = raining && temperature >= 0;
+            data.hasSnowed = raining && temperature < 0;
+            data.hasHailed = raining && random.nextDouble() < 0.02;
+            data.hasThundered = raining && random.nextDouble() < 0.05;
+            data.hasWhirlwinded = random.nextDouble() < 0.001;
+        }
+
+        return data;
+    }
+
+    /**
+     * Appends a measurement as XML. Missing fields are written as empty tags, like the stations do.
+     *
+     * @param data The measurement
+     * @param out The output
+     */
+    public static void appendXml(StationWeatherData data, StringBuilder out) {
+        out.append("\t<MEASUREMENT>\n");
+        out.append("\t\t<STN>").append(data.stationId).append("</STN>\n");
+
+        out.append("\t\t<DATE>").append(data.date_year).append('-');
+        appendTwoDigits(out, data.date_month).append('-');
+        appendTwoDigits(out, data.date_day).append("</DATE>\n");
+
+        out.append("\t\t<TIME>");
+        appendTwoDigits(out, data.time_hour).append(':');
+        appendTwoDigits(out, data.time_minute).append(':');
+        appendTwoDigits(out, data.time_second).append("</TIME>\n");
+
+        appendField(out, "TEMP", data.temperature, 1);
+        appendField(out, "DEWP", data.dewPoint, 1);
+        appendField(out, "STP", data.stationAirPressure, 1);
+        appendField(out, "SLP", data.seaAirPressure, 1);
+        appendField(out, "VISIB", data.visibility, 1);
+        appendField(out, "WDSP", data.windSpeed, 1);
+        appendField(out, "PRCP", data.precipitation, 2);
+        appendField(out, "SNDP", data.snowHeight, 1);
+
+        out.append("\t\t<FRSHTT>");
+        if(data.hasFrozen != null) {
+            out.append(data.hasFrozen ? '1' : '0').append(data.hasRained ? '1' : '0').append(data.hasSnowed ? '1' : '0')
+                    .append(data.hasHailed ? '1' : '0').append(data.hasThundered ? '1' : '0').append(data.hasWhirlwinded ? '1' : '0');
+        }
+        out.append("</FRSHTT>\n");
+
+        appendField(out, "CLDC", data.overcast, 1);
+
+        out.append("\t\t<WNDDIR>");
+        if(data.windDirection != null) {
+            out.append(data.windDirection);
+        }
+        out.append("</WNDDIR>\n");
+
+        out.append("\t</MEASUREMENT>\n");
+    }
+
+    /**
+     * Appends the start of an XML document with measurements, see {@link #appendXml(StationWeatherData, StringBuilder)}.
+     *
+     * @param out The output
+     */
+    public static void appendDocumentStart(StringBuilder out) {
+        out.append("<?xml version=\"1.0\"?>\n<WEATHERDATA>\n");
+    }
+
+    /**
+     * Appends the end of an XML document with measurements.
+     *
+     * @param out The output
+     */
+    public static void appendDocumentEnd(StringBuilder out) {
+        out.append("</WEATHERDATA>\n");
+    }
+
+    private boolean present() {
+        return random.nextDouble() >= missingFieldRatio;
+    }
+
+    private static Float round(double value, int decimals) {
+        double scale = decimals == 1 ? 10 : 100;
+        return (float) (Math.round(value * scale) / scale);
+    }
+
+    private static void setDate(StationWeatherData data, long days) {
+        // The civil date of a day number, see StationWeatherData#calculateEpochSeconds() for the opposite
+        long z = days + 719468;
+        long era = Math.floorDiv(z, 146097);
+        long dayOfEra = z - era * 146097;
+        long yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+        long dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+        long mp = (5 * dayOfYear + 2) / 153;
+
+        data.date_day = (int) (dayOfYear - (153 * mp + 2) / 5 + 1);
+        data.date_month = (int) (mp < 10 ? mp + 3 : mp - 9);
+        data.date_year = (int) (yearOfEra + era * 400 + (data.date_month <= 2 ? 1 : 0));
+    }
+
+    private static void appendField(StringBuilder out, String tag, Float value, int decimals) {
+        out.append("\t\t<").append(tag).append('>');
+        if(value != null) {
+            appendFixed(out, value, decimals);
+        }
+        out.append("</").append(tag).append(">\n");
+    }
+
+    private static void appendFixed(StringBuilder out, float value, int decimals) {
+        long scale = decimals == 1 ? 10 : 100;
+        long scaled = Math.round(value * (double) scale);
+        if(scaled < 0) {
+            out.append('-');
+            scaled = -scaled;
+        }
+
+        out.append(scaled / scale).append('.');
+        long fraction = scaled % scale;
+        if(decimals == 2 && fraction < 10) {
+            out.append('0');
+        }
+        out.append(fraction);
+    }
+
+    private static StringBuilder appendTwoDigits(StringBuilder out, int value) {
+        if(value < 10) {
+            out.append('0');
+        }
+        return out.append(value);
+    }
+}
@@ -0,0 +1,83 @@
+package project2_2;
+
+import java.sql.SQLException;
+import java.util.List;
+
+/**
+ * Writes chunks of data to the `data` table of the database, with an {@link InsertWriter} per pooled connection.
+ * If the insertion fails, the connection is dropped and the insertion is tried again with another connection.
+ */
+public class MySqlStorageSink implements StorageSink {
+    private static final int INSERT_ATTEMPTS = 2;
+
+    private final ConnectionPool connectionPool;
+    private final RealtimeStatistics statistics;
+    private final String insertMode;
+
+    /**
+     * Constructor of {@link MySqlStorageSink}
+     *
+     * @param connectionPool The global {@link ConnectionPool} object
+     * @param statistics The global {@link RealtimeStatistics} object
+     * @param insertMode The insert mode, {@link InsertWriter#MODE_MULTIROW} or {@link InsertWriter#MODE_BATCH}
+     */
+    public MySqlStorageSink(ConnectionPool connectionPool, RealtimeStatistics statistics, String insertMode) {
+        if(!insertMode.equals(InsertWriter.MODE_MULTIROW) && !insertMode.equals(InsertWriter.MODE_BATCH)) {
+            throw new IllegalArgumentException("Unknown insert_mode " + insertMode);
+        }
+
+        this.connectionPool = connectionPool;
+        this.statistics = statistics;
+        this.insertMode = insertMode;
+    }
+
+    @Override
+    public void open() {
+        // The connection pool connects by itself
+    }
+
+    @Override
+    public boolean write(List<StationWeatherData> chunk) throws InterruptedException {
+        for(int attempt = 1; attempt <= INSERT_ATTEMPTS; attempt++) {
+            ConnectionPool.PooledConnection con = connectionPool.borrow();
+
+            try{
+                // Every connection keeps its own InsertWriter, with its cached statements
+                InsertWriter writer = (InsertWriter) con.getAttachment();
+                if(writer == null) {
+                    writer = new InsertWriter(con.getConnection(), insertMode);
+                    con.setAttachment(writer);
+                }
+
+                long writeStart = System.nanoTime();
+                writer.write(chunk);
+                statistics.recordJdbcExecuteTime(System.nanoTime() - writeStart);
+
+                connectionPool.release(con);
+
+                // Update statistics!
+                statistics.addSQLQuery();
+                return true;
+            }catch(SQLException e) {
+                System.out.println("Could not insert " + chunk.size() + " data points (attempt " + attempt + "/" + INSERT_ATTEMPTS + "): " + e.toString());
+                connectionPool.invalidate(con);
+            }catch(RuntimeException e) {
+                // Don't lose the connection, its state is unknown so it isn't reused
+                connectionPool.invalidate(con);
+                throw e;
+            }
+        }
+
+        return false;
+    }
+
+    @Override
+    public void close() {
+        // The connection pool is shared, so it's not ours to close
+    }
+
+    @Override
+    public String describe() {
+        return "the database (insert mode: " + insertMode + ")";
+    }
+}
@@ -0,0 +1,195 @@
+package project2_2;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.function.Supplier;
+
+/**
+ * An alternative to the thread-per-client model of the {@link WeatherServer}.
+ * Clients are accepted on a single thread, and are then handed to one of a small amount of event loops.
+ * Each event loop uses a {@link Selector} to read from a lot of non-blocking {@link SocketChannel}s at once.
+ */
+public class NioIngestionEngine {
+    // The maximum amount of reads from one client per select, so a fast client can't starve the others on its loop.
+    // Data which is left stays in the socket, and is read in the next select.
+    private static final int MAX_READS_PER_SELECT = 16;
+
+    private final int port;
+    private final int eventLoopThreads;
+    private final Supplier<ClientStreamParser> parserFactory;
+    private final RealtimeStatistics statistics;
+
+    private ServerSocketChannel serverChannel;
+    private EventLoop[] eventLoops;
+
+    /**
+     * Constructor of {@link NioIngestionEngine}
+     *
+     * @param port The port to listen on
+     * @param eventLoopThreads The amount of event loop threads
+     * @param parserFactory Makes the {@link ClientStreamParser} of a new client
+     * @param statistics The global {@link RealtimeStatistics} object
+     */
+    public NioIngestionEngine(int port, int eventLoopThreads, Supplier<ClientStreamParser> parserFactory, RealtimeStatistics statistics) {
+        this.port = port;
+        this.eventLoopThreads = eventLoopThreads;
+        this.parserFactory = parserFactory;
+        this.statistics = statistics;
+    }
+
+    /**
+     * Opens the server channel and starts the accept thread and all event loop threads.
+     *
+     * @throws IOException If the server channel or one of the selectors could not be opened
+     */
+    public void start() throws IOException {
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(new InetSocketAddress(port));
+
+        System.out.println("Starting " + eventLoopThreads + " NIO event loop threads.");
+        eventLoops = new EventLoop[eventLoopThreads];
+        for(int i = 0; i < eventLoopThreads; i++) {
+            eventLoops[i] = new EventLoop();
+            new Thread(eventLoops[i]::eventLoopThread).start();
+        }
+
+        new Thread(this::acceptClientsThread).start();
+    }
+
+    /**
+     * A thread that accepts clients which are trying to connect to the server.
+     * Clients are distributed over the event loops in a round-robin fashion.
+     */
+    private void acceptClientsThread() {
+        try{
+            int nextEventLoop = 0;
+            while(true) {
+                // Get a client - this is a blocking function. Code execution will halt until we actually get a client
+                SocketChannel channel = serverChannel.accept();
+                channel.configureBlocking(false);
+
+                eventLoops[nextEventLoop].register(channel);
+
+                nextEventLoop++;
+                if(nextEventLoop >= eventLoops.length) {
+                    nextEventLoop = 0;
+                }
+            }
+        }catch(IOException e) {
+            // Could not accept clients anymore :(
+            e.printStackTrace();
+            System.exit(-1);
+        }
+    }
+
+    /**
+     * A single event loop, handling the clients which are registered to its {@link Selector}.
+     */
+    private class EventLoop {
+        private final Selector selector;
+
+        // Channels which were accepted, but aren't registered to the selector yet
+        private final Queue<SocketChannel> pendingChannels = new ConcurrentLinkedQueue<>();
+
+        // This buffer is shared by all clients of this event loop, the parsers keep their own state
+        private final ByteBuffer readBuffer = ByteBuffer.allocate(8192);
+
+        private EventLoop() throws IOException {
+            selector = Selector.open();
+        }
+
+        /**
+         * Hands a channel to this event loop. May be called from any thread.
+         *
+         * @param channel The (non-blocking) channel
+         */
+        private void register(SocketChannel channel) {
+            pendingChannels.add(channel);
+            selector.wakeup();
+        }
+
+        private void eventLoopThread() {
+            while(true) {
+                try{
+                    selector.select();
+
+                    // Register the newly accepted channels
+                    SocketChannel channel;
+                    while((channel = pendingChannels.poll()) != null) {
+                        channel.register(selector, SelectionKey.OP_READ, parserFactory.get());
+
+                        // Update statistics!
+                        statistics.addConnection();
+                    }
+
+                    // Read from all channels that have data available
+                    Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+                    while(it.hasNext()) {
+                        SelectionKey key = it.next();
+                        it.remove();
+
+                        if(key.isValid() && key.isReadable()) {
+                            read(key);
+                        }
+                    }
+                }catch(IOException | RuntimeException e) {
+                    // Something went wrong with the selector itself (or registering a client), try again
+                    e.printStackTrace();
+                }
+            }
+        }
+
+        private void read(SelectionKey key) {
+            SocketChannel channel = (SocketChannel) key.channel();
+            ClientStreamParser parser = (ClientStreamParser) key.attachment();
+
+            try{
+                int read = 0;
+                for(int reads = 0; reads < MAX_READS_PER_SELECT && (read = channel.read(readBuffer)) > 0; reads++) {
+                    parser.feed(readBuffer.array(), 0, read);
+                    readBuffer.clear();
+                }
+
+                if(read < 0) {
+                    // The client disconnected
+                    parser.finish();
+                    close(key);
+                }
+            }catch(IOException e) {
+                // There was an error while handling the client.. Don't exit the process, just close the connection.
+                System.out.println("Error while handling client: " + e.toString());
+                close(key);
+            }catch(RuntimeException e) {
+                // The parser choked on the data of this client, the other clients of this loop shouldn't notice
+                System.out.println("Error while parsing the data of a client, closing the connection: " + e.toString());
+                e.printStackTrace();
+                close(key);
+            }finally{
+                readBuffer.clear();
+            }
+        }
+
+        private void close(SelectionKey key) {
+            try{
+                ((ClientStreamParser) key.attachment()).close();
+            }catch(RuntimeException e) {
+                e.printStackTrace();
+            }
+            key.cancel();
+            try{
+                key.channel().close();
+            }catch(IOException ignored) {}
+
+            // Update statistics!
+            statistics.removeConnection();
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package project2_2;
+
+/**
+ * Finds out which protocol a client speaks from the first byte it sends, and hands all data to the parser of that
+ * protocol. Clients which start with the {@link BinaryMeasurementDecoder#HANDSHAKE} byte speak the binary protocol,
+ * all other clients speak XML (which starts with '&lt;', whitespace or a byte order mark), so XML clients don't have
+ * to change anything.
+ *
+ * If compression is enabled, a stream which starts with a gzip or zlib header (see
+ * {@link InflatingParser#detectFormat(byte)}) is decompressed first, and the decompressed stream is negotiated again.
+ *
+ * If the {@link IngestPipeline} is used, the data is only cut into frames here, and parsed by the pipeline.
+ */
+public class ProtocolNegotiator implements ClientStreamParser {
+    private final DataInsertionQueue dataInsertionQueue;
+    private final RealtimeStatistics statistics;
+    private final InflaterPool inflaterPool;
+    private final IngestPipeline ingestPipeline;
+
+    private ClientStreamParser parser;
+
+    // Whether the handshake byte has been received, but the version byte hasn't
+    private boolean awaitingVersion = false;
+
+    /**
+     * Constructor of {@link ProtocolNegotiator}
+     *
+     * @param dataInsertionQueue The global {@link DataInsertionQueue} object
+     * @param statistics The global {@link RealtimeStatistics} object
+     * @param inflaterPool The global {@link InflaterPool} object, or null if compressed streams aren't accepted
+     * @param ingestPipeline The global {@link IngestPipeline} object, or null if the data is parsed right away
+     */
+    public ProtocolNegotiator(DataInsertionQueue dataInsertionQueue, RealtimeStatistics statistics, InflaterPool inflaterPool,
+                              IngestPipeline ingestPipeline) {
+        this.dataInsertionQueue = dataInsertionQueue;
+        this.statistics = statistics;
+        this.inflaterPool = inflaterPool;
+        this.ingestPipeline = ingestPipeline;
+    }
+
+    @Override
+    public void feed(byte[] buf, int off, int len) {
+        if(parser == null && len > 0) {
+            int compressionFormat = inflaterPool != null && !awaitingVersion ? InflatingParser.detectFormat(buf[off]) : -1;
+            if(compressionFormat != -1) {
+                // The decompressed stream can't be compressed again
+                parser = new InflatingParser(compressionFormat, new ProtocolNegotiator(dataInsertionQueue, statistics, null, ingestPipeline),
+                        inflaterPool, statistics);
+            }else if(!awaitingVersion && buf[off] != BinaryMeasurementDecoder.HANDSHAKE) {
+                parser = ingestPipeline != null ? ingestPipeline.newXmlFramer() : new ClientDataParser(dataInsertionQueue, statistics);
+            }else{
+                if(!awaitingVersion) {
+                    awaitingVersion = true;
+                    off++;
+                    len--;
+                    if(len == 0) {
+                        return;
+                    }
+                }
+
+                byte version = buf[off];
+                off++;
+                len--;
+                awaitingVersion = false;
+
+                if(version == BinaryMeasurementDecoder.VERSION) {
+                    parser = ingestPipeline != null ? ingestPipeline.newBinaryFramer() : new BinaryMeasurementDecoder(dataInsertionQueue, statistics);
+                }else{
+                    System.out.println("A client uses an unknown version (" + version + ") of the binary protocol, ignoring its data.");
+                    parser = IGNORE;
+                }
+            }
+        }
+
+        if(parser != null && len > 0) {
+            parser.feed(buf, off, len);
+        }
+    }
+
+    @Override
+    public void finish() {
+        if(parser != null) {
+            parser.finish();
+        }
+    }
+
+    @Override
+    public void close() {
+        if(parser != null) {
+            parser.close();
+        }
+    }
+
+    // Used for clients of which we can't parse the data
+    private static final ClientStreamParser IGNORE = new ClientStreamParser() {
+        @Override
+        public void feed(byte[] buf, int off, int len) {
+        }
+
+        @Override
+        public void finish() {
+        }
+    };
+}
@@ -1,22 +1,93 @@
 package project2_2;
 
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
- * A class that holds and shows real-time statistics about the load of the server.
+ * A class that holds real-time statistics about the load of the server.
+ *
+ * All counters are totals since the server started, and are {@link LongAdder}s so the many client and insert threads
+ * never contend on them. Durations are recorded in {@link LatencyHistogram}s. The statistics can be shown in the
+ * console once per second (the per-second values are the differences between the totals), and can be scraped by
+ * Prometheus, see {@link #writePrometheus(StringBuilder)}.
  */
 public class RealtimeStatistics {
     // All data points
     private final AtomicInteger activeConnections = new AtomicInteger(0);
-    private final AtomicInteger dataReceivePerSecond = new AtomicInteger(0);
-    private final AtomicInteger queriesPerSecond = new AtomicInteger(0);
-    private final AtomicInteger insertsPerSecond = new AtomicInteger(0);
+    private final LongAdder dataReceived = new LongAdder();
+    private final LongAdder queries = new LongAdder();
+    private final LongAdder insertions = new LongAdder();
+    private final LongAdder suppressedReadings = new LongAdder();
+
+    // Compressed client streams
+    private final AtomicInteger compressedConnections = new AtomicInteger(0);
+    private final LongAdder compressedBytes = new LongAdder();
+    private final LongAdder decompressedBytes = new LongAdder();
+    private final LongAdder inflateNanos = new LongAdder();
+
+    // Live update subscribers
+    private final AtomicInteger subscribers = new AtomicInteger(0);
+    private final LongAdder subscriberEvents = new LongAdder();
+    private final LongAdder conflatedUpdates = new LongAdder();
+
+    // Alert rules
+    private final LongAdder alerts = new LongAdder();
+    private final LongAdder droppedAlerts = new LongAdder();
+
+    // Auto deletion progress
+    private final LongAdder deletedRows = new LongAdder();
+    private final LongAdder droppedPartitions = new LongAdder();
+    private volatile long deletionStartedAt = 0; // 0 when no deletion is running
+
+    // Durations
+    private final LatencyHistogram parseTime = new LatencyHistogram("weather_parse",
+            "The time it takes to parse a single measurement (measurements which arrive in multiple reads are not timed)");
+    private final LatencyHistogram receiveToInsertDelay = new LatencyHistogram("weather_receive_to_insert_delay",
+            "The time between receiving the oldest data point of a chunk, and inserting the chunk");
+    private final LatencyHistogram jdbcExecuteTime = new LatencyHistogram("weather_jdbc_execute",
+            "The time it takes to execute a single insert query");
+    private final LatencyHistogram queueWaitTime = new LatencyHistogram("weather_queue_wait",
+            "The time a chunk waits in the insert queue (or spool) before an insert query thread takes it");
+    private final LatencyHistogram deletionDuration = new LatencyHistogram("weather_auto_deletion",
+            "The time a full auto deletion run takes");
+    private final LatencyHistogram snapshotDuration = new LatencyHistogram("weather_snapshot",
+            "The time it takes to write a snapshot of the station data");
+
+    // The amount of stations in the last snapshot
+    private volatile long snapshotStations = 0;
+
+    // The values of the tuning properties which are in use, see ConfigWatcher
+    private final Map<String, Long> appliedConfig = new ConcurrentSkipListMap<>();
+
+    private final ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+
+    // The database connection pool, which has its own metrics
+    private volatile ConnectionPool connectionPool;
+
+    // The (optional) ingest pipeline, which has its own metrics
+    private volatile IngestPipeline ingestPipeline;
+
+    // The latest data of every station
+    private volatile StripedStationStore stationStore;
 
     public RealtimeStatistics() {
     }
 
     /**
-     * Starts the thread which displays the statistics in the console.
+     * Sets the connection pool of which the metrics should be shown.
+     *
+     * @param connectionPool The global {@link ConnectionPool} object
+     */
+    public void setConnectionPool(ConnectionPool connectionPool) {
+        this.connectionPool = connectionPool;
+    }
+
+    /**
+     * Starts the thread which displays the statistics in the console, once per second.
      */
     public void startStatsThread() {
         new Thread(this::statsThread).start();
@@ -26,36 +97,55 @@ public class RealtimeStatistics {
      * Increases the connection count.
      */
     public void addConnection() {
-        synchronized(activeConnections) {
-            activeConnections.incrementAndGet();
-        }
+        activeConnections.incrementAndGet();
     }
 
     /**
      * Decreases the connection count.
      */
     public void removeConnection() {
-        synchronized(activeConnections) {
-            activeConnections.decrementAndGet();
-        }
+        activeConnections.decrementAndGet();
+    }
+
+    /**
+     * Increases the compressed connection count.
+     */
+    public void addCompressedConnection() {
+        compressedConnections.incrementAndGet();
+    }
+
+    /**
+     * Decreases the compressed connection count.
+     */
+    public void removeCompressedConnection() {
+        compressedConnections.decrementAndGet();
+    }
+
+    /**
+     * Records the work done to decompress some data of a compressed connection.
+     *
+     * @param compressed The amount of compressed bytes received
+     * @param decompressed The amount of bytes they decompressed to
+     * @param nanos The time spent decompressing, in nanoseconds
+     */
+    public void addInflated(long compressed, long decompressed, long nanos) {
+        compressedBytes.add(compressed);
+        decompressedBytes.add(decompressed);
+        inflateNanos.add(nanos);
     }
 
     /**
      * Increases the data received amount.
      */
     public void addDataReceived() {
-        synchronized(dataReceivePerSecond) {
-            dataReceivePerSecond.incrementAndGet();
-        }
+        dataReceived.increment();
     }
 
     /**
      * Increases the SQL query amount.
      */
     public void addSQLQuery() {
-        synchronized(queriesPerSecond) {
-            queriesPerSecond.incrementAndGet();
-        }
+        queries.increment();
     }
 
     /**
@@ -64,41 +154,292 @@ public class RealtimeStatistics {
      * @param amount The amount to increase by
      */
     public void addInsertions(int amount) {
-        synchronized(insertsPerSecond) {
-            insertsPerSecond.addAndGet(amount);
+        insertions.add(amount);
+    }
+
+    /**
+     * Increases the amount of readings which weren't inserted because they hadn't changed enough
+     *
+     * @param amount The amount to increase by
+     */
+    public void addSuppressedReadings(int amount) {
+        suppressedReadings.add(amount);
+    }
+
+    /**
+     * Sets the ingest pipeline, of which the stages will be shown in the statistics as well.
+     *
+     * @param ingestPipeline The global {@link IngestPipeline} object
+     */
+    public void setIngestPipeline(IngestPipeline ingestPipeline) {
+        this.ingestPipeline = ingestPipeline;
+    }
+
+    /**
+     * Sets the store with the latest data of every station, of which the size will be shown in the metrics.
+     *
+     * @param stationStore The {@link StripedStationStore} of the {@link DataInsertionQueue}
+     */
+    public void setStationStore(StripedStationStore stationStore) {
+        this.stationStore = stationStore;
+    }
+
+    /**
+     * Records a snapshot of the station data which was written.
+     *
+     * @param stations The amount of stations in the snapshot
+     * @param nanos The time it took to write the snapshot, in nanoseconds
+     */
+    public void recordSnapshot(int stations, long nanos) {
+        snapshotStations = stations;
+        snapshotDuration.record(nanos);
+    }
+
+    /**
+     * Increases the amount of live update subscribers by 1
+     */
+    public void addSubscriber() {
+        subscribers.incrementAndGet();
+    }
+
+    /**
+     * Decreases the amount of live update subscribers by 1
+     */
+    public void removeSubscriber() {
+        subscribers.decrementAndGet();
+    }
+
+    /**
+     * Increases the amount of live updates sent to subscribers
+     *
+     * @param amount The amount to increase by
+     */
+    public void addSubscriberEvents(int amount) {
+        subscriberEvents.add(amount);
+    }
+
+    /**
+     * Increases the amount of live updates which were replaced by a newer update before they were sent
+     *
+     * @param amount The amount to increase by
+     */
+    public void addConflatedUpdates(int amount) {
+        conflatedUpdates.add(amount);
+    }
+
+    /**
+     * Increases the amount of alerts which were fired
+     *
+     * @param amount The amount to increase by
+     */
+    public void addAlerts(int amount) {
+        alerts.add(amount);
+    }
+
+    /**
+     * Increases the amount of alerts which were dropped because they couldn't be written fast enough
+     *
+     * @param amount The amount to increase by
+     */
+    public void addDroppedAlerts(int amount) {
+        droppedAlerts.add(amount);
+    }
+
+    /**
+     * Sets the value of a tuning property which is in use.
+     *
+     * @param name The name of the property
+     * @param value The value
+     */
+    public void setAppliedConfig(String name, long value) {
+        appliedConfig.put(name, value);
+    }
+
+    /**
+     * Marks the start of an auto deletion run.
+     */
+    public void startDeletion() {
+        deletionStartedAt = System.currentTimeMillis();
+    }
+
+    /**
+     * Marks the end of an auto deletion run.
+     */
+    public void endDeletion() {
+        long started = deletionStartedAt;
+        if(started != 0) {
+            deletionDuration.record((System.currentTimeMillis() - started) * 1_000_000);
+        }
+
+        deletionStartedAt = 0;
+    }
+
+    /**
+     * Increases the amount of rows deleted by the auto deletion.
+     *
+     * @param amount The amount to increase by
+     */
+    public void addDeletedRows(int amount) {
+        deletedRows.add(amount);
+    }
+
+    /**
+     * Increases the amount of partitions dropped by the auto deletion.
+     *
+     * @param amount The amount to increase by
+     */
+    public void addDroppedPartitions(int amount) {
+        droppedPartitions.add(amount);
+    }
+
+    /**
+     * Records how long parsing a measurement took.
+     *
+     * @param nanos The duration in nanoseconds
+     */
+    public void recordParseTime(long nanos) {
+        parseTime.record(nanos);
+    }
+
+    /**
+     * Records how long ago the oldest data point of an inserted chunk was received.
+     *
+     * @param receivedAt The time at which the data point was received, in milliseconds
+     */
+    public void recordReceiveToInsertDelay(long receivedAt) {
+        receiveToInsertDelay.record((System.currentTimeMillis() - receivedAt) * 1_000_000);
+    }
+
+    /**
+     * Records how long executing an insert query took.
+     *
+     * @param nanos The duration in nanoseconds
+     */
+    public void recordJdbcExecuteTime(long nanos) {
+        jdbcExecuteTime.record(nanos);
+    }
+
+    /**
+     * Records how long a chunk waited before it was taken by an insert query thread.
+     *
+     * @param queuedAt The time at which the chunk was queued, in milliseconds
+     */
+    public void recordQueueWaitTime(long queuedAt) {
+        queueWaitTime.record((System.currentTimeMillis() - queuedAt) * 1_000_000);
+    }
+
+    /**
+     * Appends all statistics in the Prometheus text format.
+     *
+     * @param out The output
+     */
+    public void writePrometheus(StringBuilder out) {
+        writeMetric(out, "weather_clients", "gauge", "The amount of connected clients", activeConnections.get());
+        writeMetric(out, "weather_compressed_clients", "gauge", "The amount of connected clients which send a compressed stream", compressedConnections.get());
+        writeMetric(out, "weather_compressed_received_bytes_total", "counter", "The amount of compressed bytes received", compressedBytes.sum());
+        writeMetric(out, "weather_decompressed_bytes_total", "counter", "The amount of bytes the compressed data decompressed to", decompressedBytes.sum());
+        writeMetric(out, "weather_inflate_nanoseconds_total", "counter", "The time spent decompressing", inflateNanos.sum());
+        writeMetric(out, "weather_measurements_received_total", "counter", "The amount of measurements received", dataReceived.sum());
+        writeMetric(out, "weather_sql_queries_total", "counter", "The amount of SQL queries executed", queries.sum());
+        writeMetric(out, "weather_rows_inserted_total", "counter", "The amount of data points inserted", insertions.sum());
+        writeMetric(out, "weather_readings_suppressed_total", "counter", "The amount of readings which weren't inserted because they hadn't changed enough", suppressedReadings.sum());
+        writeMetric(out, "weather_auto_deletion_deleted_rows_total", "counter", "The amount of rows deleted by the auto deletion", deletedRows.sum());
+        writeMetric(out, "weather_auto_deletion_dropped_partitions_total", "counter", "The amount of partitions dropped by the auto deletion", droppedPartitions.sum());
+        writeMetric(out, "weather_auto_deletion_running", "gauge", "Whether an auto deletion run is in progress", deletionStartedAt != 0 ? 1 : 0);
+        writeMetric(out, "weather_alerts_total", "counter", "The amount of alerts fired", alerts.sum());
+        writeMetric(out, "weather_alerts_dropped_total", "counter", "The amount of alerts dropped because they couldn't be written fast enough", droppedAlerts.sum());
+        writeMetric(out, "weather_subscribers", "gauge", "The amount of live update subscribers", subscribers.get());
+        writeMetric(out, "weather_subscriber_events_total", "counter", "The amount of live updates sent to subscribers", subscriberEvents.sum());
+        writeMetric(out, "weather_subscriber_conflated_total", "counter", "The amount of live updates replaced by a newer update before they were sent", conflatedUpdates.sum());
+        writeMetric(out, "weather_snapshot_stations", "gauge", "The amount of stations in the last snapshot", snapshotStations);
+
+        if(!appliedConfig.isEmpty()) {
+            out.append("# HELP weather_config The values of the tuning properties which are in use\n");
+            out.append("# TYPE weather_config gauge\n");
+            for(Map.Entry<String, Long> entry : appliedConfig.entrySet()) {
+                out.append("weather_config{name=\"").append(entry.getKey()).append("\"} ").append(entry.getValue()).append('\n');
+            }
         }
+
+        parseTime.writePrometheus(out);
+        receiveToInsertDelay.writePrometheus(out);
+        jdbcExecuteTime.writePrometheus(out);
+        queueWaitTime.writePrometheus(out);
+        deletionDuration.writePrometheus(out);
+        snapshotDuration.writePrometheus(out);
+
+        ConnectionPool pool = connectionPool;
+        if(pool != null) {
+            writeMetric(out, "weather_db_pool_active", "gauge", "The amount of borrowed database connections", pool.getActiveConnections());
+            writeMetric(out, "weather_db_pool_idle", "gauge", "The amount of idle database connections", pool.getIdleConnections());
+            writeMetric(out, "weather_db_pool_max", "gauge", "The maximum amount of database connections", pool.getMaxSize());
+            writeMetric(out, "weather_db_pool_created_total", "counter", "The amount of database connections made", pool.getConnectionsCreated());
+            writeMetric(out, "weather_db_pool_closed_total", "counter", "The amount of database connections closed", pool.getConnectionsClosed());
+            writeMetric(out, "weather_db_pool_connect_failures_total", "counter", "The amount of failed connection attempts", pool.getConnectFailures());
+            writeMetric(out, "weather_db_pool_validation_failures_total", "counter", "The amount of idle connections which were no longer valid", pool.getValidationFailures());
+            writeMetric(out, "weather_db_pool_borrows_total", "counter", "The amount of times a connection was borrowed", pool.getBorrows());
+        }
+
+        IngestPipeline pipeline = ingestPipeline;
+        if(pipeline != null) {
+            writeMetric(out, "weather_ingest_frames_queued_total", "counter", "The amount of frames handed to the parser threads", pipeline.getFramesQueued());
+            writeMetric(out, "weather_ingest_frames_dropped_total", "counter", "The amount of measurements dropped because they were larger than a frame", pipeline.getDroppedFrames());
+            writeMetric(out, "weather_ingest_ring_depth", "gauge", "The amount of frames waiting for a parser thread", pipeline.getRingDepth());
+            writeMetric(out, "weather_ingest_frames_parsed_total", "counter", "The amount of frames parsed", pipeline.getFramesParsed());
+            writeMetric(out, "weather_ingest_merge_depth", "gauge", "The amount of measurements waiting for a merge thread", pipeline.getMergeDepth());
+            writeMetric(out, "weather_ingest_merged_total", "counter", "The amount of measurements merged", pipeline.getMeasurementsMerged());
+        }
+
+        StripedStationStore store = stationStore;
+        if(store != null) {
+            writeMetric(out, "weather_stations", "gauge", "The amount of stations of which the latest data is kept", store.size());
+            writeMetric(out, "weather_station_store_bytes", "gauge", "The approximate memory used by the latest data of the stations", store.memoryUsageBytes());
+        }
+
+        Runtime runtime = Runtime.getRuntime();
+        writeMetric(out, "weather_jvm_memory_used_bytes", "gauge", "The used heap memory", runtime.totalMemory() - runtime.freeMemory());
+        writeMetric(out, "weather_jvm_memory_total_bytes", "gauge", "The reserved heap memory", runtime.totalMemory());
+        writeMetric(out, "weather_jvm_memory_max_bytes", "gauge", "The maximum heap memory", runtime.maxMemory());
+        writeMetric(out, "weather_jvm_threads", "gauge", "The amount of platform threads", threadMXBean.getThreadCount());
+    }
+
+    private static void writeMetric(StringBuilder out, String name, String type, String help, long value) {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+        out.append(name).append(' ').append(value).append('\n');
     }
 
     /**
-     * This is the thread which displays (and resets) data.
+     * This is the thread which displays the data.
      */
     private void statsThread() {
+        long lastDataReceived = 0, lastQueries = 0, lastInsertions = 0;
+        long lastCompressedBytes = 0, lastDecompressedBytes = 0, lastInflateNanos = 0;
+        long lastFramesQueued = 0, lastFramesParsed = 0, lastMerged = 0;
+
         while(true) {
             // Wait 1000ms, aka 1 second, so we have all values be "per second"
             try{
                 Thread.sleep(1000);
             }catch(InterruptedException ignored) {}
 
-            // -- Read the data synchronously, because the data will be adjusted from multiple threads --
-            int activeConnectionsValue;
-            synchronized(activeConnections) {
-                activeConnectionsValue = activeConnections.get();
-            }
+            // -- Read the data. The per second values are the difference with the totals of the last second --
+            int activeConnectionsValue = activeConnections.get();
 
-            int dataReceivePerSecondValue;
-            synchronized(dataReceivePerSecond) {
-                dataReceivePerSecondValue = dataReceivePerSecond.getAndSet(0);
-            }
+            long dataReceivedValue = dataReceived.sum();
+            long queriesValue = queries.sum();
+            long insertionsValue = insertions.sum();
 
-            int queriesPerSecondValue;
-            synchronized(queriesPerSecond) {
-                queriesPerSecondValue = queriesPerSecond.getAndSet(0);
-            }
+            long dataReceivePerSecondValue = dataReceivedValue - lastDataReceived;
+            long queriesPerSecondValue = queriesValue - lastQueries;
+            long insertsPerSecondValue = insertionsValue - lastInsertions;
 
-            int insertsPerSecondValue;
-            synchronized(insertsPerSecond) {
-                insertsPerSecondValue = insertsPerSecond.getAndSet(0);
-            }
+            lastDataReceived = dataReceivedValue;
+            lastQueries = queriesValue;
+            lastInsertions = insertionsValue;
+
+            // The amount of platform threads (virtual threads are not included in this number)
+            int platformThreads = threadMXBean.getThreadCount();
 
             // Calculate RAM usage in MB
             double usedRam  = (Runtime.getRuntime().totalMemory() - Runtime.getRuntime().freeMemory()) / 1024.0 / 1024.0;
@@ -106,8 +447,50 @@ public class RealtimeStatistics {
             double maxRam   = Runtime.getRuntime().maxMemory() / 1024.0 / 1024.0;
 
             // Display all values in the console
-            System.out.printf("clients=%4d, data_receive_ps=%5d, queries_ps=%2d, inserts_ps=%5d used_ram=%.2fmb, total_ram=%.2fmb, max_ram=%.2fmb%n",
-                    activeConnectionsValue, dataReceivePerSecondValue, queriesPerSecondValue, insertsPerSecondValue, usedRam, totalRam, maxRam);
+            System.out.printf("clients=%4d, data_receive_ps=%5d, queries_ps=%2d, inserts_ps=%5d used_ram=%.2fmb, total_ram=%.2fmb, max_ram=%.2fmb, threads=%d%n",
+                    activeConnectionsValue, dataReceivePerSecondValue, queriesPerSecondValue, insertsPerSecondValue, usedRam, totalRam, maxRam, platformThreads);
+
+            int compressedConnectionsValue = compressedConnections.get();
+            long compressedBytesValue = compressedBytes.sum();
+            long decompressedBytesValue = decompressedBytes.sum();
+            long inflateNanosValue = inflateNanos.sum();
+            if(compressedConnectionsValue > 0 || compressedBytesValue != lastCompressedBytes) {
+                long compressedPerSecond = compressedBytesValue - lastCompressedBytes;
+                long decompressedPerSecond = decompressedBytesValue - lastDecompressedBytes;
+                System.out.printf("compression: clients=%d, received_kb_ps=%.1f, ratio=%.2f, inflate_cpu_ms_ps=%.2f%n",
+                        compressedConnectionsValue, compressedPerSecond / 1024.0,
+                        compressedPerSecond > 0 ? (double) decompressedPerSecond / compressedPerSecond : 0,
+                        (inflateNanosValue - lastInflateNanos) / 1e6);
+            }
+            lastCompressedBytes = compressedBytesValue;
+            lastDecompressedBytes = decompressedBytesValue;
+            lastInflateNanos = inflateNanosValue;
+
+            IngestPipeline pipeline = ingestPipeline;
+            if(pipeline != null) {
+                long framesQueuedValue = pipeline.getFramesQueued();
+                long framesParsedValue = pipeline.getFramesParsed();
+                long mergedValue = pipeline.getMeasurementsMerged();
+                System.out.printf("ingest: frames_queued_ps=%d, ring_depth=%d, frames_parsed_ps=%d, merge_depth=%d, merged_ps=%d%n",
+                        framesQueuedValue - lastFramesQueued, pipeline.getRingDepth(), framesParsedValue - lastFramesParsed,
+                        pipeline.getMergeDepth(), mergedValue - lastMerged);
+                lastFramesQueued = framesQueuedValue;
+                lastFramesParsed = framesParsedValue;
+                lastMerged = mergedValue;
+            }
+
+            long deletionStarted = deletionStartedAt;
+            if(deletionStarted != 0) {
+                System.out.printf("auto_deletion: running for %ds, deleted_rows=%d, dropped_partitions=%d%n",
+                        (System.currentTimeMillis() - deletionStarted) / 1000, deletedRows.sum(), droppedPartitions.sum());
+            }
+
+            ConnectionPool pool = connectionPool;
+            if(pool != null) {
+                System.out.printf("db_pool: active=%d/%d, idle=%d, created=%d, closed=%d, connect_failures=%d, validation_failures=%d, borrows=%d%n",
+                        pool.getActiveConnections(), pool.getMaxSize(), pool.getIdleConnections(), pool.getConnectionsCreated(),
+                        pool.getConnectionsClosed(), pool.getConnectFailures(), pool.getValidationFailures(), pool.getBorrows());
+            }
         }
     }
 }
@@ -0,0 +1,348 @@
+package project2_2;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Keeps running aggregates (samples, min, max, sum) of every received reading, per station, per field, per minute and
+ * per hour. Once a window is over, its aggregates are written to the rollup tables in bulk, so dashboards never have
+ * to scan the raw `data` table.
+ *
+ * Both rollup tables have the same layout, with one row per station, window and field:
+ *
+ *   CREATE TABLE data_rollup_minute (
+ *     station_id INT NOT NULL, window_start INT NOT NULL, field VARCHAR(32) NOT NULL,
+ *     samples INT NOT NULL, min FLOAT NOT NULL, max FLOAT NOT NULL, sum DOUBLE NOT NULL, avg FLOAT NOT NULL,
+ *     PRIMARY KEY (station_id, window_start, field)
+ *   );
+ *   CREATE TABLE data_rollup_hour LIKE data_rollup_minute;
+ *
+ * The field names are the column names of the `data` table. Rows are upserted, so a window which receives a late
+ * reading after it has been written is merged with the existing row. Windows which could not be written are kept,
+ * and written again in the next flush.
+ *
+ * Stations which stopped sending data are forgotten once all of their windows (also the hour window) are closed.
+ */
+public class RollupAggregator {
+    // The fields we aggregate
+    private static final int FIELDS = StationStateStore.FLOAT_FIELDS;
+
+    private static final int[] RESOLUTIONS = {60, 3600}; // Window sizes in seconds
+    private static final String[] TABLES = {"data_rollup_minute", "data_rollup_hour"};
+
+    private static final int ROWS_PER_QUERY = 500;
+
+    private final RealtimeStatistics statistics;
+    private final ConnectionPool connectionPool;
+    private final long flushIntervalMs;
+    private final long graceSeconds;
+
+    private final Map<Integer, StationRollup> stations = new ConcurrentHashMap<>();
+
+    // Closed windows, per resolution, waiting to be written to the database
+    private final List<Queue<Window>> closedWindows = new ArrayList<>();
+
+    /**
+     * Constructor of {@link RollupAggregator}
+     *
+     * @param statistics The global {@link RealtimeStatistics} object
+     * @param connectionPool The global {@link ConnectionPool} object
+     * @param flushIntervalMs The time between writing the closed windows to the database
+     * @param graceSeconds How long after its end a window is closed if its station stopped sending data
+     */
+    public RollupAggregator(RealtimeStatistics statistics, ConnectionPool connectionPool, long flushIntervalMs, long graceSeconds) {
+        this.statistics = statistics;
+        this.connectionPool = connectionPool;
+        this.flushIntervalMs = flushIntervalMs;
+        this.graceSeconds = graceSeconds;
+
+        for(int i = 0; i < RESOLUTIONS.length; i++) {
+            closedWindows.add(new ConcurrentLinkedQueue<>());
+        }
+    }
+
+    /**
+     * Starts the thread which writes the closed windows to the database.
+     */
+    public void startThread() {
+        new Thread(this::flushThread).start();
+    }
+
+    /**
+     * Adds a reading to the aggregates of its station. Should be called for every reading that is received.
+     *
+     * @param data The reading, only the values which are present are aggregated
+     */
+    public void add(StationWeatherData data) {
+        long time = data.calculateEpochSeconds();
+        if(time < 0) {
+            // We don't know when this reading was taken
+            return;
+        }
+
+        StationRollup rollup;
+        while(true) {
+            rollup = stations.computeIfAbsent(data.stationId, id -> new StationRollup());
+            rollup.lock.lock();
+            if(!rollup.evicted) {
+                break;
+            }
+
+            // The station was evicted while we were waiting for the lock, use a new one
+            rollup.lock.unlock();
+        }
+        try{
+            for(int r = 0; r < RESOLUTIONS.length; r++) {
+                long windowStart = time - time % RESOLUTIONS[r];
+                Window window = rollup.windows[r];
+
+                if(window == null || window.start < windowStart) {
+                    // This reading is in a new window, close the current one
+                    if(window != null) {
+                        closedWindows.get(r).add(window);
+                    }
+                    window = new Window(data.stationId, windowStart);
+                    rollup.windows[r] = window;
+                }else if(window.start > windowStart) {
+                    // A late reading for an older window, write it separately (it will be merged in the database)
+                    Window late = new Window(data.stationId, windowStart);
+                    late.add(data);
+                    closedWindows.get(r).add(late);
+                    continue;
+                }
+
+                window.add(data);
+            }
+        }finally{
+            rollup.lock.unlock();
+        }
+    }
+
+    private void flushThread() {
+        while(true) {
+            try{
+                Thread.sleep(flushIntervalMs);
+            }catch(InterruptedException ignored) {}
+
+            try{
+                closeStaleWindows(System.currentTimeMillis() / 1000);
+
+                for(int r = 0; r < RESOLUTIONS.length; r++) {
+                    flush(r);
+                }
+            }catch(InterruptedException e) {
+                e.printStackTrace();
+            }catch(RuntimeException e) {
+                // Keep flushing, the windows which weren't written are still queued
+                System.out.println("Could not write the rollups: " + e.toString());
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Closes all windows, also the ones which are still open, and writes them to the database. Should be called when
+     * the server shuts down, after the last reading was added. The windows which are still open are written
+     * partially, they are merged with the rest of their readings in the database after a restart.
+     *
+     * @throws InterruptedException If the thread was interrupted while waiting for a connection
+     */
+    public void flushAll() throws InterruptedException {
+        closeStaleWindows(Long.MAX_VALUE);
+
+        for(int r = 0; r < RESOLUTIONS.length; r++) {
+            flush(r);
+            if(!closedWindows.get(r).isEmpty()) {
+                System.out.println("Could not write " + closedWindows.get(r).size() + " " + TABLES[r] + " windows before shutting down.");
+            }
+        }
+    }
+
+    /**
+     * Closes the windows of stations which stopped sending data, and forgets the stations of which all windows are
+     * closed (so they haven't sent data for longer than the largest resolution).
+     *
+     * @param now The current time in epoch seconds
+     */
+    private void closeStaleWindows(long now) {
+        Iterator<StationRollup> it = stations.values().iterator();
+        while(it.hasNext()) {
+            StationRollup rollup = it.next();
+            rollup.lock.lock();
+            try{
+                boolean open = false;
+                for(int r = 0; r < RESOLUTIONS.length; r++) {
+                    Window window = rollup.windows[r];
+                    if(window != null && window.start + RESOLUTIONS[r] + graceSeconds < now) {
+                        closedWindows.get(r).add(window);
+                        rollup.windows[r] = null;
+                    }
+                    open |= rollup.windows[r] != null;
+                }
+
+                if(!open) {
+                    rollup.evicted = true;
+                    it.remove();
+                }
+            }finally{
+                rollup.lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Writes all closed windows of a resolution to the database.
+     *
+     * @param r The index of the resolution
+     * @throws InterruptedException If the thread was interrupted while waiting for a connection
+     */
+    private void flush(int r) throws InterruptedException {
+        Queue<Window> queue = closedWindows.get(r);
+        if(queue.isEmpty()) {
+            return;
+        }
+
+        ConnectionPool.PooledConnection con = connectionPool.borrow();
+        List<Window> batch = new ArrayList<>();
+        boolean written = false;
+        try{
+            Window window;
+            while((window = queue.poll()) != null) {
+                batch.add(window);
+                if(batch.size() * FIELDS >= ROWS_PER_QUERY) {
+                    writeWindows(con, r, batch);
+                    batch.clear();
+                }
+            }
+
+            if(!batch.isEmpty()) {
+                writeWindows(con, r, batch);
+                batch.clear();
+            }
+
+            written = true;
+        }catch(SQLException e) {
+            System.out.println("Could not write " + batch.size() + " " + TABLES[r] + " windows, trying again in the next flush: " + e.toString());
+        }finally{
+            // A failed query didn't change anything, so its windows can be written again
+            queue.addAll(batch);
+
+            if(written) {
+                connectionPool.release(con);
+            }else{
+                connectionPool.invalidate(con);
+            }
+        }
+    }
+
+    private void writeWindows(ConnectionPool.PooledConnection con, int r, List<Window> windows) throws SQLException {
+        // Count the rows first, fields without any samples aren't written
+        int rows = 0;
+        for(Window window : windows) {
+            for(int f = 0; f < FIELDS; f++) {
+                if(window.samples[f] > 0) rows++;
+            }
+        }
+        if(rows == 0) {
+            return;
+        }
+
+        StringBuilder query = new StringBuilder(200 + rows * 18);
+        query.append("INSERT INTO ").append(TABLES[r]).append("(station_id,window_start,field,samples,min,max,sum,avg)VALUES");
+        for(int i = 0; i < rows; i++) {
+            query.append(i == 0 ? "" : ",").append("(?,?,?,?,?,?,?,?)");
+        }
+        query.append(" ON DUPLICATE KEY UPDATE min=LEAST(min,VALUES(min)),max=GREATEST(max,VALUES(max)),")
+                .append("sum=sum+VALUES(sum),samples=samples+VALUES(samples),avg=sum/samples");
+
+        try(PreparedStatement stmt = con.getConnection().prepareStatement(query.toString())) {
+            int offset = 0;
+            for(Window window : windows) {
+                for(int f = 0; f < FIELDS; f++) {
+                    if(window.samples[f] == 0) {
+                        continue;
+                    }
+
+                    stmt.setInt   (offset + 1, window.stationId);
+                    stmt.setLong  (offset + 2, window.start);
+                    stmt.setString(offset + 3, StationStateStore.FLOAT_FIELD_NAMES[f]);
+                    stmt.setInt   (offset + 4, window.samples[f]);
+                    stmt.setFloat (offset + 5, window.min[f]);
+                    stmt.setFloat (offset + 6, window.max[f]);
+                    stmt.setDouble(offset + 7, window.sum[f]);
+                    stmt.setFloat (offset + 8, (float) (window.sum[f] / window.samples[f]));
+                    offset += 8;
+                }
+            }
+
+            stmt.executeUpdate();
+        }
+
+        // Update statistics!
+        statistics.addSQLQuery();
+    }
+
+    /**
+     * The current windows of a single station.
+     */
+    private static class StationRollup {
+        private final ReentrantLock lock = new ReentrantLock();
+        private final Window[] windows = new Window[RESOLUTIONS.length];
+        private boolean evicted = false; // Set when the station was removed, guarded by the lock
+    }
+
+    /**
+     * The aggregates of a single station, in a single window.
+     */
+    private static class Window {
+        private final int stationId;
+        private final long start;
+
+        private final int[] samples = new int[FIELDS];
+        private final float[] min = new float[FIELDS];
+        private final float[] max = new float[FIELDS];
+        private final double[] sum = new double[FIELDS];
+
+        private Window(int stationId, long start) {
+            this.stationId = stationId;
+            this.start = start;
+        }
+
+        private void add(StationWeatherData data) {
+            add(StationStateStore.TEMPERATURE, data.temperature);
+            add(StationStateStore.DEW_POINT, data.dewPoint);
+            add(StationStateStore.STATION_AIR_PRESSURE, data.stationAirPressure);
+            add(StationStateStore.SEA_AIR_PRESSURE, data.seaAirPressure);
+            add(StationStateStore.VISIBILITY, data.visibility);
+            add(StationStateStore.WIND_SPEED, data.windSpeed);
+            add(StationStateStore.PRECIPITATION, data.precipitation);
+            add(StationStateStore.SNOW_HEIGHT, data.snowHeight);
+            add(StationStateStore.OVERCAST, data.overcast);
+        }
+
+        private void add(int field, Float value) {
+            if(value == null) {
+                return;
+            }
+
+            float v = value;
+            if(samples[field] == 0) {
+                min[field] = v;
+                max[field] = v;
+            }else{
+                min[field] = Math.min(min[field], v);
+                max[field] = Math.max(max[field], v);
+            }
+            sum[field] += v;
+            samples[field]++;
+        }
+    }
+}
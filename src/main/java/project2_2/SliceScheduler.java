@@ -0,0 +1,264 @@
+package project2_2;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Decides which stations are sent to the database in which slice of the station update interval.
+ *
+ * - New stations are added to the slice with the least stations.
+ * - After every full round over all slices, stations are moved from the busiest slices to the quietest ones, based
+ *   on the amount of rows every slice actually sent. This keeps the database load per slice flat.
+ * - The time budget of a slice grows when the measured insert latency says the database can't keep up within the
+ *   normal slice time.
+ *
+ * Apart from {@link #addStation(int)}, {@link #recordInsertLatency(long)} and {@link #setInsertThreads(int)}, this
+ * class may only be used from the queueData thread.
+ */
+public class SliceScheduler {
+    // The weight of the newest measurement in the moving averages
+    private static final double EWMA_WEIGHT = 0.3;
+
+    private int slicesCount;
+    private long sliceMs;
+    private final double rebalanceTolerance;
+    private volatile int insertThreads;
+
+    private final List<List<Integer>> slices = new ArrayList<>();
+    private double[] sliceLoads; // Moving average of the rows sent per slice
+
+    // Stations which have been added by other threads, but aren't in a slice yet
+    private final Queue<Integer> newStations = new ConcurrentLinkedQueue<>();
+
+    // Moving average of the time a single insert query takes, in nanoseconds
+    private final AtomicLong insertLatencyNanos = new AtomicLong(0);
+
+    private int currentSlice = -1;
+
+    /**
+     * Constructor of {@link SliceScheduler}
+     *
+     * @param slicesCount The amount of slices
+     * @param sliceMs The normal time budget of a slice
+     * @param rebalanceTolerance How much busier than average a slice may be before stations are moved (0.2 = 20%)
+     * @param insertThreads The amount of threads inserting data simultaneously
+     */
+    public SliceScheduler(int slicesCount, long sliceMs, double rebalanceTolerance, int insertThreads) {
+        this.slicesCount = slicesCount;
+        this.sliceMs = sliceMs;
+        this.rebalanceTolerance = rebalanceTolerance;
+        this.insertThreads = insertThreads;
+
+        sliceLoads = new double[slicesCount];
+        for(int i = 0; i < slicesCount; i++) {
+            slices.add(new ArrayList<>());
+        }
+    }
+
+    /**
+     * Adds a new station. May be called from any thread.
+     *
+     * @param stationId The station ID
+     */
+    public void addStation(int stationId) {
+        newStations.add(stationId);
+    }
+
+    /**
+     * Puts a station back into the slice it was in before a restart. If that slice doesn't exist anymore, the station
+     * is added like a new station. May only be used before the queueData thread is started.
+     *
+     * @param stationId The station ID
+     * @param slice The index of the slice
+     */
+    public void restoreStation(int stationId, int slice) {
+        if(slice >= 0 && slice < slicesCount) {
+            slices.get(slice).add(stationId);
+        }else{
+            addStation(stationId);
+        }
+    }
+
+    /**
+     * Records how long an insert query took. May be called from any thread.
+     *
+     * @param nanos The time the query took, in nanoseconds
+     */
+    public void recordInsertLatency(long nanos) {
+        insertLatencyNanos.getAndUpdate(current -> current == 0 ? nanos : (long) (current * (1 - EWMA_WEIGHT) + nanos * EWMA_WEIGHT));
+    }
+
+    /**
+     * Changes the amount of threads inserting data simultaneously. May be called from any thread.
+     *
+     * @param insertThreads The amount of threads
+     */
+    public void setInsertThreads(int insertThreads) {
+        this.insertThreads = insertThreads;
+    }
+
+    /**
+     * Divides the station update interval in a different amount of slices. All stations are spread over the new
+     * slices, and the next call to {@link #nextSlice()} starts at the first slice again.
+     *
+     * @param slicesCount The new amount of slices
+     * @param sliceMs The new normal time budget of a slice
+     */
+    public void resize(int slicesCount, long sliceMs) {
+        List<Integer> stations = new ArrayList<>(getStationCount());
+        for(List<Integer> slice : slices) {
+            stations.addAll(slice);
+        }
+
+        this.slicesCount = slicesCount;
+        this.sliceMs = sliceMs;
+        sliceLoads = new double[slicesCount];
+        slices.clear();
+        for(int i = 0; i < slicesCount; i++) {
+            slices.add(new ArrayList<>(stations.size() / slicesCount + 1));
+        }
+
+        for(int i = 0; i < stations.size(); i++) {
+            slices.get(i % slicesCount).add(stations.get(i));
+        }
+        currentSlice = -1;
+    }
+
+    /**
+     * Moves on to the next slice. New stations are assigned first, and when a full round is done, the slices are
+     * rebalanced.
+     *
+     * @return The index of the slice
+     */
+    public int nextSlice() {
+        currentSlice++;
+        if(currentSlice >= slicesCount) {
+            currentSlice = 0;
+            rebalance();
+        }
+
+        Integer stationId;
+        while((stationId = newStations.poll()) != null) {
+            slices.get(leastStationsSlice()).add(stationId);
+        }
+
+        return currentSlice;
+    }
+
+    /**
+     * @param slice The index of the slice
+     * @return The (modifiable) list of stations in the slice
+     */
+    public List<Integer> stationsOf(int slice) {
+        return slices.get(slice);
+    }
+
+    /**
+     * Records how many rows a slice has sent.
+     *
+     * @param slice The index of the slice
+     * @param rows The amount of rows
+     */
+    public void recordSliceLoad(int slice, int rows) {
+        sliceLoads[slice] = sliceLoads[slice] * (1 - EWMA_WEIGHT) + rows * EWMA_WEIGHT;
+    }
+
+    /**
+     * Calculates the time budget of a slice. Normally this is the station update interval divided by the amount of
+     * slices, but when inserting the chunks of the slice takes longer than that, the budget grows to match.
+     *
+     * @param chunks The amount of chunks the slice sent
+     * @return The time budget in milliseconds
+     */
+    public long sliceBudgetMs(int chunks) {
+        long insertMs = insertLatencyNanos.get() * chunks / Math.max(1, insertThreads) / 1_000_000;
+        return Math.max(sliceMs, insertMs);
+    }
+
+    /**
+     * @return The amount of slices
+     */
+    public int getSlicesCount() {
+        return slicesCount;
+    }
+
+    /**
+     * @return The total amount of stations in all slices
+     */
+    public int getStationCount() {
+        int count = 0;
+        for(List<Integer> slice : slices) {
+            count += slice.size();
+        }
+        return count;
+    }
+
+    /**
+     * @return The moving average of the insert latency in milliseconds
+     */
+    public double getInsertLatencyMs() {
+        return insertLatencyNanos.get() / 1_000_000.0;
+    }
+
+    /**
+     * Moves stations from the busiest slices to the quietest slices, until all slices are within the tolerance.
+     * The load of a single station is estimated as the average load per station of the slice it's moved from.
+     */
+    private void rebalance() {
+        double totalLoad = 0;
+        for(double load : sliceLoads) {
+            totalLoad += load;
+        }
+
+        double averageLoad = totalLoad / slicesCount;
+        if(averageLoad <= 0) {
+            return;
+        }
+
+        // Don't move more than 10% of the stations in one go
+        int maxMoves = Math.max(1, getStationCount() / 10);
+        int moves = 0;
+
+        while(moves < maxMoves) {
+            int busiest = 0;
+            int quietest = 0;
+            for(int i = 1; i < slicesCount; i++) {
+                if(sliceLoads[i] > sliceLoads[busiest]) busiest = i;
+                if(sliceLoads[i] < sliceLoads[quietest]) quietest = i;
+            }
+
+            List<Integer> from = slices.get(busiest);
+            if(sliceLoads[busiest] <= averageLoad * (1 + rebalanceTolerance) || from.size() <= 1) {
+                break;
+            }
+
+            double stationLoad = sliceLoads[busiest] / from.size();
+            if(sliceLoads[quietest] + stationLoad >= sliceLoads[busiest]) {
+                // Moving a station wouldn't make things better
+                break;
+            }
+
+            slices.get(quietest).add(from.remove(from.size() - 1));
+            sliceLoads[busiest] -= stationLoad;
+            sliceLoads[quietest] += stationLoad;
+            moves++;
+        }
+
+        if(moves > 0) {
+            System.out.println("Rebalanced the station update slices, moved " + moves + " stations.");
+        }
+    }
+
+    private int leastStationsSlice() {
+        int best = 0;
+        for(int i = 1; i < slicesCount; i++) {
+            if(slices.get(i).size() < slices.get(best).size()) {
+                best = i;
+            }
+        }
+        return best;
+    }
+}
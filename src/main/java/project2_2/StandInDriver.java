@@ -0,0 +1,182 @@
+package project2_2;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.*;
+import java.util.Properties;
+import java.util.logging.Logger;
+
+/**
+ * A JDBC driver which accepts every query and stores nothing, so the server can be load tested without a database.
+ *
+ * Use it with these properties:
+ *
+ *   db_url=jdbc:standin:?latency_ms=2
+ *   db_driver_class=project2_2.StandInDriver
+ *
+ * Every executed statement (or batch) takes latency_ms milliseconds (default 0), to simulate the round trip to a real
+ * database. Queries return no rows.
+ */
+public class StandInDriver implements Driver {
+    public static final String URL_PREFIX = "jdbc:standin:";
+
+    static {
+        try{
+            DriverManager.registerDriver(new StandInDriver());
+        }catch(SQLException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    @Override
+    public Connection connect(String url, Properties info) throws SQLException {
+        if(!acceptsURL(url)) {
+            return null;
+        }
+
+        long latencyMs = 0;
+        int query = url.indexOf('?');
+        if(query != -1) {
+            for(String parameter : url.substring(query + 1).split("&")) {
+                if(parameter.startsWith("latency_ms=")) {
+                    latencyMs = Long.parseLong(parameter.substring("latency_ms=".length()));
+                }
+            }
+        }
+
+        return proxy(Connection.class, new ConnectionHandler(latencyMs));
+    }
+
+    @Override
+    public boolean acceptsURL(String url) {
+        return url != null && url.startsWith(URL_PREFIX);
+    }
+
+    @Override
+    public DriverPropertyInfo[] getPropertyInfo(String url, Properties info) {
+        return new DriverPropertyInfo[0];
+    }
+
+    @Override
+    public int getMajorVersion() {
+        return 1;
+    }
+
+    @Override
+    public int getMinorVersion() {
+        return 0;
+    }
+
+    @Override
+    public boolean jdbcCompliant() {
+        return false;
+    }
+
+    @Override
+    public Logger getParentLogger() throws SQLFeatureNotSupportedException {
+        throw new SQLFeatureNotSupportedException();
+    }
+
+    private static <T> T proxy(Class<T> type, InvocationHandler handler) {
+        return type.cast(Proxy.newProxyInstance(StandInDriver.class.getClassLoader(), new Class<?>[]{type}, handler));
+    }
+
+    /**
+     * @return The value a method returns when it has nothing to return
+     */
+    private static Object defaultValue(Class<?> type) {
+        if(type == boolean.class) return false;
+        if(type == int.class) return 0;
+        if(type == long.class) return 0L;
+        if(type == int[].class) return new int[0];
+        if(type == long[].class) return new long[0];
+        return null;
+    }
+
+    /**
+     * Handles the methods of {@link Object}, so the proxies can be used in collections.
+     *
+     * @return The result, or null if it's not one of these methods
+     */
+    private static Object objectMethod(Object proxy, Method method, Object[] args) {
+        switch(method.getName()) {
+            case "equals":
+                return args != null && args.length == 1 ? proxy == args[0] : null;
+            case "hashCode":
+                return args == null ? System.identityHashCode(proxy) : null;
+            case "toString":
+                return args == null ? "StandIn" + proxy.getClass().getInterfaces()[0].getSimpleName() : null;
+            default:
+                return null;
+        }
+    }
+
+    private static class ConnectionHandler implements InvocationHandler {
+        private final long latencyMs;
+        private volatile boolean closed = false;
+
+        private ConnectionHandler(long latencyMs) {
+            this.latencyMs = latencyMs;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) {
+            Object result = objectMethod(proxy, method, args);
+            if(result != null) {
+                return result;
+            }
+
+            switch(method.getName()) {
+                case "prepareStatement":
+                    return proxy(PreparedStatement.class, new StatementHandler(latencyMs));
+                case "createStatement":
+                    return proxy(Statement.class, new StatementHandler(latencyMs));
+                case "isValid":
+                    return !closed;
+                case "isClosed":
+                    return closed;
+                case "close":
+                    closed = true;
+                    return null;
+                case "getAutoCommit":
+                    return true;
+                default:
+                    return defaultValue(method.getReturnType());
+            }
+        }
+    }
+
+    private static class StatementHandler implements InvocationHandler {
+        private final long latencyMs;
+
+        private StatementHandler(long latencyMs) {
+            this.latencyMs = latencyMs;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws InterruptedException {
+            Object result = objectMethod(proxy, method, args);
+            if(result != null) {
+                return result;
+            }
+
+            String name = method.getName();
+            if(name.startsWith("execute")) {
+                if(latencyMs > 0) {
+                    Thread.sleep(latencyMs);
+                }
+
+                if(name.equals("executeQuery")) {
+                    // A result without any rows
+                    return proxy(ResultSet.class, (rs, m, a) -> {
+                        Object objectResult = objectMethod(rs, m, a);
+                        return objectResult != null ? objectResult : defaultValue(m.getReturnType());
+                    });
+                }
+            }
+
+            return defaultValue(method.getReturnType());
+        }
+    }
+}
@@ -0,0 +1,174 @@
+package project2_2;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Pushes the latest data of stations to subscribers, as soon as it is received (see
+ * {@link DataInsertionQueue#onDataReceive(StationWeatherData)}). A subscriber is interested in a set of stations, or in
+ * a range of station IDs.
+ *
+ * Every subscriber has its own pending updates, with at most one update per station: a newer update of a station
+ * replaces the one which wasn't delivered yet. So a slow subscriber gets fewer updates, but never more memory than
+ * one update per station, and publishing never waits for a subscriber.
+ */
+public class StationFanout {
+    private final int maxSubscribers;
+    private final RealtimeStatistics statistics;
+
+    private final List<Subscriber> subscribers = new CopyOnWriteArrayList<>();
+
+    /**
+     * Constructor of {@link StationFanout}
+     *
+     * @param maxSubscribers The maximum amount of subscribers at once
+     * @param statistics The global {@link RealtimeStatistics} object
+     */
+    public StationFanout(int maxSubscribers, RealtimeStatistics statistics) {
+        this.maxSubscribers = maxSubscribers;
+        this.statistics = statistics;
+    }
+
+    /**
+     * @param stationId The station ID
+     * @return Whether any subscriber is interested in the station
+     */
+    public boolean hasSubscribers(int stationId) {
+        for(Subscriber subscriber : subscribers) {
+            if(subscriber.matches(stationId)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Hands the latest data of a station to all subscribers which are interested in it. Never blocks for long.
+     *
+     * @param data The latest data of the station
+     */
+    public void publish(StationWeatherData data) {
+        for(Subscriber subscriber : subscribers) {
+            if(subscriber.matches(data.stationId)) {
+                subscriber.offer(data);
+            }
+        }
+    }
+
+    /**
+     * Adds a subscriber for a set of stations.
+     *
+     * @param stationIds The station IDs
+     * @return The subscriber
+     * @throws IllegalStateException If there are too many subscribers already
+     */
+    public Subscriber subscribe(int[] stationIds) {
+        int[] sorted = stationIds.clone();
+        Arrays.sort(sorted);
+        return add(new Subscriber(sorted, 0, 0));
+    }
+
+    /**
+     * Adds a subscriber for a range of station IDs.
+     *
+     * @param fromStationId The first station ID (inclusive)
+     * @param toStationId The last station ID (inclusive)
+     * @return The subscriber
+     * @throws IllegalStateException If there are too many subscribers already
+     */
+    public Subscriber subscribe(int fromStationId, int toStationId) {
+        return add(new Subscriber(null, fromStationId, toStationId));
+    }
+
+    /**
+     * Removes a subscriber, its pending updates are dropped.
+     *
+     * @param subscriber The subscriber
+     */
+    public void unsubscribe(Subscriber subscriber) {
+        if(subscribers.remove(subscriber)) {
+            statistics.removeSubscriber();
+        }
+    }
+
+    private Subscriber add(Subscriber subscriber) {
+        // Not exact when subscribing at the same time, which is fine for a limit like this
+        if(subscribers.size() >= maxSubscribers) {
+            throw new IllegalStateException("There are too many subscribers already (" + maxSubscribers + ")");
+        }
+
+        subscribers.add(subscriber);
+        statistics.addSubscriber();
+        return subscriber;
+    }
+
+    /**
+     * A single subscriber, with its pending updates.
+     */
+    public class Subscriber {
+        private final int[] stationIds; // Sorted, or null if the subscriber is interested in a range
+        private final int fromStationId;
+        private final int toStationId;
+
+        // The updates which haven't been delivered yet, at most one per station
+        private final Map<Integer, StationWeatherData> pending = new LinkedHashMap<>();
+
+        private final ReentrantLock lock = new ReentrantLock();
+        private final Condition notEmpty = lock.newCondition();
+
+        private Subscriber(int[] stationIds, int fromStationId, int toStationId) {
+            this.stationIds = stationIds;
+            this.fromStationId = fromStationId;
+            this.toStationId = toStationId;
+        }
+
+        private boolean matches(int stationId) {
+            if(stationIds != null) {
+                return Arrays.binarySearch(stationIds, stationId) >= 0;
+            }
+            return stationId >= fromStationId && stationId <= toStationId;
+        }
+
+        private void offer(StationWeatherData data) {
+            lock.lock();
+            try{
+                if(pending.put(data.stationId, data) != null) {
+                    statistics.addConflatedUpdates(1);
+                }
+                notEmpty.signal();
+            }finally{
+                lock.unlock();
+            }
+        }
+
+        /**
+         * Takes all pending updates, waiting for at least one if there are none.
+         *
+         * @param timeoutMs The maximum time to wait, in milliseconds
+         * @return The updates, oldest first. Empty if there were no updates within the timeout.
+         * @throws InterruptedException If the thread was interrupted while waiting
+         */
+        public List<StationWeatherData> take(long timeoutMs) throws InterruptedException {
+            lock.lock();
+            try{
+                long nanos = TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+                while(pending.isEmpty() && nanos > 0) {
+                    nanos = notEmpty.awaitNanos(nanos);
+                }
+
+                List<StationWeatherData> updates = new ArrayList<>(pending.values());
+                pending.clear();
+                return updates;
+            }finally{
+                lock.unlock();
+            }
+        }
+    }
+}
@@ -0,0 +1,288 @@
+package project2_2;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Keeps the readings of the last few hours of every station in memory, so recent history can be queried without
+ * touching the database.
+ *
+ * Every station has a fixed-size ring buffer of samples, made of primitive arrays. A station gets at most one sample
+ * per sample interval: readings within the interval of the newest sample are merged into it (the newest value of a
+ * field wins). Once the ring buffer is full, the oldest sample is overwritten. With a sample interval of 60 seconds
+ * and 3 hours of history, this is 180 samples, or roughly 8KB per station.
+ *
+ * Only the float fields and the wind direction are kept. Readings which are older than the newest sample of their
+ * station are ignored, so the samples of a station are always in chronological order.
+ */
+public class StationHistory {
+    private static final int FIELDS = StationStateStore.FLOAT_FIELDS;
+
+    // The presence bit of the wind direction, bits 0 to 8 are the float fields
+    public static final int PRESENT_WIND_DIRECTION = 1 << FIELDS;
+
+    private final int capacity;
+    private final int sampleIntervalSeconds;
+
+    private final Map<Integer, Ring> rings = new ConcurrentHashMap<>();
+
+    /**
+     * Constructor of {@link StationHistory}
+     *
+     * @param hours The amount of hours of history to keep per station
+     * @param sampleIntervalSeconds The minimum time between two samples of a station
+     */
+    public StationHistory(int hours, int sampleIntervalSeconds) {
+        this.sampleIntervalSeconds = Math.max(1, sampleIntervalSeconds);
+        this.capacity = Math.max(1, hours * 3600 / this.sampleIntervalSeconds);
+    }
+
+    /**
+     * Adds a reading to the history of its station.
+     *
+     * @param data The reading, only the values which are present are stored
+     */
+    public void add(StationWeatherData data) {
+        long time = data.calculateEpochSeconds();
+        if(time < 0) {
+            // We don't know when this reading was taken
+            return;
+        }
+
+        Ring ring;
+        while(true) {
+            ring = rings.computeIfAbsent(data.stationId, id -> new Ring(capacity));
+            ring.lock.lock();
+            if(!ring.removed) {
+                break;
+            }
+
+            // The station was removed while we were waiting for the lock, use a new one
+            ring.lock.unlock();
+        }
+        try{
+            ring.add((int) time, data, sampleIntervalSeconds);
+        }finally{
+            ring.lock.unlock();
+        }
+    }
+
+    /**
+     * Removes the history of a station, for example because the station has gone silent.
+     *
+     * @param stationId The station ID
+     */
+    public void remove(int stationId) {
+        Ring ring = rings.remove(stationId);
+        if(ring != null) {
+            ring.lock.lock();
+            try{
+                ring.removed = true;
+            }finally{
+                ring.lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Gets the latest known value of every field of a station. Fields which are missing from the newest sample are
+     * taken from older samples.
+     *
+     * @param stationId The station ID
+     * @return A series with a single sample (with the time of the newest sample), or null if the station is unknown
+     */
+    public Series latest(int stationId) {
+        Ring ring = rings.get(stationId);
+        if(ring == null) {
+            return null;
+        }
+
+        Series series = new Series(stationId, 1);
+        ring.lock.lock();
+        try{
+            if(ring.size == 0) {
+                return null;
+            }
+
+            int missing = PRESENT_WIND_DIRECTION | (PRESENT_WIND_DIRECTION - 1);
+            for(int i = ring.size - 1; i >= 0 && missing != 0; i--) {
+                int index = ring.indexOf(i);
+                int present = ring.presence[index] & missing;
+                if(i == ring.size - 1) {
+                    series.times[0] = ring.times[index];
+                }
+
+                for(int f = 0; f < FIELDS; f++) {
+                    if((present & (1 << f)) != 0) {
+                        series.values[f] = ring.values[index * FIELDS + f];
+                    }
+                }
+                if((present & PRESENT_WIND_DIRECTION) != 0) {
+                    series.windDirections[0] = ring.windDirections[index];
+                }
+
+                series.presence[0] |= present;
+                missing &= ~present;
+            }
+
+            series.size = 1;
+            return series;
+        }finally{
+            ring.lock.unlock();
+        }
+    }
+
+    /**
+     * Gets all samples of a station within a time range.
+     *
+     * @param stationId The station ID
+     * @param from The unix time (inclusive) of the first sample
+     * @param to The unix time (inclusive) of the last sample
+     * @return The samples, oldest first, or null if the station is unknown
+     */
+    public Series range(int stationId, long from, long to) {
+        Ring ring = rings.get(stationId);
+        if(ring == null) {
+            return null;
+        }
+
+        ring.lock.lock();
+        try{
+            // The samples are in chronological order, so we can binary search for the first one
+            int low = 0, high = ring.size;
+            while(low < high) {
+                int mid = (low + high) >>> 1;
+                if(ring.times[ring.indexOf(mid)] < from) {
+                    low = mid + 1;
+                }else{
+                    high = mid;
+                }
+            }
+
+            int end = low;
+            while(end < ring.size && ring.times[ring.indexOf(end)] <= to) {
+                end++;
+            }
+
+            Series series = new Series(stationId, end - low);
+            for(int i = low; i < end; i++) {
+                int index = ring.indexOf(i);
+                int s = series.size++;
+
+                series.times[s] = ring.times[index];
+                series.presence[s] = ring.presence[index];
+                series.windDirections[s] = ring.windDirections[index];
+                System.arraycopy(ring.values, index * FIELDS, series.values, s * FIELDS, FIELDS);
+            }
+
+            return series;
+        }finally{
+            ring.lock.unlock();
+        }
+    }
+
+    /**
+     * @return The amount of stations which have history
+     */
+    public int getStationCount() {
+        return rings.size();
+    }
+
+    /**
+     * @return The amount of samples which are kept per station
+     */
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * A copy of (some of) the samples of a single station.
+     */
+    public static class Series {
+        public final int stationId;
+        public int size = 0;
+
+        public final int[] times; // Unix time in seconds
+        public final int[] presence; // Bits 0 to 8 are the float fields, see PRESENT_WIND_DIRECTION for the last one
+        public final float[] values; // FLOAT_FIELDS values per sample
+        public final int[] windDirections;
+
+        private Series(int stationId, int capacity) {
+            this.stationId = stationId;
+
+            times = new int[capacity];
+            presence = new int[capacity];
+            values = new float[capacity * FIELDS];
+            windDirections = new int[capacity];
+        }
+    }
+
+    /**
+     * The ring buffer of a single station.
+     */
+    private static class Ring {
+        private final ReentrantLock lock = new ReentrantLock();
+
+        private final int[] times;
+        private final short[] presence;
+        private final float[] values;
+        private final int[] windDirections;
+
+        private int head = 0; // The index the next sample is written to
+        private int size = 0;
+        private boolean removed = false; // Set when the station was removed, guarded by the lock
+
+        private Ring(int capacity) {
+            times = new int[capacity];
+            presence = new short[capacity];
+            values = new float[capacity * FIELDS];
+            windDirections = new int[capacity];
+        }
+
+        /**
+         * @param i The position of the sample, 0 being the oldest
+         * @return The index of the sample in the arrays
+         */
+        private int indexOf(int i) {
+            int index = head - size + i;
+            return index < 0 ? index + times.length : index;
+        }
+
+        private void add(int time, StationWeatherData data, int sampleIntervalSeconds) {
+            int index;
+            if(size > 0 && time < times[indexOf(size - 1)]) {
+                // Older than the newest sample, ignore it
+                return;
+            }else if(size > 0 && time < times[indexOf(size - 1)] + sampleIntervalSeconds) {
+                // Merge it into the newest sample
+                index = indexOf(size - 1);
+            }else{
+                // Start a new sample, this overwrites the oldest one when the ring is full
+                index = head;
+                head = head + 1 == times.length ? 0 : head + 1;
+                if(size < times.length) {
+                    size++;
+                }
+
+                presence[index] = 0;
+            }
+
+            int present = presence[index];
+            int f = index * FIELDS;
+            if(data.temperature != null) { values[f + StationStateStore.TEMPERATURE] = data.temperature; present |= 1 << StationStateStore.TEMPERATURE; }
+            if(data.dewPoint != null) { values[f + StationStateStore.DEW_POINT] = data.dewPoint; present |= 1 << StationStateStore.DEW_POINT; }
+            if(data.stationAirPressure != null) { values[f + StationStateStore.STATION_AIR_PRESSURE] = data.stationAirPressure; present |= 1 << StationStateStore.STATION_AIR_PRESSURE; }
+            if(data.seaAirPressure != null) { values[f + StationStateStore.SEA_AIR_PRESSURE] = data.seaAirPressure; present |= 1 << StationStateStore.SEA_AIR_PRESSURE; }
+            if(data.visibility != null) { values[f + StationStateStore.VISIBILITY] = data.visibility; present |= 1 << StationStateStore.VISIBILITY; }
+            if(data.windSpeed != null) { values[f + StationStateStore.WIND_SPEED] = data.windSpeed; present |= 1 << StationStateStore.WIND_SPEED; }
+            if(data.precipitation != null) { values[f + StationStateStore.PRECIPITATION] = data.precipitation; present |= 1 << StationStateStore.PRECIPITATION; }
+            if(data.snowHeight != null) { values[f + StationStateStore.SNOW_HEIGHT] = data.snowHeight; present |= 1 << StationStateStore.SNOW_HEIGHT; }
+            if(data.overcast != null) { values[f + StationStateStore.OVERCAST] = data.overcast; present |= 1 << StationStateStore.OVERCAST; }
+            if(data.windDirection != null) { windDirections[index] = data.windDirection; present |= PRESENT_WIND_DIRECTION; }
+
+            presence[index] = (short) present;
+            times[index] = time;
+        }
+    }
+}
@@ -0,0 +1,137 @@
+package project2_2;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * Serves the {@link StationHistory} as JSON. There are two endpoints, both take a comma separated list of station IDs:
+ *
+ * - /history/latest?stations=123,456
+ *   The latest known value of every field, per station.
+ * - /history/range?stations=123,456&from=1609459200&to=1609462800
+ *   All samples within the range (unix time in seconds, both inclusive), per station. Both from and to are optional.
+ *
+ * Stations without any history are left out of the response.
+ */
+public class StationHistoryHandler implements HttpHandler {
+    public static final String PATH = "/history";
+
+    private static final int MAX_STATIONS = 1000; // The maximum amount of stations in a single request
+
+    private final StationHistory history;
+
+    public StationHistoryHandler(StationHistory history) {
+        this.history = history;
+    }
+
+    @Override
+    public void handle(HttpExchange exchange) throws IOException {
+        Map<String, String> parameters = EmbeddedHttpServer.queryParameters(exchange);
+        int[] stationIds = parseStationIds(parameters.get("stations"));
+
+        StringBuilder json = new StringBuilder(256);
+        json.append("{\"stations\":[");
+
+        boolean first = true;
+        switch(exchange.getRequestURI().getPath()) {
+            case PATH + "/latest":
+                for(int stationId : stationIds) {
+                    StationHistory.Series series = history.latest(stationId);
+                    if(series == null) {
+                        continue;
+                    }
+
+                    json.append(first ? "" : ",");
+                    appendSample(json.append("{\"station\":").append(stationId).append(','), series, 0);
+                    json.append('}');
+                    first = false;
+                }
+                break;
+            case PATH + "/range":
+                long from = parameters.containsKey("from") ? parseLong("from", parameters.get("from")) : 0;
+                long to = parameters.containsKey("to") ? parseLong("to", parameters.get("to")) : Long.MAX_VALUE;
+
+                for(int stationId : stationIds) {
+                    StationHistory.Series series = history.range(stationId, from, to);
+                    if(series == null) {
+                        continue;
+                    }
+
+                    json.append(first ? "" : ",").append("{\"station\":").append(stationId).append(",\"samples\":[");
+                    for(int i = 0; i < series.size; i++) {
+                        appendSample(json.append(i == 0 ? "{" : ",{"), series, i).append('}');
+                    }
+                    json.append("]}");
+                    first = false;
+                }
+                break;
+            default:
+                EmbeddedHttpServer.sendResponse(exchange, 404, "text/plain", "Unknown endpoint, use " + PATH + "/latest or " + PATH + "/range\n");
+                return;
+        }
+
+        json.append("]}\n");
+        EmbeddedHttpServer.sendResponse(exchange, 200, "application/json", json.toString());
+    }
+
+    /**
+     * Appends the fields of a sample which are present, without the surrounding braces.
+     */
+    private static StringBuilder appendSample(StringBuilder json, StationHistory.Series series, int i) {
+        json.append("\"time\":").append(series.times[i]);
+
+        int present = series.presence[i];
+        for(int f = 0; f < StationStateStore.FLOAT_FIELDS; f++) {
+            if((present & (1 << f)) != 0) {
+                json.append(",\"").append(StationStateStore.FLOAT_FIELD_NAMES[f]).append("\":")
+                        .append(series.values[i * StationStateStore.FLOAT_FIELDS + f]);
+            }
+        }
+        if((present & StationHistory.PRESENT_WIND_DIRECTION) != 0) {
+            json.append(",\"wind_direction\":").append(series.windDirections[i]);
+        }
+
+        return json;
+    }
+
+    /**
+     * Parses a comma separated list of station IDs.
+     *
+     * @param value The value of the stations parameter
+     * @return The station IDs
+     * @throws IllegalArgumentException If the value is missing or invalid
+     */
+    static int[] parseStationIds(String value) {
+        if(value == null || value.isEmpty()) {
+            throw new IllegalArgumentException("The stations parameter is required, for example stations=123,456");
+        }
+
+        String[] parts = value.split(",");
+        if(parts.length > MAX_STATIONS) {
+            throw new IllegalArgumentException("At most " + MAX_STATIONS + " stations can be requested at once");
+        }
+
+        int[] stationIds = new int[parts.length];
+        for(int i = 0; i < parts.length; i++) {
+            stationIds[i] = (int) parseLong("stations", parts[i].trim());
+        }
+        return stationIds;
+    }
+
+    /**
+     * @param name The name of the parameter
+     * @param value The value of the parameter
+     * @return The value as a long
+     * @throws IllegalArgumentException If the value isn't a number
+     */
+    static long parseLong(String name, String value) {
+        try{
+            return Long.parseLong(value);
+        }catch(NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid value for " + name + ": " + value);
+        }
+    }
+}
@@ -0,0 +1,183 @@
+package project2_2;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * Saves the latest data of every station and the slice every station is in, so a restarted server can continue where
+ * it left off instead of waiting until every station has sent a complete data point again.
+ *
+ * Snapshots are written to two memory-mapped files (the given file name with .0 and .1 appended), taking turns. A
+ * snapshot which was only partly written (because the server crashed) fails its checksum, and the other file is used.
+ *
+ * File layout (big-endian):
+ * - header ({@value #HEADER_SIZE} bytes): [int magic][int version][long sequence][long written at][int station count]
+ *   [int slice count][int CRC32 of the records]
+ * - records ({@value #RECORD_SIZE} bytes each): [int slice][station data, see {@link StationWeatherDataCodec}]
+ *   [byte is new][long received at]
+ *
+ * This class is not thread-safe, it is only used by the queueData thread (and before it is started).
+ */
+public class StationSnapshot {
+    private static final int MAGIC = 0x534E4150; // "SNAP"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 4 + 4 + 8 + 8 + 4 + 4 + 4;
+    private static final int RECORD_SIZE = 4 + StationWeatherDataCodec.ENCODED_SIZE + 1 + 8;
+
+    // The files are grown in steps, so they don't have to be remapped every time a station is added
+    private static final int GROW_RECORDS = 4096;
+
+    private final File[] files;
+    private final MappedByteBuffer[] buffers = new MappedByteBuffer[2];
+
+    // The sequence number of the newest snapshot, and the file it is in
+    private long sequence = 0;
+    private int current = 1;
+
+    /**
+     * Constructor of {@link StationSnapshot}
+     *
+     * @param file The base name of the snapshot files
+     */
+    public StationSnapshot(File file) {
+        files = new File[]{
+                new File(file.getPath() + ".0"),
+                new File(file.getPath() + ".1")
+        };
+    }
+
+    /**
+     * Loads the newest valid snapshot into the store and the scheduler.
+     *
+     * @param store The store to put the station data in
+     * @param scheduler The scheduler to put the stations in
+     * @return The amount of stations which were loaded, or -1 if there is no valid snapshot
+     * @throws IOException If a snapshot file could not be read
+     */
+    public int load(StripedStationStore store, SliceScheduler scheduler) throws IOException {
+        ByteBuffer newest = null;
+        for(int i = 0; i < files.length; i++) {
+            if(!files[i].isFile()) {
+                continue;
+            }
+
+            ByteBuffer buf = map(i, files[i].length());
+            if(isValid(buf) && (newest == null || buf.getLong(8) > sequence)) {
+                newest = buf;
+                sequence = buf.getLong(8);
+                current = i;
+            }
+        }
+
+        if(newest == null) {
+            return -1;
+        }
+
+        int count = newest.getInt(24);
+        newest.position(HEADER_SIZE);
+        for(int i = 0; i < count; i++) {
+            int slice = newest.getInt();
+            StationWeatherData data = StationWeatherDataCodec.decode(newest);
+            data.isNew = newest.get() != 0;
+            data.receivedAt = newest.getLong();
+
+            store.restore(data);
+            scheduler.restoreStation(data.stationId, slice);
+        }
+
+        return count;
+    }
+
+    /**
+     * Writes a snapshot of all stations in the scheduler, to the file which doesn't hold the newest snapshot.
+     *
+     * @param store The store holding the station data
+     * @param scheduler The scheduler holding the stations
+     * @return The amount of stations which were written
+     * @throws IOException If the snapshot file could not be written
+     */
+    public int write(StripedStationStore store, SliceScheduler scheduler) throws IOException {
+        int next = 1 - current;
+        int slicesCount = scheduler.getSlicesCount();
+
+        // The slices are only changed by the queueData thread, so they can't grow while we're writing
+        long needed = HEADER_SIZE + (long) scheduler.getStationCount() * RECORD_SIZE;
+        MappedByteBuffer buf = buffers[next];
+        if(buf == null || buf.capacity() < needed) {
+            buf = map(next, needed + (long) GROW_RECORDS * RECORD_SIZE);
+        }
+
+        // Invalidate the file first, the header is only written once all records are
+        buf.putInt(0, 0);
+
+        buf.position(HEADER_SIZE);
+        int count = 0;
+        for(int slice = 0; slice < slicesCount; slice++) {
+            List<Integer> stations = scheduler.stationsOf(slice);
+            for(int i = 0; i < stations.size(); i++) {
+                StationWeatherData data = store.copyOf(stations.get(i));
+                if(data == null) {
+                    continue;
+                }
+
+                buf.putInt(slice);
+                StationWeatherDataCodec.encode(data, buf);
+                buf.put((byte) (data.isNew ? 1 : 0));
+                buf.putLong(data.receivedAt);
+                count++;
+            }
+        }
+
+        CRC32 crc = new CRC32();
+        crc.update(recordsOf(buf, count));
+
+        buf.putLong(8, sequence + 1);
+        buf.putLong(16, System.currentTimeMillis());
+        buf.putInt(24, count);
+        buf.putInt(28, slicesCount);
+        buf.putInt(32, (int) crc.getValue());
+        buf.putInt(4, VERSION);
+        buf.putInt(0, MAGIC);
+        buf.force();
+
+        sequence++;
+        current = next;
+        return count;
+    }
+
+    private MappedByteBuffer map(int index, long size) throws IOException {
+        try(RandomAccessFile file = new RandomAccessFile(files[index], "rw");
+            FileChannel channel = file.getChannel()) {
+            buffers[index] = channel.map(FileChannel.MapMode.READ_WRITE, 0, Math.max(size, HEADER_SIZE));
+            return buffers[index];
+        }
+    }
+
+    private static boolean isValid(ByteBuffer buf) {
+        if(buf.capacity() < HEADER_SIZE || buf.getInt(0) != MAGIC || buf.getInt(4) != VERSION) {
+            return false;
+        }
+
+        int count = buf.getInt(24);
+        if(count < 0 || HEADER_SIZE + (long) count * RECORD_SIZE > buf.capacity()) {
+            return false;
+        }
+
+        CRC32 crc = new CRC32();
+        crc.update(recordsOf(buf, count));
+        return (int) crc.getValue() == buf.getInt(32);
+    }
+
+    private static ByteBuffer recordsOf(ByteBuffer buf, int count) {
+        ByteBuffer records = buf.duplicate();
+        records.position(HEADER_SIZE);
+        records.limit(HEADER_SIZE + count * RECORD_SIZE);
+        return records;
+    }
+}
@@ -0,0 +1,439 @@
+package project2_2;
+
+import java.util.Arrays;
+
+/**
+ * Holds the most up-to-date data of every weather station, in a struct-of-arrays layout.
+ *
+ * Every station gets one slot, and every field has its own primitive array which is indexed by that slot. Instead of
+ * using null for missing values, every slot has a presence bitmask. This uses roughly 110 bytes per station, compared
+ * to roughly 320 bytes for a {@link StationWeatherData} object (with its boxed values) in a HashMap.
+ *
+ * This class is not thread-safe, access to it has to be guarded by the caller.
+ */
+public class StationStateStore {
+    // The indices of the float fields
+    public static final int TEMPERATURE = 0;
+    public static final int DEW_POINT = 1;
+    public static final int STATION_AIR_PRESSURE = 2;
+    public static final int SEA_AIR_PRESSURE = 3;
+    public static final int VISIBILITY = 4;
+    public static final int WIND_SPEED = 5;
+    public static final int PRECIPITATION = 6;
+    public static final int SNOW_HEIGHT = 7;
+    public static final int OVERCAST = 8;
+    public static final int FLOAT_FIELDS = 9;
+
+    // The column names of the float fields in the data table, by index
+    public static final String[] FLOAT_FIELD_NAMES = {
+            "temperature", "dew_point", "station_air_pressure", "sea_air_pressure", "visibility",
+            "wind_speed", "precipitation", "snow_height", "overcast"
+    };
+
+    // The indices of the flags
+    public static final int HAS_FROZEN = 0;
+    public static final int HAS_RAINED = 1;
+    public static final int HAS_SNOWED = 2;
+    public static final int HAS_HAILED = 3;
+    public static final int HAS_THUNDERED = 4;
+    public static final int HAS_WHIRLWINDED = 5;
+    public static final int FLAGS = 6;
+
+    // The bits of the presence bitmask. Bits 0 to 8 are the float fields.
+    private static final int PRESENT_WIND_DIRECTION = 1 << FLOAT_FIELDS;
+    private static final int PRESENT_FLAGS_SHIFT = FLOAT_FIELDS + 1; // Bits 10 to 15 are the flags
+    private static final int PRESENT_ALL = (1 << (PRESENT_FLAGS_SHIFT + FLAGS)) - 1;
+    private static final int NEW = 1 << 31; // Whether the data of a station is 'new' or not
+
+    // The date and time fields, each slot has 6 of these
+    private static final int DATE_TIME_FIELDS = 6;
+
+    private static final int EMPTY = -1;
+
+    // Maps station IDs to slots, using open addressing
+    private int[] hashKeys;
+    private int[] hashSlots;
+
+    // The actual data, indexed by slot
+    private int size = 0;
+    private int[] stationIds;
+    private int[] presence;
+    private int[] dateTimes; // year, month, day, hour, minute, second
+    private float[] floats; // FLOAT_FIELDS values per slot
+    private int[] windDirections;
+    private byte[] flags; // One bit per flag
+    private long[] lastReceived; // The time at which data was last received, in milliseconds
+
+    /**
+     * Constructor of {@link StationStateStore}
+     *
+     * @param initialCapacity The amount of stations to reserve space for
+     */
+    public StationStateStore(int initialCapacity) {
+        int capacity = Math.max(16, initialCapacity);
+
+        stationIds = new int[capacity];
+        presence = new int[capacity];
+        dateTimes = new int[capacity * DATE_TIME_FIELDS];
+        floats = new float[capacity * FLOAT_FIELDS];
+        windDirections = new int[capacity];
+        flags = new byte[capacity];
+        lastReceived = new long[capacity];
+
+        allocateHashTable(Integer.highestOneBit(capacity - 1) << 2);
+    }
+
+    /**
+     * @return The amount of stations in this store
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Merges data which has been received from a station into the store. Just like
+     * {@link StationWeatherData#updateAllFrom(StationWeatherData)}, the date and time are always overwritten and the
+     * other fields are only overwritten if they're present in the data. Afterwards, the data of the station is 'new'.
+     *
+     * @param data The received data
+     * @return The slot of the station
+     */
+    public int merge(StationWeatherData data) {
+        int slot = slotOf(data.stationId);
+        if(slot == EMPTY) {
+            slot = addStation(data.stationId);
+        }
+
+        int dt = slot * DATE_TIME_FIELDS;
+        dateTimes[dt] = data.date_year;
+        dateTimes[dt + 1] = data.date_month;
+        dateTimes[dt + 2] = data.date_day;
+        dateTimes[dt + 3] = data.time_hour;
+        dateTimes[dt + 4] = data.time_minute;
+        dateTimes[dt + 5] = data.time_second;
+
+        int present = presence[slot];
+        int f = slot * FLOAT_FIELDS;
+        if(data.temperature != null) { floats[f + TEMPERATURE] = data.temperature; present |= 1 << TEMPERATURE; }
+        if(data.dewPoint != null) { floats[f + DEW_POINT] = data.dewPoint; present |= 1 << DEW_POINT; }
+        if(data.stationAirPressure != null) { floats[f + STATION_AIR_PRESSURE] = data.stationAirPressure; present |= 1 << STATION_AIR_PRESSURE; }
+        if(data.seaAirPressure != null) { floats[f + SEA_AIR_PRESSURE] = data.seaAirPressure; present |= 1 << SEA_AIR_PRESSURE; }
+        if(data.visibility != null) { floats[f + VISIBILITY] = data.visibility; present |= 1 << VISIBILITY; }
+        if(data.windSpeed != null) { floats[f + WIND_SPEED] = data.windSpeed; present |= 1 << WIND_SPEED; }
+        if(data.precipitation != null) { floats[f + PRECIPITATION] = data.precipitation; present |= 1 << PRECIPITATION; }
+        if(data.snowHeight != null) { floats[f + SNOW_HEIGHT] = data.snowHeight; present |= 1 << SNOW_HEIGHT; }
+        if(data.overcast != null) { floats[f + OVERCAST] = data.overcast; present |= 1 << OVERCAST; }
+        if(data.windDirection != null) { windDirections[slot] = data.windDirection; present |= PRESENT_WIND_DIRECTION; }
+
+        int flagBits = flags[slot];
+        if(data.hasFrozen != null) { flagBits = setFlag(flagBits, HAS_FROZEN, data.hasFrozen); present |= 1 << (PRESENT_FLAGS_SHIFT + HAS_FROZEN); }
+        if(data.hasRained != null) { flagBits = setFlag(flagBits, HAS_RAINED, data.hasRained); present |= 1 << (PRESENT_FLAGS_SHIFT + HAS_RAINED); }
+        if(data.hasSnowed != null) { flagBits = setFlag(flagBits, HAS_SNOWED, data.hasSnowed); present |= 1 << (PRESENT_FLAGS_SHIFT + HAS_SNOWED); }
+        if(data.hasHailed != null) { flagBits = setFlag(flagBits, HAS_HAILED, data.hasHailed); present |= 1 << (PRESENT_FLAGS_SHIFT + HAS_HAILED); }
+        if(data.hasThundered != null) { flagBits = setFlag(flagBits, HAS_THUNDERED, data.hasThundered); present |= 1 << (PRESENT_FLAGS_SHIFT + HAS_THUNDERED); }
+        if(data.hasWhirlwinded != null) { flagBits = setFlag(flagBits, HAS_WHIRLWINDED, data.hasWhirlwinded); present |= 1 << (PRESENT_FLAGS_SHIFT + HAS_WHIRLWINDED); }
+        flags[slot] = (byte) flagBits;
+
+        presence[slot] = present | NEW;
+        lastReceived[slot] = System.currentTimeMillis();
+
+        return slot;
+    }
+
+    /**
+     * Puts data which was saved earlier (see {@link #toStationWeatherData(int)}) back into the store, including whether
+     * it was 'new' and when it was received.
+     *
+     * @param data The saved data
+     * @return The slot of the station
+     */
+    public int restore(StationWeatherData data) {
+        int slot = merge(data);
+        if(!data.isNew) {
+            presence[slot] &= ~NEW;
+        }
+        lastReceived[slot] = data.receivedAt;
+
+        return slot;
+    }
+
+    /**
+     * Takes the data of a station if it is 'new', after which it won't be 'new' anymore.
+     * The data is kept in the store, because we use it to fix missing values of the next data that is received.
+     *
+     * @param stationId The station ID
+     * @return A copy of the data if it was new and complete, otherwise null
+     */
+    public StationWeatherData takeIfNew(int stationId) {
+        int slot = slotOf(stationId);
+        if(slot == EMPTY || (presence[slot] & NEW) == 0) {
+            return null;
+        }
+
+        // To prevent this data from being sent multiple times, clear the new flag
+        presence[slot] &= ~NEW;
+
+        if(!isComplete(slot)) {
+            return null;
+        }
+
+        return toStationWeatherData(slot);
+    }
+
+    /**
+     * Removes a station from the store, if it hasn't received any data since the given time.
+     *
+     * @param stationId The station ID
+     * @param receivedBefore The time in milliseconds
+     * @return Whether the station was removed
+     */
+    public boolean removeIfIdle(int stationId, long receivedBefore) {
+        int slot = slotOf(stationId);
+        if(slot == EMPTY || lastReceived[slot] >= receivedBefore) {
+            return false;
+        }
+
+        removeFromHashTable(stationId);
+
+        // Move the last slot into the now empty slot, so the slots stay packed
+        int last = --size;
+        if(slot != last) {
+            stationIds[slot] = stationIds[last];
+            presence[slot] = presence[last];
+            System.arraycopy(dateTimes, last * DATE_TIME_FIELDS, dateTimes, slot * DATE_TIME_FIELDS, DATE_TIME_FIELDS);
+            System.arraycopy(floats, last * FLOAT_FIELDS, floats, slot * FLOAT_FIELDS, FLOAT_FIELDS);
+            windDirections[slot] = windDirections[last];
+            flags[slot] = flags[last];
+            lastReceived[slot] = lastReceived[last];
+
+            hashSlots[hashIndexOf(stationIds[slot])] = slot;
+        }
+
+        presence[last] = 0;
+        flags[last] = 0;
+
+        return true;
+    }
+
+    /**
+     * The struct-of-arrays version of {@link StationWeatherData#isComplete()}.
+     *
+     * @param slot The slot of the station
+     * @return Whether the data of the station is complete or not
+     */
+    public boolean isComplete(int slot) {
+        if(stationIds[slot] == -1 || (presence[slot] & PRESENT_ALL) != PRESENT_ALL) {
+            return false;
+        }
+
+        int dt = slot * DATE_TIME_FIELDS;
+        for(int i = dt; i < dt + DATE_TIME_FIELDS; i++) {
+            if(dateTimes[i] == -1) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Makes a {@link StationWeatherData} object containing the data of a station.
+     *
+     * @param slot The slot of the station
+     * @return The data, missing values will be null
+     */
+    public StationWeatherData toStationWeatherData(int slot) {
+        StationWeatherData data = new StationWeatherData();
+        data.stationId = stationIds[slot];
+
+        int dt = slot * DATE_TIME_FIELDS;
+        data.date_year = dateTimes[dt];
+        data.date_month = dateTimes[dt + 1];
+        data.date_day = dateTimes[dt + 2];
+        data.time_hour = dateTimes[dt + 3];
+        data.time_minute = dateTimes[dt + 4];
+        data.time_second = dateTimes[dt + 5];
+
+        int present = presence[slot];
+        int f = slot * FLOAT_FIELDS;
+        if((present & 1 << TEMPERATURE) != 0) data.temperature = floats[f + TEMPERATURE];
+        if((present & 1 << DEW_POINT) != 0) data.dewPoint = floats[f + DEW_POINT];
+        if((present & 1 << STATION_AIR_PRESSURE) != 0) data.stationAirPressure = floats[f + STATION_AIR_PRESSURE];
+        if((present & 1 << SEA_AIR_PRESSURE) != 0) data.seaAirPressure = floats[f + SEA_AIR_PRESSURE];
+        if((present & 1 << VISIBILITY) != 0) data.visibility = floats[f + VISIBILITY];
+        if((present & 1 << WIND_SPEED) != 0) data.windSpeed = floats[f + WIND_SPEED];
+        if((present & 1 << PRECIPITATION) != 0) data.precipitation = floats[f + PRECIPITATION];
+        if((present & 1 << SNOW_HEIGHT) != 0) data.snowHeight = floats[f + SNOW_HEIGHT];
+        if((present & 1 << OVERCAST) != 0) data.overcast = floats[f + OVERCAST];
+        if((present & PRESENT_WIND_DIRECTION) != 0) data.windDirection = windDirections[slot];
+
+        int flagBits = flags[slot];
+        if((present & 1 << (PRESENT_FLAGS_SHIFT + HAS_FROZEN)) != 0) data.hasFrozen = (flagBits & 1 << HAS_FROZEN) != 0;
+        if((present & 1 << (PRESENT_FLAGS_SHIFT + HAS_RAINED)) != 0) data.hasRained = (flagBits & 1 << HAS_RAINED) != 0;
+        if((present & 1 << (PRESENT_FLAGS_SHIFT + HAS_SNOWED)) != 0) data.hasSnowed = (flagBits & 1 << HAS_SNOWED) != 0;
+        if((present & 1 << (PRESENT_FLAGS_SHIFT + HAS_HAILED)) != 0) data.hasHailed = (flagBits & 1 << HAS_HAILED) != 0;
+        if((present & 1 << (PRESENT_FLAGS_SHIFT + HAS_THUNDERED)) != 0) data.hasThundered = (flagBits & 1 << HAS_THUNDERED) != 0;
+        if((present & 1 << (PRESENT_FLAGS_SHIFT + HAS_WHIRLWINDED)) != 0) data.hasWhirlwinded = (flagBits & 1 << HAS_WHIRLWINDED) != 0;
+
+        data.isNew = (present & NEW) != 0;
+        data.receivedAt = lastReceived[slot];
+        return data;
+    }
+
+    /**
+     * @param slot The slot of the station
+     * @param field The index of the float field, for example {@link #TEMPERATURE}
+     * @return The value of the field, or 0 if it's missing
+     */
+    public float getFloat(int slot, int field) {
+        return floats[slot * FLOAT_FIELDS + field];
+    }
+
+    /**
+     * @param slot The slot of the station
+     * @return The wind direction, or 0 if it's missing
+     */
+    public int getWindDirection(int slot) {
+        return windDirections[slot];
+    }
+
+    /**
+     * @param slot The slot of the station
+     * @return The flags, one bit per flag (for example 1 << {@link #HAS_FROZEN}), missing flags are 0
+     */
+    public int getFlags(int slot) {
+        return flags[slot];
+    }
+
+    /**
+     * @param slot The slot of the station
+     * @return The time at which data was last merged into the slot, in milliseconds
+     */
+    public long getLastReceived(int slot) {
+        return lastReceived[slot];
+    }
+
+    /**
+     * @return The approximate amount of bytes used by the arrays of this store
+     */
+    public long memoryUsageBytes() {
+        return 4L * (hashKeys.length + hashSlots.length + stationIds.length + presence.length + dateTimes.length
+                + floats.length + windDirections.length) + flags.length + 8L * lastReceived.length;
+    }
+
+    /**
+     * @param stationId The station ID
+     * @return The slot of the station, or -1 if the station is not in the store
+     */
+    public int slotOf(int stationId) {
+        int index = hashIndexOf(stationId);
+        return index == EMPTY ? EMPTY : hashSlots[index];
+    }
+
+    /**
+     * @return The index of a station ID in the hash table, or -1 if it's not in there
+     */
+    private int hashIndexOf(int stationId) {
+        int mask = hashKeys.length - 1;
+        for(int i = hash(stationId) & mask; ; i = (i + 1) & mask) {
+            if(hashSlots[i] == EMPTY) {
+                return EMPTY;
+            }
+            if(hashKeys[i] == stationId) {
+                return i;
+            }
+        }
+    }
+
+    private int addStation(int stationId) {
+        if(size == stationIds.length) {
+            grow();
+        }
+
+        int slot = size++;
+        stationIds[slot] = stationId;
+        Arrays.fill(dateTimes, slot * DATE_TIME_FIELDS, (slot + 1) * DATE_TIME_FIELDS, -1);
+
+        // Keep the hash table at most half full
+        if(size * 2 > hashKeys.length) {
+            allocateHashTable(hashKeys.length * 2);
+            for(int i = 0; i < size - 1; i++) {
+                insertIntoHashTable(stationIds[i], i);
+            }
+        }
+        insertIntoHashTable(stationId, slot);
+
+        return slot;
+    }
+
+    private void grow() {
+        int capacity = stationIds.length * 2;
+
+        stationIds = Arrays.copyOf(stationIds, capacity);
+        presence = Arrays.copyOf(presence, capacity);
+        dateTimes = Arrays.copyOf(dateTimes, capacity * DATE_TIME_FIELDS);
+        floats = Arrays.copyOf(floats, capacity * FLOAT_FIELDS);
+        windDirections = Arrays.copyOf(windDirections, capacity);
+        flags = Arrays.copyOf(flags, capacity);
+        lastReceived = Arrays.copyOf(lastReceived, capacity);
+    }
+
+    private void allocateHashTable(int capacity) {
+        hashKeys = new int[capacity];
+        hashSlots = new int[capacity];
+        Arrays.fill(hashSlots, EMPTY);
+    }
+
+    private void insertIntoHashTable(int stationId, int slot) {
+        int mask = hashKeys.length - 1;
+        int i = hash(stationId) & mask;
+        while(hashSlots[i] != EMPTY) {
+            i = (i + 1) & mask;
+        }
+
+        hashKeys[i] = stationId;
+        hashSlots[i] = slot;
+    }
+
+    /**
+     * Removes a station ID from the hash table. The entries after it are shifted back,
+     * so lookups never stop early at the removed entry.
+     */
+    private void removeFromHashTable(int stationId) {
+        int mask = hashKeys.length - 1;
+        int i = hashIndexOf(stationId);
+        int j = i;
+
+        while(true) {
+            hashSlots[i] = EMPTY;
+
+            while(true) {
+                j = (j + 1) & mask;
+                if(hashSlots[j] == EMPTY) {
+                    return;
+                }
+
+                // If the ideal index of the entry at j is cyclically in (i, j], it can stay where it is
+                int ideal = hash(hashKeys[j]) & mask;
+                boolean stays = i <= j ? (i < ideal && ideal <= j) : (i < ideal || ideal <= j);
+                if(!stays) {
+                    break;
+                }
+            }
+
+            hashKeys[i] = hashKeys[j];
+            hashSlots[i] = hashSlots[j];
+            i = j;
+        }
+    }
+
+    static int hash(int stationId) {
+        // Station IDs are often sequential, so spread the bits a bit
+        int h = stationId * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    private static int setFlag(int flagBits, int flag, boolean value) {
+        return value ? flagBits | (1 << flag) : flagBits & ~(1 << flag);
+    }
+}
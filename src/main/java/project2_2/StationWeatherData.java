@@ -37,6 +37,9 @@ public class StationWeatherData {
     // Whether this datapoint is 'new' or not
     public boolean isNew = true;
 
+    // The time at which (the newest part of) this datapoint was received in milliseconds, or 0 if unknown
+    public long receivedAt = 0;
+
     public StationWeatherData() {
     }
 
@@ -122,6 +125,30 @@ public class StationWeatherData {
         return (int) cal.toInstant().getEpochSecond();
     }
 
+    /**
+     * Calculates the unix time of this data point, like {@link #calculateUnixTime()}, but without making any objects.
+     *
+     * @return The unix time in seconds, or -1 if the date or time is missing or invalid
+     */
+    public long calculateEpochSeconds() {
+        int year = date_year, month = date_month, day = date_day;
+        if(year < 1970 || month < 1 || month > 12 || day < 1 || day > 31 ||
+                time_hour < 0 || time_hour > 23 || time_minute < 0 || time_minute > 59 ||
+                time_second < 0 || time_second > 59) {
+            return -1;
+        }
+
+        // Days since 1970-01-01, from the proleptic Gregorian calendar
+        int y = month <= 2 ? year - 1 : year;
+        int era = y / 400;
+        int yearOfEra = y - era * 400;
+        int dayOfYear = (153 * (month + (month > 2 ? -3 : 9)) + 2) / 5 + day - 1;
+        int dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        long days = era * 146097L + dayOfEra - 719468;
+
+        return days * 86400 + time_hour * 3600 + time_minute * 60 + time_second;
+    }
+
     public void insertData(String key, String value) {
         switch(key) {
             case "STN":
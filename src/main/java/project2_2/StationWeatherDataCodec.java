@@ -0,0 +1,143 @@
+package project2_2;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Encodes {@link StationWeatherData} objects to a fixed-layout binary format, and decodes them again.
+ *
+ * Layout ({@value #ENCODED_SIZE} bytes, big-endian):
+ * - int     station ID
+ * - short   year
+ * - byte    month, day, hour, minute, second
+ * - short   presence bitmap, one bit per field that may be missing (see the PRESENT_ constants)
+ * - float   temperature, dew point, station air pressure, sea air pressure, visibility,
+ *           wind speed, precipitation, snow height, overcast
+ * - int     wind direction
+ * - byte    flags: frozen, rained, snowed, hailed, thundered, whirlwinded (bit 0 to 5)
+ *
+ * Missing values are written as 0, and are decoded as null again.
+ */
+public class StationWeatherDataCodec {
+    public static final int ENCODED_SIZE = 4 + 2 + 5 + 2 + 9 * 4 + 4 + 1;
+
+    // The bits of the presence bitmap
+    public static final int PRESENT_TEMPERATURE = 1;
+    public static final int PRESENT_DEW_POINT = 1 << 1;
+    public static final int PRESENT_STATION_AIR_PRESSURE = 1 << 2;
+    public static final int PRESENT_SEA_AIR_PRESSURE = 1 << 3;
+    public static final int PRESENT_VISIBILITY = 1 << 4;
+    public static final int PRESENT_WIND_SPEED = 1 << 5;
+    public static final int PRESENT_PRECIPITATION = 1 << 6;
+    public static final int PRESENT_SNOW_HEIGHT = 1 << 7;
+    public static final int PRESENT_OVERCAST = 1 << 8;
+    public static final int PRESENT_WIND_DIRECTION = 1 << 9;
+    public static final int PRESENT_FRSHTT = 1 << 10;
+
+    private StationWeatherDataCodec() {
+    }
+
+    /**
+     * Writes a data point to a buffer, at the current position of the buffer.
+     *
+     * @param data The data point
+     * @param buf The buffer, which must have at least {@link #ENCODED_SIZE} bytes remaining
+     */
+    public static void encode(StationWeatherData data, ByteBuffer buf) {
+        int presence = 0;
+        if(data.temperature != null) presence |= PRESENT_TEMPERATURE;
+        if(data.dewPoint != null) presence |= PRESENT_DEW_POINT;
+        if(data.stationAirPressure != null) presence |= PRESENT_STATION_AIR_PRESSURE;
+        if(data.seaAirPressure != null) presence |= PRESENT_SEA_AIR_PRESSURE;
+        if(data.visibility != null) presence |= PRESENT_VISIBILITY;
+        if(data.windSpeed != null) presence |= PRESENT_WIND_SPEED;
+        if(data.precipitation != null) presence |= PRESENT_PRECIPITATION;
+        if(data.snowHeight != null) presence |= PRESENT_SNOW_HEIGHT;
+        if(data.overcast != null) presence |= PRESENT_OVERCAST;
+        if(data.windDirection != null) presence |= PRESENT_WIND_DIRECTION;
+        // The flags are always sent together (FRSHTT), so they share one bit
+        if(data.hasFrozen != null && data.hasRained != null && data.hasSnowed != null &&
+                data.hasHailed != null && data.hasThundered != null && data.hasWhirlwinded != null) presence |= PRESENT_FRSHTT;
+
+        buf.putInt(data.stationId);
+        buf.putShort((short) data.date_year);
+        buf.put((byte) data.date_month);
+        buf.put((byte) data.date_day);
+        buf.put((byte) data.time_hour);
+        buf.put((byte) data.time_minute);
+        buf.put((byte) data.time_second);
+        buf.putShort((short) presence);
+
+        buf.putFloat(data.temperature != null ? data.temperature : 0);
+        buf.putFloat(data.dewPoint != null ? data.dewPoint : 0);
+        buf.putFloat(data.stationAirPressure != null ? data.stationAirPressure : 0);
+        buf.putFloat(data.seaAirPressure != null ? data.seaAirPressure : 0);
+        buf.putFloat(data.visibility != null ? data.visibility : 0);
+        buf.putFloat(data.windSpeed != null ? data.windSpeed : 0);
+        buf.putFloat(data.precipitation != null ? data.precipitation : 0);
+        buf.putFloat(data.snowHeight != null ? data.snowHeight : 0);
+        buf.putFloat(data.overcast != null ? data.overcast : 0);
+        buf.putInt(data.windDirection != null ? data.windDirection : 0);
+
+        int flags = 0;
+        if((presence & PRESENT_FRSHTT) != 0) {
+            if(data.hasFrozen) flags |= 1;
+            if(data.hasRained) flags |= 1 << 1;
+            if(data.hasSnowed) flags |= 1 << 2;
+            if(data.hasHailed) flags |= 1 << 3;
+            if(data.hasThundered) flags |= 1 << 4;
+            if(data.hasWhirlwinded) flags |= 1 << 5;
+        }
+        buf.put((byte) flags);
+    }
+
+    /**
+     * Reads a data point from a buffer, at the current position of the buffer.
+     *
+     * @param buf The buffer, which must have at least {@link #ENCODED_SIZE} bytes remaining
+     * @return The data point
+     */
+    public static StationWeatherData decode(ByteBuffer buf) {
+        StationWeatherData data = new StationWeatherData();
+        data.stationId = buf.getInt();
+        data.date_year = buf.getShort();
+        data.date_month = buf.get();
+        data.date_day = buf.get();
+        data.time_hour = buf.get();
+        data.time_minute = buf.get();
+        data.time_second = buf.get();
+        int presence = buf.getShort() & 0xFFFF;
+
+        float temperature = buf.getFloat();
+        float dewPoint = buf.getFloat();
+        float stationAirPressure = buf.getFloat();
+        float seaAirPressure = buf.getFloat();
+        float visibility = buf.getFloat();
+        float windSpeed = buf.getFloat();
+        float precipitation = buf.getFloat();
+        float snowHeight = buf.getFloat();
+        float overcast = buf.getFloat();
+        int windDirection = buf.getInt();
+        int flags = buf.get();
+
+        if((presence & PRESENT_TEMPERATURE) != 0) data.temperature = temperature;
+        if((presence & PRESENT_DEW_POINT) != 0) data.dewPoint = dewPoint;
+        if((presence & PRESENT_STATION_AIR_PRESSURE) != 0) data.stationAirPressure = stationAirPressure;
+        if((presence & PRESENT_SEA_AIR_PRESSURE) != 0) data.seaAirPressure = seaAirPressure;
+        if((presence & PRESENT_VISIBILITY) != 0) data.visibility = visibility;
+        if((presence & PRESENT_WIND_SPEED) != 0) data.windSpeed = windSpeed;
+        if((presence & PRESENT_PRECIPITATION) != 0) data.precipitation = precipitation;
+        if((presence & PRESENT_SNOW_HEIGHT) != 0) data.snowHeight = snowHeight;
+        if((presence & PRESENT_OVERCAST) != 0) data.overcast = overcast;
+        if((presence & PRESENT_WIND_DIRECTION) != 0) data.windDirection = windDirection;
+        if((presence & PRESENT_FRSHTT) != 0) {
+            data.hasFrozen = (flags & 1) != 0;
+            data.hasRained = (flags & 1 << 1) != 0;
+            data.hasSnowed = (flags & 1 << 2) != 0;
+            data.hasHailed = (flags & 1 << 3) != 0;
+            data.hasThundered = (flags & 1 << 4) != 0;
+            data.hasWhirlwinded = (flags & 1 << 5) != 0;
+        }
+
+        return data;
+    }
+}
@@ -0,0 +1,40 @@
+package project2_2;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Somewhere the insert query threads write the chunks of data to.
+ * Implementations must be safe to use from multiple threads at once.
+ *
+ * Which sink is used is set with the storage_sink property:
+ * - mysql: the `data` table of the database (see {@link MySqlStorageSink})
+ * - columnar: append-only column files, one per day (see {@link ColumnarFileSink})
+ */
+public interface StorageSink {
+    /**
+     * Prepares the sink for writing, before any of the insert query threads are started.
+     *
+     * @throws IOException If the sink could not be opened
+     */
+    void open() throws IOException;
+
+    /**
+     * Writes a chunk of data. The list must not be changed.
+     *
+     * @param chunk The data points to write, which are all complete
+     * @return Whether the data was written. If not, the sink has already given up retrying.
+     * @throws InterruptedException If the thread was interrupted while writing
+     */
+    boolean write(List<StationWeatherData> chunk) throws InterruptedException;
+
+    /**
+     * Closes the sink. Data which has been written already is kept.
+     */
+    void close();
+
+    /**
+     * @return A short description of the sink, to show when the server starts
+     */
+    String describe();
+}
@@ -0,0 +1,195 @@
+package project2_2;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Records the raw bytes every client sends (before decompression or parsing), so the traffic can be replayed later
+ * with the {@link StreamReplayer}.
+ *
+ * The records of all connections are appended to memory-mapped segment files, named
+ * recording-[start time]-[index].rec, so recording a read is little more than copying it. When a segment is full, it
+ * is cut off at the end of its data and the next segment is started.
+ *
+ * Segment layout (big-endian): a header [int magic][byte version][long start time in milliseconds], followed by
+ * records [byte type][int connection][long microseconds since the start of the recording][int length][data]. The
+ * types are {@link #RECORD_OPEN}, {@link #RECORD_DATA} and {@link #RECORD_CLOSE} (which have no data). A type of 0
+ * marks the end of the written data.
+ */
+public class StreamRecorder {
+    public static final int MAGIC = 0x57524543; // "WREC"
+    public static final byte VERSION = 1;
+    public static final int SEGMENT_HEADER_SIZE = 4 + 1 + 8;
+    public static final int RECORD_HEADER_SIZE = 1 + 4 + 8 + 4;
+
+    public static final byte RECORD_END = 0;
+    public static final byte RECORD_OPEN = 1;
+    public static final byte RECORD_DATA = 2;
+    public static final byte RECORD_CLOSE = 3;
+
+    private static final int MIN_SEGMENT_SIZE = 1024 * 1024;
+
+    private final File directory;
+    private final int segmentSize;
+
+    private final long startMillis = System.currentTimeMillis();
+    private final long startNanos = System.nanoTime();
+    private final AtomicInteger nextConnection = new AtomicInteger(0);
+
+    // The segment which is written to, guarded by the lock. Null if recording has stopped.
+    private final ReentrantLock lock = new ReentrantLock();
+    private RandomAccessFile segmentFile;
+    private MappedByteBuffer segment;
+    private int segmentIndex = 0;
+
+    /**
+     * Constructor of {@link StreamRecorder}
+     *
+     * @param directory The directory to write the segment files to
+     * @param segmentSize The size of a segment file, in bytes
+     */
+    public StreamRecorder(File directory, int segmentSize) {
+        this.directory = directory;
+        this.segmentSize = Math.max(segmentSize, MIN_SEGMENT_SIZE);
+    }
+
+    /**
+     * Starts the first segment.
+     *
+     * @throws IOException If the segment file could not be made
+     */
+    public void open() throws IOException {
+        if(!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Could not create recording directory " + directory);
+        }
+
+        lock.lock();
+        try{
+            nextSegment();
+        }finally{
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Wraps the parser of a new connection, so everything it is fed is recorded first.
+     *
+     * @param parser The parser of the connection
+     * @return The recording parser
+     */
+    public ClientStreamParser wrap(ClientStreamParser parser) {
+        int connection = nextConnection.incrementAndGet();
+        append(RECORD_OPEN, connection, null, 0, 0);
+
+        return new ClientStreamParser() {
+            @Override
+            public void feed(byte[] buf, int off, int len) {
+                append(RECORD_DATA, connection, buf, off, len);
+                parser.feed(buf, off, len);
+            }
+
+            @Override
+            public void finish() {
+                parser.finish();
+            }
+
+            @Override
+            public void close() {
+                append(RECORD_CLOSE, connection, null, 0, 0);
+                parser.close();
+            }
+        };
+    }
+
+    /**
+     * Stops recording, and cuts off the last segment at the end of its data.
+     */
+    public void close() {
+        lock.lock();
+        try{
+            closeSegment();
+        }finally{
+            lock.unlock();
+        }
+    }
+
+    private void append(byte type, int connection, byte[] buf, int off, int len) {
+        lock.lock();
+        try{
+            // Reads are small, but a segment must always be able to hold a record
+            int maxChunk = segmentSize - SEGMENT_HEADER_SIZE - RECORD_HEADER_SIZE;
+            while(true) {
+                if(segment == null) {
+                    return;
+                }
+
+                // If the record doesn't fit anymore, it's written to the next segment (also OPEN and CLOSE records,
+                // without them the replay would miss the connection)
+                int chunk = Math.min(len, maxChunk);
+                if(segment.remaining() < RECORD_HEADER_SIZE + chunk) {
+                    closeSegment();
+                    nextSegment();
+                    continue;
+                }
+
+                // The time is taken under the lock, so the records are in time order
+                segment.put(type);
+                segment.putInt(connection);
+                segment.putLong((System.nanoTime() - startNanos) / 1000);
+                segment.putInt(chunk);
+                if(chunk > 0) {
+                    segment.put(buf, off, chunk);
+                }
+
+                off += chunk;
+                len -= chunk;
+                if(len == 0) {
+                    break;
+                }
+            }
+        }catch(IOException e) {
+            // Never let the recorder break the handling of the clients
+            System.out.println("Could not start a new recording segment, stopped recording: " + e.toString());
+            segment = null;
+        }finally{
+            lock.unlock();
+        }
+    }
+
+    private void nextSegment() throws IOException {
+        File file = new File(directory, String.format("recording-%d-%06d.rec", startMillis, segmentIndex++));
+        segmentFile = new RandomAccessFile(file, "rw");
+        segment = segmentFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+
+        segment.putInt(MAGIC);
+        segment.put(VERSION);
+        segment.putLong(startMillis);
+    }
+
+    private void closeSegment() {
+        if(segment == null) {
+            return;
+        }
+
+        int used = segment.position();
+        segment.force();
+        segment = null;
+
+        try{
+            // Keep the files compact, but keep the end marker (the mapped file is filled with zeros). This may not be
+            // allowed while the file is mapped (on Windows), then the rest of the file stays empty, which is fine too.
+            segmentFile.setLength(Math.min(used + 1, segmentSize));
+        }catch(IOException ignored) {
+        }
+
+        try{
+            segmentFile.close();
+        }catch(IOException ignored) {
+        }
+    }
+}
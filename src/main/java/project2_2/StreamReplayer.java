@@ -0,0 +1,319 @@
+package project2_2;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Replays a recording of the {@link StreamRecorder} against a server, to benchmark the server with real traffic.
+ *
+ * Run it with: java -cp project-2.2-1.0-SNAPSHOT-jar-with-dependencies.jar project2_2.StreamReplayer [key=value ...]
+ *
+ * Options (defaults in brackets):
+ * - directory [recordings]: the directory with the recording
+ * - recording [the latest]: the start time of the recording, as in the file names recording-[start time]-[index].rec
+ * - host [localhost], port [7789]: the server to connect to
+ * - speed [1]: how much faster than recorded to replay, for example 10, or max to replay as fast as possible
+ * - queue_size [256]: the amount of reads which may be waiting to be sent per connection
+ *
+ * Every recorded connection is replayed over a connection of its own (on a virtual thread if possible), so the server
+ * sees the same amount of concurrent connections, which send the same bytes (compressed streams stay compressed).
+ * The reads are sent at their recorded time divided by the speed. A connection which can't keep up holds up the
+ * replay, which shows as lag.
+ *
+ * Every 5 seconds, the amount of open connections, the bytes sent per second and how far the replay lags behind
+ * the recording are shown.
+ */
+public class StreamReplayer {
+    private static final long REPORT_INTERVAL_MS = 5000;
+    private static final int CONNECT_ATTEMPTS = 5;
+
+    // Tells a connection thread to close its connection
+    private static final byte[] CLOSE = new byte[0];
+
+    private final File directory;
+    private final String recording;
+    private final String host;
+    private final int port;
+    private final double speed; // 0 to replay as fast as possible
+    private final int queueSize;
+
+    // Statistics
+    private final LongAdder bytesSent = new LongAdder();
+    private final AtomicLong maxLagMs = new AtomicLong();
+    private final AtomicInteger openConnections = new AtomicInteger();
+    private final AtomicInteger failedConnections = new AtomicInteger();
+    private volatile long replayedMicros = 0;
+    private volatile boolean done = false;
+
+    public StreamReplayer(Map<String, String> options) {
+        directory = new File(options.getOrDefault("directory", "recordings"));
+        recording = options.get("recording");
+        host = options.getOrDefault("host", "localhost");
+        port = Integer.parseInt(options.getOrDefault("port", "7789"));
+        String speedOption = options.getOrDefault("speed", "1");
+        speed = speedOption.equals("max") ? 0 : Double.parseDouble(speedOption);
+        if(speed < 0 || (speed == 0 && !speedOption.equals("max"))) {
+            throw new IllegalArgumentException("Invalid speed " + speedOption + ", use a positive number or max");
+        }
+        queueSize = Math.max(1, Integer.parseInt(options.getOrDefault("queue_size", "256")));
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new HashMap<>();
+        for(String arg : args) {
+            int eq = arg.indexOf('=');
+            if(eq == -1) {
+                System.out.println("Invalid option " + arg + ", options are given as key=value");
+                System.exit(-1);
+            }
+            options.put(arg.substring(0, eq), arg.substring(eq + 1));
+        }
+
+        new StreamReplayer(options).run();
+    }
+
+    /**
+     * Replays all segments of the recording, and waits until all connections are closed.
+     *
+     * @throws IOException If the recording could not be read
+     * @throws InterruptedException If the thread was interrupted
+     */
+    public void run() throws IOException, InterruptedException {
+        List<File> segments = findSegments();
+        System.out.printf("Replaying %d segments of %s to %s:%d at %s speed.%n",
+                segments.size(), segments.get(0).getName().replaceAll("-[0-9]+\\.rec$", ""), host, port, speed == 0 ? "max" : speed + "x");
+
+        Thread reporter = new Thread(this::reportThread);
+        reporter.setDaemon(true);
+        reporter.start();
+
+        Map<Integer, Connection> connections = new HashMap<>();
+        List<Thread> threads = new ArrayList<>();
+        long start = System.nanoTime();
+        long firstMicros = -1; // The replay starts at the first record, not at the start of the recording
+        long records = 0;
+
+        for(File file : segments) {
+            ByteBuffer segment = map(file);
+            if(segment.remaining() < StreamRecorder.SEGMENT_HEADER_SIZE || segment.getInt() != StreamRecorder.MAGIC) {
+                throw new IOException(file + " is not a recording segment");
+            }
+            if(segment.get() != StreamRecorder.VERSION) {
+                throw new IOException(file + " has an unknown version");
+            }
+            segment.getLong(); // The start time
+
+            while(segment.remaining() >= StreamRecorder.RECORD_HEADER_SIZE) {
+                byte type = segment.get();
+                if(type == StreamRecorder.RECORD_END) {
+                    break;
+                }
+                int connectionId = segment.getInt();
+                long micros = segment.getLong();
+                int length = segment.getInt();
+                if(length < 0 || length > segment.remaining()) {
+                    System.out.println(file + " ends with an incomplete record, skipping the rest of it.");
+                    break;
+                }
+
+                if(firstMicros == -1) {
+                    firstMicros = micros;
+                }
+                micros -= firstMicros;
+
+                // Wait until it's time for the record
+                if(speed > 0) {
+                    long dueNanos = start + (long) (micros * 1000 / speed);
+                    long waitNanos = dueNanos - System.nanoTime();
+                    if(waitNanos > 1_000_000) {
+                        Thread.sleep(waitNanos / 1_000_000, (int) (waitNanos % 1_000_000));
+                    }else if(waitNanos < 0) {
+                        maxLagMs.accumulateAndGet(-waitNanos / 1_000_000, Math::max);
+                    }
+                }
+                replayedMicros = micros;
+                records++;
+
+                switch(type) {
+                    case StreamRecorder.RECORD_OPEN:
+                        Connection opened = new Connection();
+                        connections.put(connectionId, opened);
+                        threads.add(VirtualThreads.start(opened::connectionThread));
+                        break;
+                    case StreamRecorder.RECORD_DATA:
+                        byte[] data = new byte[length];
+                        segment.get(data);
+                        Connection connection = connections.get(connectionId);
+                        if(connection != null) {
+                            connection.queue.put(data);
+                        }
+                        break;
+                    case StreamRecorder.RECORD_CLOSE:
+                        Connection closed = connections.remove(connectionId);
+                        if(closed != null) {
+                            closed.queue.put(CLOSE);
+                        }
+                        break;
+                    default:
+                        throw new IOException(file + " has a record of unknown type " + type);
+                }
+            }
+        }
+
+        // The connections which were still open when the recording stopped
+        for(Connection connection : connections.values()) {
+            connection.queue.put(CLOSE);
+        }
+        for(Thread thread : threads) {
+            thread.join();
+        }
+        done = true;
+
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.printf("Done, replayed %d records (%.1fs of traffic) in %.1fs (%.1fx), sent %d KB, %d connections failed.%n",
+                records, replayedMicros / 1e6, seconds, seconds > 0 ? replayedMicros / 1e6 / seconds : 0, bytesSent.sum() / 1024,
+                failedConnections.get());
+    }
+
+    /**
+     * Finds the segment files of the recording, in order.
+     */
+    private List<File> findSegments() throws IOException {
+        File[] files = directory.listFiles((dir, name) -> name.startsWith("recording-") && name.endsWith(".rec"));
+        if(files == null || files.length == 0) {
+            throw new IOException("There are no recordings in " + directory);
+        }
+
+        // The names contain the start time and the index, so they sort by time
+        Arrays.sort(files);
+        String prefix = "recording-" + (recording != null ? recording : files[files.length - 1].getName().split("-")[1]) + "-";
+
+        List<File> segments = new ArrayList<>();
+        for(File file : files) {
+            if(file.getName().startsWith(prefix)) {
+                segments.add(file);
+            }
+        }
+        if(segments.isEmpty()) {
+            throw new IOException("There is no recording " + recording + " in " + directory);
+        }
+        return segments;
+    }
+
+    private static ByteBuffer map(File file) throws IOException {
+        try(RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            return raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+        }
+    }
+
+    /**
+     * A replayed connection, which sends the reads which are queued for it.
+     */
+    private class Connection {
+        private final ArrayBlockingQueue<byte[]> queue = new ArrayBlockingQueue<>(queueSize);
+
+        private void connectionThread() {
+            Socket socket = connect();
+            if(socket == null) {
+                failedConnections.incrementAndGet();
+            }else{
+                openConnections.incrementAndGet();
+            }
+
+            try{
+                OutputStream out = socket != null ? socket.getOutputStream() : null;
+                if(socket != null) {
+                    socket.setTcpNoDelay(true);
+                }
+
+                byte[] data;
+                while((data = queue.take()) != CLOSE) {
+                    if(out == null) {
+                        continue; // Keep taking the reads, so the replay isn't held up
+                    }
+
+                    try{
+                        out.write(data);
+                        bytesSent.add(data.length);
+                    }catch(IOException e) {
+                        System.out.println("Lost a connection: " + e.toString());
+                        failedConnections.incrementAndGet();
+                        out = null;
+                    }
+                }
+            }catch(IOException e) {
+                System.out.println("Lost a connection: " + e.toString());
+                failedConnections.incrementAndGet();
+            }catch(InterruptedException e) {
+                e.printStackTrace();
+            }finally{
+                if(socket != null) {
+                    try{
+                        socket.close();
+                    }catch(IOException ignored) {}
+                    openConnections.decrementAndGet();
+                }
+            }
+        }
+    }
+
+    private Socket connect() {
+        for(int attempt = 1; attempt <= CONNECT_ATTEMPTS; attempt++) {
+            try{
+                return new Socket(host, port);
+            }catch(IOException e) {
+                if(attempt == CONNECT_ATTEMPTS) {
+                    System.out.println("Could not connect to " + host + ":" + port + ": " + e.toString());
+                }
+
+                try{
+                    Thread.sleep(100L * attempt);
+                }catch(InterruptedException ignored) {
+                    return null;
+                }
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Shows the statistics every REPORT_INTERVAL_MS, until the replay is done.
+     */
+    private void reportThread() {
+        long lastBytes = 0;
+        long lastReport = System.currentTimeMillis();
+
+        while(!done) {
+            try{
+                Thread.sleep(REPORT_INTERVAL_MS);
+            }catch(InterruptedException e) {
+                return;
+            }
+
+            long now = System.currentTimeMillis();
+            double seconds = (now - lastReport) / 1000.0;
+            lastReport = now;
+
+            long bytes = bytesSent.sum();
+            System.out.printf("connections=%d (failed=%d), sent_kb_ps=%.0f, replayed=%.1fs, max_lag=%dms%n",
+                    openConnections.get(), failedConnections.get(), (bytes - lastBytes) / 1024.0 / seconds,
+                    replayedMicros / 1e6, maxLagMs.getAndSet(0));
+            lastBytes = bytes;
+        }
+    }
+}
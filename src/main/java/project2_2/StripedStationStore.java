@@ -0,0 +1,176 @@
+package project2_2;
+
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A thread-safe wrapper around multiple {@link StationStateStore}s.
+ *
+ * Stations are divided over a fixed amount of stripes by their station ID, and every stripe has its own lock.
+ * Threads receiving data for different stations will (almost) never contend on the same lock, and because a station
+ * is only ever read or written while holding the lock of its stripe, readers always see a consistent record.
+ */
+public class StripedStationStore {
+    private final StationStateStore[] stores;
+    private final ReentrantLock[] locks;
+    private final int stripeBits;
+
+    /**
+     * Constructor of {@link StripedStationStore}
+     *
+     * @param stripes The amount of stripes, will be rounded up to a power of two
+     */
+    public StripedStationStore(int stripes) {
+        int bits = 0;
+        while((1 << bits) < stripes) {
+            bits++;
+        }
+
+        stripeBits = bits;
+        int count = 1 << bits;
+        stores = new StationStateStore[count];
+        locks = new ReentrantLock[count];
+        for(int i = 0; i < count; i++) {
+            stores[i] = new StationStateStore(64);
+            locks[i] = new ReentrantLock();
+        }
+    }
+
+    /**
+     * Merges data which has been received from a station into the store.
+     *
+     * @param data The received data
+     * @return Whether this is the first time we received data of this station
+     * @see StationStateStore#merge(StationWeatherData)
+     */
+    public boolean merge(StationWeatherData data) {
+        int stripe = stripeOf(data.stationId);
+        StationStateStore store = stores[stripe];
+        ReentrantLock lock = locks[stripe];
+
+        lock.lock();
+        try{
+            int sizeBefore = store.size();
+            store.merge(data);
+            return store.size() != sizeBefore;
+        }finally{
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @param data The saved data
+     * @see StationStateStore#restore(StationWeatherData)
+     */
+    public void restore(StationWeatherData data) {
+        int stripe = stripeOf(data.stationId);
+        ReentrantLock lock = locks[stripe];
+
+        lock.lock();
+        try{
+            stores[stripe].restore(data);
+        }finally{
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @param stationId The station ID
+     * @return A copy of the data of the station (which may be incomplete), or null if the station isn't in the store
+     * @see StationStateStore#toStationWeatherData(int)
+     */
+    public StationWeatherData copyOf(int stationId) {
+        int stripe = stripeOf(stationId);
+        ReentrantLock lock = locks[stripe];
+
+        lock.lock();
+        try{
+            int slot = stores[stripe].slotOf(stationId);
+            return slot == -1 ? null : stores[stripe].toStationWeatherData(slot);
+        }finally{
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @param stationId The station ID
+     * @return A copy of the data if it was new and complete, otherwise null
+     * @see StationStateStore#takeIfNew(int)
+     */
+    public StationWeatherData takeIfNew(int stationId) {
+        int stripe = stripeOf(stationId);
+        ReentrantLock lock = locks[stripe];
+
+        lock.lock();
+        try{
+            return stores[stripe].takeIfNew(stationId);
+        }finally{
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @param stationId The station ID
+     * @param receivedBefore The time in milliseconds
+     * @return Whether the station was removed
+     * @see StationStateStore#removeIfIdle(int, long)
+     */
+    public boolean removeIfIdle(int stationId, long receivedBefore) {
+        int stripe = stripeOf(stationId);
+        ReentrantLock lock = locks[stripe];
+
+        lock.lock();
+        try{
+            return stores[stripe].removeIfIdle(stationId, receivedBefore);
+        }finally{
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return The amount of stations in all stripes
+     */
+    public int size() {
+        int size = 0;
+        for(int i = 0; i < stores.length; i++) {
+            locks[i].lock();
+            try{
+                size += stores[i].size();
+            }finally{
+                locks[i].unlock();
+            }
+        }
+
+        return size;
+    }
+
+    /**
+     * @return The approximate amount of bytes used by the arrays of all stripes
+     * @see StationStateStore#memoryUsageBytes()
+     */
+    public long memoryUsageBytes() {
+        long bytes = 0;
+        for(int i = 0; i < stores.length; i++) {
+            locks[i].lock();
+            try{
+                bytes += stores[i].memoryUsageBytes();
+            }finally{
+                locks[i].unlock();
+            }
+        }
+
+        return bytes;
+    }
+
+    /**
+     * @param stationId The station ID
+     * @return The index of the stripe the station is in
+     */
+    public int stripeOf(int stationId) {
+        if(stripeBits == 0) {
+            return 0;
+        }
+
+        // Use the high bits of the hash, the low bits are used by the hash table of the StationStateStore
+        return (stationId * 0x9E3779B9) >>> (32 - stripeBits);
+    }
+}
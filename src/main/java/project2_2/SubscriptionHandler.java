@@ -0,0 +1,141 @@
+package project2_2;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Streams the latest data of stations to a client as Server-Sent Events, straight from the {@link StationFanout}:
+ *
+ * - /subscribe?stations=123,456
+ *   Updates of the given stations.
+ * - /subscribe?from=100000&to=199999
+ *   Updates of all stations within the range of station IDs (both inclusive).
+ *
+ * Every update is a "reading" event, with the data of the station as JSON (fields which are unknown are left out).
+ * A slow client only gets the latest update of every station (see {@link StationFanout}). When there are no updates,
+ * a comment is sent every {@value #KEEPALIVE_MS}ms, so disconnected clients are noticed.
+ *
+ * Every client is served by a thread of its own (a virtual thread if possible), so the HTTP threads stay available.
+ */
+public class SubscriptionHandler implements HttpHandler {
+    public static final String PATH = "/subscribe";
+
+    private static final long KEEPALIVE_MS = 15000;
+
+    private final StationFanout fanout;
+    private final RealtimeStatistics statistics;
+
+    /**
+     * Constructor of {@link SubscriptionHandler}
+     *
+     * @param fanout The global {@link StationFanout} object
+     * @param statistics The global {@link RealtimeStatistics} object
+     */
+    public SubscriptionHandler(StationFanout fanout, RealtimeStatistics statistics) {
+        this.fanout = fanout;
+        this.statistics = statistics;
+    }
+
+    @Override
+    public void handle(HttpExchange exchange) throws IOException {
+        Map<String, String> parameters = EmbeddedHttpServer.queryParameters(exchange);
+
+        StationFanout.Subscriber subscriber;
+        try{
+            if(parameters.containsKey("stations")) {
+                subscriber = fanout.subscribe(StationHistoryHandler.parseStationIds(parameters.get("stations")));
+            }else if(parameters.containsKey("from") && parameters.containsKey("to")) {
+                subscriber = fanout.subscribe((int) StationHistoryHandler.parseLong("from", parameters.get("from")),
+                        (int) StationHistoryHandler.parseLong("to", parameters.get("to")));
+            }else{
+                throw new IllegalArgumentException("The stations parameter, or the from and to parameters are required, for example stations=123,456");
+            }
+        }catch(IllegalStateException e) {
+            EmbeddedHttpServer.sendResponse(exchange, 503, "text/plain", e.getMessage() + "\n");
+            exchange.close();
+            return;
+        }
+
+        exchange.getResponseHeaders().set("Content-Type", "text/event-stream; charset=utf-8");
+        exchange.getResponseHeaders().set("Cache-Control", "no-cache");
+        exchange.sendResponseHeaders(200, 0);
+
+        VirtualThreads.start(() -> streamThread(exchange, subscriber));
+    }
+
+    private void streamThread(HttpExchange exchange, StationFanout.Subscriber subscriber) {
+        try(OutputStream out = exchange.getResponseBody()) {
+            StringBuilder events = new StringBuilder(1024);
+            while(true) {
+                List<StationWeatherData> updates = subscriber.take(KEEPALIVE_MS);
+
+                events.setLength(0);
+                if(updates.isEmpty()) {
+                    events.append(": keepalive\n\n");
+                }
+                for(StationWeatherData data : updates) {
+                    appendData(events.append("event: reading\ndata: "), data).append("\n\n");
+                }
+
+                out.write(events.toString().getBytes(StandardCharsets.UTF_8));
+                out.flush();
+                statistics.addSubscriberEvents(updates.size());
+            }
+        }catch(IOException e) {
+            // The client disconnected
+        }catch(InterruptedException e) {
+            e.printStackTrace();
+        }finally{
+            fanout.unsubscribe(subscriber);
+            exchange.close();
+        }
+    }
+
+    /**
+     * Appends the data of a station as a JSON object.
+     */
+    private static StringBuilder appendData(StringBuilder json, StationWeatherData data) {
+        json.append("{\"station\":").append(data.stationId);
+        if(data.date_year != -1) {
+            json.append(String.format(",\"date\":\"%04d-%02d-%02d\"", data.date_year, data.date_month, data.date_day));
+        }
+        if(data.time_hour != -1) {
+            json.append(String.format(",\"time\":\"%02d:%02d:%02d\"", data.time_hour, data.time_minute, data.time_second));
+        }
+
+        appendField(json, StationStateStore.FLOAT_FIELD_NAMES[StationStateStore.TEMPERATURE], data.temperature);
+        appendField(json, StationStateStore.FLOAT_FIELD_NAMES[StationStateStore.DEW_POINT], data.dewPoint);
+        appendField(json, StationStateStore.FLOAT_FIELD_NAMES[StationStateStore.STATION_AIR_PRESSURE], data.stationAirPressure);
+        appendField(json, StationStateStore.FLOAT_FIELD_NAMES[StationStateStore.SEA_AIR_PRESSURE], data.seaAirPressure);
+        appendField(json, StationStateStore.FLOAT_FIELD_NAMES[StationStateStore.VISIBILITY], data.visibility);
+        appendField(json, StationStateStore.FLOAT_FIELD_NAMES[StationStateStore.WIND_SPEED], data.windSpeed);
+        appendField(json, StationStateStore.FLOAT_FIELD_NAMES[StationStateStore.PRECIPITATION], data.precipitation);
+        appendField(json, StationStateStore.FLOAT_FIELD_NAMES[StationStateStore.SNOW_HEIGHT], data.snowHeight);
+        appendField(json, StationStateStore.FLOAT_FIELD_NAMES[StationStateStore.OVERCAST], data.overcast);
+        if(data.windDirection != null) {
+            json.append(",\"wind_direction\":").append(data.windDirection);
+        }
+        if(data.hasFrozen != null && data.hasRained != null && data.hasSnowed != null &&
+                data.hasHailed != null && data.hasThundered != null && data.hasWhirlwinded != null) {
+            json.append(",\"frshtt\":\"")
+                    .append(data.hasFrozen ? '1' : '0').append(data.hasRained ? '1' : '0').append(data.hasSnowed ? '1' : '0')
+                    .append(data.hasHailed ? '1' : '0').append(data.hasThundered ? '1' : '0').append(data.hasWhirlwinded ? '1' : '0')
+                    .append('"');
+        }
+
+        return json.append('}');
+    }
+
+    private static void appendField(StringBuilder json, String name, Float value) {
+        // NaN and infinity aren't valid JSON
+        if(value != null && Float.isFinite(value)) {
+            json.append(",\"").append(name).append("\":").append(value);
+        }
+    }
+}
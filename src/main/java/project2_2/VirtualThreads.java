@@ -0,0 +1,51 @@
+package project2_2;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * A small utility to start virtual threads.
+ * The project is compiled for Java 17, so the virtual thread API (Java 21+) is looked up using reflection.
+ * When running on an older JVM, regular platform threads are started instead.
+ */
+public class VirtualThreads {
+    private static final ThreadFactory FACTORY = createFactory();
+
+    private VirtualThreads() {
+    }
+
+    /**
+     * @return Whether the JVM we're running on supports virtual threads
+     */
+    public static boolean isSupported() {
+        return FACTORY != null;
+    }
+
+    /**
+     * Starts a new virtual thread, or a platform thread if virtual threads aren't supported.
+     *
+     * @param task The task to run on the thread
+     * @return The started thread
+     */
+    public static Thread start(Runnable task) {
+        Thread thread = FACTORY != null ? FACTORY.newThread(task) : new Thread(task);
+        thread.start();
+        return thread;
+    }
+
+    /**
+     * Creates the virtual thread factory, which is the equivalent of Thread.ofVirtual().factory()
+     *
+     * @return The factory, or null if virtual threads aren't supported
+     */
+    private static ThreadFactory createFactory() {
+        try{
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            Method factory = Class.forName("java.lang.Thread$Builder").getMethod("factory");
+            return (ThreadFactory) factory.invoke(builder);
+        }catch(ReflectiveOperationException e) {
+            System.out.println("Virtual threads are not supported by this JVM (" + System.getProperty("java.version") + "), platform threads will be used instead.");
+            return null;
+        }
+    }
+}
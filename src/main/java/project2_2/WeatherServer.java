@@ -1,9 +1,8 @@
 package project2_2;
 
-import java.io.BufferedReader;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.net.ServerSocket;
 import java.net.Socket;
 import java.util.*;
@@ -15,9 +14,16 @@ public class WeatherServer {
     private final Properties properties;
 
     private ServerSocket server;
+    private NioIngestionEngine nioIngestionEngine;
     private RealtimeStatistics statistics;
+    private ConnectionPool connectionPool;
     private DataInsertionQueue dataInsertionQueue;
     private AutoDeletion autoDeletion;
+    private ConfigWatcher configWatcher;
+    private EmbeddedHttpServer httpServer;
+    private InflaterPool inflaterPool;
+    private IngestPipeline ingestPipeline;
+    private StreamRecorder streamRecorder;
 
     /**
      * The WeatherServer constructor.
@@ -34,39 +40,150 @@ public class WeatherServer {
      * @throws IOException If the server socket could not be made.
      */
     public void start() throws IOException {
-        // Create a RealtimeStatistics object
+        // Create a RealtimeStatistics object, and show them in the console if we want to
         statistics = new RealtimeStatistics();
-        statistics.startStatsThread();
+        if(Boolean.parseBoolean(properties.getProperty("stats_console_enabled", "true"))) {
+            statistics.startStatsThread();
+        }
+
+        // Create the ConnectionPool, which is shared by everything that uses the database
+        int insertQueryThreads = Integer.parseInt(properties.getProperty("insert_query_threads"));
+        connectionPool = new ConnectionPool(
+                InsertWriter.connectionUrl(properties.getProperty("db_url"), properties.getProperty("insert_mode", InsertWriter.MODE_MULTIROW)),
+                Integer.parseInt(properties.getProperty("db_pool_size", String.valueOf(insertQueryThreads + 1))),
+                Long.parseLong(properties.getProperty("db_pool_max_lifetime_ms", "1800000")),
+                Long.parseLong(properties.getProperty("db_pool_validation_idle_ms", "1000")),
+                Integer.parseInt(properties.getProperty("db_pool_validation_timeout_s", "2")),
+                Long.parseLong(properties.getProperty("db_pool_max_backoff_ms", "5000")));
+        statistics.setConnectionPool(connectionPool);
 
         // Create a DataInsertionQueue object
-        dataInsertionQueue = new DataInsertionQueue(properties, statistics);
+        dataInsertionQueue = new DataInsertionQueue(properties, statistics, connectionPool);
         dataInsertionQueue.startThreads();
 
         // Auto-delete old data!
-        autoDeletion = new AutoDeletion(properties, statistics);
+        autoDeletion = new AutoDeletion(properties, statistics, connectionPool);
         autoDeletion.startThread();
 
+        // Apply changes of the tuning properties without a restart
+        configWatcher = new ConfigWatcher(Main.PROPERTIES_FILE, properties, statistics, dataInsertionQueue);
+        if(Boolean.parseBoolean(properties.getProperty("config_watch_enabled", "true"))) {
+            configWatcher.startThread();
+        }
+
+        // Start the HTTP server with the local APIs
+        if(Boolean.parseBoolean(properties.getProperty("http_enabled", "false"))) {
+            // The APIs have no authentication, so only local clients can use them unless http_bind_address is changed
+            httpServer = new EmbeddedHttpServer(properties.getProperty("http_bind_address", "127.0.0.1"),
+                    Integer.parseInt(properties.getProperty("http_port", "7790")),
+                    Integer.parseInt(properties.getProperty("http_threads", "2")));
+
+            httpServer.addHandler("/metrics", exchange -> {
+                StringBuilder metrics = new StringBuilder(8192);
+                statistics.writePrometheus(metrics);
+                EmbeddedHttpServer.sendResponse(exchange, 200, "text/plain; version=0.0.4", metrics.toString());
+            });
+
+            StationHistory history = dataInsertionQueue.getStationHistory();
+            if(history != null) {
+                httpServer.addHandler(StationHistoryHandler.PATH, new StationHistoryHandler(history));
+            }
+
+            StationFanout fanout = dataInsertionQueue.getStationFanout();
+            if(fanout != null) {
+                httpServer.addStreamingHandler(SubscriptionHandler.PATH, new SubscriptionHandler(fanout, statistics));
+            }
+
+            httpServer.start();
+        }
+
+        // Accept compressed streams from the clients, if we want to
+        if(Boolean.parseBoolean(properties.getProperty("compression_enabled", "true"))) {
+            inflaterPool = new InflaterPool(Integer.parseInt(properties.getProperty("compression_pooled_inflaters", "256")));
+        }
+
+        // Parse the data on a pool of parser threads instead of the client threads, if we want to
+        if(Boolean.parseBoolean(properties.getProperty("ingest_pipeline_enabled", "false"))) {
+            ingestPipeline = new IngestPipeline(dataInsertionQueue, statistics,
+                    Integer.parseInt(properties.getProperty("ingest_parser_threads", "4")),
+                    Integer.parseInt(properties.getProperty("ingest_ring_slots", "1024")),
+                    Integer.parseInt(properties.getProperty("ingest_frame_bytes", "2048")),
+                    Integer.parseInt(properties.getProperty("ingest_merge_threads", "4")),
+                    Integer.parseInt(properties.getProperty("ingest_merge_queue_size", "8192")));
+            statistics.setIngestPipeline(ingestPipeline);
+            ingestPipeline.startThreads();
+        }
+
+        // Record the raw data of the clients, so it can be replayed later (see StreamReplayer), if we want to
+        if(Boolean.parseBoolean(properties.getProperty("recorder_enabled", "false"))) {
+            streamRecorder = new StreamRecorder(new File(properties.getProperty("recorder_directory", "recordings")),
+                    Integer.parseInt(properties.getProperty("recorder_segment_size_mb", "64")) * 1024 * 1024);
+            streamRecorder.open();
+            System.out.println("Recording the data of the clients to " + properties.getProperty("recorder_directory", "recordings") + ".");
+        }
+
         // Start the server socket!
         int port = Integer.parseInt(properties.getProperty("server_port"));
-        System.out.println("Starting server at *:" + port);
-        server = new ServerSocket(port);
+        String clientHandlingMode = properties.getProperty("client_handling_mode", "blocking");
+        System.out.println("Starting server at *:" + port + " (client handling mode: " + clientHandlingMode + ")");
+
+        switch(clientHandlingMode) {
+            case "blocking":
+            case "virtual":
+                server = new ServerSocket(port);
+
+                // Call acceptClientsThread() on a different thread, because it is a blocking method.
+                new Thread(this::acceptClientsThread).start();
+                break;
+            case "nio":
+                int eventLoopThreads = Integer.parseInt(properties.getProperty("nio_event_loop_threads", "2"));
+                nioIngestionEngine = new NioIngestionEngine(port, eventLoopThreads, this::newParser, statistics);
+                nioIngestionEngine.start();
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown client_handling_mode " + clientHandlingMode);
+        }
 
-        // Call acceptClientsThread() on a different thread, because it is a blocking method.
-        new Thread(this::acceptClientsThread).start();
+        // Send the data we still have (and write a final snapshot) when the process is stopped
+        long shutdownTimeoutMs = Long.parseLong(properties.getProperty("shutdown_timeout_ms", "10000"));
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            System.out.println("Stopping the server, sending the remaining data.");
+            if(streamRecorder != null) {
+                streamRecorder.close();
+            }
+            try{
+                // The measurements in the ingest pipeline have to be merged before the station data is sent
+                if(ingestPipeline != null) {
+                    ingestPipeline.drain(shutdownTimeoutMs);
+                }
+                dataInsertionQueue.shutdown(shutdownTimeoutMs);
+            }catch(InterruptedException e) {
+                e.printStackTrace();
+            }
+        }));
     }
 
     /**
      * A thread that accepts clients which are trying to connect to the server.
      * After a client has connected, a new thread will be made.
+     * In the virtual client handling mode, this will be a virtual thread. The project targets Java 17, which has no
+     * virtual threads, so there the virtual mode falls back to a platform thread per client (see {@link VirtualThreads}
+     * and the {@link ConnectionScalingCheck}).
      */
     private void acceptClientsThread() {
+        boolean virtual = properties.getProperty("client_handling_mode", "blocking").equals("virtual");
+
         try{
             while(true) {
                 // Get a client - this is a blocking function. Code execution will halt until we actually get a client
                 Socket clientSocket = server.accept();
 
                 // Create a new thread for the client
-                new Thread(() -> handleClientThread(clientSocket)).start();
+                if(virtual) {
+                    VirtualThreads.start(() -> handleClientThread(clientSocket));
+                }else{
+                    new Thread(() -> handleClientThread(clientSocket)).start();
+                }
             }
         }catch(IOException e) {
             // Could not accept clients anymore :(
@@ -77,7 +194,8 @@ public class WeatherServer {
 
     /**
      * This thread will handle one single client, and will listen for incoming data.
-     * This thread also parses the data.
+     * This thread also parses the data, using a {@link ClientDataParser} or a {@link BinaryMeasurementDecoder}
+     * depending on the protocol of the client (see {@link ProtocolNegotiator}), or hands it to the {@link IngestPipeline}.
      *
      * @param client The client.
      */
@@ -85,55 +203,39 @@ public class WeatherServer {
         // Update statistics!
         statistics.addConnection();
 
+        ClientStreamParser parser = newParser();
         try{
-            // Set up the input stream reader
             InputStream in = client.getInputStream();
-            BufferedReader br = new BufferedReader(new InputStreamReader(in));
-
-            // We will keep track of the incoming xml data in this object
-            StationWeatherData currentMeasurement = new StationWeatherData();
-            boolean inMeasurement = false;
 
             // Loop for as long as the client is connected
-            String line;
-            while((line = br.readLine()) != null) {
-                try{
-                    line = line.trim();
-                    if(line.equals("<MEASUREMENT>")) {
-                        // The beginning of  a new measurement!
-                        inMeasurement = true;
-                    }else if(line.equals("</MEASUREMENT>")) {
-                        // The end of a measurement!
-                        inMeasurement = false;
-
-                        dataInsertionQueue.onDataReceive(currentMeasurement);
-
-                        currentMeasurement = new StationWeatherData();
-
-                        // Update statistics!
-                        statistics.addDataReceived();
-                    }else if(inMeasurement) {
-                        String key = line.substring(1, line.indexOf('>'));
-                        String value = line.substring(key.length() + 2, line.length() - key.length() - 3);
-
-                        if(!value.isEmpty()) {
-                            currentMeasurement.insertData(key, value);
-                        }
-                    }
-                }catch(Exception e) {
-                    System.out.println("Could not parse a data line: " + e.toString());
-                    System.out.println("Line: " + line);
-                }
+            byte[] buf = new byte[4096];
+            int read;
+            while((read = in.read(buf)) != -1) {
+                parser.feed(buf, 0, read);
             }
+            parser.finish();
 
             // The client disconnected (because we exited from the loop)
         }catch(IOException e) {
             // There was an error while handling the client.. Don't exit the process, just throw the exception.
             System.out.println("Error while handling client: " + e.toString());
             e.printStackTrace();
+        }finally{
+            parser.close();
         }
 
         // Update statistics!
         statistics.removeConnection();
     }
+
+    /**
+     * Makes the parser of a new client, which finds out the protocol of the client (see {@link ProtocolNegotiator}),
+     * and records its data if the {@link StreamRecorder} is enabled.
+     *
+     * @return The parser
+     */
+    private ClientStreamParser newParser() {
+        ClientStreamParser parser = new ProtocolNegotiator(dataInsertionQueue, statistics, inflaterPool, ingestPipeline);
+        return streamRecorder != null ? streamRecorder.wrap(parser) : parser;
+    }
 }
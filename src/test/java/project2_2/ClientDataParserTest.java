@@ -0,0 +1,232 @@
+package project2_2;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Checks that the byte based {@link ClientDataParser} gives exactly the same measurements as parsing every line as a
+ * String and handing it to {@link StationWeatherData#insertData(String, String)}, the way the server used to.
+ */
+public class ClientDataParserTest {
+    private static final String[] FLOAT_TAGS = {"TEMP", "DEWP", "STP", "SLP", "VISIB", "WDSP", "PRCP", "SNDP", "CLDC"};
+
+    // Values which are on (or over) the edges of the simple formats the byte parser handles itself
+    private static final String[] EDGE_FLOATS = {
+            "0", "-0", "-0.0", "+0.0", "0.0", "-12.3", "+7.5", ".5", "-.5", "5.", "-5.", "12.34567891", "0.12345678",
+            "0.123456789", "123456789012345", "1234567890123456", "9999999.99999999", "-3.4028235E38", "1e3", "NaN",
+            "1.2.3", "-", "+", ".", "12a", " 5 ", "0000001.500"
+    };
+    private static final String[] EDGE_INTS = {
+            "0", "-0", "+12", "-359", "123456789", "1234567890", "2147483647", "-2147483648", "99999999999", "12.0",
+            "abc", "-", " 7"
+    };
+    private static final String[] EDGE_DATES = {"2026-10-16", "1970-01-01", "0000-00-00", "2026-1-16", "2026-10-16X", "20261016", "abcd-ef-gh"};
+    private static final String[] EDGE_TIMES = {"23:59:59", "00:00:00", "7:05:00", "12:30:45.5", "12-30-45", "1a:00:00"};
+    private static final String[] EDGE_FLAGS = {"000000", "111111", "010101", "1010101", "01010", "ab0c0d"};
+
+    @Test
+    public void randomMeasurementsInRandomPieces() throws IOException {
+        Random random = new Random(22);
+        StringBuilder xml = new StringBuilder("<?xml version=\"1.0\"?>\n<WEATHERDATA>\n");
+        for(int i = 0; i < 2000; i++) {
+            appendMeasurement(xml, random, false);
+        }
+        xml.append("</WEATHERDATA>\n");
+        byte[] bytes = xml.toString().getBytes(StandardCharsets.UTF_8);
+
+        List<StationWeatherData> expected = parseAsStrings(bytes);
+        assertEquals(2000, expected.size());
+
+        // Whole, and in pieces of random sizes
+        assertSameMeasurements(expected, parseAsBytes(bytes, bytes.length, null));
+        for(int maxPiece : new int[] {1, 7, 100, 4096}) {
+            assertSameMeasurements(expected, parseAsBytes(bytes, maxPiece, random));
+        }
+    }
+
+    @Test
+    public void edgeCasesSplitAtEveryByte() throws IOException {
+        Random random = new Random(5);
+        StringBuilder xml = new StringBuilder("<WEATHERDATA>\r\n");
+        for(int i = 0; i < 30; i++) {
+            appendMeasurement(xml, random, true);
+        }
+        xml.append("</WEATHERDATA>");
+        byte[] bytes = xml.toString().getBytes(StandardCharsets.UTF_8);
+
+        List<StationWeatherData> expected = parseAsStrings(bytes);
+        assertEquals(30, expected.size());
+
+        // In two pieces, split at every possible position. The parser reports every invalid line, which is muted here.
+        PrintStream out = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        try{
+            for(int split = 0; split <= bytes.length; split++) {
+                List<StationWeatherData> actual = new ArrayList<>();
+                ClientDataParser parser = new ClientDataParser(actual::add, new RealtimeStatistics());
+                parser.feed(bytes, 0, split);
+                parser.feed(bytes, split, bytes.length - split);
+                parser.finish();
+
+                assertSameMeasurements(expected, actual);
+            }
+        }finally{
+            System.setOut(out);
+        }
+    }
+
+    @Test
+    public void missingValuesStayMissing() {
+        String xml = "<MEASUREMENT>\n<STN>123</STN>\n<TEMP></TEMP>\n<DEWP>-1.5</DEWP>\n<WNDDIR></WNDDIR>\n<FRSHTT></FRSHTT>\n</MEASUREMENT>\n";
+        byte[] bytes = xml.getBytes(StandardCharsets.UTF_8);
+
+        List<StationWeatherData> actual = parseAsBytes(bytes, bytes.length, null);
+        assertEquals(1, actual.size());
+        assertEquals(123, actual.get(0).stationId);
+        assertEquals(null, actual.get(0).temperature);
+        assertEquals(-1.5f, actual.get(0).dewPoint);
+        assertEquals(null, actual.get(0).windDirection);
+        assertEquals(null, actual.get(0).hasFrozen);
+    }
+
+    /**
+     * Appends a measurement, of which every field is missing, empty, a random value in the format the stations send,
+     * or (if edgeCases is set) one of the edge cases.
+     */
+    private static void appendMeasurement(StringBuilder xml, Random random, boolean edgeCases) {
+        xml.append(random.nextBoolean() ? "\t<MEASUREMENT>\n" : "<MEASUREMENT>\r\n");
+
+        appendField(xml, random, "STN", edgeCases, EDGE_INTS, String.valueOf(random.nextInt(1_000_000)));
+        appendField(xml, random, "DATE", edgeCases, EDGE_DATES,
+                String.format(Locale.ROOT, "%04d-%02d-%02d", 1970 + random.nextInt(100), 1 + random.nextInt(12), 1 + random.nextInt(28)));
+        appendField(xml, random, "TIME", edgeCases, EDGE_TIMES,
+                String.format(Locale.ROOT, "%02d:%02d:%02d", random.nextInt(24), random.nextInt(60), random.nextInt(60)));
+        for(String tag : FLOAT_TAGS) {
+            appendField(xml, random, tag, edgeCases, EDGE_FLOATS, randomFloat(random));
+        }
+        appendField(xml, random, "WNDDIR", edgeCases, EDGE_INTS, String.valueOf(random.nextInt(360)));
+
+        StringBuilder flags = new StringBuilder();
+        for(int i = 0; i < 6; i++) {
+            flags.append(random.nextInt(2));
+        }
+        appendField(xml, random, "FRSHTT", edgeCases, EDGE_FLAGS, flags.toString());
+
+        xml.append("</MEASUREMENT>\n");
+    }
+
+    private static void appendField(StringBuilder xml, Random random, String tag, boolean edgeCases, String[] edges, String value) {
+        int kind = random.nextInt(10);
+        if(kind == 0) {
+            return; // Missing
+        }else if(kind == 1) {
+            value = ""; // Empty
+        }else if(edgeCases && kind < 6) {
+            value = edges[random.nextInt(edges.length)];
+        }
+
+        xml.append(random.nextInt(4) == 0 ? "  " : "").append('<').append(tag).append('>').append(value)
+                .append("</").append(tag).append('>').append(random.nextInt(4) == 0 ? " \r\n" : "\n");
+    }
+
+    /**
+     * A float in the format the stations send, with a random sign, magnitude and precision (also more decimals than
+     * the byte parser handles itself).
+     */
+    private static String randomFloat(Random random) {
+        int decimals = random.nextInt(11);
+        double value = (random.nextDouble() - 0.5) * Math.pow(10, random.nextInt(8));
+        return String.format(Locale.ROOT, "%." + decimals + "f", value);
+    }
+
+    /**
+     * Parses the data line by line as Strings, like the server did before the byte based parser.
+     */
+    private static List<StationWeatherData> parseAsStrings(byte[] bytes) throws IOException {
+        List<StationWeatherData> measurements = new ArrayList<>();
+        BufferedReader br = new BufferedReader(new InputStreamReader(new ByteArrayInputStream(bytes), StandardCharsets.UTF_8));
+
+        StationWeatherData currentMeasurement = new StationWeatherData();
+        boolean inMeasurement = false;
+
+        String line;
+        while((line = br.readLine()) != null) {
+            try{
+                line = line.trim();
+                if(line.equals("<MEASUREMENT>")) {
+                    inMeasurement = true;
+                }else if(line.equals("</MEASUREMENT>")) {
+                    inMeasurement = false;
+                    measurements.add(currentMeasurement);
+                    currentMeasurement = new StationWeatherData();
+                }else if(inMeasurement) {
+                    String key = line.substring(1, line.indexOf('>'));
+                    String value = line.substring(key.length() + 2, line.length() - key.length() - 3);
+
+                    if(!value.isEmpty()) {
+                        currentMeasurement.insertData(key, value);
+                    }
+                }
+            }catch(Exception ignored) {
+                // The line is skipped, just like the byte based parser does
+            }
+        }
+
+        return measurements;
+    }
+
+    /**
+     * Parses the data with the {@link ClientDataParser}, fed in pieces of at most maxPiece bytes (random sizes if a
+     * random is given).
+     */
+    private static List<StationWeatherData> parseAsBytes(byte[] bytes, int maxPiece, Random random) {
+        List<StationWeatherData> measurements = new ArrayList<>();
+        ClientDataParser parser = new ClientDataParser(measurements::add, new RealtimeStatistics());
+
+        int off = 0;
+        while(off < bytes.length) {
+            int len = Math.min(bytes.length - off, random != null ? 1 + random.nextInt(maxPiece) : maxPiece);
+            parser.feed(bytes, off, len);
+            off += len;
+        }
+        parser.finish();
+
+        return measurements;
+    }
+
+    /**
+     * Compares all public fields of the measurements, except the time at which they were received.
+     */
+    private static void assertSameMeasurements(List<StationWeatherData> expected, List<StationWeatherData> actual) {
+        assertEquals(expected.size(), actual.size(), "measurement count");
+
+        for(int i = 0; i < expected.size(); i++) {
+            for(Field field : StationWeatherData.class.getFields()) {
+                if(Modifier.isStatic(field.getModifiers()) || field.getName().equals("receivedAt")) {
+                    continue;
+                }
+
+                try{
+                    assertEquals(field.get(expected.get(i)), field.get(actual.get(i)), "measurement " + i + ", " + field.getName());
+                }catch(IllegalAccessException e) {
+                    throw new AssertionError(e);
+                }
+            }
+        }
+    }
+}
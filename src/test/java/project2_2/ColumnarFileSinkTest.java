@@ -0,0 +1,293 @@
+package project2_2;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Encodes and decodes the columns of the {@link ColumnarFileSink}: the codecs on their own, whole files, and files of
+ * which the last block was only partly written.
+ */
+public class ColumnarFileSinkTest {
+    private static final float[] EDGE_FLOATS = {
+            0f, -0f, 1f, -1f, 0.1f, -12.3f, 1013.25f, Float.MIN_VALUE, -Float.MIN_VALUE, Float.MIN_NORMAL, Float.MAX_VALUE,
+            -Float.MAX_VALUE, Float.POSITIVE_INFINITY, Float.NEGATIVE_INFINITY, Float.NaN, Float.intBitsToFloat(0x7FC00001)
+    };
+    private static final long[] EDGE_LONGS = {
+            0, 1, -1, 63, -64, 64, -65, 127, 128, Integer.MAX_VALUE, Integer.MIN_VALUE, Long.MAX_VALUE, Long.MIN_VALUE
+    };
+
+    // 2026-10-16 12:00:00 UTC
+    private static final long NOON = 1792152000L;
+
+    @TempDir
+    Path directory;
+
+    @Test
+    public void xorRoundTrip() {
+        Random random = new Random(16);
+        List<Integer> bits = new ArrayList<>();
+        for(float value : EDGE_FLOATS) {
+            bits.add(Float.floatToRawIntBits(value));
+        }
+        for(int shift = 0; shift < 32; shift++) {
+            bits.add(1 << shift);
+            bits.add(-1 << shift);
+            bits.add(-1 >>> shift);
+        }
+        for(int i = 0; i < 10_000; i++) {
+            bits.add(random.nextInt());
+            bits.add(Float.floatToRawIntBits(Math.round(random.nextGaussian() * 1000) / 10f));
+        }
+
+        // Every value on its own, and as a series of XORs with the previous value, like the columns are written
+        ByteBuffer buf = ByteBuffer.allocate(bits.size() * 2 * 5);
+        int previous = 0;
+        for(int value : bits) {
+            ColumnarFileSink.putXor(buf, value);
+            ColumnarFileSink.putXor(buf, value ^ previous);
+            previous = value;
+        }
+        buf.flip();
+
+        previous = 0;
+        for(int value : bits) {
+            assertEquals(value, ColumnarFileSink.getXor(buf));
+            previous ^= ColumnarFileSink.getXor(buf);
+            assertEquals(value, previous);
+        }
+        assertFalse(buf.hasRemaining());
+    }
+
+    @Test
+    public void varintRoundTrip() {
+        Random random = new Random(17);
+        List<Long> values = new ArrayList<>();
+        for(long value : EDGE_LONGS) {
+            values.add(value);
+        }
+        for(int shift = 0; shift < 64; shift++) {
+            values.add(1L << shift);
+            values.add(-1L << shift);
+        }
+        for(int i = 0; i < 10_000; i++) {
+            values.add(random.nextLong() >> random.nextInt(64));
+        }
+
+        ByteBuffer buf = ByteBuffer.allocate(values.size() * 10);
+        for(long value : values) {
+            ColumnarFileSink.putVarint(buf, ColumnarFileSink.zigzag(value));
+        }
+        buf.flip();
+
+        for(long value : values) {
+            assertEquals(value, ColumnarFileSink.unzigzag(ColumnarFileSink.getVarint(buf)));
+        }
+        assertFalse(buf.hasRemaining());
+    }
+
+    @Test
+    public void filesRoundTrip() throws IOException {
+        Random random = new Random(18);
+        List<StationWeatherData> written = new ArrayList<>();
+        ColumnarFileSink sink = new ColumnarFileSink(directory.toFile());
+        sink.open();
+
+        // Times which go back and forth (delta-of-delta), station IDs which jump around, edge values and a chunk
+        // which is split at midnight
+        long time = NOON;
+        for(int chunk = 0; chunk < 20; chunk++) {
+            List<StationWeatherData> rows = new ArrayList<>();
+            for(int i = 0; i < 1 + random.nextInt(200); i++) {
+                time += random.nextInt(4) == 0 ? -random.nextInt(100) : random.nextInt(400);
+                rows.add(randomData(random, time));
+            }
+            assertTrue(sink.write(rows));
+            written.addAll(rows);
+        }
+        sink.close();
+
+        assertSameData(written, readAll());
+    }
+
+    @Test
+    public void tornBlockIsCutOff() throws IOException {
+        Random random = new Random(19);
+        ColumnarFileSink sink = new ColumnarFileSink(directory.toFile());
+        sink.open();
+
+        List<StationWeatherData> first = new ArrayList<>();
+        for(int i = 0; i < 50; i++) {
+            first.add(randomData(random, NOON + i));
+        }
+        assertTrue(sink.write(first));
+        sink.close();
+
+        // Only half of the next block makes it to the file
+        File file = singleFile();
+        long complete = file.length();
+        sink.open();
+        List<StationWeatherData> torn = new ArrayList<>();
+        for(int i = 0; i < 50; i++) {
+            torn.add(randomData(random, NOON + 100 + i));
+        }
+        assertTrue(sink.write(torn));
+        sink.close();
+        try(RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(complete + (raf.length() - complete) / 2);
+        }
+
+        // The blocks written after opening the file again can be read
+        List<StationWeatherData> last = new ArrayList<>();
+        for(int i = 0; i < 50; i++) {
+            last.add(randomData(random, NOON + 200 + i));
+        }
+        sink.open();
+        assertTrue(sink.write(last));
+        sink.close();
+
+        List<StationWeatherData> expected = new ArrayList<>(first);
+        expected.addAll(last);
+        assertSameData(expected, readAll());
+    }
+
+    @Test
+    public void tooLongBlockIsNotRead() throws IOException {
+        Random random = new Random(20);
+        ColumnarFileSink sink = new ColumnarFileSink(directory.toFile());
+        sink.open();
+
+        List<StationWeatherData> rows = new ArrayList<>();
+        for(int i = 0; i < 10; i++) {
+            rows.add(randomData(random, NOON + i));
+        }
+        assertTrue(sink.write(rows));
+        assertTrue(sink.write(rows));
+        sink.close();
+
+        // A damaged length in the header of the second block
+        File file = singleFile();
+        try(RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.seek(5);
+            int firstLength = raf.readInt();
+            raf.seek(5 + 12 + firstLength);
+            raf.writeInt(Integer.MAX_VALUE);
+        }
+
+        assertSameData(rows, readAll());
+    }
+
+    private static StationWeatherData randomData(Random random, long time) {
+        StationWeatherData data = new StationWeatherData();
+        data.stationId = random.nextInt(4) == 0 ? random.nextInt(Integer.MAX_VALUE) : random.nextInt(1000);
+
+        LocalDateTime dateTime = LocalDateTime.ofEpochSecond(time, 0, ZoneOffset.UTC);
+        data.date_year = dateTime.getYear();
+        data.date_month = dateTime.getMonthValue();
+        data.date_day = dateTime.getDayOfMonth();
+        data.time_hour = dateTime.getHour();
+        data.time_minute = dateTime.getMinute();
+        data.time_second = dateTime.getSecond();
+
+        data.temperature = randomFloat(random);
+        data.dewPoint = randomFloat(random);
+        data.stationAirPressure = randomFloat(random);
+        data.seaAirPressure = randomFloat(random);
+        data.visibility = randomFloat(random);
+        data.windSpeed = randomFloat(random);
+        data.precipitation = randomFloat(random);
+        data.snowHeight = randomFloat(random);
+        data.overcast = randomFloat(random);
+        data.windDirection = random.nextInt(10) == 0 ? random.nextInt() : random.nextInt(360);
+
+        data.hasFrozen = random.nextBoolean();
+        data.hasRained = random.nextBoolean();
+        data.hasSnowed = random.nextBoolean();
+        data.hasHailed = random.nextBoolean();
+        data.hasThundered = random.nextBoolean();
+        data.hasWhirlwinded = random.nextBoolean();
+        return data;
+    }
+
+    private static float randomFloat(Random random) {
+        int kind = random.nextInt(10);
+        if(kind == 0) {
+            return EDGE_FLOATS[random.nextInt(EDGE_FLOATS.length)];
+        }else if(kind < 4) {
+            return Float.intBitsToFloat(random.nextInt());
+        }
+        return Math.round(random.nextGaussian() * 200) / 10f;
+    }
+
+    private File singleFile() {
+        File[] files = directory.toFile().listFiles();
+        assertEquals(1, files.length);
+        return files[0];
+    }
+
+    private List<StationWeatherData> readAll() throws IOException {
+        File[] files = directory.toFile().listFiles();
+        Arrays.sort(files);
+
+        List<StationWeatherData> read = new ArrayList<>();
+        for(File file : files) {
+            ColumnarFileSink.read(file, read::add);
+        }
+        return read;
+    }
+
+    /**
+     * Compares the data, ordered by time (the rows of a chunk which is split at midnight go to two files).
+     */
+    private static void assertSameData(List<StationWeatherData> expected, List<StationWeatherData> actual) {
+        assertEquals(expected.size(), actual.size(), "data point count");
+
+        List<StationWeatherData> sortedExpected = new ArrayList<>(expected);
+        List<StationWeatherData> sortedActual = new ArrayList<>(actual);
+        sortedExpected.sort(Comparator.comparingLong(d -> Math.floorDiv(d.calculateEpochSeconds(), 86400)));
+        sortedActual.sort(Comparator.comparingLong(d -> Math.floorDiv(d.calculateEpochSeconds(), 86400)));
+
+        for(int i = 0; i < sortedExpected.size(); i++) {
+            StationWeatherData e = sortedExpected.get(i), a = sortedActual.get(i);
+            String row = "data point " + i;
+            assertEquals(e.stationId, a.stationId, row);
+            assertEquals(e.calculateEpochSeconds(), a.calculateEpochSeconds(), row);
+            assertSameBits(e.temperature, a.temperature, row);
+            assertSameBits(e.dewPoint, a.dewPoint, row);
+            assertSameBits(e.stationAirPressure, a.stationAirPressure, row);
+            assertSameBits(e.seaAirPressure, a.seaAirPressure, row);
+            assertSameBits(e.visibility, a.visibility, row);
+            assertSameBits(e.windSpeed, a.windSpeed, row);
+            assertSameBits(e.precipitation, a.precipitation, row);
+            assertSameBits(e.snowHeight, a.snowHeight, row);
+            assertSameBits(e.overcast, a.overcast, row);
+            assertEquals(e.windDirection, a.windDirection, row);
+            assertEquals(e.hasFrozen, a.hasFrozen, row);
+            assertEquals(e.hasRained, a.hasRained, row);
+            assertEquals(e.hasSnowed, a.hasSnowed, row);
+            assertEquals(e.hasHailed, a.hasHailed, row);
+            assertEquals(e.hasThundered, a.hasThundered, row);
+            assertEquals(e.hasWhirlwinded, a.hasWhirlwinded, row);
+        }
+    }
+
+    private static void assertSameBits(Float expected, Float actual, String row) {
+        assertEquals(Float.floatToRawIntBits(expected), Float.floatToRawIntBits(actual), row);
+    }
+}
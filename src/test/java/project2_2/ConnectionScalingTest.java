@@ -0,0 +1,171 @@
+package project2_2;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * A scaled-down scaling check: a few hundred clients connect and send a measurement each, and the platform threads
+ * which were started for them are counted, with a thread per client (like the blocking mode), a
+ * {@link VirtualThreads} thread per client (like the virtual mode) and the {@link NioIngestionEngine}.
+ *
+ * The NIO engine must handle all clients with its event loops and its accept thread. Virtual threads only save
+ * platform threads on Java 21 or newer, on older versions they fall back to a platform thread per client.
+ */
+public class ConnectionScalingTest {
+    private static final int CONNECTIONS = 300;
+    private static final int EVENT_LOOP_THREADS = 2;
+    private static final byte[] DATA = "<WEATHERDATA>\n<MEASUREMENT>\n<STN>1</STN>\n</MEASUREMENT>\n</WEATHERDATA>\n"
+            .getBytes(StandardCharsets.UTF_8);
+    private static final long TIMEOUT_MS = 60000;
+
+    private final ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+    private final RealtimeStatistics statistics = new RealtimeStatistics();
+
+    @Test
+    public void nioUsesAFixedAmountOfThreads() throws IOException, InterruptedException {
+        AtomicLong received = new AtomicLong();
+        int port = freePort();
+        int threadsBefore = threadMXBean.getThreadCount();
+
+        NioIngestionEngine engine = new NioIngestionEngine(port, EVENT_LOOP_THREADS, () -> countingParser(received), statistics);
+        engine.start();
+
+        int threads = connectAndSend(port, received) - threadsBefore;
+        System.out.println("nio: " + threads + " threads for " + CONNECTIONS + " connections");
+
+        // The event loops and the accept thread
+        assertTrue(threads <= EVENT_LOOP_THREADS + 1, threads + " threads were started for " + CONNECTIONS + " connections");
+    }
+
+    @Test
+    public void virtualThreadsOnlyScaleWhenSupported() throws IOException, InterruptedException {
+        int threads = threadPerClient(true);
+        System.out.println("virtual: " + threads + " threads for " + CONNECTIONS + " connections (virtual threads " +
+                (VirtualThreads.isSupported() ? "supported" : "not supported, one platform thread per client") + ")");
+
+        if(VirtualThreads.isSupported()) {
+            assertTrue(threads < CONNECTIONS / 10, threads + " threads were started for " + CONNECTIONS + " connections");
+        }else{
+            assertTrue(threads >= CONNECTIONS, "only " + threads + " threads were started for " + CONNECTIONS + " connections");
+        }
+    }
+
+    @Test
+    public void blockingUsesAThreadPerClient() throws IOException, InterruptedException {
+        int threads = threadPerClient(false);
+        System.out.println("blocking: " + threads + " threads for " + CONNECTIONS + " connections");
+
+        assertTrue(threads >= CONNECTIONS, "only " + threads + " threads were started for " + CONNECTIONS + " connections");
+    }
+
+    /**
+     * Accepts the clients like the blocking and virtual modes of the {@link WeatherServer} do, with a (virtual) thread
+     * per client.
+     *
+     * @return The amount of threads which were started while all clients were connected
+     */
+    private int threadPerClient(boolean virtual) throws IOException, InterruptedException {
+        AtomicLong received = new AtomicLong();
+        int threadsBefore = threadMXBean.getThreadCount();
+
+        try(ServerSocket server = new ServerSocket(0)) {
+            Thread acceptThread = new Thread(() -> {
+                try{
+                    while(true) {
+                        Socket client = server.accept();
+                        ClientDataParser parser = countingParser(received);
+                        Runnable handler = () -> {
+                            try(InputStream in = client.getInputStream()) {
+                                byte[] buf = new byte[4096];
+                                int read;
+                                while((read = in.read(buf)) != -1) {
+                                    parser.feed(buf, 0, read);
+                                }
+                                parser.finish();
+                            }catch(IOException ignored) {}
+                        };
+
+                        if(virtual) {
+                            VirtualThreads.start(handler);
+                        }else{
+                            new Thread(handler).start();
+                        }
+                    }
+                }catch(IOException e) {
+                    // The server socket was closed
+                }
+            });
+            acceptThread.start();
+
+            int threads = connectAndSend(server.getLocalPort(), received) - threadsBefore;
+
+            server.close();
+            acceptThread.join();
+
+            // Let the handler threads stop, so they aren't counted (or stop) while the next mode is checked
+            long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+            while(threadMXBean.getThreadCount() > threadsBefore && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            return threads;
+        }
+    }
+
+    /**
+     * Connects all clients, which send a measurement each, and waits until they were all received.
+     *
+     * @return The amount of threads while all clients were connected
+     */
+    private int connectAndSend(int port, AtomicLong received) throws IOException, InterruptedException {
+        List<Socket> clients = new ArrayList<>();
+        try{
+            for(int i = 0; i < CONNECTIONS; i++) {
+                Socket client = new Socket("127.0.0.1", port);
+                clients.add(client);
+
+                OutputStream out = client.getOutputStream();
+                out.write(DATA);
+                out.flush();
+            }
+
+            long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+            while(received.get() < CONNECTIONS && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            assertEquals(CONNECTIONS, received.get(), "received measurements");
+
+            return threadMXBean.getThreadCount();
+        }finally{
+            for(Socket client : clients) {
+                client.close();
+            }
+        }
+    }
+
+    /**
+     * A {@link ClientDataParser} which only counts the measurements it parses.
+     */
+    private ClientDataParser countingParser(AtomicLong received) {
+        return new ClientDataParser(data -> received.incrementAndGet(), statistics);
+    }
+
+    private static int freePort() throws IOException {
+        try(ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+}
@@ -0,0 +1,146 @@
+package project2_2;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Checks the open addressing hash table of the {@link StationStateStore}, mostly the backward shift when a station is
+ * removed: every station which is still in the store must be found afterwards, also when its entry was moved.
+ */
+public class StationStateStoreTest {
+    // A store with an initial capacity of 16 stations has a hash table of 32 entries, which it keeps until it has
+    // more than 16 stations
+    private static final int CAPACITY = 16;
+    private static final int HASH_TABLE_SIZE = 32;
+
+    @Test
+    public void collidingStationsAreFoundAfterRemoval() {
+        // Runs of entries which collide at the end of the hash table, and wrap around to its start
+        List<Integer> stations = new ArrayList<>();
+        stations.addAll(idsInBucket(HASH_TABLE_SIZE - 1, 5));
+        stations.addAll(idsInBucket(0, 3));
+        stations.addAll(idsInBucket(1, 2));
+        stations.addAll(idsInBucket(HASH_TABLE_SIZE - 2, 2));
+
+        // Remove the stations in every rotation of the order in which they were added, from a fresh store each time
+        for(int first = 0; first < stations.size(); first++) {
+            StationStateStore store = new StationStateStore(CAPACITY);
+            for(int id : stations) {
+                store.merge(reading(id, id));
+            }
+
+            List<Integer> remaining = new ArrayList<>(stations);
+            for(int i = 0; i < stations.size(); i++) {
+                int id = stations.get((first + i * 7) % stations.size());
+                if(!remaining.remove((Integer) id)) {
+                    continue;
+                }
+
+                assertTrue(store.removeIfIdle(id, Long.MAX_VALUE), "station " + id);
+                assertEquals(-1, store.slotOf(id), "station " + id + " was removed");
+                assertFalse(store.removeIfIdle(id, Long.MAX_VALUE), "station " + id + " was removed");
+                assertFound(store, remaining);
+            }
+            assertEquals(0, store.size());
+
+            // The emptied table still works
+            for(int id : stations) {
+                store.merge(reading(id, id));
+            }
+            assertFound(store, stations);
+        }
+    }
+
+    @Test
+    public void randomOperationsMatchHashMap() {
+        Random random = new Random(4);
+        StationStateStore store = new StationStateStore(CAPACITY);
+        Map<Integer, Float> expected = new HashMap<>();
+
+        // Few IDs, so there are many collisions, and the store grows and shrinks through its initial capacity
+        for(int i = 0; i < 200_000; i++) {
+            int id = random.nextInt(i < 100_000 ? 24 : 300) * (random.nextBoolean() ? 1 : -1);
+            if(random.nextInt(3) == 0) {
+                assertEquals(expected.remove(id) != null, store.removeIfIdle(id, Long.MAX_VALUE), "removing station " + id);
+            }else{
+                float temperature = random.nextInt(1000) / 10f;
+                store.merge(reading(id, temperature));
+                expected.put(id, temperature);
+            }
+
+            if(i % 1000 == 0) {
+                assertEquals(expected.size(), store.size());
+                for(Map.Entry<Integer, Float> entry : expected.entrySet()) {
+                    StationWeatherData data = store.toStationWeatherData(store.slotOf(entry.getKey()));
+                    assertEquals((int) entry.getKey(), data.stationId);
+                    assertEquals(entry.getValue(), data.temperature);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void idleStationsAreRemoved() {
+        StationStateStore store = new StationStateStore(CAPACITY);
+        long before = System.currentTimeMillis();
+        store.merge(reading(1, 1));
+        long after = System.currentTimeMillis();
+
+        assertFalse(store.removeIfIdle(1, before), "received after the cutoff");
+        assertTrue(store.removeIfIdle(1, after + 1));
+        assertEquals(-1, store.slotOf(1));
+    }
+
+    @Test
+    public void memoryUsageGrowsWithTheStations() {
+        StationStateStore store = new StationStateStore(CAPACITY);
+        long empty = store.memoryUsageBytes();
+        for(int id = 0; id < 100_000; id++) {
+            store.merge(reading(id, 0));
+        }
+
+        // The arrays grow by doubling, so at most half of every array is unused
+        long perStation = (store.memoryUsageBytes() - empty) / store.size();
+        assertTrue(perStation > 80 && perStation < 250, perStation + " bytes per station");
+    }
+
+    /**
+     * Finds station IDs which have the given index in the hash table.
+     */
+    private static List<Integer> idsInBucket(int bucket, int count) {
+        List<Integer> ids = new ArrayList<>();
+        for(int id = 1; ids.size() < count; id++) {
+            if((StationStateStore.hash(id) & (HASH_TABLE_SIZE - 1)) == bucket) {
+                ids.add(id);
+            }
+        }
+        return ids;
+    }
+
+    private static void assertFound(StationStateStore store, List<Integer> stations) {
+        assertEquals(stations.size(), store.size());
+        for(int id : stations) {
+            int slot = store.slotOf(id);
+            assertTrue(slot >= 0 && slot < store.size(), "station " + id + " is in slot " + slot);
+            StationWeatherData data = store.toStationWeatherData(slot);
+            assertEquals(id, data.stationId);
+            assertEquals((float) id, data.temperature, "station " + id);
+        }
+    }
+
+    private static StationWeatherData reading(int stationId, float temperature) {
+        StationWeatherData data = new StationWeatherData();
+        data.stationId = stationId;
+        data.temperature = temperature;
+        return data;
+    }
+}
@@ -0,0 +1,258 @@
+package project2_2;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Merges partial readings of the same stations from many threads at once through
+ * {@link DataInsertionQueue#onDataReceive(StationWeatherData)}, and checks that no merge was torn or lost. Also
+ * compares the merge throughput of a single stripe (one lock for all stations, like the synchronized map it
+ * replaced) with many stripes.
+ *
+ * Every reading has a random subset of three field groups. All fields of a group get the same value, which identifies
+ * the writer and the reading. A torn merge (or read) shows as a group with different values, which readers check while
+ * the writers are running, and a lost (or reordered) merge shows as a field which doesn't have the value of the last
+ * reading of any writer which had that field.
+ */
+public class StripedStationStoreTest {
+    private static final int WRITERS = 8;
+    private static final int READERS = 2;
+    private static final int STATIONS = 300; // More than the initial capacity of the stripes, so they grow meanwhile
+    private static final int READINGS_PER_WRITER = 200_000;
+
+    // The throughput comparison
+    private static final int THROUGHPUT_STATIONS = 10_000;
+    private static final int THROUGHPUT_READINGS_PER_WRITER = 500_000;
+    private static final int THROUGHPUT_RUNS = 3;
+    private static final int MIN_PROCESSORS_FOR_SPEEDUP = 4; // With fewer, the threads hardly run at the same time
+    private static final double MIN_SPEEDUP = 1.5;
+
+    @Test
+    public void concurrentPartialMergesAreConsistent() throws InterruptedException {
+        Properties properties = new Properties();
+        properties.setProperty("station_update_interval_ms", "10000");
+        properties.setProperty("bulk_update_interval_ms", "100");
+        properties.setProperty("inserts_per_query", "50");
+        properties.setProperty("insert_query_threads", "1");
+        properties.setProperty("station_store_stripes", "4"); // Few stripes, so the writers contend on the locks
+        DataInsertionQueue queue = new DataInsertionQueue(properties, new RealtimeStatistics(), null);
+
+        // The last value every writer wrote to every group of every station, 0 if it never wrote the group
+        float[][][] lastWritten = new float[WRITERS][STATIONS][3];
+
+        CountDownLatch start = new CountDownLatch(1);
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        List<Thread> threads = new ArrayList<>();
+        for(int w = 0; w < WRITERS; w++) {
+            int writer = w;
+            Thread thread = new Thread(() -> {
+                Random random = new Random(writer);
+                try{
+                    start.await();
+                    for(int seq = 1; seq <= READINGS_PER_WRITER; seq++) {
+                        int station = random.nextInt(STATIONS);
+                        int groups = 1 + random.nextInt(7); // A non-empty subset of the three groups
+                        float value = writer * 1_000_000 + seq; // Exact as a float
+
+                        StationWeatherData data = new StationWeatherData();
+                        data.stationId = station;
+                        if((groups & 1) != 0) {
+                            data.temperature = value;
+                            data.dewPoint = value;
+                            data.stationAirPressure = value;
+                        }
+                        if((groups & 2) != 0) {
+                            data.seaAirPressure = value;
+                            data.visibility = value;
+                            data.windSpeed = value;
+                        }
+                        if((groups & 4) != 0) {
+                            data.precipitation = value;
+                            data.snowHeight = value;
+                            data.overcast = value;
+                            data.windDirection = (int) value;
+                        }
+
+                        queue.onDataReceive(data);
+
+                        for(int g = 0; g < 3; g++) {
+                            if((groups & (1 << g)) != 0) {
+                                lastWritten[writer][station][g] = value;
+                            }
+                        }
+                    }
+                }catch(Throwable t) {
+                    failure.compareAndSet(null, t);
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+
+        // The readers check that they never see a torn group, until the writers are done
+        CountDownLatch writersDone = new CountDownLatch(1);
+        List<Thread> readers = new ArrayList<>();
+        for(int r = 0; r < READERS; r++) {
+            Thread reader = new Thread(() -> {
+                try{
+                    start.await();
+                    while(writersDone.getCount() > 0) {
+                        for(int station = 0; station < STATIONS; station++) {
+                            StationWeatherData data = queue.copyOfLatestData(station);
+                            if(data != null) {
+                                assertConsistent(station, data);
+                            }
+                        }
+                    }
+                }catch(Throwable t) {
+                    failure.compareAndSet(null, t);
+                }
+            });
+            reader.start();
+            readers.add(reader);
+        }
+
+        start.countDown();
+        for(Thread thread : threads) {
+            thread.join();
+        }
+        writersDone.countDown();
+        for(Thread reader : readers) {
+            reader.join();
+        }
+        if(failure.get() != null) {
+            throw new AssertionError("A writer or reader failed", failure.get());
+        }
+
+        for(int station = 0; station < STATIONS; station++) {
+            StationWeatherData data = queue.copyOfLatestData(station);
+            assertNotNull(data, "station " + station);
+
+            float[] groups = assertConsistent(station, data);
+
+            for(int g = 0; g < 3; g++) {
+                boolean lastOfSomeWriter = false;
+                boolean written = false;
+                for(int w = 0; w < WRITERS; w++) {
+                    written |= lastWritten[w][station][g] != 0;
+                    lastOfSomeWriter |= lastWritten[w][station][g] != 0 && lastWritten[w][station][g] == groups[g];
+                }
+
+                if(written) {
+                    assertTrue(lastOfSomeWriter, "station " + station + ", group " + g + " has " + groups[g] +
+                            ", which isn't the last value of any writer");
+                }else{
+                    assertTrue(Float.isNaN(groups[g]), "station " + station + ", group " + g + " was never written");
+                }
+            }
+        }
+    }
+
+    @Test
+    public void stripesMergeFasterThanASingleLock() throws InterruptedException {
+        // Warm up both, then take the best of a few runs
+        mergeThroughput(1);
+        mergeThroughput(64);
+        double single = 0, striped = 0;
+        for(int run = 0; run < THROUGHPUT_RUNS; run++) {
+            single = Math.max(single, mergeThroughput(1));
+            striped = Math.max(striped, mergeThroughput(64));
+        }
+
+        int processors = Runtime.getRuntime().availableProcessors();
+        System.out.printf("Merges per second with %d writers on %d processors: %.0f with 1 stripe, %.0f with 64 stripes (%.2fx)%n",
+                WRITERS, processors, single, striped, striped / single);
+
+        if(processors >= MIN_PROCESSORS_FOR_SPEEDUP) {
+            assertTrue(striped >= single * MIN_SPEEDUP,
+                    String.format("64 stripes merged %.0f per second, 1 stripe %.0f per second", striped, single));
+        }
+    }
+
+    /**
+     * Merges readings from all writers at once into a new store.
+     *
+     * @return The amount of merges per second
+     */
+    private static double mergeThroughput(int stripes) throws InterruptedException {
+        StripedStationStore store = new StripedStationStore(stripes);
+
+        // The readings are made up front, so only the merges are timed
+        StationWeatherData[][] readings = new StationWeatherData[WRITERS][1024];
+        for(int w = 0; w < WRITERS; w++) {
+            Random random = new Random(w);
+            for(int i = 0; i < readings[w].length; i++) {
+                StationWeatherData data = new StationWeatherData();
+                data.stationId = random.nextInt(THROUGHPUT_STATIONS);
+                data.temperature = random.nextFloat();
+                data.windSpeed = random.nextFloat();
+                data.windDirection = random.nextInt(360);
+                readings[w][i] = data;
+            }
+        }
+
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> threads = new ArrayList<>();
+        for(int w = 0; w < WRITERS; w++) {
+            StationWeatherData[] own = readings[w];
+            Thread thread = new Thread(() -> {
+                try{
+                    start.await();
+                }catch(InterruptedException e) {
+                    return;
+                }
+                for(int i = 0; i < THROUGHPUT_READINGS_PER_WRITER; i++) {
+                    store.merge(own[i & (own.length - 1)]);
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+
+        long startNanos = System.nanoTime();
+        start.countDown();
+        for(Thread thread : threads) {
+            thread.join();
+        }
+        long nanos = System.nanoTime() - startNanos;
+
+        return (double) WRITERS * THROUGHPUT_READINGS_PER_WRITER / (nanos / 1e9);
+    }
+
+    /**
+     * Checks that all groups of the data of a station are consistent.
+     *
+     * @return The values of the groups, NaN if a group is missing
+     */
+    private static float[] assertConsistent(int station, StationWeatherData data) {
+        return new float[] {
+                assertSameGroup(station, data.temperature, data.dewPoint, data.stationAirPressure),
+                assertSameGroup(station, data.seaAirPressure, data.visibility, data.windSpeed),
+                assertSameGroup(station, data.precipitation, data.snowHeight, data.overcast,
+                        data.windDirection == null ? null : (float) data.windDirection)
+        };
+    }
+
+    /**
+     * Checks that all values of a group are equal.
+     *
+     * @return The value of the group, or NaN if it's missing
+     */
+    private static float assertSameGroup(int station, Float... values) {
+        for(Float value : values) {
+            assertEquals(values[0], value, "station " + station + " has a torn group");
+        }
+
+        return values[0] == null ? Float.NaN : values[0];
+    }
+}